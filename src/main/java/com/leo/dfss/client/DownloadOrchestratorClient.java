@@ -0,0 +1,164 @@
+package com.leo.dfss.client;
+
+import com.leo.dfss.protocol.FilesLocateRequest;
+import com.leo.dfss.protocol.FilesLocateResponse;
+import com.leo.dfss.protocol.Message;
+import com.leo.dfss.transport.ReceivedMessage;
+import com.leo.dfss.transport.TcpMessageReader;
+import com.leo.dfss.transport.TcpMessageWriter;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Downloads a committed file: asks the coordinator where its chunks are (FILES_LOCATE), then
+ * fetches them in parallel from their replicas (ParallelChunkDownloader). Erasure-coded files are
+ * read stripe by stripe instead, rebuilding missing shards (ErasureCodedReader).
+ *
+ * With "stream" the file is copied through openFile's sequential InputStream instead of being
+ * written chunk by chunk at positional offsets.
+ */
+public class DownloadOrchestratorClient {
+
+    private final String coordinatorHost = "localhost";
+    private final int coordinatorPort = 9000;
+
+    // Copy buffer for stream mode
+    private static final int COPY_BUFFER_BYTES = 1024 * 1024;
+
+    private final DownloadSettings settings;
+
+    public DownloadOrchestratorClient(DownloadSettings settings) {
+        this.settings = settings;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 3 || (args.length == 3 && !args[2].equals("stream"))) {
+            System.out.println("Usage: DownloadOrchestratorClient <fileId> <outputPath> [stream]");
+            return;
+        }
+
+        new DownloadOrchestratorClient(DownloadSettings.fromSystemProperties())
+                .downloadFile(args[0], Path.of(args[1]), args.length == 3);
+    }
+
+    /**
+     * @param stream true to copy the file through openFile rather than positional writes
+     */
+    public void downloadFile(String fileId, Path output, boolean stream) {
+        FilesLocateResponse file = locate(fileId);
+        boolean erasureCoded = "ERASURE_CODED".equals(file.getStorageMode());
+        if (erasureCoded && stream) {
+            throw new IllegalArgumentException("Erasure-coded files cannot be streamed");
+        }
+
+        System.out.println("Downloading file: " + file.getFileName() + ". File size: " + file.getTotalSizeBytes()
+                + "bytes, " + file.getPlacements().size() + (erasureCoded ? " shards." : " chunks."));
+
+        long start = System.nanoTime();
+        String summary;
+        try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+            if (erasureCoded) {
+                try (ErasureCodedReader reader = new ErasureCodedReader(file)) {
+                    reader.readTo(out);
+                    summary = reader.getReconstructedStripes() + " stripe(s) reconstructed";
+                }
+            } else {
+                try (ParallelChunkDownloader downloader = new ParallelChunkDownloader(settings, file)) {
+                    if (stream) {
+                        try (InputStream in = downloader.openStream()) {
+                            copy(in, out);
+                        }
+                    } else {
+                        downloader.downloadTo(out);
+                    }
+                    summary = String.format("%d failover(s), %d hedged request(s) (%d answered first, hedge delay %.1f ms)",
+                            downloader.getFailovers(), downloader.getHedgedRequests(), downloader.getHedgesWon(),
+                            downloader.getHedgeDelayMs());
+                }
+            }
+
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to download file. ", e);
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("Downloaded %d bytes in %.2fs, %.1f MB/s; %s",
+                file.getTotalSizeBytes(), seconds, file.getTotalSizeBytes() / seconds / (1024 * 1024), summary));
+    }
+
+    /**
+     * Opens a committed, replicated file for sequential reading, with the next chunks prefetched.
+     * Closing the stream closes its node connections.
+     */
+    public InputStream openFile(String fileId) {
+        ParallelChunkDownloader downloader = new ParallelChunkDownloader(settings, locate(fileId));
+        return new FilterInputStream(downloader.openStream()) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    downloader.close();
+                }
+            }
+        };
+    }
+
+    private static void copy(InputStream in, FileChannel out) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_BYTES];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            ByteBuffer source = ByteBuffer.wrap(buffer, 0, n);
+            while (source.hasRemaining()) {
+                out.write(source);
+            }
+        }
+    }
+
+    /**
+     * @return the file's layout and chunk placements
+     * @throws IllegalStateException if the file has not been committed
+     */
+    private FilesLocateResponse locate(String fileId) {
+        FilesLocateResponse file;
+        try (Socket socket = new Socket(coordinatorHost, coordinatorPort)) {
+            TcpMessageReader reader = new TcpMessageReader(socket.getInputStream());
+            TcpMessageWriter writer = new TcpMessageWriter(socket.getOutputStream());
+
+            // Read welcome message from coordinator server
+            reader.read();
+
+            FilesLocateRequest request = new FilesLocateRequest();
+            request.setFileId(fileId);
+            writer.send(Message.of("FILES_LOCATE", request), null);
+
+            ReceivedMessage resp = reader.read();
+            if (resp == null || resp.getHeader() == null) {
+                throw new RuntimeException("Failed to read response from coordinator.");
+            }
+
+            Message header = resp.getHeader();
+            if (!"FILES_LOCATE_RESPONSE".equals(header.getType())) {
+                throw new RuntimeException("Unrecognized response returned. " + header.getType() + ": " + header.getData());
+            }
+            file = header.getPayload(FilesLocateResponse.class);
+
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to locate file with Coordinator. ", e);
+        }
+
+        if (!"COMPLETE".equals(file.getStatus())) {
+            throw new IllegalStateException("File " + fileId + " is " + file.getStatus() + ", not committed yet");
+        }
+        return file;
+    }
+}
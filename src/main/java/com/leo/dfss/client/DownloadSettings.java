@@ -0,0 +1,109 @@
+package com.leo.dfss.client;
+
+/**
+ * Tuning for DownloadOrchestratorClient.
+ *
+ * Defaults can be overridden with system properties:
+ *   dfss.download.connectionsPerNode = persistent connections per node (default 2)
+ *   dfss.download.readAhead          = chunks being fetched at once, ahead of the ones being
+ *                                      written or read (default 16)
+ *   dfss.download.maxRetries         = extra rounds over a chunk's replicas after all of them
+ *                                      failed (default 1)
+ *   dfss.download.hedgePercentile    = a chunk not received within this percentile of recent
+ *                                      chunk latencies is also requested from its next replica
+ *                                      (default 95; 0 turns hedging off)
+ *   dfss.download.hedgeMinMs         = never hedge sooner than this (default 20)
+ *   dfss.download.hedgeInitialMs     = hedge delay until enough latencies are known (default 1000)
+ */
+public class DownloadSettings {
+
+    private int connectionsPerNode = 2;
+    private int readAhead = 16;
+    private int maxRetries = 1;
+    private int hedgePercentile = 95;
+    private long hedgeMinMs = 20;
+    private long hedgeInitialMs = 1_000;
+
+    public DownloadSettings() {}
+
+    public static DownloadSettings fromSystemProperties() {
+        DownloadSettings settings = new DownloadSettings();
+        settings.setConnectionsPerNode(Integer.getInteger("dfss.download.connectionsPerNode", settings.getConnectionsPerNode()));
+        settings.setReadAhead(Integer.getInteger("dfss.download.readAhead", settings.getReadAhead()));
+        settings.setMaxRetries(Integer.getInteger("dfss.download.maxRetries", settings.getMaxRetries()));
+        settings.setHedgePercentile(Integer.getInteger("dfss.download.hedgePercentile", settings.getHedgePercentile()));
+        settings.setHedgeMinMs(Long.getLong("dfss.download.hedgeMinMs", settings.getHedgeMinMs()));
+        settings.setHedgeInitialMs(Long.getLong("dfss.download.hedgeInitialMs", settings.getHedgeInitialMs()));
+        return settings;
+    }
+
+    public int getConnectionsPerNode() {
+        return connectionsPerNode;
+    }
+
+    public void setConnectionsPerNode(int connectionsPerNode) {
+        if (connectionsPerNode <= 0) {
+            throw new IllegalArgumentException("connectionsPerNode must be greater than 0");
+        }
+        this.connectionsPerNode = connectionsPerNode;
+    }
+
+    public int getReadAhead() {
+        return readAhead;
+    }
+
+    public void setReadAhead(int readAhead) {
+        if (readAhead <= 0) {
+            throw new IllegalArgumentException("readAhead must be greater than 0");
+        }
+        this.readAhead = readAhead;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries cannot be negative");
+        }
+        this.maxRetries = maxRetries;
+    }
+
+    public int getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    public void setHedgePercentile(int hedgePercentile) {
+        if (hedgePercentile < 0 || hedgePercentile > 100) {
+            throw new IllegalArgumentException("hedgePercentile must be between 0 and 100");
+        }
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    public boolean isHedged() {
+        return hedgePercentile > 0;
+    }
+
+    public long getHedgeMinMs() {
+        return hedgeMinMs;
+    }
+
+    public void setHedgeMinMs(long hedgeMinMs) {
+        if (hedgeMinMs < 0) {
+            throw new IllegalArgumentException("hedgeMinMs cannot be negative");
+        }
+        this.hedgeMinMs = hedgeMinMs;
+    }
+
+    public long getHedgeInitialMs() {
+        return hedgeInitialMs;
+    }
+
+    public void setHedgeInitialMs(long hedgeInitialMs) {
+        if (hedgeInitialMs < 0) {
+            throw new IllegalArgumentException("hedgeInitialMs cannot be negative");
+        }
+        this.hedgeInitialMs = hedgeInitialMs;
+    }
+}
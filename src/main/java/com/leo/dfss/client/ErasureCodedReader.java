@@ -0,0 +1,217 @@
+package com.leo.dfss.client;
+
+import com.leo.dfss.erasure.ReedSolomon;
+import com.leo.dfss.erasure.StripeLayout;
+import com.leo.dfss.protocol.ChunkPlacement;
+import com.leo.dfss.protocol.FilesLocateResponse;
+import com.leo.dfss.protocol.NodeAddress;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Reads an erasure-coded file stripe by stripe.
+ *
+ * The data shards of a stripe are fetched in parallel. If some of them cannot be read (node down,
+ * shard missing or failing its checksum), just enough parity shards are fetched to make up the
+ * difference and the missing data is rebuilt with ReedSolomon.reconstruct. Shard buffers are
+ * allocated once and reused for every stripe.
+ */
+public class ErasureCodedReader implements AutoCloseable {
+
+    private final String fileId;
+    private final StripeLayout layout;
+    private final ReedSolomon codec;
+    private final NodeAddress[] shardNodes;
+
+    // One pipelined connection per node ("host:port" -> client)
+    private final Map<String, NodeClient> clients = new HashMap<>();
+
+    private final byte[][] shards;
+    private final boolean[] present;
+
+    private int reconstructedStripes;
+
+    public ErasureCodedReader(FilesLocateResponse file) {
+        if (!"ERASURE_CODED".equals(file.getStorageMode())) {
+            throw new IllegalArgumentException("File " + file.getFileId() + " is not erasure coded");
+        }
+        this.fileId = file.getFileId();
+        this.layout = new StripeLayout(file.getTotalSizeBytes(), file.getChunkSizeBytes(),
+                file.getDataShards(), file.getParityShards());
+        this.codec = new ReedSolomon(file.getDataShards(), file.getParityShards());
+
+        this.shardNodes = new NodeAddress[layout.getShardCount()];
+        for (ChunkPlacement placement : file.getPlacements()) {
+            shardNodes[placement.getChunkIndex()] = placement.getNodes().get(0);
+        }
+
+        this.shards = new byte[layout.getShardsPerStripe()][layout.getChunkSizeBytes()];
+        this.present = new boolean[layout.getShardsPerStripe()];
+    }
+
+    /**
+     * Reads the whole file into out, at the same offsets.
+     */
+    public void readTo(FileChannel out) throws IOException {
+        for (int stripe = 0; stripe < layout.getStripeCount(); stripe++) {
+            byte[][] data = readStripe(stripe);
+
+            for (int shard = 0; shard < layout.getDataShards(); shard++) {
+                int length = layout.shardLength(layout.shardIndex(stripe, shard));
+                ByteBuffer source = ByteBuffer.wrap(data[shard], 0, length);
+                long position = layout.dataOffset(stripe, shard);
+                while (source.hasRemaining()) {
+                    out.write(source, position + source.position());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads one stripe, rebuilding missing data shards from parity.
+     *
+     * @param stripe stripe number
+     * @return the stripe's shard buffers; the first dataShards hold the data (zero-padded to the
+     *         chunk size). Valid until the next call.
+     * @throws IOException if fewer than dataShards shards of the stripe can be read
+     */
+    public byte[][] readStripe(int stripe) throws IOException {
+        int dataShards = layout.getDataShards();
+        int shardsPerStripe = layout.getShardsPerStripe();
+        Arrays.fill(present, false);
+
+        // 1) Fetch every data shard at once
+        List<CompletableFuture<byte[]>> fetches = new ArrayList<>(Collections.nCopies(shardsPerStripe, null));
+        for (int shard = 0; shard < dataShards; shard++) {
+            fetches.set(shard, fetch(layout.shardIndex(stripe, shard)));
+        }
+        int found = collect(stripe, fetches, 0, dataShards);
+
+        // 2) Make up for missing data shards with parity, a batch at a time
+        int nextParity = dataShards;
+        while (found < dataShards && nextParity < shardsPerStripe) {
+            int batchEnd = Math.min(shardsPerStripe, nextParity + (dataShards - found));
+            for (int shard = nextParity; shard < batchEnd; shard++) {
+                fetches.set(shard, fetch(layout.shardIndex(stripe, shard)));
+            }
+            found += collect(stripe, fetches, nextParity, batchEnd);
+            nextParity = batchEnd;
+        }
+
+        if (found < dataShards) {
+            throw new IOException("Stripe " + stripe + " of file " + fileId + " is unrecoverable: only "
+                    + found + " of " + dataShards + " required shards readable");
+        }
+
+        // 3) Rebuild what is missing
+        boolean missingData = false;
+        for (int shard = 0; shard < dataShards; shard++) {
+            missingData |= !present[shard];
+        }
+        if (missingData) {
+            codec.reconstruct(shards, present, 0, layout.getChunkSizeBytes());
+            reconstructedStripes++;
+        }
+        return shards;
+    }
+
+    /** @return how many stripes needed parity to be read */
+    public int getReconstructedStripes() {
+        return reconstructedStripes;
+    }
+
+    /**
+     * Waits for the fetches of shards [from, to) of a stripe and copies the ones that succeeded
+     * into the shard buffers.
+     *
+     * @return number of shards now present
+     */
+    private int collect(int stripe, List<CompletableFuture<byte[]>> fetches, int from, int to) throws IOException {
+        int found = 0;
+        for (int shard = from; shard < to; shard++) {
+            int shardIndex = layout.shardIndex(stripe, shard);
+            int length = layout.shardLength(shardIndex);
+            byte[] buffer = shards[shard];
+
+            if (length == 0) {
+                // Data shard past the end of the file: zeros, never stored
+                Arrays.fill(buffer, (byte) 0);
+                present[shard] = true;
+                found++;
+                continue;
+            }
+
+            try {
+                byte[] body = fetches.get(shard).get();
+                if (body.length != length) {
+                    throw new IOException("Shard " + shardIndex + " has " + body.length + " bytes, expected " + length);
+                }
+                System.arraycopy(body, 0, buffer, 0, length);
+                Arrays.fill(buffer, length, buffer.length, (byte) 0);
+                present[shard] = true;
+                found++;
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted reading stripe " + stripe);
+            } catch (ExecutionException | IOException e) {
+                Throwable cause = (e instanceof ExecutionException) ? e.getCause() : e;
+                NodeAddress node = shardNodes[shardIndex];
+                System.out.println("Shard " + shardIndex + " unavailable"
+                        + (node == null ? "" : " from " + node.getHost() + ":" + node.getPort())
+                        + ": " + cause.getMessage());
+            }
+        }
+        return found;
+    }
+
+    private CompletableFuture<byte[]> fetch(int shardIndex) {
+        if (layout.shardLength(shardIndex) == 0) {
+            return CompletableFuture.completedFuture(new byte[0]);
+        }
+
+        NodeAddress node = shardNodes[shardIndex];
+        if (node == null) {
+            return CompletableFuture.failedFuture(new IOException("No placement for shard " + shardIndex));
+        }
+
+        try {
+            return client(node).downloadChunkAsync(fileId, shardIndex);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private NodeClient client(NodeAddress node) throws IOException {
+        String key = node.getHost() + ":" + node.getPort();
+        NodeClient client = clients.get(key);
+        if (client == null || !client.isOpen()) {
+            if (client != null) {
+                client.close();
+            }
+            client = new NodeClient(new InetSocketAddress(node.getHost(), node.getPort()));
+            clients.put(key, client);
+        }
+        return client;
+    }
+
+    @Override
+    public void close() {
+        for (NodeClient client : clients.values()) {
+            client.close();
+        }
+        clients.clear();
+    }
+}
@@ -0,0 +1,555 @@
+package com.leo.dfss.client;
+
+import com.leo.dfss.compression.ChunkCodec;
+import com.leo.dfss.domain.Checksums;
+import com.leo.dfss.domain.ChunkInfo;
+import com.leo.dfss.protocol.ChunkDownloadRequest;
+import com.leo.dfss.protocol.ChunkDownloadResponse;
+import com.leo.dfss.protocol.ChunkUploadAck;
+import com.leo.dfss.protocol.ChunkUploadRequest;
+import com.leo.dfss.protocol.Message;
+import com.leo.dfss.protocol.NodeAddress;
+import com.leo.dfss.transport.BinaryMessageCodec;
+import com.leo.dfss.transport.CodecNegotiation;
+import com.leo.dfss.transport.ReceivedMessage;
+import com.leo.dfss.transport.TcpMessageReader;
+import com.leo.dfss.transport.TcpMessageWriter;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+/**
+ * A persistent client connection to one storage node, using the binary codec.
+ *
+ * Requests are pipelined: every request gets a requestId and any number of threads can have
+ * requests in flight at once. A reader thread matches responses to requests by requestId, so
+ * the node may answer them in any order.
+ */
+public class NodeClient implements AutoCloseable {
+
+    private static final long QUIT_TIMEOUT_MS = 5_000;
+
+    // File chunks without a known checksum are read into a direct buffer per thread, in slices of
+    // READ_SLICE_BYTES; the buffer grows to the largest chunk the thread has sent
+    private static final ThreadLocal<ByteBuffer> CHUNK_BUFFER = new ThreadLocal<>();
+    private static final int READ_SLICE_BYTES = 1 << 20;
+
+    // Connecting and the WELCOME/codec handshake; a node that is hung accepts the TCP connection
+    // but never answers
+    private static final int HANDSHAKE_TIMEOUT_MS = 5_000;
+
+    private final InetSocketAddress address;
+    private final SocketChannel channel;
+    private final TcpMessageReader reader;
+    private final TcpMessageWriter writer;
+
+    // Requests waiting for a response, by requestId
+    private final Map<Long, CompletableFuture<ReceivedMessage>> pending = new ConcurrentHashMap<>();
+    private final AtomicLong nextRequestId = new AtomicLong(1);
+    private final Thread readerThread;
+
+    private volatile boolean open = true;
+
+    public NodeClient(InetSocketAddress address) throws IOException {
+        this.address = address;
+
+        // Open through a channel so chunk bodies can be sent with transferTo
+        this.channel = SocketChannel.open();
+        Socket socket = channel.socket();
+
+        try {
+            socket.connect(address, HANDSHAKE_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+
+            this.reader = new TcpMessageReader(socket.getInputStream());
+            this.writer = new TcpMessageWriter(socket.getOutputStream(), channel);
+
+            // Read WELCOME message from node, then switch to the binary codec
+            ReceivedMessage welcome = reader.read();
+            if (welcome == null) {
+                throw new IOException("Node " + address + " closed the connection.");
+            }
+            CodecNegotiation.request(reader, writer, BinaryMessageCodec.NAME);
+            socket.setSoTimeout(0);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        this.readerThread = new Thread(this::readResponses, "node-client-" + address.getPort());
+        this.readerThread.setDaemon(true);
+        this.readerThread.start();
+    }
+
+    /**
+     * Uploads one chunk, sending its bytes straight from the file, and waits for the ack.
+     *
+     * @param fileId file the chunk belongs to
+     * @param chunkIndex chunk number
+     * @param file source file
+     * @param position offset of the chunk in the file
+     * @param length chunk length in bytes
+     * @return the node's acknowledgement
+     */
+    public ChunkUploadAck uploadChunk(String fileId, int chunkIndex, FileChannel file, long position, int length) throws IOException {
+        return await(uploadChunkAsync(fileId, chunkIndex, file, position, length));
+    }
+
+    /**
+     * Uploads one chunk to the first node of a replication chain, which forwards it down the rest.
+     *
+     * @param pipeline nodes after this one in the chain (empty: store on this node only)
+     * @param writeQuorum replicas that must be durable for an OK ack
+     * @param checksum CRC32C of the chunk if the caller already has its bytes in memory, else
+     *                 ChunkInfo.UNKNOWN_CHECKSUM to have it computed from the file
+     * @return the node's acknowledgement, with the number of durable replicas
+     */
+    public ChunkUploadAck uploadChunk(String fileId, int chunkIndex, FileChannel file, long position, int length,
+                                      List<NodeAddress> pipeline, int writeQuorum, long checksum) throws IOException {
+        ChunkUploadRequest request = uploadRequest(fileId, chunkIndex, length);
+        request.setPipeline(pipeline);
+        request.setWriteQuorum(writeQuorum);
+        request.setChecksum(checksum);
+        return await(uploadChunkAsync(request, file, position, length));
+    }
+
+    /**
+     * Uploads a chunk exactly as another node stores it (a repair copy): the request carries its
+     * codec, raw length and stored-bytes checksum, and the bytes go straight from the file.
+     *
+     * @param request upload request (fileId, chunkIndex, codec, rawLength, checksum)
+     * @return the node's acknowledgement
+     */
+    public ChunkUploadAck copyChunk(ChunkUploadRequest request, FileChannel file, long position, int length) throws IOException {
+        request.setBodyLength(length);
+        return await(uploadChunkAsync(request, file, position, length));
+    }
+
+    /**
+     * Uploads a chunk exactly as another node holds it in memory (a repair copy of a mapped or
+     * cached chunk), sent from the buffer itself rather than a heap copy.
+     *
+     * @param request upload request (fileId, chunkIndex, codec, rawLength, checksum)
+     * @param body the stored bytes, from its position to its limit; the position is not changed
+     * @return the node's acknowledgement
+     */
+    public ChunkUploadAck copyChunk(ChunkUploadRequest request, ByteBuffer body) throws IOException {
+        request.setBodyLength(body.remaining());
+        if (request.getChecksum() == ChunkInfo.UNKNOWN_CHECKSUM) {
+            request.setChecksum(Checksums.crc32c(body));
+        }
+
+        Message message = Message.of("CHUNK_UPLOAD", request);
+        CompletableFuture<ReceivedMessage> response = register(message);
+        try {
+            writer.sendBuffer(message, body.duplicate());
+        } catch (IOException e) {
+            fail(e);
+            throw e;
+        }
+        return await(toAck(request, response));
+    }
+
+    /**
+     * Sends one chunk without waiting for its ack. Returns once the chunk bytes are written, so
+     * callers can keep sending further chunks on the same connection.
+     *
+     * @return completes with the node's acknowledgement (an ERROR reply becomes an ERROR ack),
+     *         or exceptionally if the connection breaks first
+     */
+    public CompletableFuture<ChunkUploadAck> uploadChunkAsync(String fileId, int chunkIndex, FileChannel file,
+                                                              long position, int length) throws IOException {
+        return uploadChunkAsync(uploadRequest(fileId, chunkIndex, length), file, position, length);
+    }
+
+    private CompletableFuture<ChunkUploadAck> uploadChunkAsync(ChunkUploadRequest request, FileChannel file,
+                                                               long position, int length) throws IOException {
+        // Checksum known: the bytes go file -> socket with transferTo. Otherwise the chunk is read
+        // once, checksummed as it is read, and sent from the buffer it was read into.
+        ByteBuffer body = (request.getChecksum() == ChunkInfo.UNKNOWN_CHECKSUM)
+                ? readAndChecksum(request, file, position, length)
+                : null;
+
+        Message message = Message.of("CHUNK_UPLOAD", request);
+        CompletableFuture<ReceivedMessage> response = register(message);
+        try {
+            if (body != null) {
+                writer.sendBuffer(message, body);
+            } else {
+                writer.send(message, file, position, length);
+            }
+        } catch (IOException e) {
+            fail(e);
+            throw e;
+        }
+
+        return toAck(request, response);
+    }
+
+    /**
+     * Reads a chunk into this thread's chunk buffer, checksumming each slice right after it is
+     * read while it is still in the CPU cache, and sets the request's checksum.
+     *
+     * @return the buffer, holding the chunk from its position to its limit
+     */
+    private static ByteBuffer readAndChecksum(ChunkUploadRequest request, FileChannel file, long position,
+                                              int length) throws IOException {
+        ByteBuffer buffer = CHUNK_BUFFER.get();
+        if (buffer == null || buffer.capacity() < length) {
+            buffer = ByteBuffer.allocateDirect(length);
+            CHUNK_BUFFER.set(buffer);
+        }
+        buffer.clear().limit(length);
+
+        CRC32C crc = new CRC32C();
+        while (buffer.hasRemaining()) {
+            int start = buffer.position();
+            ByteBuffer slice = buffer.slice(start, Math.min(READ_SLICE_BYTES, buffer.remaining()));
+            while (slice.hasRemaining()) {
+                if (file.read(slice, position + start + slice.position()) < 0) {
+                    throw new EOFException("File ended after " + (start + slice.position()) + " of " + length + " bytes");
+                }
+            }
+            crc.update(slice.flip());
+            buffer.position(start + slice.limit());
+        }
+        request.setChecksum(crc.getValue());
+        return buffer.flip();
+    }
+
+    /**
+     * Uploads one chunk held in memory and waits for the ack.
+     *
+     * @param body chunk bytes, sent whole
+     * @return the node's acknowledgement
+     */
+    public ChunkUploadAck uploadChunk(String fileId, int chunkIndex, byte[] body) throws IOException {
+        return await(uploadChunkAsync(fileId, chunkIndex, body));
+    }
+
+    /**
+     * Sends one chunk held in memory (e.g. an erasure-coding parity shard) without waiting for its ack.
+     *
+     * @param body chunk bytes, sent whole
+     * @return completes with the node's acknowledgement, as for the FileChannel variant
+     */
+    public CompletableFuture<ChunkUploadAck> uploadChunkAsync(String fileId, int chunkIndex, byte[] body) throws IOException {
+        ChunkUploadRequest request = uploadRequest(fileId, chunkIndex, body.length);
+        request.setChecksum(Checksums.crc32c(body, 0, body.length));
+        Message message = Message.of("CHUNK_UPLOAD", request);
+        CompletableFuture<ReceivedMessage> response = register(message);
+        try {
+            writer.send(message, body);
+        } catch (IOException e) {
+            fail(e);
+            throw e;
+        }
+
+        return toAck(request, response);
+    }
+
+    /**
+     * Uploads one chunk held in memory, possibly compressed, to the first node of a replication
+     * chain and waits for the ack. The node stores the bytes as sent and records the codec.
+     *
+     * @param body chunk bytes; the first length bytes are sent
+     * @param codec how body is encoded (NONE: the chunk's own bytes)
+     * @param rawLength length of the chunk once decoded
+     * @return the node's acknowledgement, with the number of durable replicas
+     */
+    public ChunkUploadAck uploadChunk(String fileId, int chunkIndex, byte[] body, int length, ChunkCodec codec,
+                                      int rawLength, List<NodeAddress> pipeline, int writeQuorum) throws IOException {
+        ChunkUploadRequest request = uploadRequest(fileId, chunkIndex, length);
+        request.setPipeline(pipeline);
+        request.setWriteQuorum(writeQuorum);
+        request.setChecksum(Checksums.crc32c(body, 0, length));
+        if (codec != ChunkCodec.NONE) {
+            request.setCodec(codec.name());
+            request.setRawLength(rawLength);
+        }
+
+        Message message = Message.of("CHUNK_UPLOAD", request);
+        CompletableFuture<ReceivedMessage> response = register(message);
+        try {
+            writer.sendBuffer(message, ByteBuffer.wrap(body, 0, length));
+        } catch (IOException e) {
+            fail(e);
+            throw e;
+        }
+
+        return await(toAck(request, response));
+    }
+
+    /**
+     * Reads a whole chunk and checks it against the CRC32C the node stored with it. A chunk the
+     * node stores compressed is sent compressed and decompressed here.
+     *
+     * @return completes with the chunk bytes, or exceptionally with an IOException if the node
+     *         does not have the chunk, the checksum does not match or the connection breaks
+     */
+    public CompletableFuture<byte[]> downloadChunkAsync(String fileId, int chunkIndex) throws IOException {
+        ChunkDownloadRequest request = new ChunkDownloadRequest();
+        request.setFileId(fileId);
+        request.setChunkIndex(chunkIndex);
+        request.setAcceptCompressed(true);
+
+        Message message = Message.of("CHUNK_DOWNLOAD", request);
+        CompletableFuture<ReceivedMessage> response = register(message);
+        try {
+            writer.send(message, null);
+        } catch (IOException e) {
+            fail(e);
+            throw e;
+        }
+
+        return response.thenApply(received -> {
+            Message header = received.getHeader();
+            if (!"CHUNK_DOWNLOAD_RESPONSE".equals(header.getType())) {
+                throw new CompletionException(new IOException(header.getType() + ": " + header.getData()));
+            }
+
+            ChunkDownloadResponse download = header.getPayload(ChunkDownloadResponse.class);
+            if (!"OK".equals(download.getStatus())) {
+                throw new CompletionException(new IOException("Chunk " + chunkIndex + " on " + address + ": "
+                        + download.getMessage()));
+            }
+
+            byte[] body = received.getBody();
+            if (body == null) {
+                body = new byte[0];
+            }
+            if (download.getChecksum() >= 0) {
+                CRC32C crc = new CRC32C();
+                crc.update(body);
+                if (crc.getValue() != download.getChecksum()) {
+                    throw new CompletionException(new IOException("Chunk " + chunkIndex + " on " + address
+                            + " failed its checksum"));
+                }
+            }
+            if (download.getCodec() != null) {
+                try {
+                    body = ChunkCodec.fromName(download.getCodec())
+                            .decompress(body, 0, body.length, (int) download.getChunkLength());
+                } catch (IOException | IllegalArgumentException e) {
+                    throw new CompletionException(new IOException("Chunk " + chunkIndex + " on " + address
+                            + " could not be decompressed: " + e.getMessage()));
+                }
+            }
+            return body;
+        });
+    }
+
+    /**
+     * Starts an upload whose body the caller supplies while it is still arriving from elsewhere
+     * (a node forwarding a chunk down its replication chain). The connection is reserved for this
+     * upload until the body channel is closed; if it is closed before length bytes were written,
+     * the connection is dropped.
+     *
+     * @param request upload request (fileId, chunkIndex, pipeline, writeQuorum)
+     * @param length body length in bytes
+     * @return the body channel to write to and close, and the future ack
+     */
+    public StreamingUpload startUpload(ChunkUploadRequest request, int length) throws IOException {
+        request.setBodyLength(length);
+
+        Message message = Message.of("CHUNK_UPLOAD", request);
+        CompletableFuture<ReceivedMessage> response = register(message);
+
+        WritableByteChannel body;
+        try {
+            body = writer.startMessage(message, length);
+        } catch (IOException e) {
+            fail(e);
+            throw e;
+        }
+
+        return new StreamingUpload(new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                try {
+                    return body.write(src);
+                } catch (IOException e) {
+                    fail(e);
+                    throw e;
+                }
+            }
+
+            @Override
+            public boolean isOpen() {
+                return body.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    body.close();
+                } catch (IOException e) {
+                    fail(e); // incomplete frame on the wire
+                    throw e;
+                }
+            }
+        }, toAck(request, response));
+    }
+
+    /**
+     * An upload started with startUpload: write the chunk bytes to body(), close it, then wait on ack().
+     */
+    public static final class StreamingUpload {
+
+        private final WritableByteChannel body;
+        private final CompletableFuture<ChunkUploadAck> ack;
+
+        StreamingUpload(WritableByteChannel body, CompletableFuture<ChunkUploadAck> ack) {
+            this.body = body;
+            this.ack = ack;
+        }
+
+        public WritableByteChannel body() {
+            return body;
+        }
+
+        public CompletableFuture<ChunkUploadAck> ack() {
+            return ack;
+        }
+    }
+
+    private static ChunkUploadRequest uploadRequest(String fileId, int chunkIndex, int length) {
+        ChunkUploadRequest request = new ChunkUploadRequest();
+        request.setFileId(fileId);
+        request.setChunkIndex(chunkIndex);
+        request.setBodyLength(length);
+        return request;
+    }
+
+    private static CompletableFuture<ChunkUploadAck> toAck(ChunkUploadRequest request,
+                                                           CompletableFuture<ReceivedMessage> response) {
+        return response.thenApply(received -> {
+            Message header = received.getHeader();
+            if ("CHUNK_UPLOAD_ACK".equals(header.getType())) {
+                return header.getPayload(ChunkUploadAck.class);
+            }
+
+            ChunkUploadAck ack = new ChunkUploadAck();
+            ack.setFileId(request.getFileId());
+            ack.setChunkIndex(request.getChunkIndex());
+            ack.setStatus("ERROR");
+            ack.setMessage(header.getType() + ": " + header.getData());
+            return ack;
+        });
+    }
+
+    public InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /** @return false once the connection has failed or been closed */
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() {
+        if (open) {
+            try {
+                // Wait for GOODBYE, so the node is not left writing to a closed socket
+                Message quit = new Message("QUIT", "bye");
+                CompletableFuture<ReceivedMessage> goodbye = register(quit);
+                writer.send(quit, null);
+                goodbye.get(QUIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (Exception ignored) {
+                // connection already broken
+            }
+        }
+        open = false;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private CompletableFuture<ReceivedMessage> register(Message message) throws IOException {
+        if (!open) {
+            throw new IOException("Connection to node " + address + " is closed.");
+        }
+
+        long requestId = nextRequestId.getAndIncrement();
+        message.setRequestId(requestId);
+
+        CompletableFuture<ReceivedMessage> response = new CompletableFuture<>();
+        pending.put(requestId, response);
+
+        // The reader may have failed the pending requests in the meantime
+        if (!open && pending.remove(requestId) != null) {
+            throw new IOException("Connection to node " + address + " is closed.");
+        }
+        return response;
+    }
+
+    private void readResponses() {
+        try {
+            while (open) {
+                ReceivedMessage received = reader.read();
+                if (received == null) {
+                    break;
+                }
+
+                Message header = received.getHeader();
+                CompletableFuture<ReceivedMessage> response = pending.remove(header.getRequestId());
+                if (response != null) {
+                    response.complete(received);
+                } else {
+                    System.out.println("Node " + address + " sent an unmatched response: " + header.getType());
+                }
+            }
+            fail(new IOException("Node " + address + " closed the connection."));
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /** Marks the connection broken, closes it and fails every request still waiting for a response. */
+    private void fail(IOException cause) {
+        open = false;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        for (Long requestId : pending.keySet()) {
+            CompletableFuture<ReceivedMessage> response = pending.remove(requestId);
+            if (response != null) {
+                response.completeExceptionally(cause);
+            }
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for node response");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.leo.dfss.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Up to a fixed number of persistent connections to one node, handed out round-robin.
+ * A connection that has failed is replaced when its slot comes up next.
+ */
+final class NodePool {
+
+    private final InetSocketAddress address;
+    private final NodeClient[] clients;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    NodePool(InetSocketAddress address, int connections) {
+        this.address = address;
+        this.clients = new NodeClient[connections];
+    }
+
+    NodeClient get() throws IOException {
+        int slot = Math.floorMod(next.getAndIncrement(), clients.length);
+
+        lock.lock();
+        try {
+            NodeClient client = clients[slot];
+            if (client == null || !client.isOpen()) {
+                if (client != null) {
+                    client.close();
+                }
+                client = new NodeClient(address);
+                clients[slot] = client;
+            }
+            return client;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            for (int i = 0; i < clients.length; i++) {
+                if (clients[i] != null) {
+                    clients[i].close();
+                    clients[i] = null;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
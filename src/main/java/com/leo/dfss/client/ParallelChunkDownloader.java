@@ -0,0 +1,477 @@
+package com.leo.dfss.client;
+
+import com.leo.dfss.protocol.ChunkPlacement;
+import com.leo.dfss.protocol.FilesLocateResponse;
+import com.leo.dfss.protocol.NodeAddress;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Download engine for replicated files: fetches chunks from the nodes FILES_LOCATE lists for
+ * them, over pooled, pipelined node connections (see NodeClient).
+ *
+ * At most readAhead chunks are being fetched at any time. downloadTo writes each chunk at its own
+ * offset with a positional FileChannel.write as soon as it arrives, so chunks land in any order;
+ * openStream reads the file sequentially while the next readAhead chunks are already on their
+ * way. Reads are spread over a chunk's replicas (chunk i starts at replica i mod replicas).
+ *
+ * A chunk whose replica fails (node down, chunk missing or failing its checksum) is requested
+ * from the next replica at once. A chunk whose replica is merely slow is hedged: if it has not
+ * arrived within the hedge percentile of recent chunk latencies, it is also requested from the
+ * next replica and whichever answer comes first is used. Only about (100 - percentile)% of chunks
+ * are requested twice, while one slow node no longer holds up the whole read-ahead window.
+ * Chunks of deduplicated files are fetched under their content keys; compressed chunks come back
+ * decompressed.
+ */
+public class ParallelChunkDownloader implements AutoCloseable {
+
+    // Latencies kept for the hedge percentile; it is first computed after MIN_SAMPLES of them,
+    // then again every RECOMPUTE_EVERY
+    private static final int LATENCY_SAMPLES = 1024;
+    private static final int MIN_SAMPLES = 32;
+    private static final int RECOMPUTE_EVERY = 64;
+
+    private static final long RETRY_BACKOFF_MS = 200;
+
+    private final DownloadSettings settings;
+    private final String fileId;
+    private final long[] chunkOffsets;
+    private final String[] chunkKeys;               // null unless the file is deduplicated
+    private final List<List<NodeAddress>> chunkNodes;
+
+    // Connection pool per node ("host:port" -> pool)
+    private final Map<String, NodePool> pools = new ConcurrentHashMap<>();
+
+    // Sends requests, so that connecting to a hung node holds up only the requests waiting for it
+    private final ExecutorService senders;
+
+    // Hedge and retry timers
+    private final ScheduledThreadPoolExecutor timers;
+
+    // Positional writes, kept off the connections' reader threads
+    private final ExecutorService writers;
+
+    private final LatencyWindow latencies;
+    private final AtomicLong failovers = new AtomicLong();
+    private final AtomicLong hedgedRequests = new AtomicLong();
+    private final AtomicLong hedgesWon = new AtomicLong();
+
+    public ParallelChunkDownloader(DownloadSettings settings, FilesLocateResponse file) {
+        if ("ERASURE_CODED".equals(file.getStorageMode())) {
+            throw new IllegalArgumentException("File " + file.getFileId() + " is erasure coded, read it with ErasureCodedReader");
+        }
+        this.settings = settings;
+        this.fileId = file.getFileId();
+        this.latencies = new LatencyWindow();
+
+        if (file.getChunkLengths() != null) {
+            int[] chunkLengths = file.getChunkLengths();
+            this.chunkOffsets = new long[chunkLengths.length + 1];
+            for (int i = 0; i < chunkLengths.length; i++) {
+                chunkOffsets[i + 1] = chunkOffsets[i] + chunkLengths[i];
+            }
+        } else {
+            this.chunkOffsets = ContentDefinedChunker.fixedOffsets(file.getTotalSizeBytes(), file.getChunkSizeBytes());
+        }
+
+        int totalChunks = chunkOffsets.length - 1;
+        this.chunkNodes = new ArrayList<>(Collections.nCopies(totalChunks, List.of()));
+        String[] keys = null;
+        if (file.getPlacements() != null) {
+            for (ChunkPlacement placement : file.getPlacements()) {
+                chunkNodes.set(placement.getChunkIndex(), placement.getNodes());
+                if (placement.getContentKey() != null) {
+                    if (keys == null) {
+                        keys = new String[totalChunks];
+                    }
+                    keys[placement.getChunkIndex()] = placement.getContentKey();
+                }
+            }
+        }
+        this.chunkKeys = keys;
+
+        this.senders = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "chunk-fetcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timers = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "download-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timers.setRemoveOnCancelPolicy(true);
+        this.writers = Executors.newFixedThreadPool(Math.min(4, settings.getReadAhead()), runnable -> {
+            Thread thread = new Thread(runnable, "chunk-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int getChunkCount() {
+        return chunkOffsets.length - 1;
+    }
+
+    public long getFileSize() {
+        return chunkOffsets[chunkOffsets.length - 1];
+    }
+
+    /**
+     * Fetches one chunk from its replicas, failing over and hedging as needed.
+     *
+     * @return completes with the chunk bytes, or exceptionally with an IOException once every
+     *         replica has failed maxRetries + 1 times
+     */
+    public CompletableFuture<byte[]> fetchChunk(int chunkIndex) {
+        Fetch fetch = new Fetch(chunkIndex);
+        fetch.next(false);
+        return fetch.result;
+    }
+
+    /**
+     * Downloads the whole file into out, each chunk at its own offset, and blocks until every
+     * chunk is written.
+     *
+     * @throws IOException if a chunk could not be fetched from any replica, or written
+     */
+    public void downloadTo(FileChannel out) throws IOException {
+        Semaphore window = new Semaphore(settings.getReadAhead());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        try {
+            for (int chunkIndex = 0; chunkIndex < getChunkCount() && failure.get() == null; chunkIndex++) {
+                long position = chunkOffsets[chunkIndex];
+
+                window.acquire();
+                fetchChunk(chunkIndex)
+                        .thenAcceptAsync(body -> write(out, body, position), writers)
+                        .whenComplete((ignored, error) -> {
+                            if (error != null) {
+                                failure.compareAndSet(null, unwrap(error));
+                            }
+                            window.release();
+                        });
+            }
+
+            // Wait for the last chunks in flight
+            window.acquire(settings.getReadAhead());
+            window.release(settings.getReadAhead());
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted downloading file " + fileId);
+        }
+
+        Throwable error = failure.get();
+        if (error != null) {
+            throw (error instanceof IOException io) ? io : new IOException(error.getMessage(), error);
+        }
+    }
+
+    private static void write(FileChannel out, byte[] body, long position) {
+        ByteBuffer source = ByteBuffer.wrap(body);
+        try {
+            while (source.hasRemaining()) {
+                out.write(source, position + source.position());
+            }
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Opens the file for sequential reading. The next readAhead chunks are fetched while the
+     * current one is read. Not thread-safe.
+     */
+    public InputStream openStream() {
+        return new PrefetchingInputStream();
+    }
+
+    /** @return chunk requests sent to another replica after one failed */
+    public long getFailovers() {
+        return failovers.get();
+    }
+
+    /** @return chunk requests sent to another replica because the first was slow */
+    public long getHedgedRequests() {
+        return hedgedRequests.get();
+    }
+
+    /** @return hedged requests that answered first */
+    public long getHedgesWon() {
+        return hedgesWon.get();
+    }
+
+    /** @return current hedge delay in milliseconds */
+    public double getHedgeDelayMs() {
+        return latencies.hedgeDelayNanos() / 1e6;
+    }
+
+    private NodePool pool(NodeAddress node) {
+        return pools.computeIfAbsent(node.getHost() + ":" + node.getPort(),
+                key -> new NodePool(new InetSocketAddress(node.getHost(), node.getPort()), settings.getConnectionsPerNode()));
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+    }
+
+    @Override
+    public void close() {
+        senders.shutdownNow();
+        timers.shutdownNow();
+        writers.shutdownNow();
+        for (NodePool pool : pools.values()) {
+            pool.close();
+        }
+        pools.clear();
+    }
+
+    /**
+     * One chunk being fetched: attempt k goes to replica (chunkIndex + k) mod replicas, so
+     * successive attempts walk the replicas in turn and retry rounds start over.
+     */
+    private final class Fetch {
+
+        private final int chunkIndex;
+        private final List<NodeAddress> nodes;
+        private final int expectedLength;
+        private final int maxAttempts;
+        private final CompletableFuture<byte[]> result = new CompletableFuture<>();
+
+        private final ReentrantLock lock = new ReentrantLock();
+        // Guarded by lock
+        private int started;
+        private int outstanding;
+
+        Fetch(int chunkIndex) {
+            this.chunkIndex = chunkIndex;
+            this.nodes = chunkNodes.get(chunkIndex);
+            this.expectedLength = (int) (chunkOffsets[chunkIndex + 1] - chunkOffsets[chunkIndex]);
+            this.maxAttempts = nodes.size() * (settings.getMaxRetries() + 1);
+            if (nodes.isEmpty()) {
+                result.completeExceptionally(new IOException("No placement for chunk " + chunkIndex));
+            }
+        }
+
+        /**
+         * Sends the next attempt, unless the chunk has arrived or every attempt has been made.
+         *
+         * @param hedge true if the attempts in flight are slow rather than failed; a chunk is
+         *              hedged to each of its replicas at most once
+         */
+        void next(boolean hedge) {
+            int attempt;
+            lock.lock();
+            try {
+                if (result.isDone() || started >= maxAttempts || (hedge && started >= nodes.size())) {
+                    return;
+                }
+                attempt = started++;
+                outstanding++;
+            } finally {
+                lock.unlock();
+            }
+            if (hedge) {
+                hedgedRequests.incrementAndGet();
+            } else if (attempt > 0) {
+                failovers.incrementAndGet();
+            }
+
+            NodeAddress node = nodes.get((chunkIndex + attempt) % nodes.size());
+            long start = System.nanoTime();
+            CompletableFuture.supplyAsync(() -> {
+                try {
+                    return (chunkKeys != null)
+                            ? pool(node).get().downloadChunkAsync(chunkKeys[chunkIndex], 0)
+                            : pool(node).get().downloadChunkAsync(fileId, chunkIndex);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, senders)
+                    .thenCompose(response -> response)
+                    .whenComplete((body, error) -> completed(node, hedge, start, body, error));
+
+            if (settings.isHedged() && attempt + 1 < nodes.size()) {
+                ScheduledFuture<?> timer = timers.schedule(() -> next(true),
+                        latencies.hedgeDelayNanos(), TimeUnit.NANOSECONDS);
+                result.whenComplete((body, error) -> timer.cancel(false));
+            }
+        }
+
+        private void completed(NodeAddress node, boolean hedge, long start, byte[] body, Throwable error) {
+            if (error == null && body.length != expectedLength) {
+                error = new IOException("Chunk has " + body.length + " bytes, expected " + expectedLength);
+            }
+            if (error == null) {
+                latencies.record(System.nanoTime() - start);
+                if (result.complete(body) && hedge) {
+                    hedgesWon.incrementAndGet();
+                }
+                return;
+            }
+
+            Throwable cause = unwrap(error);
+            if (!result.isDone()) {
+                System.out.println("Chunk " + chunkIndex + " unavailable from " + node.getHost() + ":"
+                        + node.getPort() + ": " + cause.getMessage());
+            }
+
+            boolean exhausted;
+            int round;
+            lock.lock();
+            try {
+                outstanding--;
+                exhausted = outstanding == 0 && started >= maxAttempts;
+                round = (started % nodes.size() == 0) ? started / nodes.size() : 0;
+            } finally {
+                lock.unlock();
+            }
+
+            if (exhausted) {
+                result.completeExceptionally(new IOException("Chunk " + chunkIndex + " unavailable from all "
+                        + nodes.size() + " replica(s): " + cause.getMessage(), cause));
+            } else if (round > 0) {
+                // Every replica has been tried: back off before the next round
+                timers.schedule(() -> next(false), RETRY_BACKOFF_MS * round, TimeUnit.MILLISECONDS);
+            } else {
+                next(false);
+            }
+        }
+    }
+
+    /** The most recent chunk latencies, and the hedge delay derived from them. */
+    private final class LatencyWindow {
+
+        private final long[] samples = new long[LATENCY_SAMPLES];
+        private final ReentrantLock lock = new ReentrantLock();
+        private long recorded;   // guarded by lock
+
+        private volatile long hedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos(settings.getHedgeInitialMs());
+
+        void record(long nanos) {
+            lock.lock();
+            try {
+                samples[(int) (recorded++ % samples.length)] = nanos;
+                if (recorded == MIN_SAMPLES || (recorded > MIN_SAMPLES && recorded % RECOMPUTE_EVERY == 0)) {
+                    int count = (int) Math.min(recorded, samples.length);
+                    long[] sorted = Arrays.copyOf(samples, count);
+                    Arrays.sort(sorted);
+                    long percentile = sorted[Math.min(count - 1, count * settings.getHedgePercentile() / 100)];
+                    hedgeDelayNanos = Math.max(percentile, TimeUnit.MILLISECONDS.toNanos(settings.getHedgeMinMs()));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long hedgeDelayNanos() {
+            return hedgeDelayNanos;
+        }
+    }
+
+    /** Sequential reads over the chunks, with the next readAhead chunks in flight. */
+    private final class PrefetchingInputStream extends InputStream {
+
+        private final ArrayDeque<CompletableFuture<byte[]>> ahead = new ArrayDeque<>();
+        private int nextToFetch;
+        private byte[] chunk = new byte[0];
+        private int position;
+        private boolean closed;
+
+        PrefetchingInputStream() {
+            prefetch();
+        }
+
+        private void prefetch() {
+            while (ahead.size() < settings.getReadAhead() && nextToFetch < getChunkCount()) {
+                ahead.add(fetchChunk(nextToFetch++));
+            }
+        }
+
+        /** @return false at the end of the file */
+        private boolean fill() throws IOException {
+            while (position == chunk.length) {
+                if (closed) {
+                    throw new IOException("Stream closed");
+                }
+                CompletableFuture<byte[]> next = ahead.poll();
+                if (next == null) {
+                    return false;
+                }
+                try {
+                    chunk = next.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted reading file " + fileId);
+                } catch (ExecutionException e) {
+                    throw (e.getCause() instanceof IOException io) ? io : new IOException(e.getCause());
+                }
+                position = 0;
+                prefetch();
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return chunk[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            Objects.checkFromIndexSize(offset, length, buffer.length);
+            if (length == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(length, chunk.length - position);
+            System.arraycopy(chunk, position, buffer, offset, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return chunk.length - position;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            ahead.clear();
+            chunk = new byte[0];
+            position = 0;
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package com.leo.dfss.client;
+
+import com.leo.dfss.compression.ChunkCodec;
+import com.leo.dfss.compression.ChunkCompressor;
+import com.leo.dfss.domain.Checksums;
+import com.leo.dfss.domain.ChunkInfo;
+import com.leo.dfss.domain.ContentHash;
+import com.leo.dfss.protocol.ChunkUploadAck;
+import com.leo.dfss.erasure.ReedSolomon;
+import com.leo.dfss.erasure.StripeLayout;
+import com.leo.dfss.protocol.NodeAddress;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+
+/**
+ * Upload engine: fans the chunks of one file out over pooled, persistent node connections.
+ *
+ * At most maxInFlight chunks are being uploaded at any time and at most connectionsPerNode
+ * connections are open to each node. Connections are shared: chunks are pipelined on them and
+ * the node acks them in any order (see NodeClient). Replicated chunks have no checksum yet, so
+ * NodeClient reads each one once into a per-thread direct buffer, checksums it as it is read and
+ * sends it from that buffer; erasure-coded data shards are checksummed while encoding and go from
+ * the source file to the socket with positional transferTo. A chunk whose upload fails (I/O
+ * error or ERROR ack, e.g. write quorum not met) is retried up to maxRetries times; a broken
+ * connection is replaced by a fresh one. With replication the client sends each chunk once,
+ * to the head of its chain. Erasure-coded files are encoded stripe by stripe and each shard is sent
+ * to its own node (uploadStripes). Replicated chunks are given by their offsets in the file, so
+ * fixed-size and content-defined chunks are uploaded alike. Deduplicated files are hashed first
+ * (hashChunks) and only the chunks whose content is not stored yet are uploaded, under their
+ * content keys (uploadContent). Every method takes the chunks to skip, so an interrupted upload
+ * can be resumed with just the chunks still missing, and reports each acknowledged chunk (e.g. to
+ * an UploadProgressReporter).
+ *
+ * With compression on (UploadSettings.getCompression), replicated chunks are read onto the heap
+ * instead and compressed by a shared ChunkCompressor, which keeps the compressed form only where
+ * it saves enough; the node stores the chunk as sent. Erasure-coded shards are never compressed:
+ * parity is computed over, and reconstruction needs, equal-length shards.
+ */
+public class ParallelChunkUploader implements AutoCloseable {
+
+    private final UploadSettings settings;
+
+    // Connection pool per node ("host:port" -> pool)
+    private final Map<String, NodePool> pools = new ConcurrentHashMap<>();
+
+    private final ExecutorService workers;
+
+    private final ChunkCompressor compressor;
+
+    // Per upload thread: the chunk as read, and its compressed form
+    private final ThreadLocal<byte[]> rawBuffer = new ThreadLocal<>();
+    private final ThreadLocal<byte[]> compressedBuffer = new ThreadLocal<>();
+
+    public ParallelChunkUploader(UploadSettings settings) {
+        this.settings = settings;
+        this.compressor = settings.newCompressor();
+        this.workers = Executors.newFixedThreadPool(settings.getMaxInFlight(), runnable -> {
+            Thread thread = new Thread(runnable, "chunk-uploader");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Uploads every chunk of a file and blocks until all are acknowledged or have exhausted
+     * their retries.
+     *
+     * @param fileId coordinator-assigned file id
+     * @param file source file, open for reading
+     * @param chunkOffsets start offset of every chunk followed by the file size
+     * @param skip chunks not to upload, e.g. uploaded before the upload was interrupted
+     * @param chainFor nodes that should store a given chunk index; the first one receives it and
+     *                 forwards it down the rest of the chain
+     * @param writeQuorum replicas that must be durable for a chunk to count as uploaded
+     * @param onUploaded called with each chunk index once the chunk is acknowledged
+     * @return chunk indexes that could not be uploaded (empty on success)
+     */
+    public List<Integer> uploadFile(String fileId,
+                                    FileChannel file,
+                                    long[] chunkOffsets,
+                                    BitSet skip,
+                                    IntFunction<List<NodeAddress>> chainFor,
+                                    int writeQuorum,
+                                    IntConsumer onUploaded) throws InterruptedException {
+
+        return uploadChunks(chunkOffsets.length - 1, chainFor, onUploaded, chunkIndex -> {
+            if (skip.get(chunkIndex)) {
+                return null;
+            }
+            long position = chunkOffsets[chunkIndex];
+            int length = (int) (chunkOffsets[chunkIndex + 1] - position);
+            if (settings.isCompressed()) {
+                return new CompressingSender(fileId, chunkIndex, file, position, length, writeQuorum);
+            }
+            return (client, pipeline) -> client.uploadChunk(fileId, chunkIndex, file,
+                    position, length, pipeline, writeQuorum, ChunkInfo.UNKNOWN_CHECKSUM);
+        });
+    }
+
+    /**
+     * Uploads the chunks of a deduplicated file that are not stored yet, each under its content
+     * key (chunk index 0) instead of the fileId, and blocks until all are acknowledged or have
+     * exhausted their retries.
+     *
+     * @param chunkOffsets start offset of every chunk followed by the file size
+     * @param chunkKeys content key of every chunk (ContentHash.chunkKey)
+     * @param skip chunks not to upload: already stored, repeating an earlier chunk of the file, or
+     *             uploaded before the upload was interrupted
+     * @param onUploaded called with each chunk index once the chunk is acknowledged
+     * @return chunk indexes that could not be uploaded (empty on success)
+     */
+    public List<Integer> uploadContent(FileChannel file,
+                                       long[] chunkOffsets,
+                                       String[] chunkKeys,
+                                       BitSet skip,
+                                       IntFunction<List<NodeAddress>> chainFor,
+                                       int writeQuorum,
+                                       IntConsumer onUploaded) throws InterruptedException {
+
+        return uploadChunks(chunkKeys.length, chainFor, onUploaded, chunkIndex -> {
+            if (skip.get(chunkIndex)) {
+                return null;
+            }
+            long position = chunkOffsets[chunkIndex];
+            int length = (int) (chunkOffsets[chunkIndex + 1] - position);
+            String key = chunkKeys[chunkIndex];
+            if (settings.isCompressed()) {
+                return new CompressingSender(key, 0, file, position, length, writeQuorum);
+            }
+            return (client, pipeline) -> client.uploadChunk(key, 0, file,
+                    position, length, pipeline, writeQuorum, ChunkInfo.UNKNOWN_CHECKSUM);
+        });
+    }
+
+    /**
+     * Computes the content hash (SHA-256) of every chunk of a file, reading and hashing chunks in
+     * parallel on the upload threads.
+     *
+     * @param chunkOffsets start offset of every chunk followed by the file size
+     */
+    public ContentHash[] hashChunks(FileChannel file, long[] chunkOffsets)
+            throws IOException, InterruptedException {
+
+        int totalChunks = chunkOffsets.length - 1;
+        List<Future<ContentHash>> hashes = new ArrayList<>(totalChunks);
+        for (int chunkIndex = 0; chunkIndex < totalChunks; chunkIndex++) {
+            long position = chunkOffsets[chunkIndex];
+            long length = chunkOffsets[chunkIndex + 1] - position;
+            hashes.add(workers.submit(() -> ContentHash.sha256(file, position, length)));
+        }
+
+        ContentHash[] result = new ContentHash[totalChunks];
+        try {
+            for (int chunkIndex = 0; chunkIndex < totalChunks; chunkIndex++) {
+                result[chunkIndex] = hashes.get(chunkIndex).get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to hash chunks: " + e.getCause().getMessage(), e.getCause());
+        }
+        return result;
+    }
+
+    /**
+     * Uploads chunks 0..chunkCount-1 with at most maxInFlight in flight at once.
+     *
+     * @param senderFor how to send a chunk, or null to skip it
+     */
+    private List<Integer> uploadChunks(int chunkCount,
+                                       IntFunction<List<NodeAddress>> chainFor,
+                                       IntConsumer onUploaded,
+                                       IntFunction<ChunkSender> senderFor) throws InterruptedException {
+
+        Semaphore window = new Semaphore(settings.getMaxInFlight());
+        List<Integer> failed = new CopyOnWriteArrayList<>();
+
+        for (int chunkIndex = 0; chunkIndex < chunkCount; chunkIndex++) {
+            ChunkSender sender = senderFor.apply(chunkIndex);
+            if (sender == null) {
+                continue;
+            }
+            List<NodeAddress> chain = chainFor.apply(chunkIndex);
+            int index = chunkIndex;
+
+            window.acquire();
+            workers.execute(() -> {
+                try {
+                    uploadOne(index, chain, sender, onUploaded, failed);
+                } finally {
+                    window.release();
+                }
+            });
+        }
+
+        // Wait for the last chunks in flight
+        window.acquire(settings.getMaxInFlight());
+        window.release(settings.getMaxInFlight());
+
+        return failed;
+    }
+
+    /**
+     * Uploads an erasure-coded file: each stripe of dataShards chunks is read, its parity shards
+     * are computed, and every non-empty shard is uploaded to its own node. Data shards are sent
+     * straight from the file like plain chunks; parity shards are sent from memory.
+     *
+     * Two sets of parity buffers are reused across stripes, so the next stripe can be encoded
+     * while the previous one's parity is still being uploaded, and memory stays bounded at
+     * (dataShards + 2 x parityShards) x chunkSize.
+     *
+     * A stripe whose shards are all in skip is neither read nor encoded.
+     *
+     * @param layout stripe layout agreed with the coordinator
+     * @param skip shard indexes not to upload, e.g. uploaded before the upload was interrupted
+     * @param nodeFor node that should store a given shard index
+     * @param onUploaded called with each shard index once the shard is acknowledged
+     * @return shard indexes that could not be uploaded (empty on success)
+     */
+    public List<Integer> uploadStripes(String fileId,
+                                       FileChannel file,
+                                       StripeLayout layout,
+                                       BitSet skip,
+                                       IntFunction<NodeAddress> nodeFor,
+                                       IntConsumer onUploaded) throws InterruptedException, IOException {
+
+        ReedSolomon codec = new ReedSolomon(layout.getDataShards(), layout.getParityShards());
+        int chunkSize = layout.getChunkSizeBytes();
+        int dataShards = layout.getDataShards();
+
+        byte[][] data = new byte[dataShards][chunkSize];
+        BlockingQueue<byte[][]> parityBuffers = new ArrayBlockingQueue<>(2);
+        for (int i = 0; i < 2; i++) {
+            parityBuffers.add(new byte[layout.getParityShards()][chunkSize]);
+        }
+
+        Semaphore window = new Semaphore(settings.getMaxInFlight());
+        List<Integer> failed = new CopyOnWriteArrayList<>();
+
+        for (int stripe = 0; stripe < layout.getStripeCount(); stripe++) {
+            int firstShard = layout.shardIndex(stripe, 0);
+            if (skip.nextClearBit(firstShard) >= firstShard + layout.getShardsPerStripe()) {
+                continue; // every shard of the stripe is stored already
+            }
+
+            // 1) Read the stripe's chunks, zero-padding the short or missing ones at the end of the
+            //    file, and checksum each one while it is fresh from the read
+            long[] checksums = new long[dataShards];
+            for (int shard = 0; shard < dataShards; shard++) {
+                int length = layout.shardLength(layout.shardIndex(stripe, shard));
+                readFully(file, layout.dataOffset(stripe, shard), data[shard], length);
+                Arrays.fill(data[shard], length, chunkSize, (byte) 0);
+                checksums[shard] = Checksums.crc32c(data[shard], 0, length);
+            }
+
+            // 2) Encode into a free parity buffer set
+            byte[][] parity = parityBuffers.take();
+            byte[][] shards = new byte[layout.getShardsPerStripe()][];
+            System.arraycopy(data, 0, shards, 0, dataShards);
+            System.arraycopy(parity, 0, shards, dataShards, parity.length);
+            codec.encode(shards, 0, chunkSize);
+
+            // 3) Upload every shard still missing; the parity set is reused once all of its shards are done
+            AtomicInteger parityLeft = new AtomicInteger(parity.length);
+            for (int shard = 0; shard < layout.getShardsPerStripe(); shard++) {
+                int shardIndex = layout.shardIndex(stripe, shard);
+                int length = layout.shardLength(shardIndex);
+                if (length == 0 || skip.get(shardIndex)) {
+                    // data shard past the end of the file, or stored already
+                    if (shard >= dataShards && parityLeft.decrementAndGet() == 0) {
+                        parityBuffers.add(parity);
+                    }
+                    continue;
+                }
+                List<NodeAddress> chain = List.of(nodeFor.apply(shardIndex));
+
+                ChunkSender sender;
+                if (shard < dataShards) {
+                    long position = layout.dataOffset(stripe, shard);
+                    long checksum = checksums[shard];
+                    sender = (client, pipeline) -> client.uploadChunk(fileId, shardIndex, file, position, length,
+                            pipeline, 1, checksum);
+                } else {
+                    byte[] body = parity[shard - dataShards];
+                    sender = (client, pipeline) -> client.uploadChunk(fileId, shardIndex, body);
+                }
+                boolean isParity = shard >= dataShards;
+
+                window.acquire();
+                workers.execute(() -> {
+                    try {
+                        uploadOne(shardIndex, chain, sender, onUploaded, failed);
+                    } finally {
+                        if (isParity && parityLeft.decrementAndGet() == 0) {
+                            parityBuffers.add(parity);
+                        }
+                        window.release();
+                    }
+                });
+            }
+        }
+
+        window.acquire(settings.getMaxInFlight());
+        window.release(settings.getMaxInFlight());
+
+        return failed;
+    }
+
+    /**
+     * Uploads one chunk on a worker thread. A chunk that is not acknowledged, or whose upload or
+     * onUploaded callback throws, is added to failed so the file is never committed without it.
+     */
+    private void uploadOne(int chunkIndex, List<NodeAddress> chain, ChunkSender sender,
+                           IntConsumer onUploaded, List<Integer> failed) {
+        try {
+            if (uploadWithRetry(chunkIndex, chain, sender)) {
+                onUploaded.accept(chunkIndex);
+                return;
+            }
+        } catch (RuntimeException e) {
+            System.out.println("Chunk " + chunkIndex + " upload failed: " + e);
+        }
+        failed.add(chunkIndex);
+    }
+
+    private static void readFully(FileChannel file, long position, byte[] buffer, int length) throws IOException {
+        ByteBuffer target = ByteBuffer.wrap(buffer, 0, length);
+        while (target.hasRemaining()) {
+            if (file.read(target, position + target.position()) < 0) {
+                throw new EOFException("File ended at " + (position + target.position()));
+            }
+        }
+    }
+
+    /** One upload attempt of a chunk to the head of its chain over a pooled connection. */
+    @FunctionalInterface
+    private interface ChunkSender {
+        ChunkUploadAck send(NodeClient client, List<NodeAddress> pipeline) throws IOException;
+    }
+
+    /**
+     * Sends a chunk compressed where that pays off. The chunk is read and compressed on the first
+     * attempt, into the upload thread's buffers; uploadWithRetry makes every attempt of a chunk on
+     * the same thread, so retries resend those bytes without compressing again.
+     */
+    private final class CompressingSender implements ChunkSender {
+
+        private final String fileId;
+        private final int chunkIndex;
+        private final FileChannel file;
+        private final long position;
+        private final int length;
+        private final int writeQuorum;
+
+        private boolean prepared;
+        private int compressedLength; // -1: not worth compressing, sent raw
+
+        CompressingSender(String fileId, int chunkIndex, FileChannel file, long position, int length, int writeQuorum) {
+            this.fileId = fileId;
+            this.chunkIndex = chunkIndex;
+            this.file = file;
+            this.position = position;
+            this.length = length;
+            this.writeQuorum = writeQuorum;
+        }
+
+        @Override
+        public ChunkUploadAck send(NodeClient client, List<NodeAddress> pipeline) throws IOException {
+            byte[] raw = buffer(rawBuffer, length);
+            byte[] compressed = buffer(compressedBuffer, length);
+            if (!prepared) {
+                readFully(file, position, raw, length);
+                compressedLength = compressor.compress(raw, length, compressed);
+                prepared = true;
+            }
+
+            if (compressedLength < 0) {
+                return client.uploadChunk(fileId, chunkIndex, raw, length, ChunkCodec.NONE, length,
+                        pipeline, writeQuorum);
+            }
+            return client.uploadChunk(fileId, chunkIndex, compressed, compressedLength, compressor.getCodec(), length,
+                    pipeline, writeQuorum);
+        }
+    }
+
+    /** @return the thread's buffer, replaced by a larger one first if it has fewer than length bytes */
+    private static byte[] buffer(ThreadLocal<byte[]> buffers, int length) {
+        byte[] buffer = buffers.get();
+        if (buffer == null || buffer.length < length) {
+            buffer = new byte[length];
+            buffers.set(buffer);
+        }
+        return buffer;
+    }
+
+    /** @return what compression did for the chunks uploaded so far */
+    public ChunkCompressor getCompressor() {
+        return compressor;
+    }
+
+    private boolean uploadWithRetry(int chunkIndex, List<NodeAddress> chain, ChunkSender sender) {
+
+        InetSocketAddress target = new InetSocketAddress(chain.get(0).getHost(), chain.get(0).getPort());
+        List<NodeAddress> pipeline = chain.subList(1, chain.size());
+
+        NodePool pool = pools.computeIfAbsent(target.getHostString() + ":" + target.getPort(),
+                key -> new NodePool(target, settings.getConnectionsPerNode()));
+
+        for (int attempt = 0; attempt <= settings.getMaxRetries(); attempt++) {
+            if (attempt > 0) {
+                try {
+                    Thread.sleep(settings.getRetryBackoffMs() * attempt);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+
+            try {
+                ChunkUploadAck ack = sender.send(pool.get(), pipeline);
+
+                if (ack != null && "OK".equals(ack.getStatus())) {
+                    return true;
+                }
+                System.out.println("Chunk " + chunkIndex + " rejected by " + target + ": "
+                        + (ack == null ? "no ack" : ack.getMessage()) + " (attempt " + (attempt + 1) + ")");
+
+            } catch (IOException e) {
+                System.out.println("Chunk " + chunkIndex + " upload to " + target + " failed: "
+                        + e.getMessage() + " (attempt " + (attempt + 1) + ")");
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public void close() {
+        workers.shutdownNow();
+        for (NodePool pool : pools.values()) {
+            pool.close();
+        }
+        pools.clear();
+    }
+}
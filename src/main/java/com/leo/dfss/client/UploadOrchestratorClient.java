@@ -1,32 +1,66 @@
 package com.leo.dfss.client;
 
-import com.google.gson.Gson;
+import com.leo.dfss.domain.ContentHash;
+import com.leo.dfss.erasure.StripeLayout;
+import com.leo.dfss.protocol.ChunkHaveRequest;
+import com.leo.dfss.protocol.ChunkHaveResponse;
+import com.leo.dfss.protocol.ChunkPlacement;
+import com.leo.dfss.protocol.FilesCommitAck;
+import com.leo.dfss.protocol.FilesCommitRequest;
 import com.leo.dfss.protocol.FilesInitRequest;
 import com.leo.dfss.protocol.FilesInitResponse;
+import com.leo.dfss.protocol.FilesLocateRequest;
+import com.leo.dfss.protocol.FilesLocateResponse;
+import com.leo.dfss.protocol.FilesUploadStatusRequest;
+import com.leo.dfss.protocol.FilesUploadStatusResponse;
 import com.leo.dfss.protocol.Message;
+import com.leo.dfss.protocol.NodeAddress;
 import com.leo.dfss.transport.ReceivedMessage;
 import com.leo.dfss.transport.TcpMessageReader;
 import com.leo.dfss.transport.TcpMessageWriter;
 
 import java.net.Socket;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
 
 public class UploadOrchestratorClient {
 
-    private static final Gson gson = new Gson();
-
     private final String coordinatorHost = "localhost";
     private final int coordinatorPort = 9000;
 
+    // Hashes per CHUNK_HAVE query: about 270 KB of JSON
+    private static final int HAVE_BATCH = 4096;
+
+    private final UploadSettings settings;
+
+    public UploadOrchestratorClient(UploadSettings settings) {
+        this.settings = settings;
+    }
+
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.out.println("Usage: UploadOrchestratorClient <filePath>");
+        if (args.length < 1 || args.length > 2) {
+            System.out.println("Usage: UploadOrchestratorClient <filePath> [fileIdToResume]");
             return;
         }
 
         Path filePath = Path.of(args[0]);
-        new UploadOrchestratorClient().uploadFile(filePath);
+        UploadOrchestratorClient client = new UploadOrchestratorClient(UploadSettings.fromSystemProperties());
+        if (args.length == 2) {
+            client.resumeUpload(filePath, args[1]);
+        } else {
+            client.uploadFile(filePath);
+        }
     }
 
     public void uploadFile(Path filePath) {
@@ -42,9 +76,38 @@ public class UploadOrchestratorClient {
 
         System.out.println("Uploading file: " + fileName + ". File size: " + fileSize + "bytes.");
 
-        int chunkSizeBytes = 4096; // fixed (4KB)
+        if (settings.isCompressed() && settings.isErasureCoded()) {
+            throw new IllegalArgumentException("Compression is only supported for replicated files.");
+        }
 
-        FilesInitResponse init = initUploadWithCoordinator(fileName, fileSize, chunkSizeBytes);
+        // Content-defined chunking: find the chunk boundaries in the file's content
+        long[] chunkOffsets = null;
+        int chunkSizeBytes = settings.getChunkSizeBytes();
+        if (settings.isContentDefinedChunking()) {
+            if (settings.isErasureCoded()) {
+                throw new IllegalArgumentException("Content-defined chunking is only supported for replicated files.");
+            }
+            ContentDefinedChunker chunker = settings.newChunker();
+            chunkOffsets = chunkFile(filePath, fileSize, chunker);
+            chunkSizeBytes = chunker.getMaxSize();
+        }
+
+        // Deduplicated files: hash every chunk and ask which contents are stored already
+        ContentHash[] chunkHashes = null;
+        BitSet skip = null;
+        if (settings.isDeduplicated()) {
+            if (settings.isErasureCoded()) {
+                throw new IllegalArgumentException("Deduplication is only supported for replicated files.");
+            }
+            chunkHashes = hashChunks(filePath, (chunkOffsets != null) ? chunkOffsets
+                    : ContentDefinedChunker.fixedOffsets(fileSize, chunkSizeBytes));
+            skip = chunksToSkip(chunkHashes);
+            System.out.println("Deduplication: " + skip.cardinality() + " of " + chunkHashes.length
+                    + " chunks already stored or repeated");
+        }
+
+        FilesInitResponse init = initUploadWithCoordinator(fileName, fileSize, chunkSizeBytes, chunkOffsets, chunkHashes);
+        boolean erasureCoded = "ERASURE_CODED".equals(init.getStorageMode());
 
         System.out.println("\n--- Coordinator upload plan ---");
         System.out.println("fileId      = " + init.getFileId());
@@ -52,12 +115,181 @@ public class UploadOrchestratorClient {
         System.out.println("chunkSize   = " + init.getChunkSizeBytes());
         System.out.println("uploadHost  = " + init.getUploadHost());
         System.out.println("uploadPort  = " + init.getUploadPort());
+        if (erasureCoded) {
+            System.out.println("erasure     = RS(" + init.getDataShards() + "," + init.getParityShards() + ")");
+        } else {
+            System.out.println("replication = " + init.getReplicationFactor() + " (write quorum " + init.getWriteQuorum() + ")");
+        }
+        System.out.println("placements  = " + ((init.getPlacements() == null) ? 0 : init.getPlacements().size())
+                + (erasureCoded ? " shards" : " chunks"));
+
+        // Upload every chunk (or shard), in parallel, to its planned nodes
+        List<List<NodeAddress>> chains = uploadChains(init.getPlacements(), init.getTotalChunks(),
+                new NodeAddress(null, init.getUploadHost(), init.getUploadPort()));
+        StripeLayout layout = null;
+        long[] offsets = null;
+        String[] chunkKeys = null;
+        if (erasureCoded) {
+            layout = new StripeLayout(fileSize, init.getChunkSizeBytes(), init.getDataShards(), init.getParityShards());
+        } else {
+            offsets = (chunkOffsets != null) ? chunkOffsets
+                    : ContentDefinedChunker.fixedOffsets(fileSize, init.getChunkSizeBytes());
+            if (chunkHashes != null) {
+                chunkKeys = Arrays.stream(chunkHashes).map(ContentHash::chunkKey).toArray(String[]::new);
+            }
+        }
+
+        uploadAndCommit(filePath, fileSize, init.getFileId(), layout, offsets, chunkKeys,
+                (skip != null) ? skip : new BitSet(), chains, Math.max(1, init.getWriteQuorum()));
+    }
+
+    /**
+     * Resumes an interrupted upload: asks the coordinator which chunks it has not seen acknowledged
+     * (FILES_UPLOAD_STATUS), uploads only those to the nodes planned at init (FILES_LOCATE), and
+     * commits. The file must be the one the upload was started with; the chunk layout is taken
+     * from the coordinator, not from the current settings.
+     */
+    public void resumeUpload(Path filePath, String fileId) {
+        long fileSize;
+        try {
+            fileSize = Files.size(filePath);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to read file metadata. " + e);
+        }
+
+        FilesUploadStatusRequest statusRequest = new FilesUploadStatusRequest();
+        statusRequest.setFileId(fileId);
+        FilesUploadStatusResponse status = queryCoordinator("FILES_UPLOAD_STATUS", statusRequest,
+                "FILES_UPLOAD_STATUS_RESPONSE", FilesUploadStatusResponse.class);
+        if (!"UPLOADING".equals(status.getStatus())) {
+            System.out.println("File " + fileId + " is " + status.getStatus() + ", nothing to resume.");
+            return;
+        }
+
+        FilesLocateRequest locateRequest = new FilesLocateRequest();
+        locateRequest.setFileId(fileId);
+        FilesLocateResponse locate = queryCoordinator("FILES_LOCATE", locateRequest,
+                "FILES_LOCATE_RESPONSE", FilesLocateResponse.class);
+        if (fileSize != locate.getTotalSizeBytes()) {
+            throw new IllegalArgumentException("File size " + fileSize + " does not match the upload's "
+                    + locate.getTotalSizeBytes() + " bytes.");
+        }
+
+        System.out.println("Resuming upload of " + locate.getFileName() + " (" + fileId + "): "
+                + status.getMissingCount() + " of " + status.getStoredChunks() + " chunks missing");
+
+        // Everything the coordinator has not listed as missing is uploaded already
+        BitSet skip = new BitSet(status.getStoredChunks());
+        skip.set(0, status.getStoredChunks());
+        for (int storedIndex : status.getMissingChunks()) {
+            skip.clear(storedIndex);
+        }
+
+        List<List<NodeAddress>> chains = uploadChains(locate.getPlacements(), locate.getTotalChunks(), null);
+        StripeLayout layout = null;
+        long[] offsets = null;
+        String[] chunkKeys = null;
+        if ("ERASURE_CODED".equals(locate.getStorageMode())) {
+            layout = new StripeLayout(fileSize, locate.getChunkSizeBytes(), locate.getDataShards(), locate.getParityShards());
+        } else {
+            if (locate.getChunkLengths() != null) {
+                offsets = new long[locate.getChunkLengths().length + 1];
+                for (int i = 0; i < locate.getChunkLengths().length; i++) {
+                    offsets[i + 1] = offsets[i] + locate.getChunkLengths()[i];
+                }
+            } else {
+                offsets = ContentDefinedChunker.fixedOffsets(fileSize, locate.getChunkSizeBytes());
+            }
+            for (ChunkPlacement placement : locate.getPlacements()) {
+                if (placement.getContentKey() != null) {
+                    if (chunkKeys == null) {
+                        chunkKeys = new String[locate.getTotalChunks()];
+                    }
+                    chunkKeys[placement.getChunkIndex()] = placement.getContentKey();
+                }
+            }
+        }
+
+        uploadAndCommit(filePath, fileSize, fileId, layout, offsets, chunkKeys, skip, chains,
+                Math.max(1, status.getWriteQuorum()));
+    }
+
+    /**
+     * Uploads every stored chunk not in skip, in parallel, to its nodes, reporting each one
+     * acknowledged to the coordinator, then commits the file.
+     *
+     * @param layout    stripe layout if the file is erasure coded, else null
+     * @param offsets   chunk boundaries if the file is replicated
+     * @param chunkKeys content keys of a deduplicated file's chunks, else null
+     * @param skip      stored chunk indexes not to upload
+     */
+    private void uploadAndCommit(Path filePath, long fileSize, String fileId, StripeLayout layout, long[] offsets,
+                                 String[] chunkKeys, BitSet skip, List<List<NodeAddress>> chains, int writeQuorum) {
+        AtomicInteger uploaded = new AtomicInteger();
+        long start = System.nanoTime();
+
+        List<Integer> failed;
+        String compression = null;
+        try (FileChannel file = FileChannel.open(filePath, StandardOpenOption.READ);
+             ParallelChunkUploader uploader = new ParallelChunkUploader(settings);
+             UploadProgressReporter reporter = new UploadProgressReporter(coordinatorHost, coordinatorPort, fileId)) {
+
+            IntConsumer onUploaded = storedIndex -> {
+                uploaded.incrementAndGet();
+                reporter.chunkUploaded(storedIndex);
+            };
+            if (layout != null) {
+                failed = uploader.uploadStripes(fileId, file, layout, skip,
+                        shardIndex -> chains.get(shardIndex).get(0), onUploaded);
+            } else if (chunkKeys != null) {
+                failed = uploader.uploadContent(file, offsets, chunkKeys, skip,
+                        chunkIndex -> chains.get(chunkIndex), writeQuorum, onUploaded);
+            } else {
+                failed = uploader.uploadFile(fileId, file, offsets, skip,
+                        chunkIndex -> chains.get(chunkIndex), writeQuorum, onUploaded);
+            }
+            if (layout == null && settings.isCompressed()) {
+                compression = uploader.getCompressor().toString();
+            }
+
+            // Report the last acknowledged chunks, also if others failed, so a resume skips them
+            reporter.flush();
+
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to upload chunks. Resume with: " + resumeCommand(filePath, fileId), e);
+        }
+
+        if (!failed.isEmpty()) {
+            throw new RuntimeException("Upload failed, " + failed.size() + " chunk(s) not acknowledged: " + failed
+                    + ". Resume with: " + resumeCommand(filePath, fileId));
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long storedChunks = chains.size();
+        System.out.println(String.format("\nUploaded %d of %d chunks (%d bytes) in %.2fs, %.1f MB/s",
+                uploaded.get(), storedChunks, fileSize, seconds, fileSize / seconds / (1024 * 1024)));
+        if (compression != null) {
+            System.out.println("Compression: " + compression);
+        }
+
+        // All chunks acknowledged and reported, so the file can be committed
+        FilesCommitAck ack = commitWithCoordinator(fileId);
+        System.out.println("Commit: " + ack.getStatus() + " " + ack.getMessage());
+        if (!"OK".equals(ack.getStatus())) {
+            System.out.println("Resume with: " + resumeCommand(filePath, fileId));
+        }
+    }
+
+    private static String resumeCommand(Path filePath, String fileId) {
+        return "UploadOrchestratorClient " + filePath + " " + fileId;
     }
 
     private FilesInitResponse initUploadWithCoordinator (
             String FileName,
             long fileSize,
-            int chunkSizeBytes
+            int chunkSizeBytes,
+            long[] chunkOffsets,
+            ContentHash[] chunkHashes
     ) {
         try (Socket socket = new Socket(coordinatorHost, coordinatorPort)) {
             TcpMessageReader reader = new TcpMessageReader(socket.getInputStream());
@@ -74,10 +306,28 @@ public class UploadOrchestratorClient {
             request.setFilename(FileName);
             request.setTotalSizeBytes(fileSize);
             request.setChunkSizeBytes(chunkSizeBytes);
+            if (settings.isErasureCoded()) {
+                request.setStorageMode("ERASURE_CODED");
+                request.setDataShards(settings.getDataShards());
+                request.setParityShards(settings.getParityShards());
+            } else {
+                request.setReplicationFactor(settings.getReplicationFactor());
+                request.setWriteQuorum(settings.getWriteQuorum());
+            }
+            if (chunkOffsets != null) {
+                int[] chunkLengths = new int[chunkOffsets.length - 1];
+                for (int i = 0; i < chunkLengths.length; i++) {
+                    chunkLengths[i] = (int) (chunkOffsets[i + 1] - chunkOffsets[i]);
+                }
+                request.setChunkLengths(chunkLengths);
+            }
+            if (chunkHashes != null) {
+                request.setChunkHashes(Arrays.stream(chunkHashes).map(ContentHash::toHex).toList());
+            }
             request.setBodyLength(0);
 
             // Send request
-            writer.send(new Message("FILES_INIT_REQUEST", gson.toJson(request)), null);
+            writer.send(Message.of("FILES_INIT_REQUEST", request), null);
 
             // Read response
             ReceivedMessage resp = reader.read();
@@ -87,19 +337,182 @@ public class UploadOrchestratorClient {
 
             Message header = resp.getHeader();
             String type = header.getType();
-            String data = header.getData();
 
             if ("FILES_INIT_RESPONSE".equals(type)) {
-                FilesInitResponse response = gson.fromJson(data, FilesInitResponse.class);
+                FilesInitResponse response = header.getPayload(FilesInitResponse.class);
 
                 return response;
             }
 
             // If response not read and returned then throw error
-            throw new RuntimeException("Unrecognized response returned. " + type + ": " + data);
+            throw new RuntimeException("Unrecognized response returned. " + type + ": " + header.getData());
 
         } catch (Exception e) {
             throw new RuntimeException("Failed to initiate upload with Coordinator. ", e);
         }
     }
+
+    private long[] chunkFile(Path filePath, long fileSize, ContentDefinedChunker chunker) {
+        long start = System.nanoTime();
+
+        try (FileChannel file = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            long[] chunkOffsets = chunker.chunk(file, fileSize);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format("Content-defined chunking: %d chunks (avg %d, min %d, max %d bytes) in %.2fs, %.1f MB/s",
+                    chunkOffsets.length - 1, chunker.getAvgSize(), chunker.getMinSize(), chunker.getMaxSize(),
+                    seconds, fileSize / seconds / (1024 * 1024)));
+            return chunkOffsets;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to chunk file. ", e);
+        }
+    }
+
+    private ContentHash[] hashChunks(Path filePath, long[] chunkOffsets) {
+        int totalChunks = chunkOffsets.length - 1;
+        long fileSize = chunkOffsets[totalChunks];
+        long start = System.nanoTime();
+
+        try (FileChannel file = FileChannel.open(filePath, StandardOpenOption.READ);
+             ParallelChunkUploader uploader = new ParallelChunkUploader(settings)) {
+            ContentHash[] hashes = uploader.hashChunks(file, chunkOffsets);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format("Hashed %d chunks in %.2fs, %.1f MB/s",
+                    totalChunks, seconds, fileSize / seconds / (1024 * 1024)));
+            return hashes;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to hash chunks. ", e);
+        }
+    }
+
+    /**
+     * Asks the coordinator which chunk contents it already stores (CHUNK_HAVE, in batches of
+     * HAVE_BATCH hashes).
+     *
+     * @return chunks that need no upload: stored already, or repeating an earlier chunk of the file
+     */
+    private BitSet chunksToSkip(ContentHash[] chunkHashes) {
+        BitSet skip = new BitSet(chunkHashes.length);
+        Set<ContentHash> seen = new HashSet<>();
+        for (int chunkIndex = 0; chunkIndex < chunkHashes.length; chunkIndex++) {
+            if (!seen.add(chunkHashes[chunkIndex])) {
+                skip.set(chunkIndex);
+            }
+        }
+
+        try (Socket socket = new Socket(coordinatorHost, coordinatorPort)) {
+            TcpMessageReader reader = new TcpMessageReader(socket.getInputStream());
+            TcpMessageWriter writer = new TcpMessageWriter(socket.getOutputStream());
+
+            // Read welcome message from coordinator server
+            reader.read();
+
+            for (int from = 0; from < chunkHashes.length; from += HAVE_BATCH) {
+                int to = Math.min(chunkHashes.length, from + HAVE_BATCH);
+
+                ChunkHaveRequest request = new ChunkHaveRequest();
+                request.setHashes(Arrays.stream(chunkHashes, from, to).map(ContentHash::toHex).toList());
+                request.setReplicationFactor(settings.getReplicationFactor());
+                writer.send(Message.of("CHUNK_HAVE", request), null);
+
+                ReceivedMessage resp = reader.read();
+                if (resp == null || resp.getHeader() == null) {
+                    throw new RuntimeException("Failed to read response from coordinator.");
+                }
+                Message header = resp.getHeader();
+                if (!"CHUNK_HAVE_RESPONSE".equals(header.getType())) {
+                    throw new RuntimeException("Unrecognized response returned. " + header.getType() + ": " + header.getData());
+                }
+
+                boolean[] present = header.getPayload(ChunkHaveResponse.class).getPresent();
+                for (int i = 0; i < present.length; i++) {
+                    if (present[i]) {
+                        skip.set(from + i);
+                    }
+                }
+            }
+            return skip;
+
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to query stored chunks with Coordinator. ", e);
+        }
+    }
+
+    /**
+     * @param fallback node for chunks without a placement, or null if every chunk has one
+     * @return the replication chain of each stored chunk index (a single node per shard when erasure coded)
+     */
+    private static List<List<NodeAddress>> uploadChains(List<ChunkPlacement> placements, int totalChunks, NodeAddress fallback) {
+        int stored = (placements != null) ? placements.size() : totalChunks;
+        List<List<NodeAddress>> chains = new ArrayList<>(
+                Collections.nCopies(Math.max(stored, totalChunks), (fallback != null) ? List.of(fallback) : null));
+
+        if (placements != null) {
+            for (ChunkPlacement placement : placements) {
+                chains.set(placement.getChunkIndex(), placement.getNodes());
+            }
+        }
+        return chains;
+    }
+
+    /**
+     * Sends one request to the coordinator on a new connection.
+     *
+     * @return the reply's payload
+     */
+    private <T> T queryCoordinator(String type, Object request, String responseType, Class<T> responseClass) {
+        try (Socket socket = new Socket(coordinatorHost, coordinatorPort)) {
+            TcpMessageReader reader = new TcpMessageReader(socket.getInputStream());
+            TcpMessageWriter writer = new TcpMessageWriter(socket.getOutputStream());
+
+            // Read welcome message from coordinator server
+            reader.read();
+
+            writer.send(Message.of(type, request), null);
+
+            ReceivedMessage resp = reader.read();
+            if (resp == null || resp.getHeader() == null) {
+                throw new RuntimeException("Failed to read response from coordinator.");
+            }
+            Message header = resp.getHeader();
+            if (!responseType.equals(header.getType())) {
+                throw new RuntimeException("Unrecognized response returned. " + header.getType() + ": " + header.getData());
+            }
+            return header.getPayload(responseClass);
+
+        } catch (Exception e) {
+            throw new RuntimeException(type + " failed with Coordinator. ", e);
+        }
+    }
+
+    private FilesCommitAck commitWithCoordinator(String fileId) {
+        try (Socket socket = new Socket(coordinatorHost, coordinatorPort)) {
+            TcpMessageReader reader = new TcpMessageReader(socket.getInputStream());
+            TcpMessageWriter writer = new TcpMessageWriter(socket.getOutputStream());
+
+            // Read welcome message from coordinator server
+            reader.read();
+
+            FilesCommitRequest request = new FilesCommitRequest();
+            request.setFileId(fileId);
+
+            writer.send(Message.of("FILES_COMMIT", request), null);
+
+            ReceivedMessage resp = reader.read();
+            if (resp == null || resp.getHeader() == null) {
+                throw new RuntimeException("Failed to read response from coordinator.");
+            }
+
+            Message header = resp.getHeader();
+            String type = header.getType();
+
+            if ("FILES_COMMIT_ACK".equals(type)) {
+                return header.getPayload(FilesCommitAck.class);
+            }
+
+            throw new RuntimeException("Unrecognized response returned. " + type + ": " + header.getData());
+
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to commit file with Coordinator. ", e);
+        }
+    }
 }
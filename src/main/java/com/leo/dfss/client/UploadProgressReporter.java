@@ -0,0 +1,206 @@
+package com.leo.dfss.client;
+
+import com.leo.dfss.protocol.FilesChunksUploadedRequest;
+import com.leo.dfss.protocol.FilesUploadStatusResponse;
+import com.leo.dfss.protocol.Message;
+import com.leo.dfss.transport.ReceivedMessage;
+import com.leo.dfss.transport.TcpMessageReader;
+import com.leo.dfss.transport.TcpMessageWriter;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reports acknowledged chunks of an upload to the coordinator (FILES_CHUNKS_UPLOADED), so that if
+ * the upload dies it can be resumed with only the chunks the coordinator has not heard about.
+ *
+ * Chunks are reported in batches: once BATCH_CHUNKS have been acknowledged, and every
+ * FLUSH_INTERVAL_MS otherwise, so at most a few seconds of progress are lost. Reports are sent from
+ * the reporter's own thread; the upload threads only queue chunks and never wait on the coordinator.
+ * A report that fails (e.g. the coordinator is restarting) is kept and sent with the next periodic
+ * one.
+ */
+public class UploadProgressReporter implements AutoCloseable {
+
+    private static final int BATCH_CHUNKS = 1024;
+    private static final long FLUSH_INTERVAL_MS = 2_000;
+    private static final int CONNECT_TIMEOUT_MS = 5_000;
+    private static final int READ_TIMEOUT_MS = 30_000;
+
+    private final String host;
+    private final int port;
+    private final String fileId;
+
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "upload-progress");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Guards the queue; never held while talking to the coordinator
+    private final ReentrantLock lock = new ReentrantLock();
+    private int[] pending = new int[BATCH_CHUNKS];
+    private int pendingCount;
+    private boolean started;      // periodic flushes scheduled
+    private boolean flushQueued;  // a batch flush is waiting on the flusher
+    private boolean failing;      // the last report failed; wait for the periodic retry
+
+    // Guards the connection; one report at a time
+    private final ReentrantLock reportLock = new ReentrantLock();
+    private Socket socket;
+    private TcpMessageReader reader;
+    private TcpMessageWriter writer;
+
+    public UploadProgressReporter(String host, int port, String fileId) {
+        this.host = host;
+        this.port = port;
+        this.fileId = fileId;
+    }
+
+    /**
+     * Queues a chunk acknowledged by its nodes. Called from the upload threads.
+     *
+     * @param storedIndex stored chunk index (shard index when erasure coded)
+     */
+    public void chunkUploaded(int storedIndex) {
+        lock.lock();
+        try {
+            if (!started) {
+                started = true;
+                flusher.scheduleWithFixedDelay(this::flushQuietly, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            }
+            if (pendingCount == pending.length) {
+                pending = Arrays.copyOf(pending, pending.length * 2); // reports are failing
+            }
+            pending[pendingCount++] = storedIndex;
+            if (pendingCount >= BATCH_CHUNKS && !flushQueued && !failing) {
+                flushQueued = true;
+                flusher.execute(this::flushQuietly);
+            }
+        } catch (RejectedExecutionException e) {
+            // Closed; the chunk stays queued for a final flush()
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reports every queued chunk.
+     *
+     * @return the coordinator's view of the upload after the report, or null if nothing was queued
+     */
+    public FilesUploadStatusResponse flush() throws IOException {
+        reportLock.lock();
+        try {
+            int[] chunkIndexes;
+            lock.lock();
+            try {
+                flushQueued = false;
+                if (pendingCount == 0) {
+                    return null;
+                }
+                chunkIndexes = Arrays.copyOf(pending, pendingCount);
+                pendingCount = 0;
+            } finally {
+                lock.unlock();
+            }
+
+            FilesChunksUploadedRequest request = new FilesChunksUploadedRequest();
+            request.setFileId(fileId);
+            request.setChunkIndexes(chunkIndexes);
+
+            FilesUploadStatusResponse response;
+            try {
+                connect();
+                writer.send(Message.of("FILES_CHUNKS_UPLOADED", request), null);
+                ReceivedMessage received = reader.read();
+                if (received == null) {
+                    throw new IOException("Coordinator closed the connection");
+                }
+                Message header = received.getHeader();
+                if (!"FILES_UPLOAD_STATUS_RESPONSE".equals(header.getType())) {
+                    throw new IOException(header.getType() + ": " + header.getData());
+                }
+                response = header.getPayload(FilesUploadStatusResponse.class);
+            } catch (IOException e) {
+                disconnect();
+                requeue(chunkIndexes);
+                throw e;
+            }
+
+            lock.lock();
+            try {
+                failing = false;
+            } finally {
+                lock.unlock();
+            }
+            return response;
+        } finally {
+            reportLock.unlock();
+        }
+    }
+
+    /** Puts the chunks of a failed report back in front of those queued since. */
+    private void requeue(int[] chunkIndexes) {
+        lock.lock();
+        try {
+            int[] merged = new int[Math.max(pending.length, chunkIndexes.length + pendingCount)];
+            System.arraycopy(chunkIndexes, 0, merged, 0, chunkIndexes.length);
+            System.arraycopy(pending, 0, merged, chunkIndexes.length, pendingCount);
+            pending = merged;
+            pendingCount += chunkIndexes.length;
+            failing = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            System.out.println("Could not report upload progress: " + e.getMessage());
+        }
+    }
+
+    private void connect() throws IOException {
+        if (socket != null) {
+            return;
+        }
+        socket = new Socket();
+        socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+        socket.setSoTimeout(READ_TIMEOUT_MS);
+        reader = new TcpMessageReader(socket.getInputStream());
+        writer = new TcpMessageWriter(socket.getOutputStream());
+        reader.read(); // WELCOME
+    }
+
+    private void disconnect() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+        socket = null;
+    }
+
+    /** Stops the periodic reports and closes the connection; call flush() first to report the rest. */
+    @Override
+    public void close() {
+        flusher.shutdownNow();
+        reportLock.lock();
+        try {
+            disconnect();
+        } finally {
+            reportLock.unlock();
+        }
+    }
+}
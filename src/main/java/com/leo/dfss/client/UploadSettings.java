@@ -0,0 +1,279 @@
+package com.leo.dfss.client;
+
+import com.leo.dfss.compression.ChunkCodec;
+import com.leo.dfss.compression.ChunkCompressor;
+
+/**
+ * Tuning for UploadOrchestratorClient.
+ *
+ * Defaults can be overridden with system properties:
+ *   dfss.upload.chunkSize          = chunk size in bytes (default 4 MiB)
+ *   dfss.upload.connectionsPerNode = persistent connections per node (default 4)
+ *   dfss.upload.maxInFlight        = chunks being uploaded at once (default 16)
+ *   dfss.upload.maxRetries         = extra attempts per chunk after a failure (default 3)
+ *   dfss.upload.replication        = nodes each chunk is stored on (default 1)
+ *   dfss.upload.writeQuorum        = replicas durable before a chunk counts as uploaded
+ *                                    (default 0: the coordinator uses a majority)
+ *   dfss.upload.dataShards         = erasure-code the file with this many chunks per stripe
+ *                                    (default 0: replicate instead)
+ *   dfss.upload.parityShards       = parity shards per stripe when erasure coding (default 3)
+ *   dfss.upload.dedup              = true to store chunks by content hash and skip those already
+ *                                    stored (default false; replicated files only)
+ *   dfss.upload.chunking           = fixed: chunkSize chunks; cdc: content-defined chunks (FastCDC),
+ *                                    whose boundaries survive inserts and deletes (default fixed;
+ *                                    replicated files only)
+ *   dfss.upload.cdc.avg            = average content-defined chunk size (default chunkSize)
+ *   dfss.upload.cdc.min            = smallest content-defined chunk (default avg / 4)
+ *   dfss.upload.cdc.max            = largest content-defined chunk (default avg x 4)
+ *   dfss.upload.compression        = none, lz4 (fast) or deflate (denser, slower): compress each
+ *                                    chunk before sending it; nodes store it compressed (default
+ *                                    none; replicated files only)
+ *   dfss.upload.compression.minSavings = percent of a chunk compression must save for the chunk to
+ *                                    be stored compressed (default 10)
+ */
+public class UploadSettings {
+
+    private int chunkSizeBytes = 4 * 1024 * 1024;
+    private int connectionsPerNode = 4;
+    private int maxInFlight = 16;
+    private int maxRetries = 3;
+    private long retryBackoffMs = 200;
+    private int replicationFactor = 1;
+    private int writeQuorum = 0;
+    private int dataShards = 0;
+    private int parityShards = 3;
+    private boolean deduplicated = false;
+    private boolean contentDefinedChunking = false;
+    private int cdcMinBytes = 0;    // 0: avg / 4
+    private int cdcAvgBytes = 0;    // 0: chunkSizeBytes
+    private int cdcMaxBytes = 0;    // 0: avg x 4
+    private ChunkCodec compression = ChunkCodec.NONE;
+    private int compressionMinSavingsPercent = 10;
+
+    public UploadSettings() {}
+
+    public static UploadSettings fromSystemProperties() {
+        UploadSettings settings = new UploadSettings();
+        settings.setChunkSizeBytes(Integer.getInteger("dfss.upload.chunkSize", settings.getChunkSizeBytes()));
+        settings.setConnectionsPerNode(Integer.getInteger("dfss.upload.connectionsPerNode", settings.getConnectionsPerNode()));
+        settings.setMaxInFlight(Integer.getInteger("dfss.upload.maxInFlight", settings.getMaxInFlight()));
+        settings.setMaxRetries(Integer.getInteger("dfss.upload.maxRetries", settings.getMaxRetries()));
+        settings.setReplicationFactor(Integer.getInteger("dfss.upload.replication", settings.getReplicationFactor()));
+        settings.setWriteQuorum(Integer.getInteger("dfss.upload.writeQuorum", settings.getWriteQuorum()));
+        settings.setDataShards(Integer.getInteger("dfss.upload.dataShards", settings.getDataShards()));
+        settings.setParityShards(Integer.getInteger("dfss.upload.parityShards", settings.getParityShards()));
+        settings.setDeduplicated(Boolean.getBoolean("dfss.upload.dedup"));
+        String chunking = System.getProperty("dfss.upload.chunking", "fixed");
+        if (!chunking.equals("fixed") && !chunking.equals("cdc")) {
+            throw new IllegalArgumentException("dfss.upload.chunking must be fixed or cdc, not " + chunking);
+        }
+        settings.setContentDefinedChunking(chunking.equals("cdc"));
+        settings.setCdcMinBytes(Integer.getInteger("dfss.upload.cdc.min", 0));
+        settings.setCdcAvgBytes(Integer.getInteger("dfss.upload.cdc.avg", 0));
+        settings.setCdcMaxBytes(Integer.getInteger("dfss.upload.cdc.max", 0));
+        settings.setCompression(ChunkCodec.fromName(System.getProperty("dfss.upload.compression", "none")));
+        settings.setCompressionMinSavingsPercent(Integer.getInteger("dfss.upload.compression.minSavings",
+                settings.getCompressionMinSavingsPercent()));
+        return settings;
+    }
+
+    public int getChunkSizeBytes() {
+        return chunkSizeBytes;
+    }
+
+    public void setChunkSizeBytes(int chunkSizeBytes) {
+        if (chunkSizeBytes <= 0) {
+            throw new IllegalArgumentException("chunkSizeBytes must be greater than 0");
+        }
+        this.chunkSizeBytes = chunkSizeBytes;
+    }
+
+    public int getConnectionsPerNode() {
+        return connectionsPerNode;
+    }
+
+    public void setConnectionsPerNode(int connectionsPerNode) {
+        if (connectionsPerNode <= 0) {
+            throw new IllegalArgumentException("connectionsPerNode must be greater than 0");
+        }
+        this.connectionsPerNode = connectionsPerNode;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be greater than 0");
+        }
+        this.maxInFlight = maxInFlight;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries cannot be negative");
+        }
+        this.maxRetries = maxRetries;
+    }
+
+    public long getRetryBackoffMs() {
+        return retryBackoffMs;
+    }
+
+    public void setRetryBackoffMs(long retryBackoffMs) {
+        this.retryBackoffMs = retryBackoffMs;
+    }
+
+    public int getReplicationFactor() {
+        return replicationFactor;
+    }
+
+    public void setReplicationFactor(int replicationFactor) {
+        if (replicationFactor <= 0) {
+            throw new IllegalArgumentException("replicationFactor must be greater than 0");
+        }
+        this.replicationFactor = replicationFactor;
+    }
+
+    public int getWriteQuorum() {
+        return writeQuorum;
+    }
+
+    public void setWriteQuorum(int writeQuorum) {
+        if (writeQuorum < 0) {
+            throw new IllegalArgumentException("writeQuorum cannot be negative");
+        }
+        this.writeQuorum = writeQuorum;
+    }
+
+    public int getDataShards() {
+        return dataShards;
+    }
+
+    public void setDataShards(int dataShards) {
+        if (dataShards < 0) {
+            throw new IllegalArgumentException("dataShards cannot be negative");
+        }
+        this.dataShards = dataShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    public void setParityShards(int parityShards) {
+        if (parityShards <= 0) {
+            throw new IllegalArgumentException("parityShards must be greater than 0");
+        }
+        this.parityShards = parityShards;
+    }
+
+    /** @return true if files are erasure coded instead of replicated */
+    public boolean isErasureCoded() {
+        return dataShards > 0;
+    }
+
+    public boolean isDeduplicated() {
+        return deduplicated;
+    }
+
+    public void setDeduplicated(boolean deduplicated) {
+        this.deduplicated = deduplicated;
+    }
+
+    public boolean isContentDefinedChunking() {
+        return contentDefinedChunking;
+    }
+
+    public void setContentDefinedChunking(boolean contentDefinedChunking) {
+        this.contentDefinedChunking = contentDefinedChunking;
+    }
+
+    /** @return smallest content-defined chunk in bytes */
+    public int getCdcMinBytes() {
+        return (cdcMinBytes > 0) ? cdcMinBytes : getCdcAvgBytes() / 4;
+    }
+
+    /** @param cdcMinBytes smallest content-defined chunk, or 0 for avg / 4 */
+    public void setCdcMinBytes(int cdcMinBytes) {
+        if (cdcMinBytes < 0) {
+            throw new IllegalArgumentException("cdcMinBytes cannot be negative");
+        }
+        this.cdcMinBytes = cdcMinBytes;
+    }
+
+    /** @return average content-defined chunk size in bytes */
+    public int getCdcAvgBytes() {
+        return (cdcAvgBytes > 0) ? cdcAvgBytes : chunkSizeBytes;
+    }
+
+    /** @param cdcAvgBytes average content-defined chunk size, or 0 for chunkSizeBytes */
+    public void setCdcAvgBytes(int cdcAvgBytes) {
+        if (cdcAvgBytes < 0) {
+            throw new IllegalArgumentException("cdcAvgBytes cannot be negative");
+        }
+        this.cdcAvgBytes = cdcAvgBytes;
+    }
+
+    /** @return largest content-defined chunk in bytes */
+    public int getCdcMaxBytes() {
+        if (cdcMaxBytes > 0) {
+            return cdcMaxBytes;
+        }
+        long max = 4L * getCdcAvgBytes();
+        return (int) Math.min(max, Integer.MAX_VALUE - 8);
+    }
+
+    /** @param cdcMaxBytes largest content-defined chunk, or 0 for avg x 4 */
+    public void setCdcMaxBytes(int cdcMaxBytes) {
+        if (cdcMaxBytes < 0) {
+            throw new IllegalArgumentException("cdcMaxBytes cannot be negative");
+        }
+        this.cdcMaxBytes = cdcMaxBytes;
+    }
+
+    public ChunkCodec getCompression() {
+        return compression;
+    }
+
+    /** @param compression codec chunks are compressed with, NONE to send them as they are */
+    public void setCompression(ChunkCodec compression) {
+        if (compression == null) {
+            throw new IllegalArgumentException("compression cannot be null, use NONE");
+        }
+        this.compression = compression;
+    }
+
+    public boolean isCompressed() {
+        return compression != ChunkCodec.NONE;
+    }
+
+    public int getCompressionMinSavingsPercent() {
+        return compressionMinSavingsPercent;
+    }
+
+    public void setCompressionMinSavingsPercent(int compressionMinSavingsPercent) {
+        if (compressionMinSavingsPercent < 0 || compressionMinSavingsPercent >= 100) {
+            throw new IllegalArgumentException("compressionMinSavingsPercent must be from 0 to 99");
+        }
+        this.compressionMinSavingsPercent = compressionMinSavingsPercent;
+    }
+
+    /** @return a compressor for the configured codec and threshold */
+    public ChunkCompressor newCompressor() {
+        return new ChunkCompressor(compression, compressionMinSavingsPercent / 100.0);
+    }
+
+    /**
+     * @return a chunker for the configured content-defined chunk sizes
+     * @throws IllegalArgumentException if they do not satisfy min <= avg <= max
+     */
+    public ContentDefinedChunker newChunker() {
+        return new ContentDefinedChunker(getCdcMinBytes(), getCdcAvgBytes(), getCdcMaxBytes());
+    }
+}
@@ -0,0 +1,162 @@
+package com.leo.dfss.compression;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * How a stored chunk's bytes are encoded. The codec travels with the chunk: in CHUNK_UPLOAD (by
+ * name, or its id in binary frames), in the node's chunk metadata, and in CHUNK_DOWNLOAD_RESPONSE.
+ *
+ *   NONE     the chunk's own bytes
+ *   LZ4      LZ4 block format: fast, for compressing on the upload path at network speed
+ *   DEFLATE  raw deflate (no zlib wrapper; CRC32C already covers the bytes): denser and several
+ *            times slower, for data stored long and read rarely
+ *
+ * The ids are persisted by the nodes, so they must never change.
+ */
+public enum ChunkCodec {
+
+    NONE(0) {
+        @Override
+        public int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int maxLength) {
+            if (srcLen > maxLength) {
+                return -1;
+            }
+            System.arraycopy(src, srcOff, dst, dstOff, srcLen);
+            return srcLen;
+        }
+
+        @Override
+        public void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int rawLength) throws IOException {
+            if (srcLen != rawLength) {
+                throw new IOException("Chunk is " + srcLen + " bytes, expected " + rawLength);
+            }
+            System.arraycopy(src, srcOff, dst, dstOff, srcLen);
+        }
+    },
+
+    LZ4(1) {
+        @Override
+        public int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int maxLength) {
+            return Lz4.compress(src, srcOff, srcLen, dst, dstOff, maxLength);
+        }
+
+        @Override
+        public void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int rawLength) throws IOException {
+            Lz4.decompress(src, srcOff, srcLen, dst, dstOff, rawLength);
+        }
+    },
+
+    DEFLATE(2) {
+        @Override
+        public int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int maxLength) {
+            Deflater deflater = DEFLATER.get();
+            deflater.reset();
+            deflater.setInput(src, srcOff, srcLen);
+            deflater.finish();
+
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == maxLength) {
+                    return -1;
+                }
+                length += deflater.deflate(dst, dstOff + length, maxLength - length);
+            }
+            return length;
+        }
+
+        @Override
+        public void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int rawLength) throws IOException {
+            Inflater inflater = INFLATER.get();
+            inflater.reset();
+            inflater.setInput(src, srcOff, srcLen);
+
+            int length = 0;
+            try {
+                while (!inflater.finished()) {
+                    int n = inflater.inflate(dst, dstOff + length, rawLength - length);
+                    if (n == 0) {
+                        break; // input ended early, or inflates to more than rawLength
+                    }
+                    length += n;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt deflate data: " + e.getMessage(), e);
+            }
+            if (!inflater.finished() || length != rawLength) {
+                throw new IOException("Corrupt deflate data: does not inflate to " + rawLength + " bytes");
+            }
+        }
+    };
+
+    // Deflater and Inflater hold native zlib state: reuse one per thread rather than one per chunk
+    private static final ThreadLocal<Deflater> DEFLATER =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> INFLATER =
+            ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private static final ChunkCodec[] BY_ID = values();
+
+    private final int id;
+
+    ChunkCodec(int id) {
+        this.id = id;
+    }
+
+    /** @return the codec's persistent id (ordinal order, see BY_ID) */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Compresses src[srcOff, srcOff + srcLen) into dst, giving up as soon as the output would be
+     * longer than maxLength: callers pass the largest size worth storing, so incompressible data
+     * costs no more than the attempt.
+     *
+     * @return compressed length, or -1 if it would exceed maxLength
+     */
+    public abstract int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int maxLength);
+
+    /**
+     * Decompresses a whole compressed chunk.
+     *
+     * @param rawLength the chunk's uncompressed length; dst must have room for it
+     * @throws IOException if the data is corrupt or does not decompress to rawLength bytes
+     */
+    public abstract void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int rawLength)
+            throws IOException;
+
+    /** @return srcLen bytes decompressed into a new array of rawLength bytes */
+    public byte[] decompress(byte[] src, int srcOff, int srcLen, int rawLength) throws IOException {
+        byte[] raw = new byte[rawLength];
+        decompress(src, srcOff, srcLen, raw, 0, rawLength);
+        return raw;
+    }
+
+    /**
+     * @throws IllegalArgumentException if no codec has the id
+     */
+    public static ChunkCodec fromId(int id) {
+        if (id < 0 || id >= BY_ID.length) {
+            throw new IllegalArgumentException("Unknown chunk codec id " + id);
+        }
+        return BY_ID[id];
+    }
+
+    /**
+     * @param name codec name as sent in protocol messages (any case), or null for NONE
+     * @throws IllegalArgumentException if no codec has the name
+     */
+    public static ChunkCodec fromName(String name) {
+        if (name == null) {
+            return NONE;
+        }
+        try {
+            return valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown chunk codec " + name);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.leo.dfss.compression;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adaptive per-chunk compression: a chunk is stored compressed only if that saves at least
+ * minSavings of its size, and is otherwise sent and stored as it is.
+ *
+ * To bound the CPU spent on data that does not compress (media, archives, encrypted files), a
+ * sample from the middle of each large chunk is compressed first; if the sample does not shrink
+ * past the threshold the chunk is not attempted. The full attempt also gives up as soon as its
+ * output passes the threshold size (see ChunkCodec.compress). Thread-safe: one compressor is
+ * shared by all upload threads and counts what it did.
+ */
+public final class ChunkCompressor {
+
+    static final int SAMPLE_BYTES = 64 * 1024;
+
+    private final ChunkCodec codec;
+    private final double minSavings;
+
+    private final AtomicLong rawBytes = new AtomicLong();
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final AtomicLong compressedChunks = new AtomicLong();
+    private final AtomicLong skippedChunks = new AtomicLong();   // sample did not compress
+    private final AtomicLong rejectedChunks = new AtomicLong();  // full attempt did not compress
+
+    /**
+     * @param codec codec to compress with (NONE: never compress)
+     * @param minSavings share of a chunk compression must save to be kept, 0 to 1
+     */
+    public ChunkCompressor(ChunkCodec codec, double minSavings) {
+        if (minSavings < 0 || minSavings >= 1) {
+            throw new IllegalArgumentException("minSavings must be at least 0 and less than 1");
+        }
+        this.codec = codec;
+        this.minSavings = minSavings;
+    }
+
+    public ChunkCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Compresses a chunk if that is worthwhile.
+     *
+     * @param out receives the compressed bytes, at least length long (output that would not fit
+     *            is not worth keeping)
+     * @return compressed length in out, or -1 to store the chunk uncompressed
+     */
+    public int compress(byte[] chunk, int length, byte[] out) {
+        rawBytes.addAndGet(length);
+        int compressed = -1;
+
+        if (codec != ChunkCodec.NONE) {
+            if (length >= 4 * SAMPLE_BYTES && !sampleCompresses(chunk, length, out)) {
+                skippedChunks.incrementAndGet();
+            } else {
+                compressed = codec.compress(chunk, 0, length, out, 0, worthKeeping(length));
+                if (compressed < 0) {
+                    rejectedChunks.incrementAndGet();
+                }
+            }
+        }
+
+        if (compressed < 0) {
+            storedBytes.addAndGet(length);
+        } else {
+            compressedChunks.incrementAndGet();
+            storedBytes.addAndGet(compressed);
+        }
+        return compressed;
+    }
+
+    private boolean sampleCompresses(byte[] chunk, int length, byte[] out) {
+        int from = (length - SAMPLE_BYTES) / 2;
+        return codec.compress(chunk, from, SAMPLE_BYTES, out, 0, worthKeeping(SAMPLE_BYTES)) >= 0;
+    }
+
+    /** @return the largest compressed size that still saves minSavings */
+    private int worthKeeping(int length) {
+        return (int) (length * (1 - minSavings));
+    }
+
+    /** @return bytes of the chunks passed to compress() */
+    public long getRawBytes() {
+        return rawBytes.get();
+    }
+
+    /** @return bytes sent and stored for them: compressed where that was kept, raw elsewhere */
+    public long getStoredBytes() {
+        return storedBytes.get();
+    }
+
+    public long getCompressedChunks() {
+        return compressedChunks.get();
+    }
+
+    /** @return chunks not attempted because their sample did not compress */
+    public long getSkippedChunks() {
+        return skippedChunks.get();
+    }
+
+    /** @return chunks compressed in full that did not save minSavings */
+    public long getRejectedChunks() {
+        return rejectedChunks.get();
+    }
+
+    @Override
+    public String toString() {
+        long raw = rawBytes.get();
+        long stored = storedBytes.get();
+        return String.format("%s: %d of %d bytes stored (%.1f%%), %d chunks compressed, %d skipped by sample, %d not worth it",
+                codec, stored, raw, (raw == 0) ? 100.0 : 100.0 * stored / raw,
+                compressedChunks.get(), skippedChunks.get(), rejectedChunks.get());
+    }
+}
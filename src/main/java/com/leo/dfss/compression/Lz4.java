@@ -0,0 +1,260 @@
+package com.leo.dfss.compression;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * LZ4 block format (no frame header), in plain Java: the fast codec. Output can be decoded by any
+ * LZ4 block decoder and vice versa.
+ *
+ * A block is a run of sequences, each [token][literal length ext][literals][2 offset][match length
+ * ext]: the token's high nibble is the literal count, its low nibble the match length minus 4,
+ * 15 meaning more follows in 255-valued bytes. The last sequence has literals only; a match ends at
+ * least 5 bytes and starts at least 12 bytes before the end of the input.
+ *
+ * Matches are found with a single-probe hash table of 4-byte sequences, as in the reference
+ * LZ4_compress_fast: no chains, so compression is one hash lookup per position, and the search
+ * steps faster through input that has not matched for a while (incompressible data is skipped at
+ * a fraction of the cost).
+ */
+final class Lz4 {
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_DISTANCE = 0xFFFF;
+
+    private static final int HASH_LOG = 14;
+    private static final int SKIP_TRIGGER = 6; // search step grows by one every 2^6 misses
+
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final ThreadLocal<int[]> HASH_TABLE = ThreadLocal.withInitial(() -> new int[1 << HASH_LOG]);
+
+    private Lz4() {}
+
+    /**
+     * @return length of the compressed block, or -1 if it would be longer than maxLength
+     */
+    static int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int maxLength) {
+        int end = srcOff + srcLen;
+        int limit = dstOff + maxLength;
+        int anchor = srcOff;
+        int op = dstOff;
+
+        if (srcLen > MF_LIMIT) {
+            int matchLimit = end - LAST_LITERALS;
+            int mfLimit = end - MF_LIMIT;
+
+            int[] table = HASH_TABLE.get();
+            Arrays.fill(table, -1);
+
+            int ip = srcOff;
+            search:
+            while (true) {
+                // 1) Find a match for the bytes at ip
+                int ref;
+                int misses = 1 << SKIP_TRIGGER;
+                while (true) {
+                    if (ip > mfLimit) {
+                        break search;
+                    }
+                    int sequence = (int) INT.get(src, ip);
+                    int hash = hash(sequence);
+                    ref = table[hash];
+                    table[hash] = ip;
+                    if (ref >= 0 && ip - ref <= MAX_DISTANCE && (int) INT.get(src, ref) == sequence) {
+                        break;
+                    }
+                    ip += misses++ >>> SKIP_TRIGGER;
+                }
+
+                // 2) Extend it backwards over the pending literals, and forwards
+                while (ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int matchEnd = matchEnd(src, ip + MIN_MATCH, ref + MIN_MATCH, matchLimit);
+
+                // 3) Emit the sequence: literals [anchor, ip), then the match
+                int literals = ip - anchor;
+                int matchLength = matchEnd - ip - MIN_MATCH;
+                if (op + 1 + literals / 255 + 1 + literals + 2 + matchLength / 255 + 1 > limit) {
+                    return -1;
+                }
+                int token = op++;
+                dst[token] = 0;
+                op = writeLength(dst, op, token, literals, 4);
+                System.arraycopy(src, anchor, dst, op, literals);
+                op += literals;
+
+                int distance = ip - ref;
+                dst[op++] = (byte) distance;
+                dst[op++] = (byte) (distance >>> 8);
+                op = writeLength(dst, op, token, matchLength, 0);
+
+                ip = matchEnd;
+                anchor = ip;
+                if (ip > mfLimit) {
+                    break;
+                }
+                // The match's last positions would never be probed otherwise
+                table[hash((int) INT.get(src, ip - 2))] = ip - 2;
+            }
+        }
+
+        // 4) The rest of the input as the last literals
+        int literals = end - anchor;
+        if (op + 1 + literals / 255 + 1 + literals > limit) {
+            return -1;
+        }
+        int token = op++;
+        dst[token] = 0;
+        op = writeLength(dst, op, token, literals, 4);
+        System.arraycopy(src, anchor, dst, op, literals);
+        op += literals;
+
+        return op - dstOff;
+    }
+
+    /**
+     * @param rawLength length of the original data; the block must decode to exactly this many bytes
+     * @throws IOException if the block is malformed
+     */
+    static void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int rawLength) throws IOException {
+        int ip = srcOff;
+        int end = srcOff + srcLen;
+        int op = dstOff;
+        int outEnd = dstOff + rawLength;
+
+        while (ip < end) {
+            int token = src[ip++] & 0xFF;
+
+            // Literals
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int b;
+                do {
+                    if (ip >= end) {
+                        throw corrupt();
+                    }
+                    b = src[ip++] & 0xFF;
+                    literals += b;
+                    if (literals > rawLength) {
+                        throw corrupt(); // also stops the sum overflowing
+                    }
+                } while (b == 255);
+            }
+            if (literals > end - ip || literals > outEnd - op) {
+                throw corrupt();
+            }
+            System.arraycopy(src, ip, dst, op, literals);
+            ip += literals;
+            op += literals;
+
+            if (ip == end) {
+                break; // the last sequence has no match
+            }
+
+            // Match
+            if (end - ip < 2) {
+                throw corrupt();
+            }
+            int distance = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+            ip += 2;
+            int matchLength = token & 0x0F;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    if (ip >= end) {
+                        throw corrupt();
+                    }
+                    b = src[ip++] & 0xFF;
+                    matchLength += b;
+                    if (matchLength > rawLength) {
+                        throw corrupt(); // also stops the sum overflowing
+                    }
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+
+            int ref = op - distance;
+            if (distance == 0 || ref < dstOff || matchLength > outEnd - op) {
+                throw corrupt();
+            }
+            if (distance >= matchLength) {
+                System.arraycopy(dst, ref, dst, op, matchLength);
+            } else {
+                // Overlapping: the match repeats the last distance bytes. Copy in doubling blocks,
+                // each from bytes already written
+                int to = op;
+                int remaining = matchLength;
+                while (remaining > 0) {
+                    int n = Math.min(remaining, to - ref);
+                    System.arraycopy(dst, ref, dst, to, n);
+                    to += n;
+                    remaining -= n;
+                }
+            }
+            op += matchLength;
+        }
+
+        if (op != outEnd) {
+            throw corrupt();
+        }
+    }
+
+    /** @return worst-case compressed length of srcLen bytes (incompressible input) */
+    static int maxCompressedLength(int srcLen) {
+        return srcLen + srcLen / 255 + 16;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG); // Knuth's multiplicative hash, 2654435761
+    }
+
+    /** @return end of the match of src[ip...] with src[ref...], at most limit */
+    private static int matchEnd(byte[] src, int ip, int ref, int limit) {
+        while (ip <= limit - 8) {
+            long diff = (long) LONG.get(src, ip) ^ (long) LONG.get(src, ref);
+            if (diff != 0) {
+                return ip + (Long.numberOfTrailingZeros(diff) >>> 3);
+            }
+            ip += 8;
+            ref += 8;
+        }
+        while (ip < limit && src[ip] == src[ref]) {
+            ip++;
+            ref++;
+        }
+        return ip;
+    }
+
+    /**
+     * Puts a length in the token nibble at shift and writes its 255-byte extension at op.
+     *
+     * @return position after the extension
+     */
+    private static int writeLength(byte[] dst, int op, int token, int length, int shift) {
+        if (length < 15) {
+            dst[token] |= (byte) (length << shift);
+            return op;
+        }
+        dst[token] |= (byte) (15 << shift);
+        length -= 15;
+        while (length >= 255) {
+            dst[op++] = (byte) 255;
+            length -= 255;
+        }
+        dst[op++] = (byte) length;
+        return op;
+    }
+
+    private static IOException corrupt() {
+        return new IOException("Corrupt LZ4 block");
+    }
+}
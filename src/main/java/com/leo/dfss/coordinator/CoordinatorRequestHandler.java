@@ -0,0 +1,589 @@
+package com.leo.dfss.coordinator;
+
+import com.google.gson.JsonSyntaxException;
+
+import com.leo.dfss.domain.*;
+import com.leo.dfss.erasure.ReedSolomon;
+import com.leo.dfss.protocol.*;
+import com.leo.dfss.transport.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coordinator message dispatch for one connection. Used by both CoordinatorConnection
+ * (thread per connection) and the NIO reactor mode, and delegates operations to CoordinatorServer.
+ */
+public class CoordinatorRequestHandler implements ConnectionHandler {
+
+    private final int connectionId; // for logging/identification
+    private final CoordinatorServer coordinator;
+
+    public CoordinatorRequestHandler(int connectionId, CoordinatorServer coordinator) {
+        this.connectionId = connectionId;
+        this.coordinator = coordinator;
+    }
+
+    @Override
+    public void onOpen(TcpMessageReader reader, TcpMessageWriter writer) throws IOException {
+        writer.send(new Message("WELCOME", "Connection " + connectionId + " ready."), null);
+    }
+
+    @Override
+    public boolean onMessage(ReceivedMessage receivedMessage, TcpMessageReader reader, TcpMessageWriter writer) throws IOException {
+        Message header = receivedMessage.getHeader();
+
+        if (header == null || header.getType() == null) {
+            writer.send(new Message("ERROR", "Missing message type.").inReplyTo(header), null);
+            return true;
+        }
+
+        String type = header.getType();
+
+        switch (type) {
+            case "PING":
+                writer.send(new Message("PONG", "Pong (connection " + connectionId + ")").inReplyTo(header), null);
+                break;
+            case "CODEC_SELECT":
+                CodecNegotiation.accept(header, reader, writer);
+                break;
+            case "FILES_INIT_REQUEST":
+                handleFilesInit(header, writer);
+                break;
+            case "FILES_COMMIT":
+                handleFilesCommit(header, writer);
+                break;
+            case "FILES_LOCATE":
+                handleFilesLocate(header, writer);
+                break;
+            case "FILES_CHUNKS_UPLOADED":
+                handleChunksUploaded(header, writer);
+                break;
+            case "FILES_UPLOAD_STATUS":
+                handleUploadStatus(header, writer);
+                break;
+            case "CHUNK_HAVE":
+                handleChunkHave(header, writer);
+                break;
+            case "NODE_REGISTER":
+                handleNodeRegister(header, writer);
+                break;
+            case "NODE_HEARTBEAT":
+                handleNodeHeartbeat(header, receivedMessage.getBody(), writer);
+                break;
+            case "QUIT":
+                writer.send(new Message("GOODBYE", "Closing connection").inReplyTo(header), null);
+                return false; // close connection
+
+            default:
+                writer.send(new Message("ERROR", "Unknown message type: " + type).inReplyTo(header), null);
+                break;
+        }
+        return true;
+    }
+
+    private void handleFilesInit(Message header, TcpMessageWriter writer) throws IOException {
+        FilesInitRequest request;
+
+        try {
+            request = header.getPayload(FilesInitRequest.class);
+        } catch (Exception e) {
+            writer.send(new Message("ERROR", "Invalid JSON format for FILES_INIT_REQUEST.").inReplyTo(header), null);
+            return;
+        }
+
+        if  (request == null) {
+            writer.send(new Message("ERROR", "FILES_INIT_REQUEST requires JSON data").inReplyTo(header), null);
+            return;
+        }
+
+        if (request.getFilename() == null || request.getFilename().isBlank()) {
+            writer.send(new Message("ERROR", "Missing file name.").inReplyTo(header), null);
+            return;
+        }
+
+        if (request.getTotalSizeBytes() <= 0) {
+            writer.send(new Message("ERROR", "totalSizeBytes must be greater than 0.").inReplyTo(header), null);
+            return;
+        }
+        if (request.getChunkSizeBytes() <= 0) {
+            writer.send(new Message("ERROR", "chunkSizeBytes must be greater than 0.").inReplyTo(header), null);
+            return;
+        }
+
+        boolean erasureCoded = FileMetadata.StorageMode.ERASURE_CODED.name().equalsIgnoreCase(request.getStorageMode());
+        FileMetadata meta;
+
+        long[] chunkOffsets = null;
+        long totalChunks = (request.getTotalSizeBytes() + request.getChunkSizeBytes() - 1) / request.getChunkSizeBytes();
+        if (request.getChunkLengths() != null) {
+            if (erasureCoded) {
+                writer.send(new Message("ERROR", "Variable-size chunks are only supported for replicated files.").inReplyTo(header), null);
+                return;
+            }
+            chunkOffsets = offsetsOf(request.getChunkLengths(), request.getChunkSizeBytes());
+            if (chunkOffsets == null || chunkOffsets[chunkOffsets.length - 1] != request.getTotalSizeBytes()) {
+                writer.send(new Message("ERROR", "chunkLengths must each be 1 to chunkSizeBytes and add up to totalSizeBytes.")
+                        .inReplyTo(header), null);
+                return;
+            }
+            totalChunks = chunkOffsets.length - 1;
+        }
+
+        ContentHash[] chunkHashes = null;
+        if (request.getChunkHashes() != null) {
+            if (erasureCoded) {
+                writer.send(new Message("ERROR", "Deduplication is only supported for replicated files.").inReplyTo(header), null);
+                return;
+            }
+            if (request.getChunkHashes().size() != totalChunks) {
+                writer.send(new Message("ERROR", "Expected " + totalChunks + " chunk hashes, got "
+                        + request.getChunkHashes().size() + ".").inReplyTo(header), null);
+                return;
+            }
+            chunkHashes = parseHashes(request.getChunkHashes());
+            if (chunkHashes == null) {
+                writer.send(new Message("ERROR", "Chunk hashes must be 64 hex digits (SHA-256).").inReplyTo(header), null);
+                return;
+            }
+        }
+
+        if (erasureCoded) {
+            if (request.getDataShards() <= 0 || request.getParityShards() <= 0) {
+                writer.send(new Message("ERROR", "dataShards and parityShards must be greater than 0.").inReplyTo(header), null);
+                return;
+            }
+            if (request.getDataShards() + request.getParityShards() > ReedSolomon.MAX_TOTAL_SHARDS) {
+                writer.send(new Message("ERROR", "At most " + ReedSolomon.MAX_TOTAL_SHARDS
+                        + " shards per stripe are supported.").inReplyTo(header), null);
+                return;
+            }
+
+            // Call Coordinator to initialise file upload with metadata and a shard placement plan
+            meta = coordinator.initErasureCodedUpload(
+                    request.getFilename(),
+                    request.getTotalSizeBytes(),
+                    request.getChunkSizeBytes(),
+                    request.getDataShards(),
+                    request.getParityShards());
+        } else {
+            // Replication factor defaults to 1, write quorum to a majority of the replicas
+            int replicationFactor = (request.getReplicationFactor() <= 0) ? 1 : request.getReplicationFactor();
+            int writeQuorum = (request.getWriteQuorum() <= 0) ? replicationFactor / 2 + 1 : request.getWriteQuorum();
+            if (writeQuorum > replicationFactor) {
+                writer.send(new Message("ERROR", "writeQuorum cannot exceed replicationFactor.").inReplyTo(header), null);
+                return;
+            }
+
+            // Call Coordinator to initialise file upload with metadata and a chunk placement plan
+            meta = coordinator.initFileUpload(
+                    request.getFilename(),
+                    request.getTotalSizeBytes(),
+                    request.getChunkSizeBytes(),
+                    chunkOffsets,
+                    replicationFactor,
+                    writeQuorum,
+                    chunkHashes);
+        }
+
+        if (meta == null) {
+            writer.send(new Message("ERROR", "Not enough active nodes available.").inReplyTo(header), null);
+            return;
+        }
+
+        List<ChunkPlacement> placements = placementsOf(meta);
+
+        // Respond to client with file details
+        FilesInitResponse response = new FilesInitResponse();
+
+        response.setFileId(meta.getFileId());
+        response.setTotalChunks(meta.getTotalChunks());
+        response.setChunkSizeBytes(meta.getChunkSizeBytes());
+        response.setReplicationFactor(meta.getReplicationFactor());
+        response.setWriteQuorum(meta.getWriteQuorum());
+        response.setStorageMode(meta.getStorageMode().name());
+        if (meta.getStripeLayout() != null) {
+            response.setDataShards(meta.getStripeLayout().getDataShards());
+            response.setParityShards(meta.getStripeLayout().getParityShards());
+        }
+        response.setPlacements(placements);
+        if (!placements.isEmpty()) {
+            NodeAddress first = placements.get(0).getNodes().get(0);
+            response.setUploadHost(first.getHost());
+            response.setUploadPort(first.getPort());
+        }
+
+        writer.send(Message.of(
+                "FILES_INIT_RESPONSE", response).inReplyTo(header),
+                null);
+    }
+
+    /**
+     * @return the nodes of every stored chunk index of a file, in chain order
+     */
+    private List<ChunkPlacement> placementsOf(FileMetadata meta) {
+        return placementsOf(meta, 0, meta.getChunkLocations().getChunkCount());
+    }
+
+    /**
+     * @return the nodes of stored chunk indexes fromChunk (inclusive) to toChunk (exclusive) of a
+     *         file, in chain order
+     */
+    private List<ChunkPlacement> placementsOf(FileMetadata meta, int fromChunk, int toChunk) {
+        ChunkLocations locations = meta.getChunkLocations();
+        List<ChunkPlacement> placements = new ArrayList<>(toChunk - fromChunk);
+        // A file's chunks share a few nodes: resolve each node once, by its NodeIdTable reference
+        Map<Integer, NodeAddress> addressesByRef = new HashMap<>();
+
+        for (int chunkIndex = fromChunk; chunkIndex < toChunk; chunkIndex++) {
+            int replicas = locations.replicaCount(chunkIndex);
+            List<NodeAddress> addresses = new ArrayList<>(replicas);
+            for (int replica = 0; replica < replicas; replica++) {
+                String nodeId = locations.nodeId(chunkIndex, replica);
+                addresses.add(addressesByRef.computeIfAbsent(locations.nodeRef(chunkIndex, replica), ref -> {
+                    NodeInfo node = coordinator.getNodes().get(nodeId);
+                    return new NodeAddress(nodeId, node.getHost(), node.getPort());
+                }));
+            }
+            ChunkPlacement placement = new ChunkPlacement(chunkIndex, addresses);
+            if (meta.isDeduplicated()) {
+                placement.setContentKey(meta.getChunkHashes()[chunkIndex].chunkKey());
+            }
+            placements.add(placement);
+        }
+        return placements;
+    }
+
+    /**
+     * @return start offset of every chunk followed by the total size, or null if a length is not
+     *         1 to maxChunkBytes
+     */
+    private static long[] offsetsOf(int[] chunkLengths, int maxChunkBytes) {
+        long[] offsets = new long[chunkLengths.length + 1];
+        for (int i = 0; i < chunkLengths.length; i++) {
+            if (chunkLengths[i] <= 0 || chunkLengths[i] > maxChunkBytes) {
+                return null;
+            }
+            offsets[i + 1] = offsets[i] + chunkLengths[i];
+        }
+        return offsets;
+    }
+
+    /** @return the parsed hashes, or null if any of them is not a SHA-256 in hex */
+    private static ContentHash[] parseHashes(List<String> hexHashes) {
+        ContentHash[] hashes = new ContentHash[hexHashes.size()];
+        try {
+            for (int i = 0; i < hashes.length; i++) {
+                hashes[i] = ContentHash.fromHex(hexHashes.get(i));
+            }
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return hashes;
+    }
+
+    private void handleChunkHave(Message header, TcpMessageWriter writer) throws IOException {
+        ChunkHaveRequest request;
+        try {
+            request = header.getPayload(ChunkHaveRequest.class);
+        } catch (Exception e) {
+            writer.send(new Message("ERROR", "Invalid JSON format for CHUNK_HAVE.").inReplyTo(header), null);
+            return;
+        }
+
+        if (request == null || request.getHashes() == null) {
+            writer.send(new Message("ERROR", "hashes are required").inReplyTo(header), null);
+            return;
+        }
+
+        ContentHash[] hashes = parseHashes(request.getHashes());
+        if (hashes == null) {
+            writer.send(new Message("ERROR", "Chunk hashes must be 64 hex digits (SHA-256).").inReplyTo(header), null);
+            return;
+        }
+
+        ChunkHaveResponse response = new ChunkHaveResponse();
+        response.setPresent(coordinator.haveChunks(hashes, Math.max(1, request.getReplicationFactor())));
+
+        writer.send(Message.of("CHUNK_HAVE_RESPONSE", response).inReplyTo(header), null);
+    }
+
+    private void handleFilesLocate(Message header, TcpMessageWriter writer) throws IOException {
+        FilesLocateRequest request;
+        try {
+            request = header.getPayload(FilesLocateRequest.class);
+        } catch (Exception e) {
+            writer.send(new Message("ERROR", "Invalid JSON format for FILES_LOCATE.").inReplyTo(header), null);
+            return;
+        }
+
+        if (request == null || request.getFileId() == null || request.getFileId().isBlank()) {
+            writer.send(new Message("ERROR", "fileId is required").inReplyTo(header), null);
+            return;
+        }
+
+        FileMetadata meta = coordinator.getFile(request.getFileId());
+        if (meta == null) {
+            writer.send(new Message("ERROR", "Unknown fileId: " + request.getFileId()).inReplyTo(header), null);
+            return;
+        }
+
+        int storedChunks = meta.getChunkLocations().getChunkCount();
+        int fromChunk = request.getFromChunk();
+        int toChunk = (request.getToChunk() < 0) ? storedChunks : request.getToChunk();
+        if (fromChunk < 0 || fromChunk > toChunk || toChunk > storedChunks) {
+            writer.send(new Message("ERROR", "Invalid chunk range " + fromChunk + ".." + toChunk
+                    + " of " + storedChunks + " chunks").inReplyTo(header), null);
+            return;
+        }
+
+        FilesLocateResponse response = new FilesLocateResponse();
+        response.setFileId(meta.getFileId());
+        response.setFileName(meta.getFileName());
+        response.setStatus(meta.getStatus().name());
+        response.setTotalSizeBytes(meta.getTotalSizeBytes());
+        response.setChunkSizeBytes(meta.getChunkSizeBytes());
+        response.setTotalChunks(meta.getTotalChunks());
+        if (meta.hasVariableChunks()) {
+            int[] chunkLengths = new int[meta.getTotalChunks()];
+            for (int i = 0; i < chunkLengths.length; i++) {
+                chunkLengths[i] = (int) meta.getChunkLength(i);
+            }
+            response.setChunkLengths(chunkLengths);
+        }
+        response.setStorageMode(meta.getStorageMode().name());
+        if (meta.getStripeLayout() != null) {
+            response.setDataShards(meta.getStripeLayout().getDataShards());
+            response.setParityShards(meta.getStripeLayout().getParityShards());
+        }
+        response.setPlacements(placementsOf(meta, fromChunk, toChunk));
+
+        writer.send(Message.of("FILES_LOCATE_RESPONSE", response).inReplyTo(header), null);
+    }
+
+    private void handleChunksUploaded(Message header, TcpMessageWriter writer) throws IOException {
+        FilesChunksUploadedRequest request;
+        try {
+            request = header.getPayload(FilesChunksUploadedRequest.class);
+        } catch (Exception e) {
+            writer.send(new Message("ERROR", "Invalid JSON format for FILES_CHUNKS_UPLOADED.").inReplyTo(header), null);
+            return;
+        }
+
+        if (request == null || request.getFileId() == null || request.getFileId().isBlank()
+                || request.getChunkIndexes() == null) {
+            writer.send(new Message("ERROR", "fileId and chunkIndexes are required").inReplyTo(header), null);
+            return;
+        }
+
+        FileMetadata meta;
+        try {
+            meta = coordinator.markChunksUploaded(request.getFileId(), request.getChunkIndexes());
+        } catch (IllegalArgumentException e) {
+            writer.send(new Message("ERROR", e.getMessage()).inReplyTo(header), null);
+            return;
+        }
+        if (meta == null) {
+            writer.send(new Message("ERROR", "Unknown fileId: " + request.getFileId()).inReplyTo(header), null);
+            return;
+        }
+
+        writer.send(Message.of("FILES_UPLOAD_STATUS_RESPONSE", uploadStatus(meta, false)).inReplyTo(header), null);
+    }
+
+    private void handleUploadStatus(Message header, TcpMessageWriter writer) throws IOException {
+        FilesUploadStatusRequest request;
+        try {
+            request = header.getPayload(FilesUploadStatusRequest.class);
+        } catch (Exception e) {
+            writer.send(new Message("ERROR", "Invalid JSON format for FILES_UPLOAD_STATUS.").inReplyTo(header), null);
+            return;
+        }
+
+        if (request == null || request.getFileId() == null || request.getFileId().isBlank()) {
+            writer.send(new Message("ERROR", "fileId is required").inReplyTo(header), null);
+            return;
+        }
+
+        FileMetadata meta = coordinator.getFile(request.getFileId());
+        if (meta == null) {
+            writer.send(new Message("ERROR", "Unknown fileId: " + request.getFileId()).inReplyTo(header), null);
+            return;
+        }
+
+        writer.send(Message.of("FILES_UPLOAD_STATUS_RESPONSE", uploadStatus(meta, true)).inReplyTo(header), null);
+    }
+
+    /**
+     * @param listMissing true to list the missing chunks, not just count them
+     */
+    private static FilesUploadStatusResponse uploadStatus(FileMetadata meta, boolean listMissing) {
+        FilesUploadStatusResponse response = new FilesUploadStatusResponse();
+        response.setFileId(meta.getFileId());
+        response.setStatus(meta.getStatus().name());
+        response.setStoredChunks(meta.getStoredChunkCount());
+        if (listMissing) {
+            int[] missing = meta.getMissingChunks();
+            response.setMissingCount(missing.length);
+            response.setMissingChunks(missing);
+        } else {
+            response.setMissingCount(meta.getMissingChunkCount());
+        }
+        response.setWriteQuorum(meta.getWriteQuorum());
+        return response;
+    }
+
+    private void handleFilesCommit(Message header, TcpMessageWriter writer) throws IOException {
+        FilesCommitRequest request;
+        try {
+            request = header.getPayload(FilesCommitRequest.class);
+        } catch (Exception e) {
+            writer.send(new Message(
+                    "ERROR",
+                    "Invalid JSON format for FILES_COMMIT.").inReplyTo(header),
+                    null);
+            return;
+        }
+
+        if (request == null) {
+            writer.send(new Message(
+                    "ERROR",
+                    "FILES_COMMIT requires JSON data").inReplyTo(header),
+                    null);
+            return;
+        }
+
+        if (request.getFileId() == null || request.getFileId().isBlank()) {
+            writer.send(new Message(
+                    "ERROR",
+                    "fileId is required").inReplyTo(header),
+                    null);
+            return;
+        }
+
+        boolean ok;
+        try {
+            ok = coordinator.commitFile(request.getFileId());
+        } catch (IllegalStateException e) {
+            // Chunks still missing: the client can resume the upload and commit again
+            FilesCommitAck ack = new FilesCommitAck();
+            ack.setFileId(request.getFileId());
+            ack.setStatus("ERROR");
+            ack.setMessage(e.getMessage());
+            writer.send(Message.of("FILES_COMMIT_ACK", ack).inReplyTo(header), null);
+            return;
+        }
+
+        if (!ok) {
+            writer.send(new Message(
+                    "ERROR",
+                    "Unknown fileId: " + request.getFileId()).inReplyTo(header),
+                    null);
+            return;
+        }
+
+        FilesCommitAck ack = new FilesCommitAck();
+        ack.setFileId(request.getFileId());
+        ack.setStatus("OK");
+        ack.setMessage("FIle commited successfully");
+
+        writer.send(Message.of(
+                "FILES_COMMIT_ACK",
+                ack).inReplyTo(header),
+                null);
+    }
+
+    private void handleNodeRegister(Message header, TcpMessageWriter writer) throws java.io.IOException {
+        NodeRegisterRequest req;
+        try {
+            req = header.getPayload(NodeRegisterRequest.class);
+        } catch (JsonSyntaxException e) {
+            writer.send(new Message("ERROR", "Invalid JSON format for NODE_REGISTER").inReplyTo(header), null);
+            return;
+        }
+
+        if (req == null) {
+            writer.send(new Message("ERROR", "NODE_REGISTER requires JSON data").inReplyTo(header), null);
+            return;
+        }
+
+        if (req.getNodeId() == null || req.getNodeId().isBlank()
+                || req.getHost() == null || req.getHost().isBlank()
+                || req.getPort() <= 0) {
+
+            NodeRegisterAck ack = new NodeRegisterAck();
+            ack.setStatus("ERROR");
+            ack.setMessage("Missing/invalid fields (nodeId, host, port)");
+
+            writer.send(Message.of("NODE_REGISTER_ACK", ack).inReplyTo(header), null);
+            return;
+        }
+
+        boolean ok = coordinator.registerNode(
+                req.getNodeId(),
+                req.getHost(),
+                req.getPort(),
+                req.getCapacityBytes()
+        );
+
+        NodeRegisterAck ack = new NodeRegisterAck();
+        if (ok) {
+            ack.setStatus("OK");
+            ack.setMessage("Node registered");
+        } else {
+            ack.setStatus("ERROR");
+            ack.setMessage("Registration failed (invalid fields)");
+        }
+
+        writer.send(Message.of("NODE_REGISTER_ACK", ack).inReplyTo(header), null);
+    }
+
+    private void handleNodeHeartbeat(Message header, byte[] report, TcpMessageWriter writer) throws java.io.IOException {
+        NodeHeartbeat hb;
+        try {
+            hb = header.getPayload(NodeHeartbeat.class);
+        } catch (JsonSyntaxException e) {
+            writer.send(new Message("ERROR", "Invalid JSON format for NODE_HEARTBEAT").inReplyTo(header), null);
+            return;
+        }
+
+        if (hb == null) {
+            writer.send(new Message("ERROR", "NODE_HEARTBEAT requires JSON data").inReplyTo(header), null);
+            return;
+        }
+
+        if (hb.getNodeId() == null || hb.getNodeId().isBlank()) {
+            writer.send(new Message("ERROR", "Heartbeat missing nodeId").inReplyTo(header), null);
+            return;
+        }
+
+        // If node didn't include a timestamp, you could default it; but we expect it.
+        long ts = hb.getTimestampEpochMs();
+        if (ts <= 0) {
+            ts = System.currentTimeMillis();
+        }
+
+        // A corrupt chunk report is acknowledged with ERROR too, so the node does not resend it
+        String status = "OK";
+        try {
+            if (!coordinator.handleHeartbeat(hb, report, ts)) {
+                writer.send(new Message("ERROR", "Unknown nodeId: " + hb.getNodeId()).inReplyTo(header), null);
+                return;
+            }
+        } catch (IOException e) {
+            System.out.println("Dropped chunk report of node " + hb.getNodeId() + ": " + e.getMessage());
+            status = "ERROR";
+        }
+
+        NodeHeartbeatAck ack = new NodeHeartbeatAck();
+        ack.setStatus(status);
+        ack.setSequence(hb.getSequence());
+        ack.setServerTimeEpochMs(System.currentTimeMillis());
+        ack.setCopies(coordinator.takeRepairCopies(hb.getNodeId()));
+
+        writer.send(Message.of("NODE_HEARTBEAT_ACK", ack).inReplyTo(header), null);
+    }
+}
@@ -1,22 +1,56 @@
 package com.leo.dfss.coordinator;
 
+import com.leo.dfss.coordinator.health.FailureDetector;
+import com.leo.dfss.coordinator.metadata.ContentIndex;
+import com.leo.dfss.coordinator.metadata.MetadataStore;
+import com.leo.dfss.coordinator.placement.PlacementEngine;
+import com.leo.dfss.coordinator.placement.PlacementStrategy;
+import com.leo.dfss.coordinator.repair.RepairScheduler;
+import com.leo.dfss.domain.ChunkLocations;
+import com.leo.dfss.domain.ContentHash;
 import com.leo.dfss.domain.FileMetadata;
+import com.leo.dfss.domain.NodeIdTable;
 import com.leo.dfss.domain.NodeInfo;
+import com.leo.dfss.protocol.ChunkCopyTask;
+import com.leo.dfss.protocol.ChunkReport;
+import com.leo.dfss.protocol.NodeHeartbeat;
+import com.leo.dfss.transport.ConnectionMode;
+import com.leo.dfss.transport.NioServer;
 
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.*;
 
 /**
- * Server that accepts multiple connections and gives each one a Connection thread.
+ * Server that accepts multiple connections and gives each one a Connection thread (platform or
+ * virtual), or serves them from NIO reactor threads when started in ConnectionMode.NIO.
  * Keeps a live registry of client and node connections.
+ *
+ * Configuration (system properties):
+ *   dfss.coordinator.mode     = thread | virtual | nio (default thread)
+ *   dfss.coordinator.reactors = NIO selector threads (default 2)
+ *   dfss.coordinator.workers  = NIO handler threads (default 2 x cores)
+ *   dfss.coordinator.placement = weighted | p2c | hash, chunk placement strategy (default p2c)
+ *   dfss.coordinator.dataDir  = directory of the metadata log and snapshots (default coordinator-data)
+ *   dfss.coordinator.snapshotRecords = metadata log records between snapshots (default 1,000,000)
+ *   dfss.coordinator.heartbeatMs, phiSuspect, phiDown, ... = node failure detection, see
+ *                               FailureDetector.fromSystemProperties
+ *   dfss.coordinator.repairDelayMs, repairBytesPerSec, repairCopiesPerNode = re-replication of
+ *                               the chunks of DOWN nodes, see RepairScheduler.fromSystemProperties
  */
 public class CoordinatorServer {
 
     public final int port;
+    private final ConnectionMode mode;
 
     // Global file registry: fileId -> FileMetadata
     private final Map<String, FileMetadata> files = new ConcurrentHashMap<>();
@@ -24,33 +58,104 @@ public class CoordinatorServer {
     // Global node registry: nodeId -> NodeInfo
     private final Map<String, NodeInfo> nodes = new ConcurrentHashMap<>();
 
-    // Node heartbeat configuration
-    private static final long HEARTBEAT_TIMEOUT_MS = 15_000;    // 15 seconds
-    private static final long SWEEP_INTERVAL_MS = 5_000;        // 5 seconds
+    // Node id <-> 16-bit reference, as stored in every file's chunk locations
+    private final NodeIdTable nodeIds = new NodeIdTable();
 
-    private final ScheduledExecutorService sweeper =
-            Executors.newSingleThreadScheduledExecutor();
+    // Deduplicated files: content hash -> nodes storing that chunk
+    private final ContentIndex contentIndex = new ContentIndex();
 
-    private final CopyOnWriteArrayList<CoordinatorConnection> connections = new CopyOnWriteArrayList<>();
+    // Chooses the nodes for each chunk of a new file
+    private final PlacementEngine placement;
+
+    // Write-ahead log + snapshots of the registries, or null to keep them in memory only
+    private final MetadataStore metadataStore;
+
+    // Marks nodes suspect, then DOWN, when their heartbeats stop
+    private final FailureDetector failureDetector;
+
+    // Re-replicates the chunks of DOWN nodes
+    private final RepairScheduler repairs;
+
+    // Pending connections the OS queues before accept(), sized for bursts of many clients
+    private static final int ACCEPT_BACKLOG = 1024;
+
+    // Thread modes: live connections, removed when their thread ends
+    private final Set<CoordinatorConnection> connections = ConcurrentHashMap.newKeySet();
+    private ExecutorService connectionExecutor;
+
+    // NIO mode: reactor server (tracks its own connections)
+    private volatile NioServer nioServer;
 
     private volatile boolean running = true;
 
     public CoordinatorServer(int port) {
+        this(port, ConnectionMode.THREAD_PER_CONNECTION);
+    }
+
+    public CoordinatorServer(int port, ConnectionMode mode) {
+        this(port, mode, PlacementStrategy.fromName(null));
+    }
+
+    public CoordinatorServer(int port, ConnectionMode mode, PlacementStrategy placementStrategy) {
+        this(port, mode, placementStrategy, null);
+    }
+
+    public CoordinatorServer(int port, ConnectionMode mode, PlacementStrategy placementStrategy,
+                             MetadataStore metadataStore) {
         this.port = port;
+        this.mode = mode;
+        this.placement = new PlacementEngine(placementStrategy, nodes, nodeIds);
+        this.metadataStore = metadataStore;
+        this.repairs = RepairScheduler.fromSystemProperties(files, nodes, placement, contentIndex, metadataStore);
+        this.failureDetector = FailureDetector.fromSystemProperties(new FailureDetector.Listener() {
+            @Override
+            public void suspected(NodeInfo node, double phi) {
+                placement.nodesChanged();
+                System.out.println(String.format("Node %s is SUSPECT (phi %.1f)", node.getNodeId(), phi));
+            }
+
+            @Override
+            public void failed(NodeInfo node, double phi) {
+                placement.nodesChanged();
+                System.out.println(String.format("Node %s is DOWN (phi %.1f)", node.getNodeId(), phi));
+                repairs.nodeFailed(node);
+            }
+        });
     }
 
         public static void main (String[]args){
-            new CoordinatorServer(9000).start();
+            ConnectionMode mode = ConnectionMode.fromName(System.getProperty("dfss.coordinator.mode"));
+            PlacementStrategy placementStrategy =
+                    PlacementStrategy.fromName(System.getProperty("dfss.coordinator.placement"));
+            MetadataStore metadataStore = new MetadataStore(
+                    Path.of(System.getProperty("dfss.coordinator.dataDir", "coordinator-data")),
+                    Long.getLong("dfss.coordinator.snapshotRecords", MetadataStore.DEFAULT_SNAPSHOT_RECORDS));
+            new CoordinatorServer(9000, mode, placementStrategy, metadataStore).start();
         }
 
         public void start () {
-            System.out.println("Starting CoordinatorServer...");
+            System.out.println("Starting CoordinatorServer (" + mode + ")...");
+
+            try {
+                recoverMetadata();
+            } catch (IOException e) {
+                System.out.println("Failed to recover coordinator metadata: " + e.getMessage());
+                return;
+            }
+
+            if (mode == ConnectionMode.NIO) {
+                startNio();
+                return;
+            }
+
+            connectionExecutor = mode.newConnectionExecutor("coordinator-connection-");
 
             // Try-with resources to ensure automatic closure of connection
-            try (ServerSocket serverSocket = new ServerSocket(port)) {
+            try (ServerSocket serverSocket = new ServerSocket(port, ACCEPT_BACKLOG)) {
                 System.out.println("CoordinatorServer listening on port: " + port);
 
-                startNodeSweeper();
+                failureDetector.start();
+                repairs.start();
 
                 int nextConnectionId = 1;
 
@@ -63,8 +168,35 @@ public class CoordinatorServer {
                             new CoordinatorConnection(socket, nextConnectionId++, this);
 
                     connections.add(connection);
-                    connection.start();
+                    connectionExecutor.execute(connection);
+                }
+
+            } catch (IOException e) {
+                if (running) {
+                    e.printStackTrace();
+                } else {
+                    System.out.println("CoordinatorServer stopped.");
                 }
+            } finally {
+                failureDetector.close();
+                repairs.close();
+                shutdownAllConnections();
+                connectionExecutor.shutdownNow();
+                closeMetadata();
+            }
+        }
+
+        private void startNio() {
+            int reactors = Integer.getInteger("dfss.coordinator.reactors", 2);
+            int workers = Integer.getInteger("dfss.coordinator.workers", 2 * Runtime.getRuntime().availableProcessors());
+
+            try {
+                nioServer = new NioServer(port, reactors, workers, 10_000,
+                        connectionId -> new CoordinatorRequestHandler(connectionId, this));
+
+                failureDetector.start();
+                repairs.start();
+                nioServer.start();
 
             } catch (IOException e) {
                 if (running) {
@@ -73,8 +205,51 @@ public class CoordinatorServer {
                     System.out.println("CoordinatorServer stopped.");
                 }
             } finally {
-                sweeper.shutdownNow();
+                failureDetector.close();
+                repairs.close();
                 shutdownAllConnections();
+                closeMetadata();
+            }
+        }
+
+        /**
+         * Restores the file and node registries from the metadata store, and the in-flight
+         * reservations of files that were still uploading. Restored nodes are DOWN until they
+         * register again; those that have not within the repair delay are repaired.
+         */
+        private void recoverMetadata() throws IOException {
+            if (metadataStore == null) {
+                return;
+            }
+            metadataStore.recover(files, nodes, nodeIds);
+
+            for (FileMetadata file : files.values()) {
+                if (file.getStatus() == FileMetadata.Status.UPLOADING) {
+                    placement.reserve(file);
+                } else if (file.getStatus() == FileMetadata.Status.COMPLETE && file.isDeduplicated()) {
+                    contentIndex.addFile(file);
+                }
+            }
+            placement.nodesChanged();
+
+            // The failure detector has never heard from a restored node, so it would never mark one
+            // DOWN that does not come back. Repairs queued before the restart are not logged either;
+            // they are found again by scanning the nodes that stay away.
+            for (NodeInfo node : nodes.values()) {
+                if (node.getStatus() == NodeInfo.Status.DOWN) {
+                    repairs.nodeFailed(node);
+                }
+            }
+
+            if (contentIndex.getChunkCount() > 0) {
+                System.out.println(String.format("Content index: %d chunks, %d bytes stored for %d bytes of files",
+                        contentIndex.getChunkCount(), contentIndex.getStoredBytes(), contentIndex.getReferencedBytes()));
+            }
+        }
+
+        private void closeMetadata() {
+            if (metadataStore != null) {
+                metadataStore.close();
             }
         }
 
@@ -84,40 +259,156 @@ public class CoordinatorServer {
                 connection.shutdown();
             }
             connections.clear();
-        }
-
-        private void startNodeSweeper() {
-            sweeper.scheduleAtFixedRate(() -> {
-                long now = System.currentTimeMillis();
 
-                for (NodeInfo node : nodes.values()) {
-                    long age = now - node.getLastSeenEpochMs();
+            if (nioServer != null) {
+                nioServer.shutdown();
+            }
+        }
 
-                    if (node.getStatus() == NodeInfo.Status.UP && age > HEARTBEAT_TIMEOUT_MS) {
-                        node.markDown();
-                        System.out.println("Node " + node.getNodeId() + " is DOWN");
-                    }
-                }
-            }, SWEEP_INTERVAL_MS, SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        /** Called by a CoordinatorConnection thread when its socket closes. */
+        void removeConnection(CoordinatorConnection connection) {
+            connections.remove(connection);
         }
 
         /**
-         * Handles the FILES_INIT_REQUEST command. Creates a new file record and returns the metadata.
+         * Handles the FILES_INIT_REQUEST command. Creates a new file record, places its chunks on
+         * nodes and returns the metadata (the plan is in getChunkLocations()).
          *
          * @param filename name of the file
          * @param totalSizeBytes total size of the file
          * @param chunkSizeBytes size of each chunk
-         * @return the metadata of the file
+         * @param replicationFactor nodes each chunk should be stored on
+         * @param writeQuorum replicas that must be durable before a chunk upload succeeds
+         * @return the metadata of the file, or null if fewer than writeQuorum nodes have room for some chunk
+         * @throws IOException if the new record could not be made durable
+         */
+        public FileMetadata initFileUpload (String filename, long totalSizeBytes, int chunkSizeBytes,
+                                            int replicationFactor, int writeQuorum) throws IOException {
+            return initFileUpload(filename, totalSizeBytes, chunkSizeBytes, null, replicationFactor, writeQuorum, null);
+        }
+
+        /**
+         * Handles a FILES_INIT_REQUEST, deduplicating the file's chunks if their content hashes are
+         * given: chunks whose content is already stored on at least replicationFactor nodes are
+         * planned on those nodes, and a chunk repeating an earlier one of the file shares its plan.
+         *
+         * @param chunkSizeBytes size of the chunks, or of the largest chunk if chunkOffsets is set
+         * @param chunkOffsets start offset of every chunk followed by totalSizeBytes, or null for
+         *                     fixed-size chunks
+         * @param chunkHashes content hash of every chunk, or null to store the chunks under the fileId
          */
-        public FileMetadata initFileUpload (String filename, long totalSizeBytes, int chunkSizeBytes) {
+        public FileMetadata initFileUpload (String filename, long totalSizeBytes, int chunkSizeBytes,
+                                            long[] chunkOffsets, int replicationFactor, int writeQuorum,
+                                            ContentHash[] chunkHashes) throws IOException {
             String fileId = UUID.randomUUID().toString();
 
             FileMetadata metadata = new FileMetadata(fileId, filename, totalSizeBytes, chunkSizeBytes);
+            metadata.setChunkOffsets(chunkOffsets);
+            metadata.setReplicationFactor(replicationFactor);
+            metadata.setWriteQuorum(writeQuorum);
+            String[][] storedNodeIds = (chunkHashes == null) ? null : shareStoredChunks(metadata, chunkHashes);
+            if (!placement.plan(metadata, replicationFactor, writeQuorum, storedNodeIds)) {
+                return null;
+            }
             metadata.setStatus(FileMetadata.Status.UPLOADING);
 
-            files.put(fileId, metadata);
+            recordNewFile(metadata);
+            return metadata;
+        }
 
-            System.out.println("New file record created: " + metadata);
+        /**
+         * Sets a new file's chunk hashes, and marks the chunks it need not upload as shared.
+         *
+         * @return nodes already storing each chunk's content (null for chunks not stored yet)
+         */
+        private String[][] shareStoredChunks(FileMetadata metadata, ContentHash[] chunkHashes) {
+            metadata.setChunkHashes(chunkHashes);
+
+            String[][] chunkNodeIds = new String[chunkHashes.length][];
+            BitSet shared = new BitSet(chunkHashes.length);
+            Set<ContentHash> seen = new HashSet<>();
+
+            for (int chunkIndex = 0; chunkIndex < chunkHashes.length; chunkIndex++) {
+                String[] stored = contentIndex.locate(chunkHashes[chunkIndex], metadata.getReplicationFactor());
+                if (stored != null) {
+                    chunkNodeIds[chunkIndex] = stored;
+                    shared.set(chunkIndex);
+                } else if (!seen.add(chunkHashes[chunkIndex])) {
+                    shared.set(chunkIndex); // planned with its first occurrence
+                }
+            }
+            metadata.setSharedChunks(shared);
+            return chunkNodeIds;
+        }
+
+        /**
+         * Handles CHUNK_HAVE.
+         *
+         * @param minReplicas fewest nodes a stored copy must be on to count
+         * @return for each hash, true if its content is stored and would be reused by FILES_INIT
+         */
+        public boolean[] haveChunks(ContentHash[] hashes, int minReplicas) {
+            boolean[] present = new boolean[hashes.length];
+            for (int i = 0; i < hashes.length; i++) {
+                present[i] = contentIndex.locate(hashes[i], minReplicas) != null;
+            }
+            return present;
+        }
+
+        /**
+         * Handles a FILES_INIT_REQUEST for an erasure-coded file. Creates a new file record and
+         * places the shards of each stripe on distinct nodes.
+         *
+         * @param dataShards chunks per stripe
+         * @param parityShards parity shards per stripe
+         * @return the metadata of the file, or null if there are too few nodes with room
+         * @throws IOException if the new record could not be made durable
+         */
+        public FileMetadata initErasureCodedUpload (String filename, long totalSizeBytes, int chunkSizeBytes,
+                                                    int dataShards, int parityShards) throws IOException {
+            String fileId = UUID.randomUUID().toString();
+
+            FileMetadata metadata = new FileMetadata(fileId, filename, totalSizeBytes, chunkSizeBytes);
+            metadata.setErasureCoding(dataShards, parityShards);
+            if (!placement.planStripes(metadata)) {
+                return null;
+            }
+            metadata.setStatus(FileMetadata.Status.UPLOADING);
+
+            recordNewFile(metadata);
+            return metadata;
+        }
+
+        /**
+         * Handles FILES_CHUNKS_UPLOADED: records stored chunks of an uploading file as uploaded,
+         * so an interrupted upload can resume with the chunks still missing.
+         *
+         * @param storedIndexes stored chunk indexes the client has had acknowledged
+         * @return the file, or null if it is unknown
+         * @throws IllegalArgumentException if an index is not a stored chunk of the file
+         * @throws IOException if the record could not be made durable
+         */
+        public FileMetadata markChunksUploaded (String fileId, int[] storedIndexes) throws IOException {
+            FileMetadata metadata = files.get(fileId);
+            if (metadata == null) {
+                return null;
+            }
+            for (int storedIndex : storedIndexes) {
+                if (storedIndex < 0 || storedIndex >= metadata.getStoredChunkCount()) {
+                    throw new IllegalArgumentException("Chunk " + storedIndex + " is not a stored chunk of the file");
+                }
+            }
+            if (metadata.getStatus() != FileMetadata.Status.UPLOADING) {
+                return metadata; // nothing left to track
+            }
+
+            // Visible before it is logged, like every other change, so a snapshot taken once the
+            // record is in the log already holds the chunks. A chunk visible but not yet durable is
+            // stored on its nodes anyway, and the client reports it again if the record fails.
+            metadata.markChunksUploaded(storedIndexes);
+            if (metadataStore != null) {
+                metadataStore.chunksUploaded(fileId, storedIndexes);
+            }
             return metadata;
         }
 
@@ -125,50 +416,162 @@ public class CoordinatorServer {
          * Handles FILES_COMMIT. Marks file COMPLETE.
          *
          * @param fileId identifier for the file being committed
-         * @return true if successfully committed, else false.
+         * @return true if successfully committed (or committed already), false if the file is unknown
+         * @throws IllegalStateException if some chunks of the file have not been uploaded
+         * @throws IOException if the commit could not be made durable
          */
-        public boolean commitFile (String fileId){
+        public boolean commitFile (String fileId) throws IOException {
             FileMetadata metadata = files.get(fileId);
             if (metadata == null) {
                 return false;
             }
 
-            metadata.setStatus(FileMetadata.Status.COMPLETE);
+            int missing = metadata.getMissingChunkCount();
+            if (missing > 0) {
+                throw new IllegalStateException(missing + " of " + metadata.getStoredChunkCount()
+                        + " chunks not uploaded yet");
+            }
+
+            // Exactly one of a commit and its retries (or concurrent commits) moves the file on, so
+            // the reservations are released and the content references added only once
+            if (!metadata.compareAndSetStatus(FileMetadata.Status.UPLOADING, FileMetadata.Status.COMPLETE)) {
+                return true; // committed already
+            }
+
+            int newChunks = 0;
+            placement.release(metadata); // the planned bytes are now part of the nodes' used space
+            if (metadata.isDeduplicated()) {
+                newChunks = contentIndex.addFile(metadata);
+            }
+            if (metadataStore != null) {
+                metadataStore.fileCommitted(fileId);
+            }
             System.out.println("Committed file record: " + metadata);
+            if (metadata.isDeduplicated()) {
+                System.out.println(String.format("Deduplicated %d of %d chunks; content index: %d chunks, %d bytes stored for %d bytes of files",
+                        metadata.getTotalChunks() - newChunks, metadata.getTotalChunks(), contentIndex.getChunkCount(),
+                        contentIndex.getStoredBytes(), contentIndex.getReferencedBytes()));
+            }
             return true;
         }
 
-        public boolean registerNode(String nodeId, String host, int port, long capacityBytes) {
+        public boolean registerNode(String nodeId, String host, int port, long capacityBytes) throws IOException {
             long now =  System.currentTimeMillis();
 
             if (nodeId == null || nodeId.isBlank()) return false;
             if (host == null || host.isBlank()) return false;
             if (port <= 0) return false;
 
+            // A node reconnecting keeps its record, including in-flight reservations, unless its
+            // address or advertised capacity changed: then it gets a new, logged record
+            NodeInfo existing = nodes.get(nodeId);
+            if (existing != null && existing.getHost().equals(host) && existing.getPort() == port
+                    && existing.getCapacityBytes() == capacityBytes) {
+                existing.updateHeartbeat(now);
+                failureDetector.heartbeat(existing);
+                placement.nodesChanged();
+                System.out.println("Node " + nodeId + " is re-registered");
+                return true;
+            }
+
             NodeInfo node = new NodeInfo(nodeId, host, port, capacityBytes, now);
             nodes.put(nodeId, node);
+            if (metadataStore != null) {
+                metadataStore.nodeRegistered(node);
+            }
+            failureDetector.heartbeat(node);
+            placement.nodesChanged();
 
+            if (existing != null && existing.getCapacityBytes() != capacityBytes) {
+                System.out.println("Node " + nodeId + " capacity changed from " + existing.getCapacityBytes()
+                        + " to " + capacityBytes + " bytes");
+            }
             System.out.println("Node " + node.getNodeId() + " is registered");
             return true;
         }
 
-        public boolean handleHeartbeat(String nodeId, long timeStampEpochMs) {
+        /**
+         * Handles NODE_HEARTBEAT: records the node's load, and applies its chunk report unless a
+         * heartbeat with the same or a later sequence was applied already (a report resent after a
+         * lost ack).
+         *
+         * @param report the heartbeat's ChunkReport body, or null if it has none
+         * @return false if the node is not registered
+         * @throws IOException if the report is corrupt
+         */
+        public boolean handleHeartbeat(NodeHeartbeat heartbeat, byte[] report, long timeStampEpochMs) throws IOException {
+            String nodeId = heartbeat.getNodeId();
             NodeInfo node = nodes.get(nodeId); // Retrieve node by its ID
             if (node == null) {
                 return false; // node cannot be retrieved
             }
 
+            boolean wasDown = node.getStatus() == NodeInfo.Status.DOWN;
+            if (failureDetector.heartbeat(node)) {
+                placement.nodesChanged(); // back UP, or no longer suspect
+            }
+            if (wasDown) {
+                System.out.println("Node " + nodeId + " is UP");
+            }
+            if (heartbeat.getFreeBytes() > 0) {
+                node.setFreeBytes(heartbeat.getFreeBytes()); // 0 = not reported
+            }
+            node.setLoadStats(heartbeat.getUsedBytes(), heartbeat.getActiveConnections(),
+                    heartbeat.getDiskReadBytesPerSec(), heartbeat.getDiskWriteBytesPerSec(),
+                    heartbeat.getNetInBytesPerSec(), heartbeat.getNetOutBytesPerSec());
+            node.setCacheStats(heartbeat.getCacheHits(), heartbeat.getCacheMisses(),
+                    heartbeat.getCacheEvictions(), heartbeat.getCacheBytes());
             node.updateHeartbeat(timeStampEpochMs);
-            System.out.println("Heartbeat from node " + nodeId + " at " + timeStampEpochMs);
+
+            if (report != null && report.length > 0 && heartbeat.getSequence() > node.getLastReportSequence()) {
+                applyChunkReport(node, heartbeat.getSequence(), report);
+            }
             return true;
         }
 
-    /** @return the first UP node it finds in the node registry */
-    public NodeInfo getAnyActiveNode() {
-            for (NodeInfo node : nodes.values()) {
-                if (node.getStatus() == NodeInfo.Status.UP) return node;
+        /**
+         * @return repair copies for the node to start, handed out with its heartbeat ack
+         */
+        public List<ChunkCopyTask> takeRepairCopies(String nodeId) {
+            NodeInfo node = nodes.get(nodeId);
+            return (node == null) ? List.of() : repairs.takeCopies(node);
+        }
+
+        /**
+         * Applies the chunks a node stored and removed to its chunk count, reports removed chunks
+         * that files still place on it, and completes the repair copies the node received.
+         */
+        private void applyChunkReport(NodeInfo node, long sequence, byte[] report) throws IOException {
+            String nodeId = node.getNodeId();
+            long[] counts = new long[2]; // chunks added minus removed, removed replicas still placed
+            ChunkReport.decode(ByteBuffer.wrap(report), new ChunkReport.Visitor() {
+                private String fileId;
+                private ChunkLocations locations;
+
+                @Override
+                public void file(String fileId) {
+                    this.fileId = fileId;
+                    FileMetadata file = files.get(fileId);
+                    locations = (file == null) ? null : file.getChunkLocations();
+                }
+
+                @Override
+                public void chunk(int chunkIndex, boolean added) {
+                    counts[0] += added ? 1 : -1;
+                    if (added) {
+                        repairs.chunkStored(nodeId, fileId, chunkIndex);
+                    }
+                    if (!added && locations != null && chunkIndex < locations.getChunkCount()
+                            && locations.contains(chunkIndex, nodeId)) {
+                        counts[1]++;
+                    }
+                }
+            });
+            node.reportApplied(sequence, counts[0]);
+
+            if (counts[1] > 0) {
+                System.out.println("Node " + nodeId + " removed " + counts[1] + " chunk replica(s) still placed on it");
             }
-            return null;
         }
 
         /**
@@ -180,6 +583,25 @@ public class CoordinatorServer {
             return nodes;
         }
 
+        /**
+         * Registers a new file record and logs it before the client is told about it.
+         */
+        private void recordNewFile(FileMetadata metadata) throws IOException {
+            files.put(metadata.getFileId(), metadata);
+
+            if (metadataStore != null) {
+                try {
+                    metadataStore.fileInitialised(metadata);
+                } catch (IOException e) {
+                    files.remove(metadata.getFileId());
+                    placement.release(metadata);
+                    throw e;
+                }
+            }
+
+            System.out.println("New file record created: " + metadata);
+        }
+
         /** Method to lookup metadata of file by fileId.
          *
          * @param fileId identifier of file being retrieved
@@ -0,0 +1,256 @@
+package com.leo.dfss.coordinator.health;
+
+import com.leo.dfss.domain.NodeInfo;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Phi-accrual failure detector over a TimerWheel. Each node keeps the inter-arrival times of its
+ * last heartbeats, and its suspicion level phi is how unlikely it is, under a normal distribution
+ * of those times, that the next heartbeat is still to come:
+ *
+ *   phi = -log10(P(interval > time since the last heartbeat))
+ *
+ * so phi 3 means a heartbeat this late happens once in a thousand. Rather than computing phi for
+ * every node on a timer, each heartbeat works out when phi will cross the two thresholds and arms
+ * the node's timer for the first one:
+ *
+ *   phiSuspect: the node is marked suspect (still UP, but placement avoids it)
+ *   phiDown:    the node is marked DOWN; an acceptable pause is added to the mean first, so a node
+ *               has that much slack for GC or network stalls before it is given up on
+ *
+ * A heartbeat only moves its own node's deadline, and nothing is swept: detection costs O(1) per
+ * heartbeat and per expiry whatever the number of nodes, and is as fast as the heartbeat interval
+ * and its jitter allow (within one wheel tick).
+ */
+public final class FailureDetector implements AutoCloseable {
+
+    /** Receives state changes, on the wheel thread. */
+    public interface Listener {
+
+        /** The node was marked suspect. */
+        void suspected(NodeInfo node, double phi);
+
+        /** The node was marked DOWN. */
+        void failed(NodeInfo node, double phi);
+    }
+
+    private static final int WINDOW = 100;                   // inter-arrival times kept per node
+    private static final long MAX_INTERVAL_MS = 60_000;      // longer gaps are outages, not jitter
+    private static final int WHEEL_SLOTS = 512;
+
+    private final long expectedIntervalMs;
+    private final long minStdDevMs;
+    private final long acceptablePauseMs;
+    private final double suspectDeviations; // standard deviations past the mean at phiSuspect
+    private final double downDeviations;
+
+    private final Listener listener;
+    private final TimerWheel wheel;
+    private final Map<String, NodeHealth> health = new ConcurrentHashMap<>();
+
+    /**
+     * @param expectedIntervalMs the nodes' heartbeat interval, assumed until a node has a history
+     * @param minStdDevMs floor of the standard deviation, so very regular heartbeats do not make
+     *                    a few ms of delay suspicious
+     * @param acceptablePauseMs added to the mean interval before checking phiDown
+     * @param suspectThreshold phi at which a node is suspected
+     * @param downThreshold phi at which a node is marked DOWN
+     * @param tickMs resolution of the timer wheel
+     */
+    public FailureDetector(long expectedIntervalMs, long minStdDevMs, long acceptablePauseMs,
+                           double suspectThreshold, double downThreshold, long tickMs, Listener listener) {
+        if (expectedIntervalMs <= 0 || minStdDevMs <= 0 || acceptablePauseMs < 0) {
+            throw new IllegalArgumentException("Heartbeat interval and deviation must be greater than 0");
+        }
+        if (suspectThreshold <= 0 || downThreshold < suspectThreshold) {
+            throw new IllegalArgumentException("Thresholds must satisfy 0 < phiSuspect <= phiDown");
+        }
+        this.expectedIntervalMs = expectedIntervalMs;
+        this.minStdDevMs = minStdDevMs;
+        this.acceptablePauseMs = acceptablePauseMs;
+        this.suspectDeviations = deviationsAt(suspectThreshold);
+        this.downDeviations = deviationsAt(downThreshold);
+        this.listener = listener;
+        this.wheel = new TimerWheel(tickMs, WHEEL_SLOTS, "failure-detector");
+    }
+
+    /**
+     * Configuration (system properties):
+     *   dfss.coordinator.heartbeatMs       = heartbeat interval nodes are expected to use (default 1000)
+     *   dfss.coordinator.heartbeatMinStdDevMs = floor of a node's interval deviation (default 100)
+     *   dfss.coordinator.acceptablePauseMs = extra slack before a node is marked DOWN (default 500)
+     *   dfss.coordinator.phiSuspect        = suspicion level at which placement avoids a node (default 3)
+     *   dfss.coordinator.phiDown           = suspicion level at which a node is marked DOWN (default 8)
+     *   dfss.coordinator.detectorTickMs    = failure detector timer resolution (default 20)
+     */
+    public static FailureDetector fromSystemProperties(Listener listener) {
+        return new FailureDetector(
+                Long.getLong("dfss.coordinator.heartbeatMs", 1_000),
+                Long.getLong("dfss.coordinator.heartbeatMinStdDevMs", 100),
+                Long.getLong("dfss.coordinator.acceptablePauseMs", 500),
+                Double.parseDouble(System.getProperty("dfss.coordinator.phiSuspect", "3")),
+                Double.parseDouble(System.getProperty("dfss.coordinator.phiDown", "8")),
+                Long.getLong("dfss.coordinator.detectorTickMs", 20),
+                listener);
+    }
+
+    public void start() {
+        wheel.start();
+    }
+
+    /**
+     * Records a heartbeat (or registration) of the node, received now, and marks it UP.
+     *
+     * @return true if the node was suspect or DOWN until now
+     */
+    public boolean heartbeat(NodeInfo node) {
+        NodeHealth entry = health.get(node.getNodeId());
+        if (entry == null || entry.node != node) {
+            entry = new NodeHealth(node); // first heartbeat, or the node was registered again
+            health.put(node.getNodeId(), entry);
+        }
+        return entry.heartbeat(TimerWheel.nowMs());
+    }
+
+    /** @return the node's current suspicion level, or 0 if it never sent a heartbeat */
+    public double phi(String nodeId) {
+        NodeHealth entry = health.get(nodeId);
+        return (entry == null) ? 0 : entry.phi(TimerWheel.nowMs());
+    }
+
+    @Override
+    public void close() {
+        wheel.close();
+    }
+
+    /**
+     * Suspicion level at y standard deviations past the mean, using the logistic approximation of
+     * the normal distribution's tail.
+     */
+    static double phi(double y) {
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        return (y > 0) ? -Math.log10(e / (1 + e)) : -Math.log10(1 - 1 / (1 + e));
+    }
+
+    /** @return the standard deviations past the mean at which phi reaches the threshold */
+    static double deviationsAt(double threshold) {
+        double low = -10;
+        double high = 40;
+        for (int i = 0; i < 100; i++) {
+            double mid = (low + high) / 2;
+            if (phi(mid) < threshold) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        return high;
+    }
+
+    /** A node's heartbeat history and deadlines, which is also its timer. */
+    private final class NodeHealth extends TimerWheel.Timer {
+
+        private final NodeInfo node;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        // Inter-arrival times in ms, as a ring; guarded by lock
+        private final int[] intervals = new int[WINDOW];
+        private int count;
+        private int next;
+        private long sum;
+        private long sumSquares;
+
+        // Written under lock, read by phi() without it
+        private volatile long lastArrivalMs = -1;
+        private volatile double mean;
+        private volatile double stdDev;
+        private volatile long suspectAtMs;
+        private volatile long downAtMs;
+
+        NodeHealth(NodeInfo node) {
+            this.node = node;
+        }
+
+        boolean heartbeat(long now) {
+            boolean recovered;
+            lock.lock();
+            try {
+                if (lastArrivalMs < 0) {
+                    // No history yet: start from the expected interval, give or take a quarter
+                    add(expectedIntervalMs - expectedIntervalMs / 4);
+                    add(expectedIntervalMs + expectedIntervalMs / 4);
+                } else if (now <= downAtMs) {
+                    add(Math.min(now - lastArrivalMs, MAX_INTERVAL_MS));
+                } // else the node was DOWN: the gap says nothing about its heartbeat interval
+
+                mean = (double) sum / count;
+                stdDev = Math.max(minStdDevMs, Math.sqrt(Math.max(0, (double) sumSquares / count - mean * mean)));
+                lastArrivalMs = now;
+                suspectAtMs = now + (long) Math.ceil(mean + suspectDeviations * stdDev);
+                downAtMs = Math.max(suspectAtMs, now + (long) Math.ceil(mean + acceptablePauseMs + downDeviations * stdDev));
+
+                recovered = node.isSuspect() || node.getStatus() == NodeInfo.Status.DOWN;
+                node.setSuspect(false);
+                node.updateHeartbeat(System.currentTimeMillis());
+                wheel.schedule(this, suspectAtMs);
+            } finally {
+                lock.unlock();
+            }
+            return recovered;
+        }
+
+        private void add(long interval) {
+            if (count == WINDOW) {
+                int oldest = intervals[next];
+                sum -= oldest;
+                sumSquares -= (long) oldest * oldest;
+            } else {
+                count++;
+            }
+            intervals[next] = (int) interval;
+            next = (next + 1) % WINDOW;
+            sum += interval;
+            sumSquares += interval * interval;
+        }
+
+        double phi(long now) {
+            long last = lastArrivalMs;
+            return (last < 0) ? 0 : FailureDetector.phi((now - last - mean) / stdDev);
+        }
+
+        @Override
+        protected void expired(long now) {
+            boolean suspected = false;
+            boolean failed = false;
+            lock.lock();
+            try {
+                if (node.getStatus() == NodeInfo.Status.DOWN || health.get(node.getNodeId()) != this) {
+                    return; // already DOWN, or replaced by a new registration
+                }
+                if (now < suspectAtMs) {
+                    wheel.schedule(this, suspectAtMs); // a heartbeat moved the deadline meanwhile
+                } else if (now < downAtMs) {
+                    if (!node.isSuspect()) {
+                        node.setSuspect(true);
+                        suspected = true;
+                    }
+                    wheel.schedule(this, downAtMs);
+                } else {
+                    node.markDown();
+                    failed = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (suspected) {
+                listener.suspected(node, phi(now));
+            } else if (failed) {
+                listener.failed(node, phi(now));
+            }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.leo.dfss.coordinator.health;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashed timer wheel: timers are kept in one of wheelSize slots by deadline tick, and a single
+ * thread visits one slot per tick. Scheduling and expiring a timer are O(1), whatever the number
+ * of timers; a slot holding a timer due in a later round keeps it there.
+ *
+ * Timers are intrusive (a subclass per use) and re-armed in place, so a deadline that keeps moving
+ * later, like a node's heartbeat deadline, costs no allocation and no wheel operation: schedule()
+ * only stores the new deadline, and when the old slot comes round the wheel thread moves the timer
+ * on to it. A deadline moved earlier is likewise noticed when the old slot comes round.
+ *
+ * Times are milliseconds of System.nanoTime(), see nowMs().
+ */
+public final class TimerWheel implements AutoCloseable {
+
+    private static final int IDLE = 0;       // not in the wheel
+    private static final int QUEUED = 1;     // waiting for the wheel thread to insert it
+    private static final int SCHEDULED = 2;  // in a slot
+
+    /** A timer; expired() runs on the wheel thread once its deadline has passed. */
+    public abstract static class Timer {
+
+        private volatile long deadlineMs;
+        private final AtomicInteger state = new AtomicInteger(IDLE);
+
+        // Wheel thread only
+        private Timer prev;
+        private Timer next;
+        private int slot = -1;
+        private long rounds;
+
+        protected abstract void expired(long nowMs);
+
+        public long getDeadlineMs() {
+            return deadlineMs;
+        }
+    }
+
+    private final long tickMs;
+    private final int mask;
+    private final Timer[] slots;   // head of each slot's doubly linked list, wheel thread only
+    private final ConcurrentLinkedQueue<Timer> pending = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private long tick; // ticks since start, wheel thread only
+    private final long startMs;
+
+    /**
+     * @param tickMs timer resolution: a timer fires up to one tick after its deadline
+     * @param wheelSize slots, rounded up to a power of two; one round is tickMs x wheelSize
+     * @param threadName name of the wheel thread
+     */
+    public TimerWheel(long tickMs, int wheelSize, String threadName) {
+        if (tickMs <= 0) {
+            throw new IllegalArgumentException("tickMs must be greater than 0");
+        }
+        if (wheelSize <= 0 || wheelSize > (1 << 30)) {
+            throw new IllegalArgumentException("wheelSize must be between 1 and 2^30");
+        }
+        this.tickMs = tickMs;
+        int size = Integer.highestOneBit(wheelSize - 1) << 1;
+        this.slots = new Timer[Math.max(1, size)];
+        this.mask = slots.length - 1;
+        this.startMs = nowMs();
+        this.thread = new Thread(this::run, threadName);
+        this.thread.setDaemon(true);
+    }
+
+    public static long nowMs() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Arms a timer, or moves the deadline of an armed one. Thread-safe.
+     */
+    public void schedule(Timer timer, long deadlineMs) {
+        timer.deadlineMs = deadlineMs;
+        if (timer.state.compareAndSet(IDLE, QUEUED)) {
+            pending.add(timer);
+        }
+    }
+
+    private void run() {
+        long nextTickMs = startMs + tickMs;
+        while (running) {
+            long sleepMs = nextTickMs - nowMs();
+            if (sleepMs > 0) {
+                try {
+                    Thread.sleep(sleepMs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+            Timer timer;
+            while ((timer = pending.poll()) != null) {
+                timer.state.set(SCHEDULED);
+                insert(timer);
+            }
+
+            long now = nowMs();
+            expireSlot((int) (tick & mask), now);
+            tick++;
+            nextTickMs += tickMs;
+        }
+    }
+
+    private void expireSlot(int slot, long now) {
+        Timer timer = slots[slot];
+        while (timer != null) {
+            Timer next = timer.next;
+            if (timer.rounds > 0) {
+                timer.rounds--;
+            } else {
+                remove(timer);
+                if (timer.deadlineMs > now) {
+                    insert(timer); // moved later since it was placed here
+                } else {
+                    timer.state.set(IDLE);
+                    try {
+                        timer.expired(now);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+            timer = next;
+        }
+    }
+
+    /** Places a timer in the slot of its deadline tick, at least the next one to be visited. */
+    private void insert(Timer timer) {
+        long deadlineTick = Math.max(tick, (timer.deadlineMs - startMs + tickMs - 1) / tickMs);
+        long ticks = deadlineTick - tick;
+        timer.rounds = ticks / slots.length;
+        timer.slot = (int) (deadlineTick & mask);
+
+        Timer head = slots[timer.slot];
+        timer.prev = null;
+        timer.next = head;
+        if (head != null) {
+            head.prev = timer;
+        }
+        slots[timer.slot] = timer;
+    }
+
+    private void remove(Timer timer) {
+        if (timer.prev != null) {
+            timer.prev.next = timer.next;
+        } else {
+            slots[timer.slot] = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.prev = timer.prev;
+        }
+        timer.prev = null;
+        timer.next = null;
+        timer.slot = -1;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        thread.interrupt();
+    }
+}
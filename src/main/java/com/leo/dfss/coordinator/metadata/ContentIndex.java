@@ -0,0 +1,131 @@
+package com.leo.dfss.coordinator.metadata;
+
+import com.leo.dfss.domain.ChunkLocations;
+import com.leo.dfss.domain.ContentHash;
+import com.leo.dfss.domain.FileMetadata;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where the content of deduplicated files is stored: content hash -> the nodes holding the chunk,
+ * and the number of chunk references to it from committed files.
+ *
+ * Only committed files add references, so a chunk is offered for reuse only once some file that
+ * uploaded it has been committed. Two files uploading the same new content at once both store a
+ * copy; whichever commits first becomes the indexed copy and the other file is pointed at it.
+ *
+ * The index is derived state: the coordinator rebuilds it from the committed files on startup.
+ */
+public class ContentIndex {
+
+    /** A stored chunk; references is guarded by the map's per-key locking. */
+    private static final class Entry {
+        final String[] nodeIds;
+        int references;
+
+        Entry(String[] nodeIds) {
+            this.nodeIds = nodeIds;
+        }
+    }
+
+    private final Map<ContentHash, Entry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong storedBytes = new AtomicLong();      // bytes of distinct chunks
+    private final AtomicLong referencedBytes = new AtomicLong();  // bytes of all committed chunk references
+
+    /**
+     * @param minReplicas fewest nodes a stored copy must be on to be reused
+     * @return nodes holding the chunk, or null if it is not stored on at least minReplicas nodes
+     */
+    public String[] locate(ContentHash hash, int minReplicas) {
+        Entry entry = entries.get(hash);
+        return (entry == null || entry.nodeIds.length < minReplicas) ? null : entry.nodeIds;
+    }
+
+    /**
+     * Adds the chunk references of a committed deduplicated file and points each of its chunks at
+     * the indexed copy of its content. A copy the file uploaded to more nodes than the indexed one
+     * replaces it in the index (files already pointing at the old copy keep it).
+     *
+     * @return chunks whose content was not stored before
+     */
+    public int addFile(FileMetadata file) {
+        ContentHash[] chunkHashes = file.getChunkHashes();
+        ChunkLocations uploadedLocations = file.getChunkLocations();
+        ChunkLocations.Builder locations =
+                new ChunkLocations.Builder(uploadedLocations.getNodeIdTable(), chunkHashes.length);
+        int newChunks = 0;
+        boolean[] created = new boolean[1];
+
+        for (int chunkIndex = 0; chunkIndex < chunkHashes.length; chunkIndex++) {
+            String[] uploaded = uploadedLocations.nodeIds(chunkIndex);
+            long length = file.getChunkLength(chunkIndex);
+            boolean ownCopy = !file.isSharedChunk(chunkIndex);
+            created[0] = false;
+
+            Entry entry = entries.compute(chunkHashes[chunkIndex], (hash, existing) -> {
+                Entry result = existing;
+                if (existing == null || (ownCopy && uploaded.length > existing.nodeIds.length)) {
+                    result = new Entry(uploaded);
+                    if (existing != null) {
+                        result.references = existing.references;
+                    } else {
+                        storedBytes.addAndGet(length);
+                        created[0] = true;
+                    }
+                }
+                result.references++;
+                return result;
+            });
+
+            if (created[0]) {
+                newChunks++;
+            }
+            locations.add(entry.nodeIds);
+            referencedBytes.addAndGet(length);
+        }
+        file.setChunkLocations(locations.build());
+        return newChunks;
+    }
+
+    /**
+     * Points the indexed copy of a chunk at the node a replica was re-replicated to, in place of
+     * the node it was lost with. Does nothing if the indexed copy is not on fromNodeId.
+     */
+    public void replicaMoved(ContentHash hash, String fromNodeId, String toNodeId) {
+        entries.computeIfPresent(hash, (key, existing) -> {
+            String[] nodeIds = existing.nodeIds.clone();
+            for (int i = 0; i < nodeIds.length; i++) {
+                if (nodeIds[i].equals(toNodeId)) {
+                    return existing;
+                }
+            }
+            for (int i = 0; i < nodeIds.length; i++) {
+                if (nodeIds[i].equals(fromNodeId)) {
+                    nodeIds[i] = toNodeId;
+                    Entry moved = new Entry(nodeIds);
+                    moved.references = existing.references;
+                    return moved;
+                }
+            }
+            return existing;
+        });
+    }
+
+    /** @return distinct chunks stored */
+    public int getChunkCount() {
+        return entries.size();
+    }
+
+    /** @return bytes of the distinct chunks stored (each counted once, not per replica) */
+    public long getStoredBytes() {
+        return storedBytes.get();
+    }
+
+    /** @return bytes of deduplicated files committed; referenced / stored is the deduplication ratio */
+    public long getReferencedBytes() {
+        return referencedBytes.get();
+    }
+}
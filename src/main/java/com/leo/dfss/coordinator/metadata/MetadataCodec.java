@@ -0,0 +1,308 @@
+package com.leo.dfss.coordinator.metadata;
+
+import com.leo.dfss.domain.ChunkLocations;
+import com.leo.dfss.domain.ContentHash;
+import com.leo.dfss.domain.FileMetadata;
+import com.leo.dfss.domain.NodeIdTable;
+import com.leo.dfss.domain.NodeInfo;
+import com.leo.dfss.erasure.StripeLayout;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Binary encoding of coordinator metadata, shared by log records and snapshots.
+ *
+ * Chunk locations make up most of a file record, so node ids in them can be written as a 2-byte
+ * reference into a node table (snapshots) instead of as strings (log records). Records are
+ * written through a DataOutput and decoded straight from a ByteBuffer holding a whole log record
+ * or snapshot section. Strings are [2 length][UTF-8 bytes].
+ *
+ * A file record ends with the content hashes of a deduplicated file: [4 count, -1 if none] then per
+ * chunk [32 SHA-256][1 shared], and then the chunk lengths of a file with variable-size chunks:
+ * [4 count, -1 if none][4 length] per chunk, and then the stored chunks reported uploaded of a
+ * file still uploading: [4 word count, -1 if none][8 bitmap word] per 64 chunks. Log records
+ * written before these existed end early.
+ */
+final class MetadataCodec {
+
+    // Log record types
+    static final byte FILE_INIT = 1;
+    static final byte FILE_COMMIT = 2;
+    static final byte NODE_REGISTER = 3;
+    static final byte CHUNKS_UPLOADED = 4;
+    static final byte REPLICAS_MOVED = 5;
+
+    private static final int INLINE_NODE_ID = 0;       // node reference followed by the id as a string
+    static final int MAX_NODE_TABLE_SIZE = 0xFFFE;     // references are index + 1 in an unsigned short
+
+    // Newest file record layout (see readFile)
+    static final int LATEST_FILE_VERSION = 4;
+
+    private static final FileMetadata.Status[] STATUSES = FileMetadata.Status.values();
+
+    private MetadataCodec() {}
+
+    /**
+     * @param nodeIndex node id -> position in the node table, or null to write every node id inline
+     */
+    static void writeFile(DataOutput out, FileMetadata file, Map<String, Integer> nodeIndex) throws IOException {
+        writeString(out, file.getFileId());
+        writeString(out, file.getFileName());
+        out.writeLong(file.getTotalSizeBytes());
+        out.writeInt(file.getChunkSizeBytes());
+        out.writeLong(file.getCreatedAt().toEpochMilli());
+        out.writeByte(file.getStatus().ordinal());
+        out.writeByte(file.getReplicationFactor());
+        out.writeByte(file.getWriteQuorum());
+
+        StripeLayout layout = file.getStripeLayout();
+        out.writeByte((layout == null) ? 0 : layout.getDataShards());
+        out.writeByte((layout == null) ? 0 : layout.getParityShards());
+
+        ChunkLocations locations = file.getChunkLocations();
+        if (locations == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(locations.getChunkCount());
+            for (int chunkIndex = 0; chunkIndex < locations.getChunkCount(); chunkIndex++) {
+                int replicas = locations.replicaCount(chunkIndex);
+                out.writeByte(replicas);
+                for (int replica = 0; replica < replicas; replica++) {
+                    String nodeId = locations.nodeId(chunkIndex, replica);
+                    Integer index = (nodeIndex == null) ? null : nodeIndex.get(nodeId);
+                    if (index == null) {
+                        out.writeShort(INLINE_NODE_ID);
+                        writeString(out, nodeId);
+                    } else {
+                        out.writeShort(index + 1);
+                    }
+                }
+            }
+        }
+
+        ContentHash[] chunkHashes = file.getChunkHashes();
+        if (chunkHashes == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(chunkHashes.length);
+            for (int chunkIndex = 0; chunkIndex < chunkHashes.length; chunkIndex++) {
+                chunkHashes[chunkIndex].writeTo(out);
+                out.writeBoolean(file.isSharedChunk(chunkIndex));
+            }
+        }
+
+        if (!file.hasVariableChunks()) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(file.getTotalChunks());
+            for (int chunkIndex = 0; chunkIndex < file.getTotalChunks(); chunkIndex++) {
+                out.writeInt((int) file.getChunkLength(chunkIndex));
+            }
+        }
+
+        // A complete file has all of its chunks: the bitmap only matters while it uploads
+        if (file.getStatus() != FileMetadata.Status.UPLOADING) {
+            out.writeInt(-1);
+            return;
+        }
+        long[] uploaded = file.getUploadedChunks().toLongArray();
+        out.writeInt(uploaded.length);
+        for (long word : uploaded) {
+            out.writeLong(word);
+        }
+    }
+
+    /**
+     * Reads the file record of a log record, which may predate content hashes and chunk lengths.
+     *
+     * @param nodeIds interns the node ids of the chunk locations
+     */
+    static FileMetadata readFile(ByteBuffer in, NodeIdTable nodeIds) throws IOException {
+        return readFile(in, nodeIds, null, LATEST_FILE_VERSION);
+    }
+
+    /**
+     * @param nodeIds interns the node ids of the chunk locations
+     * @param table the snapshot's node table, or null if the ids were written inline
+     * @param version fields the record has: 1 ends after the chunk locations, 2 adds content
+     *                hashes, 3 chunk lengths, 4 uploaded chunks (the snapshot version that wrote it)
+     */
+    static FileMetadata readFile(ByteBuffer in, NodeIdTable nodeIds, NodeTable table,
+                                 int version) throws IOException {
+        try {
+            FileMetadata file = decodeFile(in, nodeIds, table);
+
+            ContentHash[] chunkHashes = null;
+            BitSet shared = null;
+            if (version >= 2 && in.hasRemaining()) {
+                int count = in.getInt();
+                if (count >= 0) {
+                    chunkHashes = new ContentHash[count];
+                    shared = new BitSet(count);
+                    for (int chunkIndex = 0; chunkIndex < count; chunkIndex++) {
+                        chunkHashes[chunkIndex] = ContentHash.read(in);
+                        if (in.get() != 0) {
+                            shared.set(chunkIndex);
+                        }
+                    }
+                }
+            }
+
+            if (version >= 3 && in.hasRemaining()) {
+                int count = in.getInt();
+                if (count >= 0) {
+                    long[] chunkOffsets = new long[count + 1];
+                    for (int chunkIndex = 0; chunkIndex < count; chunkIndex++) {
+                        chunkOffsets[chunkIndex + 1] = chunkOffsets[chunkIndex] + in.getInt();
+                    }
+                    file.setChunkOffsets(chunkOffsets);
+                }
+            }
+
+            // Hashes are checked against the chunk count, so they are set after the offsets
+            if (chunkHashes != null) {
+                file.setChunkHashes(chunkHashes);
+                file.setSharedChunks(shared);
+            }
+
+            if (version >= 4 && in.hasRemaining()) {
+                int words = in.getInt();
+                if (words >= 0) {
+                    long[] uploaded = new long[words];
+                    for (int i = 0; i < words; i++) {
+                        uploaded[i] = in.getLong();
+                    }
+                    file.setUploadedChunks(BitSet.valueOf(uploaded));
+                }
+            }
+            return file;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Truncated or corrupt file record", e);
+        }
+    }
+
+    private static FileMetadata decodeFile(ByteBuffer in, NodeIdTable nodeIds, NodeTable table) {
+        String fileId = readString(in);
+        String fileName = readString(in);
+        long totalSizeBytes = in.getLong();
+        int chunkSizeBytes = in.getInt();
+        Instant createdAt = Instant.ofEpochMilli(in.getLong());
+
+        FileMetadata file = new FileMetadata(fileId, fileName, totalSizeBytes, chunkSizeBytes, createdAt);
+        file.setStatus(STATUSES[in.get() & 0xFF]);
+        file.setReplicationFactor(in.get() & 0xFF);
+        file.setWriteQuorum(in.get() & 0xFF);
+
+        int dataShards = in.get() & 0xFF;
+        int parityShards = in.get() & 0xFF;
+        if (dataShards > 0) {
+            file.setErasureCoding(dataShards, parityShards);
+        }
+
+        int chunkCount = in.getInt();
+        if (chunkCount < 0) {
+            return file;
+        }
+        ChunkLocations.Builder locations = new ChunkLocations.Builder(nodeIds, chunkCount);
+        char[] refs = new char[8];
+        for (int chunkIndex = 0; chunkIndex < chunkCount; chunkIndex++) {
+            int count = in.get() & 0xFF;
+            if (count > refs.length) {
+                refs = new char[count];
+            }
+            for (int i = 0; i < count; i++) {
+                int reference = in.getShort() & 0xFFFF;
+                refs[i] = (char) ((reference == INLINE_NODE_ID)
+                        ? nodeIds.intern(readString(in))
+                        : table.ref(reference - 1));
+            }
+            locations.addRefs(refs, count);
+        }
+        file.setChunkLocations(locations.build());
+        return file;
+    }
+
+    /**
+     * The node table of a snapshot being read: node ids by table position, interned into the
+     * NodeIdTable when a chunk location first refers to them. A node no chunk is on any more takes
+     * no reference, so the references in use do not grow with every node the cluster has known.
+     * Shared by the threads decoding the snapshot's sections.
+     */
+    static final class NodeTable {
+
+        private final NodeIdTable nodeIds;
+        private final String[] ids;
+        private final AtomicIntegerArray refs; // reference + 1 of each position, 0 until interned
+
+        NodeTable(NodeIdTable nodeIds, String[] ids) {
+            this.nodeIds = nodeIds;
+            this.ids = ids;
+            this.refs = new AtomicIntegerArray(ids.length);
+        }
+
+        /** @return the NodeIdTable reference of the node at a table position */
+        int ref(int position) {
+            int ref = refs.get(position) - 1;
+            if (ref < 0) {
+                ref = nodeIds.intern(ids[position]); // idempotent, so racing threads agree
+                refs.set(position, ref + 1);
+            }
+            return ref;
+        }
+    }
+
+    static void writeNode(DataOutput out, NodeInfo node) throws IOException {
+        writeString(out, node.getNodeId());
+        writeString(out, node.getHost());
+        out.writeInt(node.getPort());
+        out.writeLong(node.getCapacityBytes());
+    }
+
+    /**
+     * Restored nodes start DOWN: they are only placed on again once they heartbeat or re-register.
+     */
+    static NodeInfo readNode(ByteBuffer in) throws IOException {
+        try {
+            NodeInfo node = new NodeInfo(readString(in), readString(in), in.getInt(), in.getLong(), 0);
+            node.markDown();
+            return node;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Truncated or corrupt node record", e);
+        }
+    }
+
+    static void writeString(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("String too long for a metadata record (" + bytes.length + " bytes)");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) {
+        int length = in.getShort() & 0xFFFF;
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+}
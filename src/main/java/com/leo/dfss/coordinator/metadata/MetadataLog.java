@@ -0,0 +1,309 @@
+package com.leo.dfss.coordinator.metadata;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-ahead log of coordinator metadata mutations, split into numbered segment files
+ * (wal-&lt;segment&gt;.log).
+ *
+ * Records are group committed: callers queue a record and wait, while one writer thread takes
+ * everything queued so far, writes it with a single write and makes it durable with a single
+ * fsync. Under load one fsync covers many requests, so throughput is not bound by fsync latency.
+ *
+ * Each record is framed as [4 length][4 CRC32C][payload], so a record torn by a crash is detected
+ * on replay and cut off.
+ */
+final class MetadataLog implements AutoCloseable {
+
+    private static final int MAX_BATCH = 4096;
+
+    private final Path dir;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread writerThread;
+
+    // Owned by the writer thread
+    private FileChannel channel;
+    private long segment;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+    private final CRC32C crc = new CRC32C();
+
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+
+    private volatile IOException failure;
+
+    /** A queued record, or a request to roll (record == null) or to stop (STOP). */
+    private static final class Pending {
+        final byte[] record;
+        final CompletableFuture<Long> done = new CompletableFuture<>();
+
+        Pending(byte[] record) {
+            this.record = record;
+        }
+    }
+
+    private static final Pending STOP = new Pending(null);
+
+    /**
+     * Opens a new segment after every existing one and starts the writer thread.
+     *
+     * @param dir log directory
+     * @param segment number of the segment to create (higher than any segment already in dir)
+     */
+    MetadataLog(Path dir, long segment) throws IOException {
+        this.dir = dir;
+        this.segment = segment;
+        this.channel = openSegment(segment);
+
+        this.writerThread = new Thread(this::writeLoop, "coordinator-wal");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Appends one record and blocks until it is durable.
+     */
+    void append(byte[] record) throws IOException {
+        await(submit(new Pending(record)));
+    }
+
+    /**
+     * Closes the current segment and starts the next one. Every record appended before this call
+     * returns is in an earlier segment.
+     *
+     * @return number of the new segment
+     */
+    long roll() throws IOException {
+        return await(submit(new Pending(null)));
+    }
+
+    /** @return records made durable so far */
+    long getRecordCount() {
+        return records.get();
+    }
+
+    /** @return fsyncs done so far (records / syncs = average group commit size) */
+    long getSyncCount() {
+        return syncs.get();
+    }
+
+    static Path segmentPath(Path dir, long segment) {
+        return dir.resolve(String.format("wal-%016d.log", segment));
+    }
+
+    /**
+     * Reads every intact record of a segment. A torn or corrupt record ends the segment: the file
+     * is truncated there, so later appends and replays never see it.
+     *
+     * @return number of records read
+     */
+    static long replay(Path segmentFile, RecordHandler handler) throws IOException {
+        long good = 0;
+        long count = 0;
+        CRC32C crc = new CRC32C();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segmentFile), 1 << 20))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break; // clean end
+                }
+
+                byte[] payload;
+                long checksum;
+                try {
+                    checksum = in.readInt() & 0xFFFFFFFFL;
+                    if (length <= 0) {
+                        throw new EOFException("Bad record length " + length);
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    System.out.println("Torn record at " + segmentFile + ":" + good + ", truncating");
+                    break;
+                }
+
+                crc.reset();
+                crc.update(payload);
+                if (crc.getValue() != checksum) {
+                    System.out.println("Corrupt record at " + segmentFile + ":" + good + ", truncating");
+                    break;
+                }
+
+                handler.handle(payload);
+                good += 8 + length;
+                count++;
+            }
+        }
+
+        if (Files.size(segmentFile) > good) {
+            try (FileChannel channel = FileChannel.open(segmentFile, StandardOpenOption.WRITE)) {
+                channel.truncate(good);
+                channel.force(true);
+            }
+        }
+        return count;
+    }
+
+    @FunctionalInterface
+    interface RecordHandler {
+        void handle(byte[] payload) throws IOException;
+    }
+
+    private CompletableFuture<Long> submit(Pending pending) throws IOException {
+        if (failure != null) {
+            throw new IOException("Metadata log failed earlier", failure);
+        }
+        queue.add(pending);
+        return pending.done;
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>();
+        List<Pending> waiting = new ArrayList<>();
+
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+
+                for (Pending pending : batch) {
+                    if (pending == STOP) {
+                        sync(waiting);
+                        fail(new IOException("Metadata log is closed"), batch, waiting); // anything queued after close
+                        return;
+                    }
+                    if (pending.record == null) {
+                        // Roll: everything before it goes into the current segment
+                        sync(waiting);
+                        channel.close();
+                        segment++;
+                        channel = openSegment(segment);
+                        pending.done.complete(segment);
+                        continue;
+                    }
+                    frame(pending.record);
+                    waiting.add(pending);
+                }
+                sync(waiting);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(new InterruptedIOException("Metadata log writer interrupted"), batch, waiting);
+        } catch (IOException e) {
+            System.out.println("Metadata log write failed: " + e.getMessage());
+            fail(e, batch, waiting);
+        }
+    }
+
+    private void frame(byte[] record) {
+        if (buffer.remaining() < 8 + record.length) {
+            ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2, buffer.position() + 8 + record.length));
+            buffer.flip();
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+        crc.reset();
+        crc.update(record);
+        buffer.putInt(record.length);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(record);
+    }
+
+    /** Writes the framed records, fsyncs once and releases their callers. */
+    private void sync(List<Pending> waiting) throws IOException {
+        if (waiting.isEmpty()) {
+            return;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        channel.force(false);
+
+        syncs.incrementAndGet();
+        records.addAndGet(waiting.size());
+        for (Pending pending : waiting) {
+            pending.done.complete(segment);
+        }
+        waiting.clear();
+    }
+
+    private void fail(IOException cause, List<Pending> batch, List<Pending> waiting) {
+        failure = cause;
+        for (Pending pending : batch) {
+            pending.done.completeExceptionally(cause);
+        }
+        for (Pending pending : waiting) {
+            pending.done.completeExceptionally(cause);
+        }
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            pending.done.completeExceptionally(cause);
+        }
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        FileChannel created = FileChannel.open(segmentPath(dir, number),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        syncDirectory(dir);
+        return created;
+    }
+
+    /** Makes a file creation or rename in dir durable (a no-op where directories cannot be opened). */
+    static void syncDirectory(Path dir) {
+        try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static long await(CompletableFuture<Long> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the metadata log");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        queue.add(STOP);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
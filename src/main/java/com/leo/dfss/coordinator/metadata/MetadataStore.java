@@ -0,0 +1,472 @@
+package com.leo.dfss.coordinator.metadata;
+
+import com.leo.dfss.domain.FileMetadata;
+import com.leo.dfss.domain.NodeIdTable;
+import com.leo.dfss.domain.NodeInfo;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Durable storage for the coordinator's file and node registries.
+ *
+ * Every mutation is appended to a group-committed write-ahead log (MetadataLog) before the
+ * coordinator answers the request. Every snapshotRecords records, a background thread rolls the
+ * log to a new segment, writes a binary snapshot of the registries and deletes the segments the
+ * snapshot covers, so startup only loads one snapshot and replays the short log tail after it.
+ *
+ * Snapshots store files in sections of SNAPSHOT_SECTION_FILES records, read sequentially but
+ * decoded on every core, and chunk locations refer to a node table, so restart time is bound by
+ * disk read speed rather than by one thread parsing tens of millions of records.
+ *
+ * Snapshots are fuzzy: the registries keep changing while they are written. That is safe because
+ * every record is idempotent (it sets state rather than changing it) and the whole tail from the
+ * roll onwards is replayed over the snapshot.
+ *
+ * Files in the data directory:
+ *   snapshot-&lt;segment&gt;.bin  registries, covering every log segment before &lt;segment&gt;
+ *   wal-&lt;segment&gt;.log       log segments
+ */
+public class MetadataStore implements AutoCloseable {
+
+    public static final long DEFAULT_SNAPSHOT_RECORDS = 1_000_000;
+
+    private static final int SNAPSHOT_MAGIC = 0x4446534D; // "DFSM"
+    private static final int SNAPSHOT_VERSION = MetadataCodec.LATEST_FILE_VERSION; // file records as readFile reads them
+    private static final int SNAPSHOT_SECTION_FILES = 16_384;
+
+    private final Path dir;
+    private final long snapshotRecords;
+
+    private Map<String, FileMetadata> files;
+    private Map<String, NodeInfo> nodes;
+    private NodeIdTable nodeIds;
+    private MetadataLog log;
+
+    private final AtomicLong recordsSinceSnapshot = new AtomicLong();
+    private final AtomicBoolean snapshotRunning = new AtomicBoolean();
+    private final ExecutorService snapshotter = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "coordinator-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param dir data directory (created if missing)
+     * @param snapshotRecords log records between snapshots
+     */
+    public MetadataStore(Path dir, long snapshotRecords) {
+        if (snapshotRecords <= 0) {
+            throw new IllegalArgumentException("snapshotRecords must be greater than 0");
+        }
+        this.dir = dir;
+        this.snapshotRecords = snapshotRecords;
+    }
+
+    /**
+     * Loads the latest snapshot and replays the log after it into the given registries, then
+     * opens the log for new records. Must be called once, before any mutation is logged.
+     *
+     * @param nodeIds interns the node ids of recovered chunk locations
+     */
+    public void recover(Map<String, FileMetadata> files, Map<String, NodeInfo> nodes, NodeIdTable nodeIds)
+            throws IOException {
+        this.files = files;
+        this.nodes = nodes;
+        this.nodeIds = nodeIds;
+        Files.createDirectories(dir);
+        long start = System.nanoTime();
+
+        // 1) Latest snapshot, if any
+        long snapshotSegment = -1;
+        for (Path snapshot : list("snapshot-", ".bin")) {
+            snapshotSegment = Math.max(snapshotSegment, number(snapshot, "snapshot-", ".bin"));
+        }
+        long firstSegment = 0;
+        if (snapshotSegment >= 0) {
+            firstSegment = loadSnapshot(snapshotPath(snapshotSegment));
+        }
+
+        // 2) Replay the log segments it does not cover, in order
+        List<Long> segments = new ArrayList<>();
+        for (Path file : list("wal-", ".log")) {
+            long segment = number(file, "wal-", ".log");
+            if (segment >= firstSegment) {
+                segments.add(segment);
+            }
+        }
+        segments.sort(null);
+
+        long replayed = 0;
+        for (long segment : segments) {
+            replayed += MetadataLog.replay(MetadataLog.segmentPath(dir, segment), this::apply);
+        }
+
+        long nextSegment = segments.isEmpty() ? firstSegment : segments.get(segments.size() - 1) + 1;
+        this.log = new MetadataLog(dir, nextSegment);
+
+        System.out.println(String.format("Recovered %d files and %d nodes (snapshot %s + %d log records) in %d ms",
+                files.size(), nodes.size(), (snapshotSegment < 0) ? "none" : String.valueOf(snapshotSegment),
+                replayed, (System.nanoTime() - start) / 1_000_000));
+
+        // A long tail is folded into a snapshot straight away, so the next restart is fast
+        recordsSinceSnapshot.set(replayed);
+        maybeSnapshot();
+    }
+
+    /** Logs a new file record with its placement plan; returns once the record is durable. */
+    public void fileInitialised(FileMetadata file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(MetadataCodec.FILE_INIT);
+        MetadataCodec.writeFile(out, file, null);
+        append(bytes.toByteArray());
+    }
+
+    /** Logs that a file is complete; returns once the record is durable. */
+    public void fileCommitted(String fileId) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(MetadataCodec.FILE_COMMIT);
+        MetadataCodec.writeString(out, fileId);
+        append(bytes.toByteArray());
+    }
+
+    /**
+     * Logs stored chunks of an uploading file as uploaded; returns once the record is durable.
+     *
+     * @param storedIndexes stored chunk indexes acknowledged by their nodes
+     */
+    public void chunksUploaded(String fileId, int[] storedIndexes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 4 * storedIndexes.length);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(MetadataCodec.CHUNKS_UPLOADED);
+        MetadataCodec.writeString(out, fileId);
+        out.writeInt(storedIndexes.length);
+        for (int storedIndex : storedIndexes) {
+            out.writeInt(storedIndex);
+        }
+        append(bytes.toByteArray());
+    }
+
+    /**
+     * Logs chunk replicas of a file re-replicated to other nodes (see
+     * ChunkLocations.withReplicasMoved); returns once the record is durable.
+     */
+    public void replicasMoved(String fileId, int[] chunkIndexes, String[] fromNodeIds, String[] toNodeIds, int count)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 96 * count);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(MetadataCodec.REPLICAS_MOVED);
+        MetadataCodec.writeString(out, fileId);
+        out.writeInt(count);
+        for (int i = 0; i < count; i++) {
+            out.writeInt(chunkIndexes[i]);
+            MetadataCodec.writeString(out, fromNodeIds[i]);
+            MetadataCodec.writeString(out, toNodeIds[i]);
+        }
+        append(bytes.toByteArray());
+    }
+
+    /** Logs a node registration (new node or new address); returns once the record is durable. */
+    public void nodeRegistered(NodeInfo node) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(MetadataCodec.NODE_REGISTER);
+        MetadataCodec.writeNode(out, node);
+        append(bytes.toByteArray());
+    }
+
+    /** @return log records made durable since startup */
+    public long getRecordCount() {
+        return log.getRecordCount();
+    }
+
+    /** @return log fsyncs since startup; records per fsync is the average group commit size */
+    public long getSyncCount() {
+        return log.getSyncCount();
+    }
+
+    private void append(byte[] record) throws IOException {
+        log.append(record);
+        recordsSinceSnapshot.incrementAndGet();
+        maybeSnapshot();
+    }
+
+    private void apply(byte[] payload) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(payload);
+        byte type = in.get();
+
+        switch (type) {
+            case MetadataCodec.FILE_INIT -> {
+                FileMetadata file = MetadataCodec.readFile(in, nodeIds);
+                files.put(file.getFileId(), file);
+            }
+            case MetadataCodec.FILE_COMMIT -> {
+                FileMetadata file = files.get(MetadataCodec.readString(in));
+                if (file != null) {
+                    file.setStatus(FileMetadata.Status.COMPLETE);
+                }
+            }
+            case MetadataCodec.CHUNKS_UPLOADED -> {
+                FileMetadata file = files.get(MetadataCodec.readString(in));
+                int[] storedIndexes = new int[in.getInt()];
+                for (int i = 0; i < storedIndexes.length; i++) {
+                    storedIndexes[i] = in.getInt();
+                }
+                if (file != null) {
+                    file.markChunksUploaded(storedIndexes);
+                }
+            }
+            case MetadataCodec.REPLICAS_MOVED -> {
+                FileMetadata file = files.get(MetadataCodec.readString(in));
+                int count = in.getInt();
+                int[] chunkIndexes = new int[count];
+                String[] fromNodeIds = new String[count];
+                String[] toNodeIds = new String[count];
+                for (int i = 0; i < count; i++) {
+                    chunkIndexes[i] = in.getInt();
+                    fromNodeIds[i] = MetadataCodec.readString(in);
+                    toNodeIds[i] = MetadataCodec.readString(in);
+                }
+                if (file != null && file.getChunkLocations() != null) {
+                    file.setChunkLocations(file.getChunkLocations()
+                            .withReplicasMoved(chunkIndexes, fromNodeIds, toNodeIds, count));
+                }
+            }
+            case MetadataCodec.NODE_REGISTER -> {
+                NodeInfo node = MetadataCodec.readNode(in);
+                nodes.put(node.getNodeId(), node);
+            }
+            default -> throw new IOException("Unknown metadata record type " + type);
+        }
+    }
+
+    private void maybeSnapshot() {
+        if (recordsSinceSnapshot.get() < snapshotRecords || !snapshotRunning.compareAndSet(false, true)) {
+            return;
+        }
+        snapshotter.execute(() -> {
+            try {
+                snapshot();
+            } catch (IOException e) {
+                System.out.println("Metadata snapshot failed: " + e.getMessage());
+            } finally {
+                snapshotRunning.set(false);
+            }
+        });
+    }
+
+    /**
+     * Writes a snapshot and deletes the log segments and older snapshots it replaces.
+     */
+    public void snapshot() throws IOException {
+        long start = System.nanoTime();
+        recordsSinceSnapshot.set(0);
+
+        // Everything logged so far lands in segments before this one
+        long segment = log.roll();
+
+        Path target = snapshotPath(segment);
+        Path temp = dir.resolve(target.getFileName() + ".tmp");
+        long fileCount = 0;
+
+        try (CheckedOutputStream checked = new CheckedOutputStream(
+                     new BufferedOutputStream(Files.newOutputStream(temp), 1 << 20), new CRC32C());
+             DataOutputStream out = new DataOutputStream(checked)) {
+
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(segment);
+
+            // Node table: chunk locations refer to nodes by position
+            ByteArrayOutputStream section = new ByteArrayOutputStream(1 << 20);
+            DataOutputStream sectionOut = new DataOutputStream(section);
+
+            List<NodeInfo> nodeList = new ArrayList<>(nodes.values());
+            Map<String, Integer> nodeIndex = new HashMap<>();
+            for (NodeInfo node : nodeList) {
+                MetadataCodec.writeNode(sectionOut, node);
+                if (nodeIndex.size() < MetadataCodec.MAX_NODE_TABLE_SIZE) {
+                    nodeIndex.put(node.getNodeId(), nodeIndex.size());
+                }
+            }
+            writeSection(out, section, nodeList.size());
+
+            // Files in length-prefixed sections, so loading can decode sections in parallel
+            int sectionFiles = 0;
+
+            for (FileMetadata file : files.values()) {
+                MetadataCodec.writeFile(sectionOut, file, nodeIndex);
+                fileCount++;
+                if (++sectionFiles == SNAPSHOT_SECTION_FILES) {
+                    writeSection(out, section, sectionFiles);
+                    sectionFiles = 0;
+                }
+            }
+            if (sectionFiles > 0) {
+                writeSection(out, section, sectionFiles);
+            }
+            out.writeInt(0); // end of sections
+
+            out.flush();
+            out.writeLong(checked.getChecksum().getValue());
+        }
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        MetadataLog.syncDirectory(dir);
+
+        // The snapshot now covers the older segments and snapshots
+        for (Path file : list("wal-", ".log")) {
+            if (number(file, "wal-", ".log") < segment) {
+                Files.deleteIfExists(file);
+            }
+        }
+        for (Path file : list("snapshot-", ".bin")) {
+            if (number(file, "snapshot-", ".bin") < segment) {
+                Files.deleteIfExists(file);
+            }
+        }
+
+        System.out.println(String.format("Metadata snapshot %d: %d files, %d nodes in %d ms (log: %d records, %d fsyncs)",
+                segment, fileCount, nodes.size(), (System.nanoTime() - start) / 1_000_000,
+                log.getRecordCount(), log.getSyncCount()));
+    }
+
+    /** Writes [4 length][4 record count][records] and empties the section buffer. */
+    private static void writeSection(DataOutputStream out, ByteArrayOutputStream section, int count) throws IOException {
+        out.writeInt(section.size());
+        out.writeInt(count);
+        section.writeTo(out);
+        section.reset();
+    }
+
+    /** @return the first log segment the snapshot does not cover */
+    private long loadSnapshot(Path snapshot) throws IOException {
+        try (CheckedInputStream checked = new CheckedInputStream(
+                     new BufferedInputStream(Files.newInputStream(snapshot), 1 << 20), new CRC32C());
+             DataInputStream in = new DataInputStream(checked)) {
+
+            int version = (in.readInt() == SNAPSHOT_MAGIC) ? in.readInt() : -1;
+            if (version < 1 || version > SNAPSHOT_VERSION) {
+                throw new IOException("Not a metadata snapshot: " + snapshot);
+            }
+            long segment = in.readLong();
+
+            int nodeBytes = in.readInt();
+            String[] tableIds = new String[in.readInt()];
+            ByteBuffer nodeSection = ByteBuffer.wrap(in.readNBytes(nodeBytes));
+            for (int i = 0; i < tableIds.length; i++) {
+                NodeInfo node = MetadataCodec.readNode(nodeSection);
+                nodes.put(node.getNodeId(), node);
+                tableIds[i] = node.getNodeId();
+            }
+            MetadataCodec.NodeTable table = new MetadataCodec.NodeTable(nodeIds, tableIds);
+
+            // Sections are read in order on this thread and decoded on all cores
+            int decoders = Runtime.getRuntime().availableProcessors();
+            ExecutorService pool = Executors.newFixedThreadPool(decoders);
+            Semaphore buffered = new Semaphore(2 * decoders); // sections held in memory at once
+            List<Future<?>> decoded = new ArrayList<>();
+
+            try {
+                int length;
+                while ((length = in.readInt()) > 0) {
+                    int count = in.readInt();
+                    byte[] section = new byte[length];
+                    in.readFully(section);
+
+                    buffered.acquire();
+                    decoded.add(pool.submit(() -> {
+                        try {
+                            ByteBuffer sectionIn = ByteBuffer.wrap(section);
+                            for (int i = 0; i < count; i++) {
+                                FileMetadata file = MetadataCodec.readFile(sectionIn, nodeIds, table, version);
+                                files.put(file.getFileId(), file);
+                            }
+                            return null;
+                        } finally {
+                            buffered.release();
+                        }
+                    }));
+                }
+
+                for (Future<?> future : decoded) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted loading metadata snapshot");
+            } catch (ExecutionException e) {
+                throw new IOException("Metadata snapshot " + snapshot + " is corrupt", e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+
+            long expected = checked.getChecksum().getValue();
+            if (in.readLong() != expected) {
+                throw new IOException("Metadata snapshot " + snapshot + " is corrupt (checksum mismatch)");
+            }
+            return segment;
+        }
+    }
+
+    private Path snapshotPath(long segment) {
+        return dir.resolve(String.format("snapshot-%016d.bin", segment));
+    }
+
+    private List<Path> list(String prefix, String suffix) throws IOException {
+        try (Stream<Path> entries = Files.list(dir)) {
+            return entries.filter(path -> number(path, prefix, suffix) >= 0).toList();
+        }
+    }
+
+    private static long number(Path file, String prefix, String suffix) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith(prefix) || !name.endsWith(suffix)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void close() {
+        snapshotter.shutdown();
+        if (log != null) {
+            log.close();
+        }
+    }
+}
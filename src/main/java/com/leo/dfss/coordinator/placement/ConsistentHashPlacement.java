@@ -0,0 +1,103 @@
+package com.leo.dfss.coordinator.placement;
+
+import com.leo.dfss.domain.NodeInfo;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Places a chunk on the nodes that follow hash(fileId, chunkIndex) on a hash ring, O(log n) per
+ * pick. The same chunk always maps to the same nodes, and adding or removing a node only moves the
+ * chunks next to it on the ring. Each node owns VIRTUAL_NODES points to even out the ring. Nodes
+ * without room are skipped, moving on clockwise.
+ */
+public class ConsistentHashPlacement implements PlacementStrategy {
+
+    private static final int VIRTUAL_NODES = 128;
+
+    private volatile NavigableMap<Long, NodeInfo> ring = new TreeMap<>();
+    private Map<String, NodeInfo> ringNodes = Map.of(); // only touched by update()
+
+    @Override
+    public void update(List<NodeInfo> nodes) {
+        // Only membership shapes the ring; weights are checked live in choose(). A node that
+        // re-registers gets a new NodeInfo under the same id, so compare instances, not just ids.
+        if (sameNodes(nodes)) {
+            return;
+        }
+
+        Map<String, NodeInfo> nodesById = new HashMap<>();
+        TreeMap<Long, NodeInfo> rebuilt = new TreeMap<>();
+        for (NodeInfo node : nodes) {
+            nodesById.put(node.getNodeId(), node);
+            for (int v = 0; v < VIRTUAL_NODES; v++) {
+                rebuilt.put(hash(node.getNodeId() + "#" + v), node);
+            }
+        }
+
+        ring = rebuilt;
+        ringNodes = nodesById;
+    }
+
+    private boolean sameNodes(List<NodeInfo> nodes) {
+        if (nodes.size() != ringNodes.size()) {
+            return false;
+        }
+        for (NodeInfo node : nodes) {
+            if (ringNodes.get(node.getNodeId()) != node) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public List<NodeInfo> choose(String fileId, int chunkIndex, long chunkBytes, int replicas) {
+        NavigableMap<Long, NodeInfo> current = ring;
+        List<NodeInfo> chosen = new ArrayList<>(replicas);
+        if (current.isEmpty()) {
+            return chosen;
+        }
+
+        long point = hash(fileId + "/" + chunkIndex);
+
+        // Walk clockwise from the chunk's point, wrapping around once
+        collect(current.tailMap(point, true), chosen, chunkBytes, replicas);
+        if (chosen.size() < replicas) {
+            collect(current.headMap(point, false), chosen, chunkBytes, replicas);
+        }
+        return chosen;
+    }
+
+    private static void collect(Map<Long, NodeInfo> arc, List<NodeInfo> chosen, long chunkBytes, int replicas) {
+        for (NodeInfo node : arc.values()) {
+            if (chosen.size() >= replicas) {
+                return;
+            }
+            if (!chosen.contains(node) && PlacementStrategy.hasRoom(node, chunkBytes)) {
+                chosen.add(node);
+            }
+        }
+    }
+
+    /** 64-bit FNV-1a followed by the MurmurHash3 finaliser, for well-spread ring points. */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,257 @@
+package com.leo.dfss.coordinator.placement;
+
+import com.leo.dfss.domain.ChunkLocations;
+import com.leo.dfss.domain.ContentHash;
+import com.leo.dfss.domain.FileMetadata;
+import com.leo.dfss.domain.NodeIdTable;
+import com.leo.dfss.domain.NodeInfo;
+import com.leo.dfss.erasure.StripeLayout;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Builds upload plans for new files with a pluggable PlacementStrategy, and tracks the bytes each
+ * node has been promised but not yet received (in-flight) so later plans see that load.
+ *
+ * The strategy's index is refreshed at most every REFRESH_INTERVAL_MS as free space changes, and on
+ * the next plan after a node joins, leaves or becomes suspect (see FailureDetector): suspect nodes
+ * are left out of the index while most nodes are not suspect. Refreshing is O(n) in the number of
+ * nodes, a plan is O(chunks x strategy pick cost), and planning never waits for a refresh.
+ */
+public class PlacementEngine {
+
+    private static final long REFRESH_INTERVAL_MS = 1_000;
+    private static final int REPLICA_CANDIDATES = 8; // nodes placeReplica() considers
+
+    private final PlacementStrategy strategy;
+    private final Map<String, NodeInfo> nodes; // the coordinator's live node registry
+    private final NodeIdTable nodeIdTable;     // interns the node ids of plans
+
+    private final ReentrantLock refreshLock = new ReentrantLock();
+    private volatile boolean membershipChanged = true;
+    private volatile long lastRefreshMs;
+
+    public PlacementEngine(PlacementStrategy strategy, Map<String, NodeInfo> nodes, NodeIdTable nodeIdTable) {
+        this.strategy = strategy;
+        this.nodes = nodes;
+        this.nodeIdTable = nodeIdTable;
+    }
+
+    /** Called when a node registers, comes back UP or is marked DOWN. */
+    public void nodesChanged() {
+        membershipChanged = true;
+    }
+
+    /**
+     * Chooses nodes for every chunk of a file, records the plan on the file and reserves the chunk
+     * bytes on the chosen nodes.
+     *
+     * For a deduplicated file only the first chunk of each content that is not stored yet is
+     * placed: shared chunks keep the nodes already storing their content, or take those of the
+     * earlier chunk with the same hash.
+     *
+     * @param file file being uploaded
+     * @param replicas nodes wanted per chunk
+     * @param minReplicas fewest nodes a chunk may get (e.g. the write quorum)
+     * @param stored nodes already storing the content of each shared chunk (null where an earlier
+     *               chunk of the file has it), or null if the file is not deduplicated
+     * @return true if every chunk got at least minReplicas nodes; otherwise nothing is reserved
+     */
+    public boolean plan(FileMetadata file, int replicas, int minReplicas, String[][] stored) {
+        refreshIfStale();
+
+        ChunkLocations.Builder locations = new ChunkLocations.Builder(nodeIdTable, file.getTotalChunks());
+        List<NodeInfo> reserved = new ArrayList<>();
+        List<Long> reservedBytes = new ArrayList<>();
+
+        ContentHash[] chunkHashes = file.getChunkHashes();
+        Map<ContentHash, String[]> planned = (chunkHashes == null) ? null : new HashMap<>();
+
+        for (int chunkIndex = 0; chunkIndex < file.getTotalChunks(); chunkIndex++) {
+            if (planned != null && file.isSharedChunk(chunkIndex)) {
+                String[] nodeIds = (stored != null) ? stored[chunkIndex] : null;
+                locations.add((nodeIds != null) ? nodeIds : planned.get(chunkHashes[chunkIndex]));
+                continue;
+            }
+
+            long chunkBytes = file.getChunkLength(chunkIndex);
+            // Content-addressed chunks are placed by their node key: hash placement then sends
+            // concurrent uploads of the same content to the same nodes
+            List<NodeInfo> chosen = (planned == null)
+                    ? strategy.choose(file.getFileId(), chunkIndex, chunkBytes, replicas)
+                    : strategy.choose(chunkHashes[chunkIndex].chunkKey(), 0, chunkBytes, replicas);
+
+            if (chosen.size() < Math.max(1, minReplicas)) {
+                // Undo the reservations made for earlier chunks
+                for (int i = 0; i < reserved.size(); i++) {
+                    reserved.get(i).addInFlightBytes(-reservedBytes.get(i));
+                }
+                return false;
+            }
+
+            String[] nodeIds = new String[chosen.size()];
+            for (int i = 0; i < nodeIds.length; i++) {
+                NodeInfo node = chosen.get(i);
+                node.addInFlightBytes(chunkBytes);
+                reserved.add(node);
+                reservedBytes.add(chunkBytes);
+                nodeIds[i] = node.getNodeId();
+            }
+            locations.add(nodeIds);
+            if (planned != null) {
+                planned.put(chunkHashes[chunkIndex], nodeIds);
+            }
+        }
+
+        file.setChunkLocations(locations.build());
+        return true;
+    }
+
+    /**
+     * Chooses one node per shard of an erasure-coded file, records the plan on the file and
+     * reserves the shard bytes. The shards of a stripe go to distinct nodes, so losing a node
+     * costs each stripe at most one shard. With fewer live nodes than shards per stripe the
+     * shards are dealt round-robin over the nodes available, and a node may hold several shards
+     * of a stripe (still at most parityShards, or the plan is refused).
+     *
+     * @param file file being uploaded, with its stripe layout set
+     * @return true if every stripe was placed; otherwise nothing is reserved
+     */
+    public boolean planStripes(FileMetadata file) {
+        refreshIfStale();
+
+        StripeLayout layout = file.getStripeLayout();
+        int shardsPerStripe = layout.getShardsPerStripe();
+        // A node may hold at most parityShards shards of a stripe, or losing it loses the stripe
+        int minNodes = (shardsPerStripe + layout.getParityShards() - 1) / layout.getParityShards();
+
+        ChunkLocations.Builder locations = new ChunkLocations.Builder(nodeIdTable, layout.getShardCount());
+        char[] ref = new char[1];
+        List<NodeInfo> reserved = new ArrayList<>();
+        List<Long> reservedBytes = new ArrayList<>();
+
+        for (int stripe = 0; stripe < layout.getStripeCount(); stripe++) {
+            long shardBytes = layout.getChunkSizeBytes();
+            List<NodeInfo> chosen = strategy.choose(file.getFileId(), stripe, shardBytes, shardsPerStripe);
+
+            if (chosen.size() < minNodes) {
+                for (int i = 0; i < reserved.size(); i++) {
+                    reserved.get(i).addInFlightBytes(-reservedBytes.get(i));
+                }
+                return false;
+            }
+
+            for (int shard = 0; shard < shardsPerStripe; shard++) {
+                int shardIndex = layout.shardIndex(stripe, shard);
+                long length = layout.shardLength(shardIndex);
+                NodeInfo node = chosen.get(shard % chosen.size());
+
+                node.addInFlightBytes(length);
+                reserved.add(node);
+                reservedBytes.add(length);
+                ref[0] = (char) nodeIdTable.intern(node.getNodeId());
+                locations.addRefs(ref, 1); // shards are added in index order: stripe by stripe
+            }
+        }
+
+        file.setChunkLocations(locations.build());
+        return true;
+    }
+
+    /**
+     * Chooses the node for a new replica of a stored chunk (re-replication) and reserves the
+     * chunk bytes on it; the caller releases them once the copy is done or abandoned.
+     *
+     * @param fileId fileId the chunk is stored under
+     * @param excluded nodes that must not be chosen, e.g. those already holding the chunk
+     * @return the node, or null if no other node has room
+     */
+    public NodeInfo placeReplica(String fileId, int chunkIndex, long chunkBytes, Predicate<NodeInfo> excluded) {
+        refreshIfStale();
+
+        // Ask for a few more candidates than needed in case the first are excluded
+        for (NodeInfo node : strategy.choose(fileId, chunkIndex, chunkBytes, REPLICA_CANDIDATES)) {
+            if (!excluded.test(node)) {
+                node.addInFlightBytes(chunkBytes);
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Releases the in-flight reservations of a file's plan, once its upload is committed.
+     *
+     * @param file file whose plan was created by plan()
+     */
+    public void release(FileMetadata file) {
+        addReservations(file, -1);
+    }
+
+    /**
+     * Re-reserves the plan of a file that was still uploading when the coordinator restarted.
+     *
+     * @param file file restored with its plan
+     */
+    public void reserve(FileMetadata file) {
+        addReservations(file, 1);
+    }
+
+    private void addReservations(FileMetadata file, int sign) {
+        ChunkLocations locations = file.getChunkLocations();
+        if (locations == null) {
+            return;
+        }
+
+        for (int chunkIndex = 0; chunkIndex < locations.getChunkCount(); chunkIndex++) {
+            if (file.isSharedChunk(chunkIndex)) {
+                continue; // reserved by the file that uploads it, if any
+            }
+            long chunkBytes = file.getStoredChunkLength(chunkIndex);
+            for (int replica = 0; replica < locations.replicaCount(chunkIndex); replica++) {
+                NodeInfo node = nodes.get(locations.nodeId(chunkIndex, replica));
+                if (node != null) {
+                    node.addInFlightBytes(sign * chunkBytes);
+                }
+            }
+        }
+    }
+
+    private void refreshIfStale() {
+        long now = System.currentTimeMillis();
+        if (!membershipChanged && now - lastRefreshMs < REFRESH_INTERVAL_MS) {
+            return;
+        }
+
+        // Another connection is already refreshing; plan with the current index
+        if (!refreshLock.tryLock()) {
+            return;
+        }
+        try {
+            membershipChanged = false;
+            lastRefreshMs = now;
+
+            Collection<NodeInfo> all = nodes.values();
+            List<NodeInfo> up = new ArrayList<>(all.size());
+            List<NodeInfo> trusted = new ArrayList<>(all.size());
+            for (NodeInfo node : all) {
+                if (node.getStatus() == NodeInfo.Status.UP) {
+                    up.add(node);
+                    if (!node.isSuspect()) {
+                        trusted.add(node);
+                    }
+                }
+            }
+            // Most nodes suspect at once more likely means the coordinator itself stalled
+            strategy.update((2 * trusted.size() > up.size()) ? trusted : up);
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+}
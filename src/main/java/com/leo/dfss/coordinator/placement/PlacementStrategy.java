@@ -0,0 +1,61 @@
+package com.leo.dfss.coordinator.placement;
+
+import com.leo.dfss.domain.NodeInfo;
+
+import java.util.List;
+
+/**
+ * Chooses the storage nodes for each chunk of a new file.
+ *
+ * A strategy keeps its own index over the candidate nodes. update() replaces that index and is
+ * only ever called by one thread at a time (see PlacementEngine); choose() runs concurrently from
+ * every coordinator connection and must not lock, so implementations publish an immutable index
+ * through a volatile field. choose() re-checks live node state (status, available bytes), so a
+ * slightly stale index never places chunks on a node that went DOWN or filled up.
+ */
+public interface PlacementStrategy {
+
+    /**
+     * Rebuilds the index from the current candidate nodes.
+     *
+     * @param nodes UP nodes at the time of the call
+     */
+    void update(List<NodeInfo> nodes);
+
+    /**
+     * Picks distinct nodes for one chunk.
+     *
+     * @param fileId file the chunk belongs to
+     * @param chunkIndex chunk number
+     * @param chunkBytes chunk length
+     * @param replicas number of nodes wanted
+     * @return up to replicas distinct nodes, fewer (possibly none) if not enough have room
+     */
+    List<NodeInfo> choose(String fileId, int chunkIndex, long chunkBytes, int replicas);
+
+    /**
+     * Parses a strategy from configuration, e.g. -Ddfss.coordinator.placement=hash.
+     *
+     * @param value "weighted", "p2c" or "hash", case-insensitive (default p2c)
+     * @return a new strategy instance
+     */
+    static PlacementStrategy fromName(String value) {
+        if (value == null || value.isBlank() || value.equalsIgnoreCase("p2c")) {
+            return new PowerOfTwoChoicesPlacement();
+        }
+        if (value.equalsIgnoreCase("weighted")) {
+            return new WeightedRandomPlacement();
+        }
+        if (value.equalsIgnoreCase("hash")) {
+            return new ConsistentHashPlacement();
+        }
+        throw new IllegalArgumentException("Unknown placement strategy: " + value);
+    }
+
+    /**
+     * @return true if the node can take another chunkBytes right now
+     */
+    static boolean hasRoom(NodeInfo node, long chunkBytes) {
+        return node.getStatus() == NodeInfo.Status.UP && node.getAvailableBytes() >= chunkBytes;
+    }
+}
@@ -0,0 +1,66 @@
+package com.leo.dfss.coordinator.placement;
+
+import com.leo.dfss.domain.NodeInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Samples two random nodes and takes the less loaded one, O(1) per pick. Load is the share of a
+ * node's free space already promised to in-flight uploads, read live rather than from the index,
+ * so bursts of uploads spread out straight away instead of waiting for the next heartbeat. The
+ * bytes per second a node reported taking in also count as in flight for LOAD_HORIZON_SECONDS, so
+ * nodes busy writing rank lower, even with traffic this coordinator has no reservation for.
+ */
+public class PowerOfTwoChoicesPlacement implements PlacementStrategy {
+
+    // Samples per wanted replica before giving up (a sample can hit a full or already chosen node)
+    private static final int ATTEMPTS_PER_REPLICA = 8;
+
+    // Seconds of a node's reported ingest rate counted as in-flight bytes (one heartbeat interval)
+    private static final long LOAD_HORIZON_SECONDS = 5;
+
+    private volatile NodeInfo[] nodes = new NodeInfo[0];
+
+    @Override
+    public void update(List<NodeInfo> nodes) {
+        this.nodes = nodes.toArray(new NodeInfo[0]);
+    }
+
+    @Override
+    public List<NodeInfo> choose(String fileId, int chunkIndex, long chunkBytes, int replicas) {
+        NodeInfo[] current = nodes;
+        List<NodeInfo> chosen = new ArrayList<>(replicas);
+        if (current.length == 0) {
+            return chosen;
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int attempt = 0; attempt < replicas * ATTEMPTS_PER_REPLICA && chosen.size() < replicas; attempt++) {
+            NodeInfo first = candidate(current[random.nextInt(current.length)], chosen, chunkBytes);
+            NodeInfo second = candidate(current[random.nextInt(current.length)], chosen, chunkBytes);
+
+            NodeInfo pick;
+            if (first == null || second == null) {
+                pick = (first != null) ? first : second;
+            } else {
+                pick = (load(first, chunkBytes) <= load(second, chunkBytes)) ? first : second;
+            }
+
+            if (pick != null) {
+                chosen.add(pick);
+            }
+        }
+        return chosen;
+    }
+
+    private static NodeInfo candidate(NodeInfo node, List<NodeInfo> chosen, long chunkBytes) {
+        return (!chosen.contains(node) && PlacementStrategy.hasRoom(node, chunkBytes)) ? node : null;
+    }
+
+    private static double load(NodeInfo node, long chunkBytes) {
+        long incoming = node.getInFlightBytes() + node.getIngestBytesPerSec() * LOAD_HORIZON_SECONDS + chunkBytes;
+        return (double) incoming / Math.max(1, node.getFreeBytes());
+    }
+}
@@ -0,0 +1,79 @@
+package com.leo.dfss.coordinator.placement;
+
+import com.leo.dfss.domain.NodeInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks nodes at random with probability proportional to their available bytes, so emptier nodes
+ * fill faster. Weights are fixed at the last update(); a pick is a binary search over the
+ * cumulative weights, O(log n).
+ */
+public class WeightedRandomPlacement implements PlacementStrategy {
+
+    // Draws per wanted replica before giving up (a draw can hit a full or already chosen node)
+    private static final int ATTEMPTS_PER_REPLICA = 8;
+
+    private record Index(NodeInfo[] nodes, long[] cumulativeWeights) {
+        long totalWeight() {
+            return (nodes.length == 0) ? 0 : cumulativeWeights[nodes.length - 1];
+        }
+    }
+
+    private volatile Index index = new Index(new NodeInfo[0], new long[0]);
+
+    @Override
+    public void update(List<NodeInfo> nodes) {
+        List<NodeInfo> weighted = new ArrayList<>(nodes.size());
+        for (NodeInfo node : nodes) {
+            if (node.getAvailableBytes() > 0) {
+                weighted.add(node);
+            }
+        }
+
+        NodeInfo[] indexed = weighted.toArray(new NodeInfo[0]);
+        long[] cumulative = new long[indexed.length];
+        long total = 0;
+        for (int i = 0; i < indexed.length; i++) {
+            total += indexed[i].getAvailableBytes();
+            cumulative[i] = total;
+        }
+
+        index = new Index(indexed, cumulative);
+    }
+
+    @Override
+    public List<NodeInfo> choose(String fileId, int chunkIndex, long chunkBytes, int replicas) {
+        Index current = index;
+        List<NodeInfo> chosen = new ArrayList<>(replicas);
+        if (current.totalWeight() <= 0) {
+            return chosen;
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int attempt = 0; attempt < replicas * ATTEMPTS_PER_REPLICA && chosen.size() < replicas; attempt++) {
+            NodeInfo node = current.nodes()[find(current.cumulativeWeights(), random.nextLong(current.totalWeight()))];
+            if (!chosen.contains(node) && PlacementStrategy.hasRoom(node, chunkBytes)) {
+                chosen.add(node);
+            }
+        }
+        return chosen;
+    }
+
+    /** @return the first index whose cumulative weight is greater than target */
+    private static int find(long[] cumulativeWeights, long target) {
+        int low = 0;
+        int high = cumulativeWeights.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulativeWeights[mid] > target) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,599 @@
+package com.leo.dfss.coordinator.repair;
+
+import com.leo.dfss.coordinator.metadata.ContentIndex;
+import com.leo.dfss.coordinator.metadata.MetadataStore;
+import com.leo.dfss.coordinator.placement.PlacementEngine;
+import com.leo.dfss.domain.ChunkLocations;
+import com.leo.dfss.domain.ContentHash;
+import com.leo.dfss.domain.FileMetadata;
+import com.leo.dfss.domain.NodeInfo;
+import com.leo.dfss.protocol.ChunkCopyTask;
+import com.leo.dfss.protocol.NodeAddress;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Re-replicates the chunks of nodes marked DOWN.
+ *
+ * Once a node has been DOWN for the repair delay, every replicated chunk of a committed file
+ * placed on it gets a repair, queued on one of its live replicas (the source) in order of live
+ * replicas left: a chunk with one copy left goes before one with two. A deduplicated chunk is one
+ * repair however many files refer to it.
+ *
+ * Copies are handed to the source node with its heartbeat ack (ChunkCopyTask): the node sends the
+ * chunk as stored, compressed or not, to a target the placement engine chose, the same way it
+ * forwards chunks down a replication chain (straight from the file with transferTo). Once the
+ * target's chunk report shows the chunk added, the target replaces the DOWN node in the file's
+ * chunk locations, logged to the metadata store. A copy not reported within COPY_TIMEOUT_MS, or
+ * whose source or target fails, is queued again.
+ *
+ * Repair shares the nodes with client traffic, so it is throttled twice: copies are only handed
+ * out while a token bucket of repairBytesPerSec has budget, and a node sends or receives at most
+ * copiesPerNode copies at once. Copies ride on heartbeat acks and are seen done in the target's
+ * next chunk report, so a copy holds its slot for about two heartbeats beyond the transfer; the
+ * default limit leaves room for that. Chunks with more than the fewest live replicas queued only
+ * get budget the most urgent ones leave unused (while the bucket is at least half full).
+ *
+ * Erasure-coded shards cannot be copied back from another replica; they are counted and logged
+ * but need reconstructing from their stripe, which this does not do.
+ *
+ * Progress (chunks and bytes remaining, rate and ETA) is logged every PROGRESS_INTERVAL_MS while
+ * repairs are pending and is available from getProgress().
+ */
+public class RepairScheduler implements AutoCloseable {
+
+    private static final long COPY_TIMEOUT_MS = 60_000;       // a copy not reported by then is retried
+    private static final long TICK_MS = 1_000;
+    private static final long PROGRESS_INTERVAL_MS = 5_000;
+
+    /** Repair state, as logged and returned by getProgress(). */
+    public record Progress(int chunksQueued, int copiesInFlight, long bytesRemaining, long bytesPerSec,
+                           long etaSeconds, long chunksRepaired, long bytesCopied, long chunksLost,
+                           long shardsUnrepairable) {
+
+        @Override
+        public String toString() {
+            return String.format("%d chunks queued, %d copying, %.1f MB remaining at %.1f MB/s, ETA %s; "
+                            + "%d repaired (%.1f MB), %d lost, %d erasure-coded shards not repaired",
+                    chunksQueued, copiesInFlight, bytesRemaining / 1e6, bytesPerSec / 1e6,
+                    (etaSeconds < 0) ? "unknown" : etaSeconds + "s", chunksRepaired, bytesCopied / 1e6,
+                    chunksLost, shardsUnrepairable);
+        }
+    }
+
+    /** A chunk of a file that refers to a repair's stored chunk. */
+    private record ChunkRef(FileMetadata file, int chunkIndex) {}
+
+    /** A stored chunk with fewer live replicas than wanted; guarded by lock. */
+    private static final class Repair {
+        final String fileId;     // as stored on the nodes
+        final int chunkIndex;
+        final long bytes;
+        final ContentHash hash;  // content of a deduplicated chunk, else null
+        final List<ChunkRef> refs = new ArrayList<>(1);
+        int wanted;
+        int live;                // replicas on UP nodes when last evaluated
+        String source;           // node it is queued on, or null
+        long sequence;           // first come, first served among equal priority
+        Copy copy;               // in flight, or null
+        boolean moving;          // copied, locations not updated yet
+
+        Repair(String fileId, int chunkIndex, long bytes, ContentHash hash) {
+            this.fileId = fileId;
+            this.chunkIndex = chunkIndex;
+            this.bytes = bytes;
+            this.hash = hash;
+        }
+    }
+
+    private record Copy(long taskId, Repair repair, NodeInfo source, NodeInfo target, long deadlineMs) {}
+
+    private static final Comparator<Repair> PRIORITY =
+            Comparator.<Repair>comparingInt(repair -> repair.live).thenComparingLong(repair -> repair.sequence);
+
+    private final Map<String, FileMetadata> files;
+    private final Map<String, NodeInfo> nodes;
+    private final PlacementEngine placement;
+    private final ContentIndex contentIndex;
+    private final MetadataStore metadataStore; // null to keep metadata in memory only
+
+    private final long delayMs;
+    private final int copiesPerNode;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("repair-scheduler").daemon().factory());
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // Guarded by lock
+    private final Map<String, Repair> repairs = new HashMap<>();                  // by fileId/chunkIndex
+    private final Map<String, PriorityQueue<Repair>> queues = new HashMap<>();    // by source nodeId
+    private final TreeMap<Integer, Integer> queuedByLive = new TreeMap<>();       // live replicas -> repairs queued
+    private final Map<String, Integer> activeCopies = new HashMap<>();            // by nodeId, as source or target
+    private final Map<Long, Copy> copies = new HashMap<>();
+    private final TokenBucket bandwidth;
+    private long nextTaskId = 1;
+    private long nextSequence;
+    private long chunksRepaired;
+    private long bytesCopied;
+    private long chunksLost;
+    private long shardsUnrepairable;
+
+    // Written under lock, read without it to skip the lock when there is nothing to do
+    private volatile int queued;
+    private volatile int inFlight;
+
+    // Copies reported done, waiting for the repair thread to update their files' locations
+    private final ConcurrentLinkedQueue<Copy> copied = new ConcurrentLinkedQueue<>();
+
+    // Progress as last logged; guarded by lock
+    private long lastProgressMs;
+    private long lastProgressBytes;
+    private boolean logFinished; // log once more when the repairs are done
+
+    /**
+     * @param delayMs how long a node must stay DOWN before its chunks are re-replicated
+     * @param bytesPerSec total repair bandwidth
+     * @param copiesPerNode most copies a node sends or receives at once
+     */
+    public RepairScheduler(Map<String, FileMetadata> files, Map<String, NodeInfo> nodes, PlacementEngine placement,
+                           ContentIndex contentIndex, MetadataStore metadataStore,
+                           long delayMs, long bytesPerSec, int copiesPerNode) {
+        if (delayMs < 0 || copiesPerNode <= 0) {
+            throw new IllegalArgumentException("delayMs cannot be negative and copiesPerNode must be greater than 0");
+        }
+        this.files = files;
+        this.nodes = nodes;
+        this.placement = placement;
+        this.contentIndex = contentIndex;
+        this.metadataStore = metadataStore;
+        this.delayMs = delayMs;
+        this.copiesPerNode = copiesPerNode;
+        this.bandwidth = new TokenBucket(bytesPerSec);
+    }
+
+    /**
+     * Configuration (system properties):
+     *   dfss.coordinator.repairDelayMs      = how long a node must stay DOWN before its chunks are
+     *                                         re-replicated (default 10000)
+     *   dfss.coordinator.repairBytesPerSec  = total repair bandwidth (default 100,000,000)
+     *   dfss.coordinator.repairCopiesPerNode = most repair copies a node sends or receives at once (default 8)
+     */
+    public static RepairScheduler fromSystemProperties(Map<String, FileMetadata> files, Map<String, NodeInfo> nodes,
+                                                       PlacementEngine placement, ContentIndex contentIndex,
+                                                       MetadataStore metadataStore) {
+        return new RepairScheduler(files, nodes, placement, contentIndex, metadataStore,
+                Long.getLong("dfss.coordinator.repairDelayMs", 10_000),
+                Long.getLong("dfss.coordinator.repairBytesPerSec", 100_000_000),
+                Integer.getInteger("dfss.coordinator.repairCopiesPerNode", 8));
+    }
+
+    public void start() {
+        executor.scheduleWithFixedDelay(this::tick, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** Called when a node is marked DOWN: its chunks are re-replicated unless it is back UP by then. */
+    public void nodeFailed(NodeInfo node) {
+        executor.schedule(() -> scanFailedNode(node), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Hands out the copies queued on a node, as far as the throttles allow. Called for each of the
+     * node's heartbeats; the copies go back with its ack.
+     */
+    public List<ChunkCopyTask> takeCopies(NodeInfo node) {
+        if (queued == 0) {
+            return List.of();
+        }
+        lock.lock();
+        try {
+            PriorityQueue<Repair> queue = queues.get(node.getNodeId());
+            if (queue == null) {
+                return List.of();
+            }
+
+            List<ChunkCopyTask> tasks = new ArrayList<>();
+            while (!queue.isEmpty() && activeCopies(node.getNodeId()) < copiesPerNode) {
+                Repair repair = queue.peek();
+                if (liveReplicas(repair).size() >= repair.wanted) {
+                    dequeue(repair); // a DOWN replica came back
+                    repairs.remove(key(repair.fileId, repair.chunkIndex));
+                    continue;
+                }
+                if (repair.live > queuedByLive.firstKey() && bandwidth.fill() < 0.5) {
+                    break; // the budget goes to chunks with fewer replicas left first
+                }
+
+                NodeInfo target = placement.placeReplica(repair.fileId, repair.chunkIndex, repair.bytes,
+                        candidate -> holds(repair, candidate.getNodeId())
+                                || activeCopies(candidate.getNodeId()) >= copiesPerNode);
+                if (target == null) {
+                    break;
+                }
+                if (!bandwidth.tryTake(repair.bytes)) {
+                    target.addInFlightBytes(-repair.bytes);
+                    break;
+                }
+
+                dequeue(repair);
+                Copy copy = new Copy(nextTaskId++, repair, node, target, System.currentTimeMillis() + COPY_TIMEOUT_MS);
+                repair.copy = copy;
+                copies.put(copy.taskId(), copy);
+                inFlight = copies.size();
+                activeCopies.merge(node.getNodeId(), 1, Integer::sum);
+                activeCopies.merge(target.getNodeId(), 1, Integer::sum);
+
+                tasks.add(new ChunkCopyTask(copy.taskId(), repair.fileId, repair.chunkIndex,
+                        new NodeAddress(target.getNodeId(), target.getHost(), target.getPort())));
+            }
+            if (queue.isEmpty()) {
+                queues.remove(node.getNodeId());
+            }
+            return tasks;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Called for each chunk a node reports stored: completes the copy that was sending it there. */
+    public void chunkStored(String nodeId, String fileId, int chunkIndex) {
+        if (inFlight == 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            Repair repair = repairs.get(key(fileId, chunkIndex));
+            if (repair == null || repair.copy == null || !repair.copy.target().getNodeId().equals(nodeId)) {
+                return;
+            }
+            Copy copy = repair.copy;
+            endCopy(copy);
+            repair.moving = true;
+            chunksRepaired++;
+            bytesCopied += repair.bytes;
+            copied.add(copy);
+        } finally {
+            lock.unlock();
+        }
+        executor.execute(this::applyCopies);
+    }
+
+    public Progress getProgress() {
+        lock.lock();
+        try {
+            return progress((lastProgressMs == 0) ? 0 : System.currentTimeMillis() - lastProgressMs);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    // Repair thread
+
+    private void scanFailedNode(NodeInfo node) {
+        if (node.getStatus() != NodeInfo.Status.DOWN || nodes.get(node.getNodeId()) != node) {
+            return; // back UP (or registered again) in time
+        }
+        String nodeId = node.getNodeId();
+
+        List<ChunkRef> lost = new ArrayList<>();
+        long shards = 0;
+        for (FileMetadata file : files.values()) {
+            ChunkLocations locations = file.getChunkLocations();
+            if (file.getStatus() != FileMetadata.Status.COMPLETE || locations == null) {
+                continue; // an upload in progress is retried by its client
+            }
+            int ref = locations.getNodeIdTable().find(nodeId);
+            if (ref < 0) {
+                break; // never interned: the node never held anything (files share one table)
+            }
+            for (int chunkIndex = 0; chunkIndex < locations.getChunkCount(); chunkIndex++) {
+                for (int replica = 0; replica < locations.replicaCount(chunkIndex); replica++) {
+                    if (locations.nodeRef(chunkIndex, replica) == ref) {
+                        if (file.getStorageMode() == FileMetadata.StorageMode.ERASURE_CODED) {
+                            shards++;
+                        } else {
+                            lost.add(new ChunkRef(file, chunkIndex));
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+
+        long bytes = 0;
+        lock.lock();
+        try {
+            shardsUnrepairable += shards;
+            Set<Repair> touched = new LinkedHashSet<>();
+            for (ChunkRef lostRef : lost) {
+                Repair repair = repairFor(lostRef);
+                if (!repair.refs.contains(lostRef)) {
+                    repair.refs.add(lostRef);
+                }
+                // Replicas are replaced, not added: restore the count the chunk was placed with
+                repair.wanted = Math.max(repair.wanted,
+                        lostRef.file().getChunkLocations().replicaCount(lostRef.chunkIndex()));
+                touched.add(repair);
+            }
+
+            // Repairs that were to copy from or to the node start over elsewhere. Dequeue them
+            // while the queue is still mapped, so the queued counts drop with them
+            PriorityQueue<Repair> sourced = queues.get(nodeId);
+            if (sourced != null) {
+                for (Repair repair : new ArrayList<>(sourced)) {
+                    dequeue(repair);
+                    touched.add(repair);
+                }
+                queues.remove(nodeId);
+            }
+            for (Copy copy : new ArrayList<>(copies.values())) {
+                if (copy.source() == node || copy.target() == node) {
+                    endCopy(copy);
+                    touched.add(copy.repair());
+                }
+            }
+
+            for (Repair repair : touched) {
+                evaluate(repair);
+                if (repairs.get(key(repair.fileId, repair.chunkIndex)) == repair) {
+                    bytes += repair.bytes * Math.max(0, repair.wanted - repair.live);
+                }
+            }
+            logFinished = true;
+        } finally {
+            lock.unlock();
+        }
+
+        System.out.println(String.format("Node %s is DOWN: re-replicating %d chunk(s), %.1f MB", nodeId,
+                lost.size(), bytes / 1e6));
+        if (shards > 0) {
+            System.out.println("Node " + nodeId + " held " + shards
+                    + " erasure-coded shard(s), which need reconstructing from their stripes");
+        }
+    }
+
+    /** Records the copies reported done in their files' chunk locations. */
+    private void applyCopies() {
+        List<Copy> done = new ArrayList<>();
+        for (Copy copy; (copy = copied.poll()) != null; ) {
+            done.add(copy);
+        }
+        if (done.isEmpty()) {
+            return;
+        }
+
+        // Group the moves by file, so each file's locations are rebuilt and logged once
+        Map<FileMetadata, List<String[]>> moves = new LinkedHashMap<>(); // [chunkIndex, from, to]
+        for (Copy copy : done) {
+            Repair repair = copy.repair();
+            String to = copy.target().getNodeId();
+            for (ChunkRef ref : repair.refs) {
+                String from = downReplica(ref);
+                if (from == null) {
+                    continue; // every replica is UP again: the copy is a spare
+                }
+                moves.computeIfAbsent(ref.file(), file -> new ArrayList<>())
+                        .add(new String[]{Integer.toString(ref.chunkIndex()), from, to});
+                if (repair.hash != null) {
+                    contentIndex.replicaMoved(repair.hash, from, to);
+                }
+            }
+        }
+
+        for (Map.Entry<FileMetadata, List<String[]>> entry : moves.entrySet()) {
+            FileMetadata file = entry.getKey();
+            List<String[]> fileMoves = entry.getValue();
+            int count = fileMoves.size();
+            int[] chunkIndexes = new int[count];
+            String[] from = new String[count];
+            String[] to = new String[count];
+            for (int i = 0; i < count; i++) {
+                chunkIndexes[i] = Integer.parseInt(fileMoves.get(i)[0]);
+                from[i] = fileMoves.get(i)[1];
+                to[i] = fileMoves.get(i)[2];
+            }
+            // Visible before it is logged, so a snapshot taken once the record is in the log holds
+            // the new locations. If the record fails, the copies are still good; after a restart the
+            // replicas on the failed node are found missing and repaired again.
+            file.setChunkLocations(file.getChunkLocations().withReplicasMoved(chunkIndexes, from, to, count));
+            try {
+                if (metadataStore != null) {
+                    metadataStore.replicasMoved(file.getFileId(), chunkIndexes, from, to, count);
+                }
+            } catch (IOException e) {
+                System.out.println("Failed to log re-replicated chunks of " + file.getFileId() + ": " + e.getMessage());
+            }
+        }
+
+        lock.lock();
+        try {
+            for (Copy copy : done) {
+                copy.repair().moving = false;
+                evaluate(copy.repair()); // done, or more replicas to go
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Retries copies that timed out and logs progress. */
+    private void tick() {
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            for (Copy copy : new ArrayList<>(copies.values())) {
+                if (now > copy.deadlineMs()) {
+                    System.out.println("Repair copy of " + copy.repair().fileId + " chunk " + copy.repair().chunkIndex
+                            + " to " + copy.target().getNodeId() + " timed out, retrying");
+                    endCopy(copy);
+                    evaluate(copy.repair());
+                }
+            }
+
+            boolean pending = !repairs.isEmpty();
+            if ((pending && now - lastProgressMs >= PROGRESS_INTERVAL_MS) || (!pending && logFinished)) {
+                long elapsedMs = (lastProgressMs == 0) ? 0 : now - lastProgressMs;
+                System.out.println("Repair: " + progress(elapsedMs));
+                lastProgressMs = now;
+                lastProgressBytes = bytesCopied;
+                logFinished = pending;
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace(); // keep the schedule running
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Under lock
+
+    /**
+     * Queues a repair on a source, or drops it if it has its replicas again or none is left.
+     * Repairs being copied are evaluated when their copy ends.
+     */
+    private void evaluate(Repair repair) {
+        if (repair.copy != null || repair.moving) {
+            return;
+        }
+        dequeue(repair);
+
+        List<NodeInfo> live = liveReplicas(repair);
+        repair.live = live.size();
+        if (repair.live >= repair.wanted) {
+            repairs.remove(key(repair.fileId, repair.chunkIndex));
+            return;
+        }
+        if (live.isEmpty()) {
+            repairs.remove(key(repair.fileId, repair.chunkIndex));
+            chunksLost++;
+            System.out.println("Chunk " + repair.chunkIndex + " of " + repair.fileId + " is lost: no replica is UP");
+            return;
+        }
+
+        // Source: the live replica with the shortest queue, trusted nodes first
+        NodeInfo source = null;
+        int sourceQueue = Integer.MAX_VALUE;
+        for (NodeInfo node : live) {
+            PriorityQueue<Repair> queue = queues.get(node.getNodeId());
+            int length = ((queue == null) ? 0 : queue.size()) + (node.isSuspect() ? 1_000_000 : 0);
+            if (length < sourceQueue) {
+                source = node;
+                sourceQueue = length;
+            }
+        }
+
+        repair.source = source.getNodeId();
+        repair.sequence = nextSequence++;
+        queues.computeIfAbsent(repair.source, id -> new PriorityQueue<>(PRIORITY)).add(repair);
+        queuedByLive.merge(repair.live, 1, Integer::sum);
+        queued++;
+    }
+
+    private void dequeue(Repair repair) {
+        if (repair.source == null) {
+            return;
+        }
+        PriorityQueue<Repair> queue = queues.get(repair.source);
+        if (queue != null && queue.remove(repair)) {
+            queuedByLive.merge(repair.live, -1, (count, minus) -> (count + minus == 0) ? null : count + minus);
+            queued--;
+        }
+        repair.source = null;
+    }
+
+    private void endCopy(Copy copy) {
+        copies.remove(copy.taskId());
+        inFlight = copies.size();
+        activeCopies.merge(copy.source().getNodeId(), -1, (count, minus) -> (count + minus == 0) ? null : count + minus);
+        activeCopies.merge(copy.target().getNodeId(), -1, (count, minus) -> (count + minus == 0) ? null : count + minus);
+        copy.target().addInFlightBytes(-copy.repair().bytes);
+        copy.repair().copy = null;
+    }
+
+    private Repair repairFor(ChunkRef ref) {
+        FileMetadata file = ref.file();
+        ContentHash hash = file.isDeduplicated() ? file.getChunkHashes()[ref.chunkIndex()] : null;
+        String fileId = (hash != null) ? hash.chunkKey() : file.getFileId();
+        int chunkIndex = (hash != null) ? 0 : ref.chunkIndex();
+        return repairs.computeIfAbsent(key(fileId, chunkIndex),
+                key -> new Repair(fileId, chunkIndex, file.getStoredChunkLength(ref.chunkIndex()), hash));
+    }
+
+    /** @return the UP nodes holding the repair's chunk in any file referring to it */
+    private List<NodeInfo> liveReplicas(Repair repair) {
+        Set<String> seen = new HashSet<>();
+        List<NodeInfo> live = new ArrayList<>();
+        for (ChunkRef ref : repair.refs) {
+            ChunkLocations locations = ref.file().getChunkLocations();
+            for (int replica = 0; replica < locations.replicaCount(ref.chunkIndex()); replica++) {
+                String nodeId = locations.nodeId(ref.chunkIndex(), replica);
+                NodeInfo node = nodes.get(nodeId);
+                if (seen.add(nodeId) && node != null && node.getStatus() == NodeInfo.Status.UP) {
+                    live.add(node);
+                }
+            }
+        }
+        return live;
+    }
+
+    private boolean holds(Repair repair, String nodeId) {
+        for (ChunkRef ref : repair.refs) {
+            if (ref.file().getChunkLocations().contains(ref.chunkIndex(), nodeId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** @return the first replica of the chunk on a node that is DOWN (or gone), or null */
+    private String downReplica(ChunkRef ref) {
+        ChunkLocations locations = ref.file().getChunkLocations();
+        for (int replica = 0; replica < locations.replicaCount(ref.chunkIndex()); replica++) {
+            String nodeId = locations.nodeId(ref.chunkIndex(), replica);
+            NodeInfo node = nodes.get(nodeId);
+            if (node == null || node.getStatus() == NodeInfo.Status.DOWN) {
+                return nodeId;
+            }
+        }
+        return null;
+    }
+
+    private int activeCopies(String nodeId) {
+        return activeCopies.getOrDefault(nodeId, 0);
+    }
+
+    private Progress progress(long elapsedMs) {
+        long remaining = 0;
+        for (Repair repair : repairs.values()) {
+            remaining += repair.bytes * Math.max(0, repair.wanted - repair.live);
+        }
+        long rate = (elapsedMs > 0) ? (bytesCopied - lastProgressBytes) * 1000 / elapsedMs : 0;
+        long eta = (remaining == 0) ? 0 : (rate > 0) ? remaining / rate : -1;
+        return new Progress(queued, copies.size(), remaining, rate, eta, chunksRepaired, bytesCopied,
+                chunksLost, shardsUnrepairable);
+    }
+
+    private static String key(String fileId, int chunkIndex) {
+        return fileId + "/" + chunkIndex;
+    }
+}
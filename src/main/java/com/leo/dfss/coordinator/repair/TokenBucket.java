@@ -0,0 +1,49 @@
+package com.leo.dfss.coordinator.repair;
+
+/**
+ * Byte budget refilled at a fixed rate, holding at most one second of it. A take larger than the
+ * budget can ever hold is allowed once the bucket is full and leaves it in debt, so a single
+ * large chunk still goes out but the average rate holds. Not thread-safe.
+ */
+final class TokenBucket {
+
+    private final long bytesPerSec;
+    private final double capacity;
+    private double tokens;
+    private long lastRefillNanos = System.nanoTime();
+
+    TokenBucket(long bytesPerSec) {
+        if (bytesPerSec <= 0) {
+            throw new IllegalArgumentException("bytesPerSec must be greater than 0");
+        }
+        this.bytesPerSec = bytesPerSec;
+        this.capacity = bytesPerSec;
+        this.tokens = capacity;
+    }
+
+    /** @return true if the bytes were taken, false if there is not enough budget yet */
+    boolean tryTake(long bytes) {
+        refill();
+        if (tokens < Math.min(bytes, capacity)) {
+            return false;
+        }
+        tokens -= bytes;
+        return true;
+    }
+
+    /** @return share of the budget available now, 0 to 1 (below 0 while in debt) */
+    double fill() {
+        refill();
+        return tokens / capacity;
+    }
+
+    long getBytesPerSec() {
+        return bytesPerSec;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * 1e-9 * bytesPerSec);
+        lastRefillNanos = now;
+    }
+}
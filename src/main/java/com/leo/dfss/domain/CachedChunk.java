@@ -0,0 +1,93 @@
+package com.leo.dfss.domain;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A chunk's bytes held in memory outside the Java heap, in a direct or memory-mapped buffer,
+ * shared by a cache and the readers it hands the chunk to.
+ *
+ * The memory is released deterministically rather than whenever the GC collects the buffer: the
+ * chunk is reference counted (the cache holds one reference, every reader another) and its buffer
+ * is freed or unmapped as soon as the last reference is released.
+ */
+public final class CachedChunk {
+
+    // sun.misc.Unsafe.invokeCleaner bound to the Unsafe instance, or null if unavailable
+    private static final MethodHandle INVOKE_CLEANER = findInvokeCleaner();
+
+    private final ByteBuffer buffer;
+    private final ChunkInfo info;
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    /**
+     * @param buffer the chunk's bytes from 0 to capacity; a direct buffer the chunk now owns
+     * @param info length and checksum of the chunk
+     */
+    public CachedChunk(ByteBuffer buffer, ChunkInfo info) {
+        this.buffer = buffer;
+        this.info = info;
+    }
+
+    /** @return a region serving the chunk from memory; closing it releases one reference */
+    public ChunkRegion toRegion() {
+        return new ChunkRegion(buffer, info, this::release);
+    }
+
+    public ChunkInfo getInfo() {
+        return info;
+    }
+
+    /** @return bytes of memory the chunk holds */
+    public long length() {
+        return buffer.capacity();
+    }
+
+    /** @return false if the chunk's memory has already been released */
+    public boolean acquire() {
+        while (true) {
+            int current = refs.get();
+            if (current == 0) {
+                return false;
+            }
+            if (refs.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        if (refs.decrementAndGet() == 0) {
+            free(buffer);
+        }
+    }
+
+    private static void free(ByteBuffer buffer) {
+        if (INVOKE_CLEANER == null || !buffer.isDirect()) {
+            return; // the memory goes when the buffer is garbage collected
+        }
+        try {
+            INVOKE_CLEANER.invokeExact(buffer);
+        } catch (Throwable e) {
+            System.out.println("Failed to release cached chunk: " + e);
+        }
+    }
+
+    private static MethodHandle findInvokeCleaner() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return MethodHandles.lookup()
+                    .findVirtual(unsafeClass, "invokeCleaner", MethodType.methodType(void.class, ByteBuffer.class))
+                    .bindTo(field.get(null));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.out.println("Cached chunks will be released by the GC: " + e);
+            return null;
+        }
+    }
+}
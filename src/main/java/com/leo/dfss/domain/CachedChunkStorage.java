@@ -0,0 +1,81 @@
+package com.leo.dfss.domain;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Serves chunk reads of another ChunkStorage engine from a ChunkCache of off-heap copies, so
+ * popular chunks are read from disk once instead of on every download.
+ *
+ * A miss reads the chunk into a direct buffer, checks it against its stored CRC32C and offers it
+ * to the cache; whether it stays is up to the cache's admission filter. Chunks too large for the
+ * cache are streamed from the wrapped engine as before. Commits and deletes drop the cached copy.
+ */
+public class CachedChunkStorage extends ForwardingChunkStorage {
+
+    private final ChunkCache cache;
+
+    /**
+     * @param delegate engine storing the chunks
+     * @param maxBytes most bytes of chunk data cached
+     */
+    public CachedChunkStorage(ChunkStorage delegate, long maxBytes) {
+        super(delegate);
+        this.cache = new ChunkCache(maxBytes);
+    }
+
+    @Override
+    public ChunkRegion openChunk(String fileId, int chunkIndex) throws IOException {
+        String key = key(fileId, chunkIndex);
+        CachedChunk cached = cache.get(key);
+        if (cached != null) {
+            return cached.toRegion();
+        }
+
+        long generation = cache.generation();
+        ChunkRegion source = delegate.openChunk(fileId, chunkIndex);
+        if (source == null || source.getLength() > cache.getMaxChunkBytes()) {
+            return source;
+        }
+
+        CachedChunk chunk;
+        try (source) {
+            ByteBuffer buffer = load(source);
+            Checksums.verify(fileId, chunkIndex, source.getInfo().getChecksum(), Checksums.crc32c(buffer));
+            chunk = new CachedChunk(buffer, source.getInfo());
+        }
+        cache.put(key, chunk, generation);
+        return chunk.toRegion();
+    }
+
+    /** Copies a chunk into a new direct buffer. */
+    private static ByteBuffer load(ChunkRegion source) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) source.getLength());
+        if (source.isInMemory()) {
+            return buffer.put(source.getBuffer()).flip();
+        }
+        while (buffer.hasRemaining()) {
+            if (source.getChannel().read(buffer, source.getPosition() + buffer.position()) < 0) {
+                throw new EOFException("Chunk ended after " + buffer.position() + " bytes");
+            }
+        }
+        return buffer.flip();
+    }
+
+    @Override
+    protected void invalidate(String fileId, int chunkIndex) {
+        cache.invalidate(key(fileId, chunkIndex));
+    }
+
+    /** @return hit, miss and eviction counts of the cache */
+    public ChunkCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public void close() {
+        cache.close();
+        super.close();
+    }
+}
@@ -0,0 +1,45 @@
+package com.leo.dfss.domain;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.CRC32C;
+
+/**
+ * Passes reads through while updating a CRC32C over every byte read.
+ */
+final class ChecksumChannel implements ReadableByteChannel {
+
+    private final ReadableByteChannel source;
+    private final CRC32C crc = new CRC32C();
+
+    ChecksumChannel(ReadableByteChannel source) {
+        this.source = source;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int start = dst.position();
+        int n = source.read(dst);
+        if (n > 0) {
+            ByteBuffer read = dst.duplicate();
+            read.position(start).limit(start + n);
+            crc.update(read);
+        }
+        return n;
+    }
+
+    long getChecksum() {
+        return crc.getValue();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return source.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+}
@@ -0,0 +1,69 @@
+package com.leo.dfss.domain;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32C;
+
+/**
+ * CRC32C of chunk data, the checksum carried in CHUNK_UPLOAD, stored with every chunk and
+ * returned by CHUNK_DOWNLOAD. java.util.zip.CRC32C is a JVM intrinsic (SSE4.2 crc32 / ARMv8 crc32c
+ * instructions), so a checksum costs far less than the I/O that moves the bytes; callers compute
+ * it where the bytes already pass through memory rather than in a separate pass.
+ */
+public final class Checksums {
+
+    // Small enough to stay in L2 while it is checksummed right after the read
+    private static final int READ_BUFFER_BYTES = 256 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(READ_BUFFER_BYTES));
+
+    private Checksums() {}
+
+    public static long crc32c(byte[] data, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, offset, length);
+        return crc.getValue();
+    }
+
+    /** @return CRC32C of the buffer's remaining bytes; the buffer's position is not changed */
+    public static long crc32c(ByteBuffer data) {
+        CRC32C crc = new CRC32C();
+        crc.update(data.duplicate());
+        return crc.getValue();
+    }
+
+    /**
+     * Reads a region of a file and returns its CRC32C, checksumming each read while it is still in
+     * the CPU cache.
+     */
+    public static long crc32c(FileChannel file, long position, long length) throws IOException {
+        ByteBuffer buffer = READ_BUFFER.get();
+        CRC32C crc = new CRC32C();
+        long done = 0;
+        while (done < length) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), length - done));
+            int n = file.read(buffer, position + done);
+            if (n < 0) {
+                throw new EOFException("File ended after " + done + " of " + length + " bytes");
+            }
+            crc.update(buffer.flip());
+            done += n;
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * @param expected checksum stored with the chunk, or ChunkInfo.UNKNOWN_CHECKSUM to skip the check
+     * @param actual checksum of the bytes read
+     * @throws IOException if they do not match
+     */
+    public static void verify(String fileId, int chunkIndex, long expected, long actual) throws IOException {
+        if (expected != ChunkInfo.UNKNOWN_CHECKSUM && expected != actual) {
+            throw new IOException("Chunk " + fileId + "/" + chunkIndex + " is corrupt (CRC32C "
+                    + Long.toHexString(actual) + ", stored " + Long.toHexString(expected) + ")");
+        }
+    }
+}
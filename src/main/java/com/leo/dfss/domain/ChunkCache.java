@@ -0,0 +1,318 @@
+package com.leo.dfss.domain;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache of hot chunks held off-heap, bounded by bytes, with W-TinyLFU admission and eviction.
+ *
+ * New chunks enter a small LRU window (1% of the bytes). A chunk pushed out of the window only
+ * enters the main space if a FrequencySketch says it is accessed more often than the chunk it
+ * would evict from there, so a large one-off scan passes through the window without flushing the
+ * hot chunks. The main space is a segmented LRU: chunks start on probation and are promoted to
+ * the protected segment (80% of the main space) when they are hit again.
+ *
+ * Chunks are CachedChunks in direct buffers: a multi-GB cache adds nothing to the heap the GC has
+ * to trace, and an evicted chunk's memory is released as soon as its last reader is done.
+ */
+public class ChunkCache implements AutoCloseable {
+
+    private static final double WINDOW_SHARE = 0.01;
+    private static final double PROTECTED_SHARE = 0.8;
+
+    // Chunk size assumed when sizing the sketch: small enough to over-provision for typical chunks
+    private static final long SKETCH_CHUNK_BYTES = 64 * 1024;
+
+    private enum Queue { WINDOW, PROBATION, PROTECTED }
+
+    private static final class Entry {
+        final Object key;
+        final CachedChunk chunk;
+        Queue queue = Queue.WINDOW;
+
+        Entry(Object key, CachedChunk chunk) {
+            this.key = key;
+            this.chunk = chunk;
+        }
+    }
+
+    private final long maxBytes;
+    private final long windowMaxBytes;
+    private final long mainMaxBytes;
+    private final long protectedMaxBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final FrequencySketch sketch;               // guarded by lock
+    private final Map<Object, Entry> entries = new HashMap<>();
+
+    // Insertion-ordered; a hit re-inserts the entry, so iteration starts at the least recently used
+    private final LinkedHashMap<Object, Entry> window = new LinkedHashMap<>();
+    private final LinkedHashMap<Object, Entry> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<Object, Entry> protectedSegment = new LinkedHashMap<>();
+    private long windowBytes;
+    private long probationBytes;
+    private long protectedBytes;
+
+    // Bumped by every invalidation; a chunk read across one is not cached (it may be stale)
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+
+    /**
+     * @param maxBytes most bytes of chunk data held
+     */
+    public ChunkCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be greater than 0");
+        }
+        this.maxBytes = maxBytes;
+        this.windowMaxBytes = (long) (maxBytes * WINDOW_SHARE);
+        this.mainMaxBytes = maxBytes - windowMaxBytes;
+        this.protectedMaxBytes = (long) (mainMaxBytes * PROTECTED_SHARE);
+        this.sketch = new FrequencySketch((int) Math.min(Integer.MAX_VALUE, maxBytes / SKETCH_CHUNK_BYTES));
+    }
+
+    /**
+     * Looks up a chunk, counting the access for admission whether or not it is cached.
+     *
+     * @return the chunk with a reference held for the caller (release it when done), or null
+     */
+    public CachedChunk get(Object key) {
+        lock.lock();
+        try {
+            sketch.increment(key);
+            Entry entry = entries.get(key);
+            if (entry == null || !entry.chunk.acquire()) {
+                misses.increment();
+                return null;
+            }
+
+            hits.increment();
+            switch (entry.queue) {
+                case WINDOW -> window.put(key, window.remove(key));
+                case PROTECTED -> protectedSegment.put(key, protectedSegment.remove(key));
+                case PROBATION -> {
+                    probation.remove(key);
+                    probationBytes -= entry.chunk.length();
+                    entry.queue = Queue.PROTECTED;
+                    protectedSegment.put(key, entry);
+                    protectedBytes += entry.chunk.length();
+                    demoteProtected();
+                }
+            }
+            return entry.chunk;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return the current invalidation count, to pass to put for a chunk read after this call */
+    public long generation() {
+        return invalidations.get();
+    }
+
+    /**
+     * Offers a chunk read after a miss. It enters the window and may later be refused admission to
+     * the main space. The caller keeps its own reference.
+     *
+     * @param generation value of generation() taken before the chunk was read
+     * @return true if the chunk was cached
+     */
+    public boolean put(Object key, CachedChunk chunk, long generation) {
+        if (chunk.length() > mainMaxBytes) {
+            return false;
+        }
+
+        lock.lock();
+        try {
+            if (invalidations.get() != generation || entries.containsKey(key) || !chunk.acquire()) {
+                return false;
+            }
+
+            Entry entry = new Entry(key, chunk);
+            entries.put(key, entry);
+            window.put(key, entry);
+            windowBytes += chunk.length();
+            evictWindow();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Drops the cached chunk for key, e.g. after the chunk was rewritten or deleted. */
+    public void invalidate(Object key) {
+        invalidations.incrementAndGet();
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                remove(entry);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Caller holds lock. Moves the window's overflow to probation, each past the admission filter. */
+    private void evictWindow() {
+        while (windowBytes > windowMaxBytes && !window.isEmpty()) {
+            Entry candidate = window.values().iterator().next();
+            window.remove(candidate.key);
+            windowBytes -= candidate.chunk.length();
+
+            candidate.queue = Queue.PROBATION;
+            probation.put(candidate.key, candidate);
+            probationBytes += candidate.chunk.length();
+            evictMain(candidate);
+        }
+    }
+
+    /**
+     * Caller holds lock. Makes room in the main space for a candidate that just joined probation:
+     * victims go from the probation LRU end (then the protected one) while the candidate is
+     * accessed more often than they are; otherwise the candidate itself is rejected.
+     */
+    private void evictMain(Entry candidate) {
+        while (probationBytes + protectedBytes > mainMaxBytes) {
+            Entry victim = eldestOtherThan(probation, candidate);
+            if (victim == null) {
+                victim = eldestOtherThan(protectedSegment, candidate);
+            }
+            if (victim == null || sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+                remove(candidate);
+                rejections.increment();
+                return;
+            }
+            remove(victim);
+            evictions.increment();
+        }
+    }
+
+    /** Caller holds lock. Moves the protected segment's least recently used overflow back to probation. */
+    private void demoteProtected() {
+        Iterator<Entry> eldest = protectedSegment.values().iterator();
+        while (protectedBytes > protectedMaxBytes && eldest.hasNext()) {
+            Entry entry = eldest.next();
+            eldest.remove();
+            protectedBytes -= entry.chunk.length();
+            entry.queue = Queue.PROBATION;
+            probation.put(entry.key, entry);
+            probationBytes += entry.chunk.length();
+        }
+    }
+
+    private static Entry eldestOtherThan(LinkedHashMap<Object, Entry> queue, Entry excluded) {
+        for (Entry entry : queue.values()) {
+            if (entry != excluded) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /** Caller holds lock. */
+    private void remove(Entry entry) {
+        entries.remove(entry.key);
+        long length = entry.chunk.length();
+        switch (entry.queue) {
+            case WINDOW -> {
+                window.remove(entry.key);
+                windowBytes -= length;
+            }
+            case PROBATION -> {
+                probation.remove(entry.key);
+                probationBytes -= length;
+            }
+            case PROTECTED -> {
+                protectedSegment.remove(entry.key);
+                protectedBytes -= length;
+            }
+        }
+        entry.chunk.release();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /** @return size of the largest chunk put accepts */
+    public long getMaxChunkBytes() {
+        return mainMaxBytes;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /** @return chunks dropped from the cache to make room, including those refused admission */
+    public long getEvictions() {
+        return evictions.sum() + rejections.sum();
+    }
+
+    /** @return chunks the admission filter kept out of the main space */
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    /** @return bytes of chunk data held */
+    public long getBytes() {
+        lock.lock();
+        try {
+            return windowBytes + probationBytes + protectedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getChunkCount() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Releases every cached chunk; chunks still being read are freed when their readers finish. */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            for (Entry entry : entries.values()) {
+                entry.chunk.release();
+            }
+            entries.clear();
+            window.clear();
+            probation.clear();
+            protectedSegment.clear();
+            windowBytes = probationBytes = protectedBytes = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkCache{" +
+                "chunks=" + getChunkCount() +
+                ", bytes=" + getBytes() +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", evictions=" + evictions.sum() +
+                ", rejections=" + getRejections() +
+                '}';
+    }
+}
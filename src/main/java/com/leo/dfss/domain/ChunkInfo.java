@@ -0,0 +1,65 @@
+package com.leo.dfss.domain;
+
+import com.leo.dfss.compression.ChunkCodec;
+
+/**
+ * Per-chunk metadata kept by a node alongside the chunk bytes. For a compressed chunk, length and
+ * checksum describe the stored (compressed) bytes and rawLength the chunk once decompressed.
+ */
+public class ChunkInfo {
+
+    /** Checksum value for chunks written before checksums were recorded. */
+    public static final long UNKNOWN_CHECKSUM = -1L;
+
+    private final long length;
+    private final long checksum; // CRC32C of the stored bytes, or UNKNOWN_CHECKSUM
+    private final ChunkCodec codec;
+    private final long rawLength;
+
+    public ChunkInfo(long length, long checksum) {
+        this(length, checksum, ChunkCodec.NONE, length);
+    }
+
+    /**
+     * @param codec how the stored bytes are encoded
+     * @param rawLength length of the chunk once decoded (equal to length for NONE)
+     */
+    public ChunkInfo(long length, long checksum, ChunkCodec codec, long rawLength) {
+        this.length = length;
+        this.checksum = checksum;
+        this.codec = codec;
+        this.rawLength = rawLength;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getChecksum() {
+        return checksum;
+    }
+
+    public ChunkCodec getCodec() {
+        return codec;
+    }
+
+    public boolean isCompressed() {
+        return codec != ChunkCodec.NONE;
+    }
+
+    public long getRawLength() {
+        return rawLength;
+    }
+
+    public boolean hasChecksum() {
+        return checksum != UNKNOWN_CHECKSUM;
+    }
+
+    @Override
+    public String toString() {
+        return "ChunkInfo{" +
+                "length= " + length + ", " +
+                "checksum= " + checksum +
+                (codec == ChunkCodec.NONE ? "" : ", " + codec + " of " + rawLength + " bytes") + "}";
+    }
+}
@@ -0,0 +1,227 @@
+package com.leo.dfss.domain;
+
+import java.util.Arrays;
+
+/**
+ * The nodes holding each stored chunk index of a file, in chain order, packed into primitive
+ * arrays: every replica is a 16-bit NodeIdTable reference.
+ *
+ * When every chunk has the same number of replicas (the usual case) they are stored at a fixed
+ * stride, 2 bytes per replica and nothing per chunk: 6 bytes a chunk with three replicas, so a
+ * few GB hold hundreds of millions of chunks. Otherwise an offsets array gives each chunk's start
+ * (4 more bytes a chunk).
+ *
+ * Immutable once built: a file's locations are replaced as a whole (FileMetadata keeps them in a
+ * volatile field), so readers never lock and always see one consistent version.
+ */
+public final class ChunkLocations {
+
+    private final NodeIdTable nodeIds;
+    private final int chunkCount;
+    private final int stride;       // replicas of every chunk, or -1 if offsets is used
+    private final int[] offsets;    // chunk i's replicas are nodes[offsets[i] .. offsets[i + 1]), or null
+    private final char[] nodes;
+
+    private ChunkLocations(NodeIdTable nodeIds, int chunkCount, int stride, int[] offsets, char[] nodes) {
+        this.nodeIds = nodeIds;
+        this.chunkCount = chunkCount;
+        this.stride = stride;
+        this.offsets = offsets;
+        this.nodes = nodes;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /** @return nodes holding a chunk */
+    public int replicaCount(int chunkIndex) {
+        checkIndex(chunkIndex);
+        return (offsets == null) ? stride : offsets[chunkIndex + 1] - offsets[chunkIndex];
+    }
+
+    /** @return NodeIdTable reference of a chunk's replica-th node */
+    public int nodeRef(int chunkIndex, int replica) {
+        return nodes[position(chunkIndex, replica)];
+    }
+
+    /** @return node id of a chunk's replica-th node */
+    public String nodeId(int chunkIndex, int replica) {
+        return nodeIds.nodeId(nodes[position(chunkIndex, replica)]);
+    }
+
+    /** @return node ids of a chunk, in chain order */
+    public String[] nodeIds(int chunkIndex) {
+        String[] result = new String[replicaCount(chunkIndex)];
+        int start = start(chunkIndex);
+        for (int i = 0; i < result.length; i++) {
+            result[i] = nodeIds.nodeId(nodes[start + i]);
+        }
+        return result;
+    }
+
+    /** @return true if the node is one of a chunk's replicas */
+    public boolean contains(int chunkIndex, String nodeId) {
+        int ref = nodeIds.find(nodeId);
+        if (ref < 0) {
+            return false;
+        }
+        int start = start(chunkIndex);
+        int end = start + replicaCount(chunkIndex);
+        for (int i = start; i < end; i++) {
+            if (nodes[i] == ref) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces replicas that moved to other nodes (re-replication after a node failed). Each
+     * replacement takes the old node's place in the chain; one whose old node is no longer among
+     * the chunk's replicas, or whose new node already is, is skipped.
+     *
+     * @param chunkIndexes chunks of the replicas, as the first count entries
+     * @param fromNodeIds node each replica moved off
+     * @param toNodeIds node each replica moved to
+     * @return the new locations, or this if nothing changed
+     */
+    public ChunkLocations withReplicasMoved(int[] chunkIndexes, String[] fromNodeIds, String[] toNodeIds, int count) {
+        char[] moved = null;
+        for (int i = 0; i < count; i++) {
+            int from = nodeIds.find(fromNodeIds[i]);
+            if (from < 0) {
+                continue;
+            }
+            char[] current = (moved == null) ? nodes : moved;
+            int start = start(chunkIndexes[i]);
+            int end = start + replicaCount(chunkIndexes[i]);
+            int to = nodeIds.intern(toNodeIds[i]);
+            int position = -1;
+            for (int p = start; p < end; p++) {
+                if (current[p] == to) {
+                    position = -1;
+                    break;
+                }
+                if (current[p] == from && position < 0) {
+                    position = p;
+                }
+            }
+            if (position >= 0) {
+                if (moved == null) {
+                    moved = nodes.clone();
+                }
+                moved[position] = (char) to;
+            }
+        }
+        return (moved == null) ? this : new ChunkLocations(nodeIds, chunkCount, stride, offsets, moved);
+    }
+
+    public NodeIdTable getNodeIdTable() {
+        return nodeIds;
+    }
+
+    /** @return approximate bytes of the arrays */
+    public long memoryBytes() {
+        return 2L * nodes.length + ((offsets == null) ? 0 : 4L * offsets.length);
+    }
+
+    private int position(int chunkIndex, int replica) {
+        if (replica < 0 || replica >= replicaCount(chunkIndex)) {
+            throw new IndexOutOfBoundsException("Chunk " + chunkIndex + " has no replica " + replica);
+        }
+        return start(chunkIndex) + replica;
+    }
+
+    private int start(int chunkIndex) {
+        checkIndex(chunkIndex);
+        return (offsets == null) ? chunkIndex * stride : offsets[chunkIndex];
+    }
+
+    private void checkIndex(int chunkIndex) {
+        if (chunkIndex < 0 || chunkIndex >= chunkCount) {
+            throw new IndexOutOfBoundsException("Chunk " + chunkIndex + " of " + chunkCount);
+        }
+    }
+
+    /**
+     * Builds the locations of chunks 0..chunkCount-1, added in order. Starts at a fixed stride
+     * (the first chunk's replica count) and switches to offsets when a chunk has another count.
+     */
+    public static final class Builder {
+
+        private final NodeIdTable nodeIds;
+        private final int chunkCount;
+        private int added;
+        private int stride = -1;
+        private int[] offsets;
+        private char[] nodes = new char[0];
+        private int size;
+
+        public Builder(NodeIdTable nodeIds, int chunkCount) {
+            if (chunkCount < 0) {
+                throw new IllegalArgumentException("chunkCount cannot be negative");
+            }
+            this.nodeIds = nodeIds;
+            this.chunkCount = chunkCount;
+        }
+
+        /** Adds the next chunk's nodes, in chain order. */
+        public Builder add(String... chunkNodeIds) {
+            char[] refs = new char[chunkNodeIds.length];
+            for (int i = 0; i < refs.length; i++) {
+                refs[i] = (char) nodeIds.intern(chunkNodeIds[i]);
+            }
+            return addRefs(refs, refs.length);
+        }
+
+        /** Adds the next chunk's nodes as the first count NodeIdTable references of refs. */
+        public Builder addRefs(char[] refs, int count) {
+            return append(refs, 0, count);
+        }
+
+        /** Adds the next chunk's nodes from a chunk of existing locations. */
+        public Builder addFrom(ChunkLocations locations, int chunkIndex) {
+            return append(locations.nodes, locations.start(chunkIndex), locations.replicaCount(chunkIndex));
+        }
+
+        private Builder append(char[] refs, int from, int count) {
+            if (added == chunkCount) {
+                throw new IllegalStateException("All " + chunkCount + " chunks added already");
+            }
+            if (stride < 0 && offsets == null) {
+                stride = count;
+                nodes = new char[Math.multiplyExact(chunkCount, count)];
+            } else if (offsets == null && count != stride) {
+                offsets = new int[chunkCount + 1];
+                for (int i = 1; i <= added; i++) {
+                    offsets[i] = i * stride;
+                }
+                stride = -1;
+            }
+
+            if (size + count > nodes.length) {
+                long grown = Math.max((long) size + count, Math.min(2L * nodes.length + 8, Integer.MAX_VALUE - 8));
+                nodes = Arrays.copyOf(nodes, Math.toIntExact(grown));
+            }
+            System.arraycopy(refs, from, nodes, size, count);
+            size += count;
+            added++;
+            if (offsets != null) {
+                offsets[added] = size;
+            }
+            return this;
+        }
+
+        public ChunkLocations build() {
+            if (added != chunkCount) {
+                throw new IllegalStateException("Only " + added + " of " + chunkCount + " chunks added");
+            }
+            if (stride < 0 && offsets == null) {
+                stride = 0; // no chunks
+            }
+            char[] packed = (nodes.length == size) ? nodes : Arrays.copyOf(nodes, size);
+            return new ChunkLocations(nodeIds, chunkCount, stride, offsets, packed);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.leo.dfss.domain;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An open, read-only view of one stored chunk: the chunk occupies
+ * [position, position + length) of the channel, or all of an in-memory buffer (a cached or
+ * memory-mapped chunk). Closing the region releases the channel (or, for a channel shared by many
+ * chunks, the region's reference to it) or the buffer.
+ */
+public class ChunkRegion implements AutoCloseable {
+
+    private final FileChannel channel;
+    private final long position;
+    private final ByteBuffer buffer;
+    private final ChunkInfo info;
+    private final Closeable release;
+
+    public ChunkRegion(FileChannel channel, long position, ChunkInfo info) {
+        this(channel, position, info, channel);
+    }
+
+    /**
+     * @param release called once on close instead of closing the channel
+     */
+    public ChunkRegion(FileChannel channel, long position, ChunkInfo info, Closeable release) {
+        this.channel = channel;
+        this.position = position;
+        this.buffer = null;
+        this.info = info;
+        this.release = release;
+    }
+
+    /**
+     * A chunk served from memory (see CachedChunk).
+     *
+     * @param buffer the chunk's bytes, from position 0 to capacity
+     * @param release called once on close, e.g. to drop the reference to the buffer
+     */
+    public ChunkRegion(ByteBuffer buffer, ChunkInfo info, Closeable release) {
+        this.channel = null;
+        this.position = 0;
+        this.buffer = buffer;
+        this.info = info;
+        this.release = release;
+    }
+
+    /** @return the channel holding the chunk, or null for an in-memory region */
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    /** @return true if the chunk is served from getBuffer() rather than from a channel */
+    public boolean isInMemory() {
+        return buffer != null;
+    }
+
+    /**
+     * @return a read-only buffer over the chunk's bytes (its own position and limit, so callers
+     *         may consume it), or null if the region is not in memory
+     */
+    public ByteBuffer getBuffer() {
+        return (buffer != null) ? buffer.asReadOnlyBuffer().clear() : null;
+    }
+
+    /** @return offset of the chunk's first byte within the channel (0 for an in-memory region) */
+    public long getPosition() {
+        return position;
+    }
+
+    public long getLength() {
+        return info.getLength();
+    }
+
+    public ChunkInfo getInfo() {
+        return info;
+    }
+
+    @Override
+    public void close() throws IOException {
+        release.close();
+    }
+}
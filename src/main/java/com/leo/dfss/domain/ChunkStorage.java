@@ -0,0 +1,199 @@
+package com.leo.dfss.domain;
+
+import com.leo.dfss.compression.ChunkCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Storage engine for the chunks held by a node.
+ *
+ * A chunk is written in two steps so the socket read and the finalisation can run on different
+ * threads: stageChunk streams the bytes in, then commitChunk (or commitChunkAsync) makes them
+ * durable, as defined by the engine's DurabilityMode, and visible. Until then readers do not see
+ * the new bytes. Implementations are used concurrently by every NodeConnection.
+ *
+ * Engines: ChunkStore (one file per chunk) and SegmentChunkStore (chunks appended to large
+ * segment files). MappedChunkStorage wraps either to serve reads from cached memory mappings.
+ *
+ * Chunks may be stored compressed (see ChunkCodec): the engines store and return the bytes as
+ * uploaded, and regions, lengths and checksums describe the stored bytes.
+ */
+public interface ChunkStorage extends AutoCloseable {
+
+    /**
+     * Recovers the engine's on-disk state. Called once before any other method.
+     */
+    default void open() throws IOException {}
+
+    /**
+     * Streams a chunk body into the store without making it visible.
+     *
+     * @param fileId unique file identifier of chunk
+     * @param chunkIndex chunk number
+     * @param body chunk bytes (a ReadableByteChannel such as MessageBodyStream is used directly)
+     * @param length number of bytes to read from body
+     * @return the staged chunk, to be passed to commitChunk or discardChunk
+     */
+    default StagedChunk stageChunk(String fileId, int chunkIndex, InputStream body, long length) throws IOException {
+        return stageChunk(fileId, chunkIndex, body, length, ChunkCodec.NONE, length);
+    }
+
+    /**
+     * Streams an encoded (e.g. compressed) chunk body into the store without making it visible.
+     * The store keeps the bytes as they are and records the codec, so reads return them encoded
+     * (see ChunkRegion.getInfo) and readChunk decodes them.
+     *
+     * @param length number of encoded bytes to read from body
+     * @param codec how the body is encoded
+     * @param rawLength length of the chunk once decoded
+     * @return the staged chunk, to be passed to commitChunk or discardChunk
+     */
+    StagedChunk stageChunk(String fileId, int chunkIndex, InputStream body, long length,
+                           ChunkCodec codec, long rawLength) throws IOException;
+
+    /**
+     * Makes a staged chunk visible, replacing any previous version, and blocks until it is durable.
+     *
+     * @param staged chunk returned by stageChunk
+     * @return length and checksum of the stored chunk
+     */
+    ChunkInfo commitChunk(StagedChunk staged) throws IOException;
+
+    /**
+     * Like commitChunk, without blocking the caller while a group commit batch is synced.
+     *
+     * @param staged chunk returned by stageChunk
+     * @return completes with the chunk's info once it is durable, or exceptionally with the
+     *         IOException that failed its commit
+     */
+    CompletableFuture<ChunkInfo> commitChunkAsync(StagedChunk staged);
+
+    /**
+     * Drops a staged chunk without making it visible.
+     *
+     * @param staged chunk returned by stageChunk
+     */
+    void discardChunk(StagedChunk staged) throws IOException;
+
+    /**
+     * Opens a chunk for zero-copy reads (e.g. FileChannel.transferTo to a socket, or a write of
+     * the buffer when the region isInMemory()).
+     *
+     * @param fileId unique file identifier of chunk
+     * @param chunkIndex chunk number
+     * @return the open chunk region, or null if the chunk does not exist. The caller closes it.
+     */
+    ChunkRegion openChunk(String fileId, int chunkIndex) throws IOException;
+
+    /**
+     * Removes a chunk. Durable like a commit once this returns.
+     *
+     * @param fileId unique file identifier of chunk
+     * @param chunkIndex chunk number
+     * @return true if the chunk existed
+     */
+    boolean deleteChunk(String fileId, int chunkIndex) throws IOException;
+
+    /**
+     * Checks whether a chunk exists.
+     *
+     * @param fileId unique file identifier of chunk
+     * @param chunkIndex chunk number
+     * @return true if chunk exists, else false
+     */
+    Boolean chunkExists(String fileId, int chunkIndex) throws IOException;
+
+    DurabilityMode getDurability();
+
+    /** @return batch sizes and fsync latencies of the commits so far (empty in NONE mode) */
+    SyncStats getSyncStats();
+
+    /** @return directory holding the engine's files */
+    Path getBaseDir();
+
+    /** Syncs the commits already queued and releases the engine's threads and files. */
+    @Override
+    void close();
+
+    /**
+     * Writes a chunk: stageChunk followed by commitChunk.
+     *
+     * @param fileId unique file identifier of chunk
+     * @param chunkIndex chunk number
+     * @param body chunk bytes
+     * @param length number of bytes to read from body
+     * @return length and checksum of the stored chunk
+     */
+    default ChunkInfo writeChunk(String fileId, int chunkIndex, InputStream body, long length) throws IOException {
+        return commitChunk(stageChunk(fileId, chunkIndex, body, length));
+    }
+
+    /**
+     * Writes a chunk held in memory.
+     *
+     * @param fileId unique file identifier of chunk
+     * @param chunkIndex chunk number
+     * @param data raw chunk bytes
+     * @return length and checksum of the stored chunk
+     */
+    default ChunkInfo writeChunk(String fileId, int chunkIndex, byte[] data) throws IOException {
+        if (data == null) {
+            throw new IllegalArgumentException("data cannot be null");
+        }
+
+        return writeChunk(fileId, chunkIndex, new ByteArrayInputStream(data), data.length);
+    }
+
+    /**
+     * Reads a whole chunk into memory, decompressed.
+     *
+     * @param fileId unique file identifier of chunk
+     * @param chunkIndex chunk number
+     * @return chunk bytes, checked against the chunk's stored CRC32C
+     * @throws NoSuchFileException if the chunk does not exist
+     * @throws IOException if the bytes do not match their checksum
+     */
+    default byte[] readChunk(String fileId, int chunkIndex) throws IOException {
+        try (ChunkRegion region = openChunk(fileId, chunkIndex)) {
+            if (region == null) {
+                throw new NoSuchFileException(fileId + "/" + chunkIndex);
+            }
+
+            byte[] data = readStored(region, fileId, chunkIndex);
+            ChunkInfo info = region.getInfo();
+            return info.isCompressed()
+                    ? info.getCodec().decompress(data, 0, data.length, (int) info.getRawLength())
+                    : data;
+        }
+    }
+
+    /**
+     * Reads the stored bytes of an open chunk, as they are on disk (compressed if the chunk is).
+     *
+     * @return the bytes, checked against the chunk's stored CRC32C
+     * @throws IOException if the bytes do not match their checksum
+     */
+    static byte[] readStored(ChunkRegion region, String fileId, int chunkIndex) throws IOException {
+        byte[] data = new byte[(int) region.getLength()];
+        if (region.isInMemory()) {
+            region.getBuffer().get(data);
+            return data; // checked when it was loaded into memory
+        }
+
+        ByteBuffer target = ByteBuffer.wrap(data);
+        while (target.hasRemaining()) {
+            if (region.getChannel().read(target, region.getPosition() + target.position()) < 0) {
+                throw new EOFException("Chunk ended after " + target.position() + " bytes");
+            }
+        }
+        Checksums.verify(fileId, chunkIndex, region.getInfo().getChecksum(), Checksums.crc32c(data, 0, data.length));
+        return data;
+    }
+}
@@ -1,91 +1,252 @@
 package com.leo.dfss.domain;
 
+import com.leo.dfss.compression.ChunkCodec;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
- * Class responsible for writing chunk bytes to disk and loading them back.
+ * Chunk storage engine with one file per chunk.
+ *
+ * Layout: chunks/<fileId>/<index>.bin holds the chunk bytes and chunks/<fileId>/<index>.meta
+ * holds its ChunkInfo (length, CRC32C, and codec and raw length of a compressed chunk), written
+ * before the .bin file becomes visible.
+ *
+ * Durability (see DurabilityMode): with PER_CHUNK or GROUP_COMMIT a commit only completes once the
+ * chunk bytes, its .meta sidecar and the renames that publish them have been fsynced. In
+ * GROUP_COMMIT mode commits from all connections are handed to one GroupCommitter, which syncs
+ * them a batch at a time: the data files of a batch are flushed in parallel, so the file system
+ * can fold them into one journal commit, and each directory touched by the batch is fsynced once.
  */
-public class ChunkStore {
+public class ChunkStore implements ChunkStorage {
+
+    private static final int META_VERSION = 2;     // 1: no codec, the chunk is stored uncompressed
+
+    // Data files of a group commit batch flushed at once
+    private static final int SYNC_PARALLELISM = 8;
 
     private final Path baseDir;
     private final Path chunksDir;
+    private final DurabilityMode durability;
+    private final SyncStats syncStats = new SyncStats();
+
+    // GROUP_COMMIT only
+    private final GroupCommitter<StagedChunk> groupCommitter;
+    private final ExecutorService syncExecutor;
 
+    /** A store that does not fsync (DurabilityMode.NONE). */
     public ChunkStore(Path baseDir) {
+        this(baseDir, DurabilityMode.NONE, 1, 0);
+    }
+
+    /**
+     * @param baseDir storage directory
+     * @param durability when a commit counts as durable
+     * @param syncBatch most chunks per group commit batch
+     * @param syncDelayMicros longest a group commit batch waits for more chunks after its first one
+     */
+    public ChunkStore(Path baseDir, DurabilityMode durability, int syncBatch, long syncDelayMicros) {
         this.baseDir = baseDir;
         this.chunksDir = baseDir.resolve("chunks");
+        this.durability = durability;
+
+        if (durability == DurabilityMode.GROUP_COMMIT) {
+            this.syncExecutor = Executors.newFixedThreadPool(SYNC_PARALLELISM,
+                    Thread.ofPlatform().name("chunk-fsync-", 1).daemon().factory());
+            this.groupCommitter = new GroupCommitter<>(batch -> persist(batch, true),
+                    syncBatch, syncDelayMicros, syncStats, "chunk-group-commit");
+        } else {
+            this.syncExecutor = null;
+            this.groupCommitter = null;
+        }
     }
 
     /**
-     * Writes a chunk to disk.
-     *
-     * @param fileId unique file identifier of chunk
-     * @param chunkIndex chunk number
-     * @param data raw chunk bytes
+     * Streams the body into a temporary file next to the chunk and computes its CRC32C on the
+     * same pass. The chunk is not visible until commitChunk.
      */
-    public void writeChunk(String fileId, int chunkIndex, byte[] data) throws IOException {
+    @Override
+    public StagedChunk stageChunk(String fileId, int chunkIndex, InputStream body, long length,
+                                  ChunkCodec codec, long rawLength) throws IOException {
 
-        if (fileId == null || fileId.isBlank()) {
-            throw new IllegalArgumentException("fileId cannot be null or blank");
-        }
-        if (chunkIndex < 0) {
-            throw new IllegalArgumentException("chunkIndex cannot be negative");
-        }
-        if (data == null) {
-            throw new IllegalArgumentException("data cannot be null");
+        validate(fileId, chunkIndex);
+        if (body == null || length < 0) {
+            throw new IllegalArgumentException("body cannot be null and length cannot be negative");
         }
 
         Path fileDir = chunksDir.resolve(fileId);
         Files.createDirectories(fileDir);
 
-        Path chunksPath = fileDir.resolve(chunkIndex + ".bin");
+        Path tempPath = fileDir.resolve(chunkIndex + ".bin." + UUID.randomUUID() + ".tmp");
+
+        ReadableByteChannel channel = (body instanceof ReadableByteChannel readable)
+                ? readable
+                : Channels.newChannel(body);
+        ChecksumChannel source = new ChecksumChannel(channel);
 
-        // Overwrite if chunk exists at directory
-        Files.write(chunksPath, data,
-                StandardOpenOption.CREATE,
-                StandardOpenOption.TRUNCATE_EXISTING,
-                StandardOpenOption.WRITE);
+        boolean staged = false;
+        try {
+            try (FileChannel out = FileChannel.open(tempPath,
+                    StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE)) {
+
+                long position = 0;
+                while (position < length) {
+                    long n = out.transferFrom(source, position, length - position);
+                    if (n <= 0) {
+                        throw new EOFException("Chunk body ended after " + position + " of " + length + " bytes");
+                    }
+                    position += n;
+                }
+            }
+
+            staged = true;
+            return new StagedFile(fileId, chunkIndex, tempPath,
+                    new ChunkInfo(length, source.getChecksum(), codec, rawLength));
+        } finally {
+            if (!staged) {
+                Files.deleteIfExists(tempPath);
+            }
+        }
     }
 
     /**
-     * Reads a chunk from disk.
-     *
-     * @param fileId unique file identifier of chunk
-     * @param chunkIndex chunk number
-     * @return chunk bytes
+     * Writes the .meta sidecar and atomically moves the staged bytes to the chunk's final name,
+     * replacing any previous version. Blocks until the chunk is durable as defined by the store's
+     * DurabilityMode.
      */
-    public byte[] readChunk(String fileId, int chunkIndex) throws IOException {
+    @Override
+    public ChunkInfo commitChunk(StagedChunk staged) throws IOException {
+        if (durability == DurabilityMode.GROUP_COMMIT) {
+            return await(commitChunkAsync(staged));
+        }
 
-        if (fileId == null || fileId.isBlank()) {
-            throw new IllegalArgumentException("fileId cannot be null or blank");
+        long start = System.nanoTime();
+        persist(List.of(staged), durability == DurabilityMode.PER_CHUNK);
+        if (durability == DurabilityMode.PER_CHUNK) {
+            syncStats.record(1, System.nanoTime() - start);
         }
-        if (chunkIndex < 0) {
-            throw new IllegalArgumentException("chunkIndex cannot be negative");
+        return staged.getInfo();
+    }
+
+    /**
+     * Commits a staged chunk without blocking the caller in GROUP_COMMIT mode; in the other modes
+     * the commit happens on the calling thread and the returned future is already complete.
+     */
+    @Override
+    public CompletableFuture<ChunkInfo> commitChunkAsync(StagedChunk staged) {
+        if (durability != DurabilityMode.GROUP_COMMIT) {
+            try {
+                return CompletableFuture.completedFuture(commitChunk(staged));
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        return groupCommitter.submit(staged).thenApply(ignored -> staged.getInfo());
+    }
+
+    @Override
+    public void discardChunk(StagedChunk staged) throws IOException {
+        Files.deleteIfExists(tempPathOf(staged));
+    }
+
+    @Override
+    public ChunkRegion openChunk(String fileId, int chunkIndex) throws IOException {
+
+        validate(fileId, chunkIndex);
+
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(chunkPath(fileId, chunkIndex), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return null;
         }
 
-        Path ChunkPath = chunksDir.resolve(fileId + ".bin");
-        return Files.readAllBytes(ChunkPath);
+        try {
+            ChunkInfo info = readInfo(chunksDir.resolve(fileId).resolve(chunkIndex + ".meta"));
+
+            // Chunks written before .meta files existed: length from the file, checksum unknown
+            if (info == null || info.getLength() != channel.size()) {
+                info = new ChunkInfo(channel.size(), ChunkInfo.UNKNOWN_CHECKSUM);
+            }
+
+            return new ChunkRegion(channel, 0, info);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
     }
 
     /**
-     * Checks whether a chunk exists.
-     *
-     * @param fileId unique file identifier of chunk
-     * @param chunkIndex chunk number
-     * @return true if chunk exists, else false
+     * Deletes the chunk's .bin file, then its sidecar. With durability, the directory is synced
+     * before returning.
      */
+    @Override
+    public boolean deleteChunk(String fileId, int chunkIndex) throws IOException {
+
+        validate(fileId, chunkIndex);
+
+        boolean existed = Files.deleteIfExists(chunkPath(fileId, chunkIndex));
+        Files.deleteIfExists(chunksDir.resolve(fileId).resolve(chunkIndex + ".meta"));
+
+        if (existed && durability != DurabilityMode.NONE) {
+            syncDirectory(chunksDir.resolve(fileId));
+        }
+        return existed;
+    }
+
+    @Override
     public Boolean chunkExists(String fileId, int chunkIndex) throws IOException {
 
         if (fileId == null || fileId.isBlank() ||  chunkIndex < 0) {
             return false;
         }
 
-        Path ChunkPath = chunksDir.resolve(fileId + ".bin");
-        return Files.exists(ChunkPath);
+        return Files.exists(chunkPath(fileId, chunkIndex));
+    }
+
+    @Override
+    public DurabilityMode getDurability() {
+        return durability;
+    }
+
+    @Override
+    public SyncStats getSyncStats() {
+        return syncStats;
     }
 
+    @Override
+    public void close() {
+        if (groupCommitter != null) {
+            groupCommitter.close();
+            syncExecutor.shutdown();
+        }
+    }
+
+    @Override
     public Path getBaseDir() {
         return baseDir;
     }
@@ -93,4 +254,212 @@ public class ChunkStore {
     public Path getChunksDir() {
         return chunksDir;
     }
+
+    private Path chunkPath(String fileId, int chunkIndex) {
+        return chunksDir.resolve(fileId).resolve(chunkIndex + ".bin");
+    }
+
+    private static Path tempPathOf(StagedChunk staged) {
+        if (!(staged instanceof StagedFile file)) {
+            throw new IllegalArgumentException("Chunk was not staged by a ChunkStore");
+        }
+        return file.tempPath;
+    }
+
+    private static void validate(String fileId, int chunkIndex) {
+        if (fileId == null || fileId.isBlank()) {
+            throw new IllegalArgumentException("fileId cannot be null or blank");
+        }
+        if (chunkIndex < 0) {
+            throw new IllegalArgumentException("chunkIndex cannot be negative");
+        }
+    }
+
+    /**
+     * Publishes staged chunks: writes each .meta sidecar to a temp file, then renames the sidecar
+     * and the chunk bytes to their final names. With sync, the temp files are flushed before the
+     * renames and every directory the renames touched is flushed after them, so a chunk is never
+     * visible under its final name without its bytes on disk.
+     */
+    private void persist(List<StagedChunk> batch, boolean sync) throws IOException {
+        Path[] metaTemps = new Path[batch.size()];
+
+        try {
+            // 1) Sidecars to temp files, and both temp files of each chunk to disk
+            if (sync && batch.size() > 1) {
+                List<Future<Void>> flushes = new ArrayList<>(batch.size());
+                for (int i = 0; i < batch.size(); i++) {
+                    int index = i;
+                    flushes.add(syncExecutor.submit(() -> {
+                        metaTemps[index] = prepare(batch.get(index), true);
+                        return null;
+                    }));
+                }
+                awaitAll(flushes);
+            } else {
+                for (int i = 0; i < batch.size(); i++) {
+                    metaTemps[i] = prepare(batch.get(i), sync);
+                }
+            }
+
+            // 2) Publish, sidecar first so a visible .bin always has its .meta
+            Set<Path> touchedDirs = new LinkedHashSet<>();
+            for (int i = 0; i < batch.size(); i++) {
+                StagedChunk staged = batch.get(i);
+                Path fileDir = chunksDir.resolve(staged.getFileId());
+
+                Files.move(metaTemps[i], fileDir.resolve(staged.getChunkIndex() + ".meta"),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+
+                // Overwrite if chunk exists at directory
+                Files.move(tempPathOf(staged), chunkPath(staged.getFileId(), staged.getChunkIndex()),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+
+                touchedDirs.add(fileDir);
+            }
+
+            // 3) The renames, and the file directories stageChunk may have created
+            if (sync) {
+                for (Path dir : touchedDirs) {
+                    syncDirectory(dir);
+                }
+                syncDirectory(chunksDir);
+            }
+        } finally {
+            for (int i = 0; i < batch.size(); i++) {
+                if (metaTemps[i] != null) {
+                    Files.deleteIfExists(metaTemps[i]);
+                }
+                Files.deleteIfExists(tempPathOf(batch.get(i)));
+            }
+        }
+    }
+
+    /**
+     * Writes a staged chunk's sidecar to a temp file and, with sync, flushes it and the staged bytes.
+     *
+     * @return the sidecar temp file
+     */
+    private Path prepare(StagedChunk staged, boolean sync) throws IOException {
+        Path metaPath = chunksDir.resolve(staged.getFileId()).resolve(staged.getChunkIndex() + ".meta");
+        Path metaTemp = writeInfo(metaPath, staged.getInfo(), sync);
+
+        if (sync) {
+            try (FileChannel data = FileChannel.open(tempPathOf(staged), StandardOpenOption.WRITE)) {
+                data.force(false);
+            }
+        }
+        return metaTemp;
+    }
+
+    private static void awaitAll(List<Future<Void>> futures) throws IOException {
+        IOException failure = null;
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted syncing chunks");
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = (e.getCause() instanceof IOException io) ? io : new IOException(e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static ChunkInfo await(CompletableFuture<ChunkInfo> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for chunk commit");
+        } catch (ExecutionException e) {
+            Throwable cause = (e.getCause() instanceof CompletionException) ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static void syncDirectory(Path dir) throws IOException {
+        try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        }
+    }
+
+    // .meta sidecar: [4 bytes version][8 bytes length][8 bytes checksum][1 byte codec id][8 bytes raw length]
+    // (version 1 ends after the checksum)
+
+    /**
+     * Writes a sidecar to a temp file next to metaPath, flushed to disk if sync.
+     *
+     * @return the temp file, to be moved to metaPath
+     */
+    private static Path writeInfo(Path metaPath, ChunkInfo info, boolean sync) throws IOException {
+        Path tempPath = metaPath.resolveSibling(metaPath.getFileName() + "." + UUID.randomUUID() + ".tmp");
+
+        boolean written = false;
+        try {
+            try (FileChannel out = FileChannel.open(tempPath,
+                    StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(29)
+                        .putInt(META_VERSION)
+                        .putLong(info.getLength())
+                        .putLong(info.getChecksum())
+                        .put((byte) info.getCodec().getId())
+                        .putLong(info.getRawLength())
+                        .flip();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                if (sync) {
+                    out.force(false);
+                }
+            }
+            written = true;
+            return tempPath;
+        } finally {
+            if (!written) {
+                Files.deleteIfExists(tempPath);
+            }
+        }
+    }
+
+    private static ChunkInfo readInfo(Path metaPath) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(metaPath))) {
+            int version = in.readInt();
+            if (version != 1 && version != META_VERSION) {
+                return null;
+            }
+            long length = in.readLong();
+            long checksum = in.readLong();
+            if (version == 1) {
+                return new ChunkInfo(length, checksum);
+            }
+            return new ChunkInfo(length, checksum, ChunkCodec.fromId(in.readUnsignedByte()), in.readLong());
+        } catch (NoSuchFileException | EOFException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unreadable chunk metadata " + metaPath + ": " + e.getMessage(), e);
+        }
+    }
+
+    /** A chunk received into a temporary file next to its final name. */
+    private static final class StagedFile extends StagedChunk {
+
+        private final Path tempPath;
+
+        StagedFile(String fileId, int chunkIndex, Path tempPath, ChunkInfo info) {
+            super(fileId, chunkIndex, info);
+            this.tempPath = tempPath;
+        }
+    }
 }
@@ -0,0 +1,126 @@
+package com.leo.dfss.domain;
+
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * SHA-256 of a chunk's bytes, the identity of a chunk in deduplicated files. Two chunks with the
+ * same hash are treated as the same chunk and stored once, on the nodes under chunkKey() with
+ * chunk index 0.
+ *
+ * Held as four longs rather than a byte[] or hex string: the coordinator keeps one per stored
+ * chunk, and this is both the smallest form and the cheapest to hash and compare.
+ */
+public final class ContentHash {
+
+    public static final int BYTES = 32;
+
+    // Node-side fileId prefix of content-addressed chunks
+    public static final String KEY_PREFIX = "sha256-";
+
+    // Heap, not direct: MessageDigest copies a direct buffer onto the heap before digesting it
+    private static final int READ_BUFFER_BYTES = 256 * 1024;
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(READ_BUFFER_BYTES));
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final long h0;
+    private final long h1;
+    private final long h2;
+    private final long h3;
+
+    private ContentHash(long h0, long h1, long h2, long h3) {
+        this.h0 = h0;
+        this.h1 = h1;
+        this.h2 = h2;
+        this.h3 = h3;
+    }
+
+    /** @param digest 32-byte SHA-256 digest */
+    public static ContentHash of(byte[] digest) {
+        if (digest.length != BYTES) {
+            throw new IllegalArgumentException("A content hash is " + BYTES + " bytes, not " + digest.length);
+        }
+        return read(ByteBuffer.wrap(digest));
+    }
+
+    /** Reads a hash written by writeTo. */
+    public static ContentHash read(ByteBuffer in) {
+        return new ContentHash(in.getLong(), in.getLong(), in.getLong(), in.getLong());
+    }
+
+    /**
+     * @param hex 64 hex digits, as sent in CHUNK_HAVE and FILES_INIT_REQUEST
+     * @throws IllegalArgumentException if it is not a hash
+     */
+    public static ContentHash fromHex(String hex) {
+        if (hex == null || hex.length() != 2 * BYTES) {
+            throw new IllegalArgumentException("A content hash is " + (2 * BYTES) + " hex digits");
+        }
+        return of(HEX.parseHex(hex));
+    }
+
+    /** @return SHA-256 of a region of a file, read with positional reads */
+    public static ContentHash sha256(FileChannel file, long position, long length) throws IOException {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = READ_BUFFER.get();
+        long done = 0;
+        while (done < length) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), length - done));
+            int n = file.read(buffer, position + done);
+            if (n < 0) {
+                throw new EOFException("File ended after " + done + " of " + length + " bytes");
+            }
+            digest.update(buffer.array(), 0, n);
+            done += n;
+        }
+        return of(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e); // every JDK has it
+        }
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeLong(h0);
+        out.writeLong(h1);
+        out.writeLong(h2);
+        out.writeLong(h3);
+    }
+
+    public String toHex() {
+        return HEX.toHexDigits(h0) + HEX.toHexDigits(h1) + HEX.toHexDigits(h2) + HEX.toHexDigits(h3);
+    }
+
+    /** @return the fileId the chunk is stored under on the nodes (at chunk index 0) */
+    public String chunkKey() {
+        return KEY_PREFIX + toHex();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ContentHash other
+                && h0 == other.h0 && h1 == other.h1 && h2 == other.h2 && h3 == other.h3;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) h0; // already uniformly distributed
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+}
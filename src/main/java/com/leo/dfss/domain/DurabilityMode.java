@@ -0,0 +1,26 @@
+package com.leo.dfss.domain;
+
+/**
+ * When ChunkStore considers a committed chunk durable, i.e. when the node may acknowledge it.
+ */
+public enum DurabilityMode {
+    NONE,           // no fsync: the chunk is acked once it is in the page cache
+    PER_CHUNK,      // every commit syncs its own chunk before returning
+    GROUP_COMMIT;   // commits from all connections are synced together in batches (see GroupCommitter)
+
+    /**
+     * Parses a mode from configuration, e.g. -Ddfss.node.durability=group.
+     *
+     * @param value mode name, case-insensitive; "none", "chunk" and "group" are accepted as short forms
+     * @return the mode (GROUP_COMMIT if value is null or blank)
+     */
+    public static DurabilityMode fromName(String value) {
+        if (value == null || value.isBlank() || value.equalsIgnoreCase("group")) {
+            return GROUP_COMMIT;
+        }
+        if (value.equalsIgnoreCase("chunk")) {
+            return PER_CHUNK;
+        }
+        return DurabilityMode.valueOf(value.trim().toUpperCase());
+    }
+}
@@ -1,6 +1,11 @@
 package com.leo.dfss.domain;
 
+import com.leo.dfss.erasure.StripeLayout;
+
 import java.time.Instant;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Represents the file metadata tracked by the Coordinator for each file being uploaded/stored.
@@ -14,22 +19,57 @@ public class FileMetadata {
         COMPLETE        // Upload complete
     }
 
+    public enum StorageMode {
+        REPLICATED,     // every chunk stored whole on replicationFactor nodes
+        ERASURE_CODED   // stripes of chunks stored as Reed-Solomon data + parity shards
+    }
+
     private final String fileId;
     private final String fileName;
     private final long totalSizeBytes;
-    private final int chunkSizeBytes;
-    private final int totalChunks;
+    private final int chunkSizeBytes;   // size of every chunk but the last, or the largest chunk if sizes vary
+    private final int totalChunks;      // of fixed-size chunks; see getTotalChunks()
     private final Instant createdAt;
 
+    private static final AtomicReferenceFieldUpdater<FileMetadata, Status> STATUS =
+            AtomicReferenceFieldUpdater.newUpdater(FileMetadata.class, Status.class, "status");
+
     private volatile Status status = Status.INIT;
 
+    // Upload plan: nodes of every stored chunk index (replication chain order), set when the file is initialised
+    private volatile ChunkLocations chunkLocations;
+    private volatile int replicationFactor = 1;
+    private volatile int writeQuorum = 1;
+
+    // Erasure coding: the layout of the stored shards, null for replicated files
+    private volatile StripeLayout stripeLayout;
+
+    // Content-defined chunking: start offset of every chunk then totalSizeBytes, null for fixed-size chunks
+    private volatile long[] chunkOffsets;
+
+    // Deduplication: content hash per chunk, null for files whose chunks are stored under the fileId
+    private volatile ContentHash[] chunkHashes;
+
+    // Deduplication: chunks this file does not upload, because their content was already stored
+    // when the file was initialised or repeats an earlier chunk of the file
+    private volatile BitSet sharedChunks = new BitSet();
+
+    // Resumable uploads: stored chunk indexes the client has reported as acknowledged by their nodes
+    private final ReentrantLock uploadLock = new ReentrantLock();
+    private BitSet uploadedChunks = new BitSet(); // guarded by uploadLock
+
     public FileMetadata(String fileId, String fileName, long totalSizeBytes, int chunkSizeBytes) {
+        this(fileId, fileName, totalSizeBytes, chunkSizeBytes, Instant.now());
+    }
+
+    /** Restores a record with its original creation time (e.g. from the coordinator's metadata log). */
+    public FileMetadata(String fileId, String fileName, long totalSizeBytes, int chunkSizeBytes, Instant createdAt) {
         this.fileId = fileId;
         this.fileName = fileName;
         this.totalSizeBytes = totalSizeBytes;
         this.chunkSizeBytes = chunkSizeBytes;
         this.totalChunks = calculateTotalChunks(totalSizeBytes, chunkSizeBytes);
-        this.createdAt = Instant.now();
+        this.createdAt = createdAt;
     }
 
     private int calculateTotalChunks(long totalSizeBytes, int chunkSizeBytes) {
@@ -58,7 +98,213 @@ public class FileMetadata {
     }
 
     public int getTotalChunks() {
-        return totalChunks;
+        long[] offsets = chunkOffsets;
+        return (offsets == null) ? totalChunks : offsets.length - 1;
+    }
+
+    /**
+     * @param chunkIndex chunk number
+     * @return offset of that chunk in the file
+     */
+    public long getChunkOffset(int chunkIndex) {
+        long[] offsets = chunkOffsets;
+        return (offsets == null) ? (long) chunkIndex * chunkSizeBytes : offsets[chunkIndex];
+    }
+
+    /**
+     * @param chunkIndex chunk number
+     * @return length of that chunk (the last chunk may be shorter than chunkSizeBytes)
+     */
+    public long getChunkLength(int chunkIndex) {
+        long[] offsets = chunkOffsets;
+        if (offsets != null) {
+            return offsets[chunkIndex + 1] - offsets[chunkIndex];
+        }
+        long start = (long) chunkIndex * chunkSizeBytes;
+        return Math.min(chunkSizeBytes, totalSizeBytes - start);
+    }
+
+    /** @return true if chunk sizes vary (content-defined chunking) rather than all being chunkSizeBytes */
+    public boolean hasVariableChunks() {
+        return chunkOffsets != null;
+    }
+
+    public long[] getChunkOffsets() {
+        return chunkOffsets;
+    }
+
+    /**
+     * Describes the file as variable-size chunks instead of fixed chunkSizeBytes ones. Must be set
+     * before the chunk hashes or the placement plan.
+     *
+     * @param chunkOffsets start offset of every chunk followed by totalSizeBytes; no chunk may be
+     *                     empty or longer than chunkSizeBytes
+     */
+    public void setChunkOffsets(long[] chunkOffsets) {
+        if (chunkOffsets != null) {
+            if (chunkOffsets.length == 0 || chunkOffsets[0] != 0
+                    || chunkOffsets[chunkOffsets.length - 1] != totalSizeBytes) {
+                throw new IllegalArgumentException("Chunk offsets must run from 0 to totalSizeBytes");
+            }
+            for (int i = 1; i < chunkOffsets.length; i++) {
+                long length = chunkOffsets[i] - chunkOffsets[i - 1];
+                if (length <= 0 || length > chunkSizeBytes) {
+                    throw new IllegalArgumentException("Chunk " + (i - 1) + " is " + length
+                            + " bytes, must be 1 to " + chunkSizeBytes);
+                }
+            }
+        }
+        this.chunkOffsets = chunkOffsets;
+    }
+
+    public StorageMode getStorageMode() {
+        return (stripeLayout == null) ? StorageMode.REPLICATED : StorageMode.ERASURE_CODED;
+    }
+
+    public StripeLayout getStripeLayout() {
+        return stripeLayout;
+    }
+
+    /**
+     * Stores the file as Reed-Solomon stripes instead of replicated chunks.
+     *
+     * @param dataShards chunks per stripe
+     * @param parityShards parity shards per stripe
+     */
+    public void setErasureCoding(int dataShards, int parityShards) {
+        this.stripeLayout = new StripeLayout(totalSizeBytes, chunkSizeBytes, dataShards, parityShards);
+    }
+
+    /** @return number of chunk indexes stored on nodes: totalChunks, or the shard count when erasure coded */
+    public int getStoredChunkCount() {
+        StripeLayout layout = stripeLayout;
+        return (layout == null) ? getTotalChunks() : layout.getShardCount();
+    }
+
+    /**
+     * @param storedIndex chunk index as stored on the nodes
+     * @return bytes stored under that index
+     */
+    public long getStoredChunkLength(int storedIndex) {
+        StripeLayout layout = stripeLayout;
+        return (layout == null) ? getChunkLength(storedIndex) : layout.shardLength(storedIndex);
+    }
+
+    /** @return true if the chunks are content-addressed (stored once per distinct content hash) */
+    public boolean isDeduplicated() {
+        return chunkHashes != null;
+    }
+
+    public ContentHash[] getChunkHashes() {
+        return chunkHashes;
+    }
+
+    /** @param chunkHashes content hash of every chunk, in chunk order */
+    public void setChunkHashes(ContentHash[] chunkHashes) {
+        if (chunkHashes != null && chunkHashes.length != getTotalChunks()) {
+            throw new IllegalArgumentException("Expected " + getTotalChunks() + " chunk hashes, got " + chunkHashes.length);
+        }
+        this.chunkHashes = chunkHashes;
+    }
+
+    /**
+     * @return true if the chunk's content is uploaded by another file or another chunk of this
+     *         one, so the file's plan holds no reservation for it
+     */
+    public boolean isSharedChunk(int chunkIndex) {
+        return sharedChunks.get(chunkIndex);
+    }
+
+    public BitSet getSharedChunks() {
+        return sharedChunks;
+    }
+
+    public void setSharedChunks(BitSet sharedChunks) {
+        this.sharedChunks = sharedChunks;
+    }
+
+    /**
+     * Records stored chunks (shards when erasure coded) as uploaded.
+     *
+     * @param storedIndexes stored chunk indexes, each 0 to getStoredChunkCount() - 1
+     * @return number of chunks not recorded before
+     */
+    public int markChunksUploaded(int[] storedIndexes) {
+        uploadLock.lock();
+        try {
+            int before = uploadedChunks.cardinality();
+            for (int storedIndex : storedIndexes) {
+                uploadedChunks.set(storedIndex);
+            }
+            return uploadedChunks.cardinality() - before;
+        } finally {
+            uploadLock.unlock();
+        }
+    }
+
+    /**
+     * @return stored chunk indexes still to upload: neither reported uploaded, nor shared with
+     *         stored content, nor empty shards; none once the file is COMPLETE
+     */
+    public int[] getMissingChunks() {
+        if (status == Status.COMPLETE) {
+            return new int[0];
+        }
+        BitSet missing = presentChunks();
+        missing.flip(0, getStoredChunkCount());
+        return missing.stream().toArray();
+    }
+
+    /** @return number of getMissingChunks(), without listing them */
+    public int getMissingChunkCount() {
+        if (status == Status.COMPLETE) {
+            return 0;
+        }
+        return getStoredChunkCount() - presentChunks().cardinality();
+    }
+
+    /** @return stored chunk indexes that need no upload (any past the stored count cleared) */
+    private BitSet presentChunks() {
+        BitSet present;
+        uploadLock.lock();
+        try {
+            present = (BitSet) uploadedChunks.clone();
+        } finally {
+            uploadLock.unlock();
+        }
+        present.or(sharedChunks);
+
+        // Data shards past the end of an erasure-coded file are empty and never stored
+        StripeLayout layout = stripeLayout;
+        int stored = getStoredChunkCount();
+        if (layout != null) {
+            for (int shardIndex = Math.max(0, stored - layout.getShardsPerStripe()); shardIndex < stored; shardIndex++) {
+                if (layout.shardLength(shardIndex) == 0) {
+                    present.set(shardIndex);
+                }
+            }
+        }
+        present.clear(stored, Math.max(stored, present.length()));
+        return present;
+    }
+
+    /** @return a copy of the stored chunk indexes reported as uploaded */
+    public BitSet getUploadedChunks() {
+        uploadLock.lock();
+        try {
+            return (BitSet) uploadedChunks.clone();
+        } finally {
+            uploadLock.unlock();
+        }
+    }
+
+    public void setUploadedChunks(BitSet uploadedChunks) {
+        uploadLock.lock();
+        try {
+            this.uploadedChunks = (BitSet) uploadedChunks.clone();
+        } finally {
+            uploadLock.unlock();
+        }
     }
 
     public Instant getCreatedAt() {
@@ -73,6 +319,41 @@ public class FileMetadata {
         this.status = status;
     }
 
+    /**
+     * Changes the status only if it is still expected, so of several callers racing for the same
+     * transition (e.g. a FILES_COMMIT and its retry) exactly one succeeds.
+     *
+     * @return true if the status was changed
+     */
+    public boolean compareAndSetStatus(Status expected, Status status) {
+        return STATUS.compareAndSet(this, expected, status);
+    }
+
+    /** @return nodes of every stored chunk index, or null before the file is placed */
+    public ChunkLocations getChunkLocations() {
+        return chunkLocations;
+    }
+
+    public void setChunkLocations(ChunkLocations chunkLocations) {
+        this.chunkLocations = chunkLocations;
+    }
+
+    public int getReplicationFactor() {
+        return replicationFactor;
+    }
+
+    public void setReplicationFactor(int replicationFactor) {
+        this.replicationFactor = replicationFactor;
+    }
+
+    public int getWriteQuorum() {
+        return writeQuorum;
+    }
+
+    public void setWriteQuorum(int writeQuorum) {
+        this.writeQuorum = writeQuorum;
+    }
+
     @Override
     public String toString() {
         return "FileMetadata{" +
@@ -80,7 +361,11 @@ public class FileMetadata {
                 "fileName= " + fileName + "\n" +
                 "totalSizeBytes= " + totalSizeBytes + "\n" +
                 "chunkSizeBytes= " + chunkSizeBytes + "\n" +
-                "totalChunks= " + totalChunks + "\n" +
+                "totalChunks= " + getTotalChunks() + (chunkOffsets == null ? "" : " (variable size)") + "\n" +
+                "replicationFactor= " + replicationFactor + "\n" +
+                "storageMode= " + getStorageMode() + (stripeLayout == null ? "" :
+                        " RS(" + stripeLayout.getDataShards() + "," + stripeLayout.getParityShards() + ")") +
+                (chunkHashes == null ? "" : " deduplicated (" + sharedChunks.cardinality() + " chunks shared)") + "\n" +
                 "status= " + status + "\n" +
                 "createdAt= " + createdAt + "}";
     }
@@ -0,0 +1,106 @@
+package com.leo.dfss.domain;
+
+import com.leo.dfss.compression.ChunkCodec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Base for engines that wrap another ChunkStorage to serve reads from memory (MappedChunkStorage,
+ * CachedChunkStorage), or to observe its traffic. Everything is forwarded to the wrapped engine;
+ * commits and deletes also call invalidate once they are done, so the next read sees the new
+ * version.
+ */
+public abstract class ForwardingChunkStorage implements ChunkStorage {
+
+    protected final ChunkStorage delegate;
+
+    protected ForwardingChunkStorage(ChunkStorage delegate) {
+        this.delegate = delegate;
+    }
+
+    /** Drops whatever is held in memory for the chunk. */
+    protected abstract void invalidate(String fileId, int chunkIndex);
+
+    @Override
+    public void open() throws IOException {
+        delegate.open();
+    }
+
+    @Override
+    public StagedChunk stageChunk(String fileId, int chunkIndex, InputStream body, long length,
+                                  ChunkCodec codec, long rawLength) throws IOException {
+        return delegate.stageChunk(fileId, chunkIndex, body, length, codec, rawLength);
+    }
+
+    @Override
+    public ChunkInfo commitChunk(StagedChunk staged) throws IOException {
+        try {
+            return delegate.commitChunk(staged);
+        } finally {
+            invalidate(staged.getFileId(), staged.getChunkIndex());
+        }
+    }
+
+    @Override
+    public CompletableFuture<ChunkInfo> commitChunkAsync(StagedChunk staged) {
+        return delegate.commitChunkAsync(staged)
+                .whenComplete((info, error) -> invalidate(staged.getFileId(), staged.getChunkIndex()));
+    }
+
+    @Override
+    public void discardChunk(StagedChunk staged) throws IOException {
+        delegate.discardChunk(staged);
+    }
+
+    @Override
+    public ChunkRegion openChunk(String fileId, int chunkIndex) throws IOException {
+        return delegate.openChunk(fileId, chunkIndex);
+    }
+
+    @Override
+    public boolean deleteChunk(String fileId, int chunkIndex) throws IOException {
+        try {
+            return delegate.deleteChunk(fileId, chunkIndex);
+        } finally {
+            invalidate(fileId, chunkIndex);
+        }
+    }
+
+    @Override
+    public Boolean chunkExists(String fileId, int chunkIndex) throws IOException {
+        return delegate.chunkExists(fileId, chunkIndex);
+    }
+
+    @Override
+    public DurabilityMode getDurability() {
+        return delegate.getDurability();
+    }
+
+    @Override
+    public SyncStats getSyncStats() {
+        return delegate.getSyncStats();
+    }
+
+    @Override
+    public Path getBaseDir() {
+        return delegate.getBaseDir();
+    }
+
+    /** @return the engine storing the chunks */
+    public ChunkStorage getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    /** @return cache key of a chunk */
+    protected static String key(String fileId, int chunkIndex) {
+        return fileId + "/" + chunkIndex;
+    }
+}
@@ -0,0 +1,84 @@
+package com.leo.dfss.domain;
+
+/**
+ * Approximate access counts for ChunkCache admission (the TinyLFU sketch): a count-min sketch of
+ * 4-bit counters, 16 per long, with four counters per key. When the number of recorded accesses
+ * reaches the sample size, every counter is halved, so the counts follow recent popularity
+ * rather than all-time popularity.
+ *
+ * Not thread-safe: ChunkCache calls it under its lock.
+ */
+final class FrequencySketch {
+
+    private static final long RESET_MASK = 0x7777_7777_7777_7777L;
+    private static final long[] SEEDS = {
+            0xC3A5_C85C_97CB_3127L, 0xB492_B66F_BE98_F273L, 0x9AE1_6A3B_2F90_404FL, 0xCBF2_9CE4_8422_2325L};
+
+    private final long[] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * @param expectedEntries number of keys the cache is expected to hold
+     */
+    FrequencySketch(int expectedEntries) {
+        int length = Integer.highestOneBit(Math.max(64, Math.min(expectedEntries, 1 << 26)) - 1) << 1;
+        this.table = new long[length];
+        this.mask = length - 1;
+        this.sampleSize = 10 * length;
+    }
+
+    /** @return the estimated number of recent accesses to the key, at most 15 */
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = 15;
+        for (int i = 0; i < 4; i++) {
+            long h = hash * SEEDS[i];
+            frequency = Math.min(frequency, (int) ((table[index(h)] >>> shift(h)) & 0xF));
+        }
+        return frequency;
+    }
+
+    /** Records one access to the key. */
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            long h = hash * SEEDS[i];
+            int index = index(h);
+            int shift = shift(h);
+            if (((table[index] >>> shift) & 0xF) < 15) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    /** Halves every counter (aging). */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private int index(long h) {
+        return (int) (h >>> 32) & mask;
+    }
+
+    private static int shift(long h) {
+        return (int) ((h >>> 28) & 0xF) << 2;
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 17;
+        hash *= 0xED5A_D4BB;
+        hash ^= hash >>> 11;
+        hash *= 0xAC4C_1B51;
+        return hash ^ (hash >>> 15);
+    }
+}
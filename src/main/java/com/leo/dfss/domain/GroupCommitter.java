@@ -0,0 +1,180 @@
+package com.leo.dfss.domain;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group commit for a ChunkStore: callers from any thread queue an item and get a future, while one
+ * syncer thread collects queued items into a batch and makes the whole batch durable in one sync
+ * cycle, then completes every future of the batch.
+ *
+ * A batch is closed when it holds maxBatch items or maxDelay has passed since its first item,
+ * whichever comes first. With maxDelay 0 the syncer takes only what queued up while the previous
+ * cycle ran, so an idle store adds no latency and a busy one still batches.
+ *
+ * @param <T> what the store needs to make one item durable (e.g. a staged chunk)
+ */
+final class GroupCommitter<T> implements AutoCloseable {
+
+    /** Makes a batch of items durable; a failure fails every item of the batch. */
+    @FunctionalInterface
+    interface BatchSync<T> {
+        void sync(List<T> batch) throws IOException;
+    }
+
+    private final BatchSync<T> batchSync;
+    private final int maxBatch;
+    private final long maxDelayNanos;
+    private final SyncStats stats;
+
+    private final BlockingQueue<Pending<T>> queue = new LinkedBlockingQueue<>();
+    private final Thread syncThread;
+
+    private volatile boolean closed;
+
+    private static final class Pending<T> {
+        final T item;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(T item) {
+            this.item = item;
+        }
+    }
+
+    private final Pending<T> stop = new Pending<>(null);
+
+    /**
+     * Starts the syncer thread.
+     *
+     * @param batchSync makes a batch durable
+     * @param maxBatch most items per sync cycle
+     * @param maxDelayMicros longest a batch waits for more items after its first one
+     * @param stats where batch sizes and sync latencies are recorded
+     * @param threadName name of the syncer thread
+     */
+    GroupCommitter(BatchSync<T> batchSync, int maxBatch, long maxDelayMicros, SyncStats stats, String threadName) {
+        if (maxBatch <= 0) {
+            throw new IllegalArgumentException("maxBatch must be greater than 0");
+        }
+        if (maxDelayMicros < 0) {
+            throw new IllegalArgumentException("maxDelayMicros cannot be negative");
+        }
+        this.batchSync = batchSync;
+        this.maxBatch = maxBatch;
+        this.maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+        this.stats = stats;
+
+        this.syncThread = new Thread(this::syncLoop, threadName);
+        this.syncThread.setDaemon(true);
+        this.syncThread.start();
+    }
+
+    /**
+     * Queues an item for the next sync cycle.
+     *
+     * @return completes once the item's batch is durable, or exceptionally with the sync's IOException
+     */
+    CompletableFuture<Void> submit(T item) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IOException("Chunk store is closed"));
+        }
+        Pending<T> pending = new Pending<>(item);
+        queue.add(pending);
+        return pending.done;
+    }
+
+    private void syncLoop() {
+        List<Pending<T>> batch = new ArrayList<>(maxBatch);
+        List<T> items = new ArrayList<>(maxBatch);
+        boolean stopping = false;
+
+        while (!stopping) {
+            try {
+                collect(batch);
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            items.clear();
+            for (Pending<T> pending : batch) {
+                if (pending == stop) {
+                    stopping = true; // sync what came before it, then exit
+                } else {
+                    items.add(pending.item);
+                }
+            }
+
+            if (!items.isEmpty()) {
+                long start = System.nanoTime();
+                IOException failure = null;
+                try {
+                    batchSync.sync(items);
+                } catch (IOException | RuntimeException e) {
+                    failure = (e instanceof IOException io) ? io : new IOException("Sync failed", e);
+                }
+                if (failure == null) {
+                    stats.record(items.size(), System.nanoTime() - start);
+                }
+
+                for (Pending<T> pending : batch) {
+                    if (failure == null) {
+                        pending.done.complete(null);
+                    } else {
+                        pending.done.completeExceptionally(failure);
+                    }
+                }
+            }
+            batch.clear();
+        }
+
+        // Anything queued after close
+        IOException closedError = new IOException("Chunk store is closed");
+        for (Pending<T> pending : batch) {
+            pending.done.completeExceptionally(closedError);
+        }
+        Pending<T> pending;
+        while ((pending = queue.poll()) != null) {
+            pending.done.completeExceptionally(closedError);
+        }
+    }
+
+    /** Blocks for the first item, then gathers more until the batch is full or its delay is up. */
+    private void collect(List<Pending<T>> batch) throws InterruptedException {
+        batch.add(queue.take());
+        queue.drainTo(batch, maxBatch - batch.size());
+
+        long deadline = System.nanoTime() + maxDelayNanos;
+        while (batch.size() < maxBatch && batch.get(batch.size() - 1) != stop) {
+            long wait = deadline - System.nanoTime();
+            if (wait <= 0) {
+                return;
+            }
+            Pending<T> next = queue.poll(wait, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+            queue.drainTo(batch, maxBatch - batch.size());
+        }
+    }
+
+    /** Syncs everything already queued, fails anything queued later and stops the syncer thread. */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queue.add(stop);
+        try {
+            syncThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.leo.dfss.domain;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Serves chunk reads of another ChunkStorage engine from memory-mapped regions kept in a
+ * MappedRegionCache, so a hot chunk costs neither an open() nor a page cache copy per request:
+ * the socket write reads straight from the mapping.
+ *
+ * Writes go to the wrapped engine unchanged; commits and deletes drop the chunk's mapping, so the
+ * next read maps the new version. Mappings stay valid after the engine replaces or deletes the
+ * file behind them (both engines only ever rename, append or unlink, never truncate in place).
+ */
+public class MappedChunkStorage extends ForwardingChunkStorage {
+
+    private final MappedRegionCache cache;
+
+    /**
+     * @param delegate engine storing the chunks
+     * @param maxBytes most bytes kept mapped
+     * @param maxChunks most chunks kept mapped
+     */
+    public MappedChunkStorage(ChunkStorage delegate, long maxBytes, long maxChunks) {
+        super(delegate);
+        this.cache = new MappedRegionCache(maxBytes, maxChunks);
+    }
+
+    @Override
+    public ChunkRegion openChunk(String fileId, int chunkIndex) throws IOException {
+        CachedChunk chunk = cache.acquire(key(fileId, chunkIndex), () -> map(fileId, chunkIndex));
+        return (chunk != null) ? chunk.toRegion() : null;
+    }
+
+    /**
+     * Maps a chunk from the wrapped engine's region, checking it against its stored CRC32C. The
+     * engine's region is closed right after.
+     */
+    private CachedChunk map(String fileId, int chunkIndex) throws IOException {
+        try (ChunkRegion source = delegate.openChunk(fileId, chunkIndex)) {
+            if (source == null) {
+                return null;
+            }
+            MappedByteBuffer buffer = source.getChannel()
+                    .map(FileChannel.MapMode.READ_ONLY, source.getPosition(), source.getLength());
+            CachedChunk chunk = new CachedChunk(buffer, source.getInfo());
+            try {
+                // Faulting the pages in is the disk read; check the bytes on that pass
+                Checksums.verify(fileId, chunkIndex, source.getInfo().getChecksum(), Checksums.crc32c(buffer));
+            } catch (IOException e) {
+                chunk.release();
+                throw e;
+            }
+            return chunk;
+        }
+    }
+
+    @Override
+    protected void invalidate(String fileId, int chunkIndex) {
+        cache.invalidate(key(fileId, chunkIndex));
+    }
+
+    /** @return hit, miss and eviction counts of the mapped chunks */
+    public MappedRegionCache getCache() {
+        return cache;
+    }
+
+    @Override
+    public void close() {
+        cache.close();
+        super.close();
+    }
+}
@@ -0,0 +1,193 @@
+package com.leo.dfss.domain;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded LRU cache of memory-mapped chunks, limited by mapped bytes and by number of mappings
+ * (each one is a kernel VMA, and vm.max_map_count is finite).
+ *
+ * Mappings are unmapped deterministically rather than whenever the GC collects the buffer: see
+ * CachedChunk. A chunk is unmapped as soon as it has been evicted or invalidated and its last
+ * reader has released it.
+ */
+public class MappedRegionCache implements AutoCloseable {
+
+    public static final long DEFAULT_MAX_CHUNKS = 16_384;
+
+    private final long maxBytes;
+    private final long maxChunks;
+
+    // Access-ordered: iteration starts at the least recently used chunk
+    private final LinkedHashMap<Object, CachedChunk> chunks = new LinkedHashMap<>(256, 0.75f, true);
+    private final ReentrantLock lock = new ReentrantLock();
+    private long mappedBytes; // guarded by lock
+
+    // Bumped by every invalidation; a chunk mapped across one is not cached (it may be stale)
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /** Maps a chunk on a cache miss. */
+    @FunctionalInterface
+    public interface Mapper {
+        /** @return the mapped chunk, or null if there is nothing to map (e.g. no such chunk) */
+        CachedChunk map() throws IOException;
+    }
+
+    /**
+     * @param maxBytes most bytes kept mapped
+     * @param maxChunks most chunks kept mapped
+     */
+    public MappedRegionCache(long maxBytes, long maxChunks) {
+        if (maxBytes <= 0 || maxChunks <= 0) {
+            throw new IllegalArgumentException("maxBytes and maxChunks must be greater than 0");
+        }
+        this.maxBytes = maxBytes;
+        this.maxChunks = maxChunks;
+    }
+
+    /**
+     * Returns the cached chunk for key, mapping it on a miss. The mapping happens outside the
+     * cache lock, so a slow fault-in never blocks hits on other keys.
+     *
+     * @return the chunk with a reference held for the caller (release it when done), or null if
+     *         the mapper found nothing to map
+     */
+    public CachedChunk acquire(Object key, Mapper mapper) throws IOException {
+        lock.lock();
+        try {
+            CachedChunk cached = chunks.get(key);
+            if (cached != null && cached.acquire()) {
+                hits.increment();
+                return cached;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        misses.increment();
+        long generation = invalidations.get();
+        CachedChunk mapped = mapper.map();
+        if (mapped == null) {
+            return null;
+        }
+        if (mapped.length() > maxBytes) {
+            return mapped; // too big to keep: unmapped when the caller releases it
+        }
+
+        lock.lock();
+        try {
+            CachedChunk cached = chunks.get(key);
+            if (cached != null && cached.acquire()) {
+                mapped.release(); // another reader mapped it first
+                return cached;
+            }
+            if (invalidations.get() != generation) {
+                return mapped; // may predate a write to the chunk: serve it once, do not keep it
+            }
+
+            mapped.acquire(); // the cache's reference
+            CachedChunk previous = chunks.put(key, mapped);
+            if (previous != null) {
+                mappedBytes -= previous.length();
+                previous.release();
+            }
+            mappedBytes += mapped.length();
+            evictOverflow();
+            return mapped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Drops the cached chunk for key, e.g. after the chunk was rewritten or deleted. */
+    public void invalidate(Object key) {
+        invalidations.incrementAndGet();
+        lock.lock();
+        try {
+            CachedChunk chunk = chunks.remove(key);
+            if (chunk != null) {
+                mappedBytes -= chunk.length();
+                chunk.release();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Caller holds lock. */
+    private void evictOverflow() {
+        Iterator<Map.Entry<Object, CachedChunk>> eldest = chunks.entrySet().iterator();
+        while ((mappedBytes > maxBytes || chunks.size() > maxChunks) && eldest.hasNext()) {
+            CachedChunk chunk = eldest.next().getValue();
+            eldest.remove();
+            mappedBytes -= chunk.length();
+            chunk.release();
+            evictions.increment();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getMappedBytes() {
+        lock.lock();
+        try {
+            return mappedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getChunkCount() {
+        lock.lock();
+        try {
+            return chunks.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Unmaps every chunk no reader is using; the others are unmapped as their readers finish. */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            for (CachedChunk chunk : chunks.values()) {
+                chunk.release();
+            }
+            chunks.clear();
+            mappedBytes = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MappedRegionCache{" +
+                "chunks=" + getChunkCount() +
+                ", mappedBytes=" + getMappedBytes() +
+                ", hits=" + getHits() +
+                ", misses=" + getMisses() +
+                ", evictions=" + getEvictions() +
+                '}';
+    }
+}
@@ -0,0 +1,74 @@
+package com.leo.dfss.domain;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Interns node ids to small ints (0 to MAX_NODES - 1), so chunk locations can store a 2-byte
+ * reference per replica instead of a String pointer. References are handed out in order and never
+ * reused; a node that leaves keeps its reference. Nodes keep their id across restarts (NodeServer
+ * stores it in its data dir), and a recovering coordinator interns only the nodes chunk locations
+ * still refer to, so the table grows with the nodes that have held chunks, not with restarts.
+ *
+ * Looking up an id by reference is a plain array read with no lock; interning a new id takes a
+ * lock and publishes the grown array.
+ */
+public final class NodeIdTable {
+
+    /** References must fit in the 16 bits ChunkLocations stores per replica. */
+    public static final int MAX_NODES = 0xFFFF;
+
+    private final Map<String, Integer> refs = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Reference -> node id; replaced, never changed in place, once a reference is visible in refs
+    private volatile String[] ids = new String[16];
+    private int size; // guarded by lock
+
+    /**
+     * @return the reference of a node id, assigning the next one if the id is new
+     * @throws IllegalStateException if MAX_NODES ids are interned already
+     */
+    public int intern(String nodeId) {
+        Integer ref = refs.get(nodeId);
+        if (ref != null) {
+            return ref;
+        }
+
+        lock.lock();
+        try {
+            ref = refs.get(nodeId);
+            if (ref != null) {
+                return ref;
+            }
+            if (size == MAX_NODES) {
+                throw new IllegalStateException("More than " + MAX_NODES + " node ids");
+            }
+            String[] grown = Arrays.copyOf(ids, (size == ids.length) ? size * 2 : ids.length);
+            grown[size] = nodeId;
+            ids = grown;
+            refs.put(nodeId, size);
+            return size++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return the node id of a reference returned by intern */
+    public String nodeId(int ref) {
+        return ids[ref];
+    }
+
+    /** @return the reference of a node id, or -1 if it was never interned */
+    public int find(String nodeId) {
+        Integer ref = refs.get(nodeId);
+        return (ref == null) ? -1 : ref;
+    }
+
+    /** @return node ids interned so far */
+    public int size() {
+        return refs.size();
+    }
+}
@@ -1,5 +1,7 @@
 package com.leo.dfss.domain;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Represents a storage node registered with the Coordinator.
  */
@@ -17,6 +19,29 @@ public class NodeInfo {
 
     private volatile long lastSeenEpochMs;
     private volatile Status status;
+    private volatile boolean suspect; // UP, but heartbeats late enough that placement avoids it
+
+    // Load inputs for chunk placement
+    private volatile long freeBytes;                              // as last reported by the node
+    private final AtomicLong inFlightBytes = new AtomicLong();    // placed but not yet committed
+
+    // Load as last reported by the node (rates over its last heartbeat interval)
+    private volatile long usedBytes;
+    private volatile int activeConnections;
+    private volatile long diskReadBytesPerSec;
+    private volatile long diskWriteBytesPerSec;
+    private volatile long netInBytesPerSec;
+    private volatile long netOutBytesPerSec;
+
+    // Chunk reports: sequence of the last heartbeat applied, chunks added minus removed since
+    private volatile long lastReportSequence;
+    private final AtomicLong reportedChunks = new AtomicLong();
+
+    // Chunk cache counters as last reported by the node
+    private volatile long cacheHits;
+    private volatile long cacheMisses;
+    private volatile long cacheEvictions;
+    private volatile long cacheBytes;
 
     public NodeInfo(String nodeId,
                     String host,
@@ -30,6 +55,7 @@ public class NodeInfo {
         this.capacityBytes = capacityBytes;
         this.lastSeenEpochMs = lastSeenEpochMs;
         this.status = Status.UP;
+        this.freeBytes = capacityBytes; // until the first heartbeat says otherwise
     }
 
     // Getters
@@ -58,6 +84,78 @@ public class NodeInfo {
         return status;
     }
 
+    /** @return whether the failure detector suspects the node: still UP, but its heartbeats are late */
+    public boolean isSuspect() {
+        return suspect;
+    }
+
+    public long getFreeBytes() {
+        return freeBytes;
+    }
+
+    public long getInFlightBytes() {
+        return inFlightBytes.get();
+    }
+
+    /** @return free space not already promised to in-flight uploads */
+    public long getAvailableBytes() {
+        return freeBytes - inFlightBytes.get();
+    }
+
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public int getActiveConnections() {
+        return activeConnections;
+    }
+
+    public long getDiskReadBytesPerSec() {
+        return diskReadBytesPerSec;
+    }
+
+    public long getDiskWriteBytesPerSec() {
+        return diskWriteBytesPerSec;
+    }
+
+    public long getNetInBytesPerSec() {
+        return netInBytesPerSec;
+    }
+
+    public long getNetOutBytesPerSec() {
+        return netOutBytesPerSec;
+    }
+
+    /** @return bytes per second the node is taking in: chunks arriving or being written, whichever is more */
+    public long getIngestBytesPerSec() {
+        return Math.max(netInBytesPerSec, diskWriteBytesPerSec);
+    }
+
+    public long getLastReportSequence() {
+        return lastReportSequence;
+    }
+
+    /** @return chunks the node reported stored minus those it reported removed, since it was registered */
+    public long getReportedChunks() {
+        return reportedChunks.get();
+    }
+
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    public long getCacheEvictions() {
+        return cacheEvictions;
+    }
+
+    public long getCacheBytes() {
+        return cacheBytes;
+    }
+
     // State updates
 
     public void updateHeartbeat(long epochMs) {
@@ -65,8 +163,49 @@ public class NodeInfo {
         this.status = Status.UP;
     }
 
+    public void setSuspect(boolean suspect) {
+        this.suspect = suspect;
+    }
+
+    public void setFreeBytes(long freeBytes) {
+        this.freeBytes = freeBytes;
+    }
+
+    public void setLoadStats(long usedBytes, int activeConnections, long diskReadBytesPerSec,
+                             long diskWriteBytesPerSec, long netInBytesPerSec, long netOutBytesPerSec) {
+        this.usedBytes = usedBytes;
+        this.activeConnections = activeConnections;
+        this.diskReadBytesPerSec = diskReadBytesPerSec;
+        this.diskWriteBytesPerSec = diskWriteBytesPerSec;
+        this.netInBytesPerSec = netInBytesPerSec;
+        this.netOutBytesPerSec = netOutBytesPerSec;
+    }
+
+    /**
+     * Records that a heartbeat's chunk report was applied.
+     *
+     * @param sequence the heartbeat's sequence
+     * @param chunkDelta chunks added minus chunks removed
+     */
+    public void reportApplied(long sequence, long chunkDelta) {
+        this.lastReportSequence = sequence;
+        reportedChunks.addAndGet(chunkDelta);
+    }
+
+    public void setCacheStats(long hits, long misses, long evictions, long bytes) {
+        this.cacheHits = hits;
+        this.cacheMisses = misses;
+        this.cacheEvictions = evictions;
+        this.cacheBytes = bytes;
+    }
+
+    public void addInFlightBytes(long bytes) {
+        inFlightBytes.addAndGet(bytes);
+    }
+
     public void markDown() {
         this.status = Status.DOWN;
+        this.suspect = false;
     }
 
     @Override
@@ -76,8 +215,22 @@ public class NodeInfo {
                 "host= " + host + "\n" +
                 "port= " + port + "\n" +
                 "capacityBytes= " + capacityBytes + "\n" +
+                "freeBytes= " + freeBytes + "\n" +
+                "inFlightBytes= " + inFlightBytes.get() + "\n" +
+                "usedBytes= " + usedBytes + "\n" +
+                "activeConnections= " + activeConnections + "\n" +
+                "diskReadBytesPerSec= " + diskReadBytesPerSec + "\n" +
+                "diskWriteBytesPerSec= " + diskWriteBytesPerSec + "\n" +
+                "netInBytesPerSec= " + netInBytesPerSec + "\n" +
+                "netOutBytesPerSec= " + netOutBytesPerSec + "\n" +
+                "reportedChunks= " + reportedChunks.get() + "\n" +
+                "cacheHits= " + cacheHits + "\n" +
+                "cacheMisses= " + cacheMisses + "\n" +
+                "cacheEvictions= " + cacheEvictions + "\n" +
+                "cacheBytes= " + cacheBytes + "\n" +
                 "lastSeenEpochMs= " + lastSeenEpochMs + "\n" +
                 "status= " + status + "\n" +
+                "suspect= " + suspect + "\n" +
                 "}";
     }
 }
@@ -0,0 +1,93 @@
+package com.leo.dfss.domain;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One segment file of a SegmentChunkStore, open for positional reads and writes.
+ *
+ * The channel is shared by every reader of the segment. Readers take a reference (acquire) and
+ * drop it when done (release); once compaction retires the segment, the channel is closed when
+ * the last reference goes, so a deleted segment can still be read by requests already using it.
+ */
+final class Segment {
+
+    final int id;
+    final Path path;
+    final FileChannel channel;
+
+    // Bytes reserved by appends (the file size for segments loaded from disk)
+    volatile long size;
+
+    // Bytes of records the index points to; size - liveBytes is garbage for compaction
+    final AtomicLong liveBytes = new AtomicLong();
+
+    // Appends reserved in this segment and not yet published or dropped
+    final AtomicInteger pending = new AtomicInteger();
+
+    // Whether the segment's directory entry is known to be on disk
+    volatile boolean directorySynced;
+
+    private final AtomicInteger refs = new AtomicInteger(1); // the store's own reference
+
+    private Segment(int id, Path path, FileChannel channel, long size) {
+        this.id = id;
+        this.path = path;
+        this.channel = channel;
+        this.size = size;
+    }
+
+    static Path path(Path dir, int id) {
+        return dir.resolve(String.format("segment-%010d.dat", id));
+    }
+
+    /** Creates a new, empty segment file. */
+    static Segment create(Path dir, int id) throws IOException {
+        Path path = path(dir, id);
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        return new Segment(id, path, channel, 0);
+    }
+
+    /** Opens an existing segment file, read-only in practice: appends only go to new segments. */
+    static Segment open(Path dir, int id) throws IOException {
+        Path path = path(dir, id);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segment segment = new Segment(id, path, channel, channel.size());
+        segment.directorySynced = true;
+        return segment;
+    }
+
+    /** @return false if the segment has been retired and its channel may be closed */
+    boolean acquire() {
+        while (true) {
+            int current = refs.get();
+            if (current == 0) {
+                return false;
+            }
+            if (refs.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    void release() {
+        if (refs.decrementAndGet() == 0) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /** Drops the store's reference: the channel closes once no reader holds the segment. */
+    void retire() {
+        release();
+    }
+}
@@ -0,0 +1,1025 @@
+package com.leo.dfss.domain;
+
+import com.leo.dfss.compression.ChunkCodec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Log-structured chunk storage engine: chunks are appended to large segment files
+ * (segments/segment-&lt;id&gt;.dat) instead of getting a file each, so millions of small chunks cost
+ * a handful of files and writes are sequential.
+ *
+ * Appends reserve their record's space in the active segment under a short lock and write the
+ * record header there; the chunk body is then streamed into the reserved region with positional
+ * writes, so uploads on different connections fill the segment concurrently. A chunk becomes
+ * visible when it is committed: the segment is synced (one fsync per group commit batch covers
+ * every chunk appended to it, see DurabilityMode) and the in-memory index
+ * (fileId, chunkIndex) -> (segment, offset, length, checksum, codec) is updated. Deletes append a
+ * tombstone record.
+ *
+ * Recovery: the index is checkpointed to segments/index-&lt;segment&gt;.ckpt, which holds every entry
+ * made by records in earlier segments. On open the latest checkpoint is loaded and the segments
+ * from its number on are replayed. Headers are written in reservation order under the lock, so
+ * after a crash the first damaged header comes after every acknowledged record; records without
+ * a valid trailer (never committed) are skipped. Replay re-applies records the checkpoint may
+ * already reflect, which is harmless: puts and deletes are idempotent in log order, and a MOVE
+ * only applies if the chunk is still at its source.
+ *
+ * Compaction: a background thread rewrites the live records of sealed segments whose live bytes
+ * fall below compactionThreshold into the active segment as MOVE records, checkpoints, and
+ * deletes the emptied segments.
+ */
+public class SegmentChunkStore implements ChunkStorage {
+
+    public static final long DEFAULT_SEGMENT_BYTES = 256L * 1024 * 1024;
+    public static final long DEFAULT_CHECKPOINT_RECORDS = 100_000;
+    public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+
+    private static final long MAINTENANCE_INTERVAL_MS = 1_000;
+    private static final int COMPACTION_EVERY_TICKS = 30;
+
+    // How long a checkpoint waits for appends in flight to the segments it covers
+    private static final long CHECKPOINT_DRAIN_MS = 30_000;
+
+    private static final int CHECKPOINT_MAGIC = 0x44465349; // "DFSI"
+    private static final int CHECKPOINT_VERSION = 2;     // 1: entries without codec and raw length
+
+    private static final int COPY_BUFFER_BYTES = 1 << 20;
+
+    private final Path baseDir;
+    private final Path segmentsDir;
+    private final DurabilityMode durability;
+    private final long segmentBytes;
+    private final long checkpointRecords;
+    private final double compactionThreshold;
+
+    private final SyncStats syncStats = new SyncStats();
+    private final GroupCommitter<Append> groupCommitter; // GROUP_COMMIT only
+
+    // fileId -> chunkIndex -> location. Mutated only inside index.compute for the file.
+    private final ConcurrentHashMap<String, ConcurrentHashMap<Integer, Location>> index = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Segment> segments = new ConcurrentHashMap<>();
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private Segment active;     // guarded by appendLock
+    private int nextSegmentId;  // guarded by appendLock
+
+    // Serialises checkpoints and compaction
+    private final ReentrantLock maintenanceLock = new ReentrantLock();
+    private volatile int checkpointSegment;
+    private final AtomicLong recordsSinceCheckpoint = new AtomicLong();
+    private ScheduledExecutorService maintenance;
+    private int maintenanceTicks;
+
+    /** Where a committed chunk's record is. */
+    private record Location(int segment, long offset, int headerLength, int length, long checksum,
+                            ChunkCodec codec, int rawLength) {
+
+        ChunkInfo info() {
+            return new ChunkInfo(length, checksum, codec, rawLength);
+        }
+
+        long dataOffset() {
+            return offset + headerLength;
+        }
+
+        long recordBytes() {
+            return SegmentRecord.totalLength(SegmentRecord.PUT, headerLength, length);
+        }
+    }
+
+    /** A record whose space has been reserved in a segment; published to the index on commit. */
+    private static final class Append {
+        final byte type;
+        final String fileId;
+        final int chunkIndex;
+        final Segment segment;
+        final long offset;
+        final int headerLength;
+        final int length;
+        final ChunkCodec codec;
+        final int rawLength;
+        final int sourceSegment;  // MOVE only
+        final long sourceOffset;  // MOVE only
+        long checksum;
+        boolean applied;
+
+        Append(byte type, String fileId, int chunkIndex, Segment segment, long offset, int headerLength,
+               int length, ChunkCodec codec, int rawLength, int sourceSegment, long sourceOffset) {
+            this.type = type;
+            this.fileId = fileId;
+            this.chunkIndex = chunkIndex;
+            this.segment = segment;
+            this.offset = offset;
+            this.headerLength = headerLength;
+            this.length = length;
+            this.codec = codec;
+            this.rawLength = rawLength;
+            this.sourceSegment = sourceSegment;
+            this.sourceOffset = sourceOffset;
+        }
+
+        long dataOffset() {
+            return offset + headerLength;
+        }
+    }
+
+    /** A chunk streamed into its reserved segment region. */
+    private static final class StagedRecord extends StagedChunk {
+
+        private final Append append;
+
+        StagedRecord(String fileId, int chunkIndex, ChunkInfo info, Append append) {
+            super(fileId, chunkIndex, info);
+            this.append = append;
+        }
+    }
+
+    public SegmentChunkStore(Path baseDir, DurabilityMode durability, int syncBatch, long syncDelayMicros) {
+        this(baseDir, durability, syncBatch, syncDelayMicros,
+                DEFAULT_SEGMENT_BYTES, DEFAULT_CHECKPOINT_RECORDS, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * @param baseDir storage directory
+     * @param durability when a commit counts as durable
+     * @param syncBatch most chunks per group commit batch
+     * @param syncDelayMicros longest a group commit batch waits for more chunks after its first one
+     * @param segmentBytes size at which the active segment is sealed and a new one started
+     * @param checkpointRecords records appended between index checkpoints
+     * @param compactionThreshold share of live bytes below which a sealed segment is compacted
+     */
+    public SegmentChunkStore(Path baseDir, DurabilityMode durability, int syncBatch, long syncDelayMicros,
+                             long segmentBytes, long checkpointRecords, double compactionThreshold) {
+        if (segmentBytes <= 0 || checkpointRecords <= 0) {
+            throw new IllegalArgumentException("segmentBytes and checkpointRecords must be greater than 0");
+        }
+        this.baseDir = baseDir;
+        this.segmentsDir = baseDir.resolve("segments");
+        this.durability = durability;
+        this.segmentBytes = segmentBytes;
+        this.checkpointRecords = checkpointRecords;
+        this.compactionThreshold = compactionThreshold;
+
+        this.groupCommitter = (durability == DurabilityMode.GROUP_COMMIT)
+                ? new GroupCommitter<>(this::syncAndPublish, syncBatch, syncDelayMicros, syncStats, "segment-group-commit")
+                : null;
+    }
+
+    /**
+     * Loads the latest index checkpoint, replays the segments written after it, starts a new
+     * active segment and the background checkpoint/compaction thread.
+     */
+    @Override
+    public void open() throws IOException {
+        Files.createDirectories(segmentsDir);
+
+        TreeMap<Integer, Path> segmentFiles = new TreeMap<>();
+        TreeMap<Integer, Path> checkpoints = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(segmentsDir)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    Files.deleteIfExists(file); // checkpoint interrupted by a crash
+                } else if (name.startsWith("segment-") && name.endsWith(".dat")) {
+                    segmentFiles.put(Integer.parseInt(name.substring(8, name.length() - 4)), file);
+                } else if (name.startsWith("index-") && name.endsWith(".ckpt")) {
+                    checkpoints.put(Integer.parseInt(name.substring(6, name.length() - 5)), file);
+                }
+            }
+        }
+
+        // 1) Index as of the latest checkpoint
+        int first = 0;
+        if (!checkpoints.isEmpty()) {
+            first = checkpoints.lastKey();
+            loadCheckpoint(checkpoints.lastEntry().getValue(), first);
+        }
+
+        // 2) Every segment, and the records written after the checkpoint
+        for (int id : segmentFiles.keySet()) {
+            segments.put(id, Segment.open(segmentsDir, id));
+        }
+        long replayed = 0;
+        for (int id : segmentFiles.tailMap(first).keySet()) {
+            replayed += replay(segments.get(id));
+        }
+
+        // 3) Live bytes per segment from the recovered index
+        for (Segment segment : segments.values()) {
+            segment.liveBytes.set(0);
+        }
+        long chunks = 0;
+        for (Map.Entry<String, ConcurrentHashMap<Integer, Location>> file : index.entrySet()) {
+            for (Map.Entry<Integer, Location> chunk : file.getValue().entrySet()) {
+                Segment segment = segments.get(chunk.getValue().segment());
+                if (segment == null) {
+                    System.out.println("Chunk " + file.getKey() + "/" + chunk.getKey() + " points to missing segment "
+                            + chunk.getValue().segment() + ", dropping it");
+                    file.getValue().remove(chunk.getKey());
+                    continue;
+                }
+                segment.liveBytes.addAndGet(chunk.getValue().recordBytes());
+                chunks++;
+            }
+        }
+
+        // 4) Appends go to a new segment after every existing one
+        appendLock.lock();
+        try {
+            nextSegmentId = segmentFiles.isEmpty() ? 0 : segmentFiles.lastKey() + 1;
+            roll();
+        } finally {
+            appendLock.unlock();
+        }
+        checkpointSegment = first;
+
+        maintenance = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("segment-maintenance").daemon().factory());
+        maintenance.scheduleWithFixedDelay(this::maintain,
+                MAINTENANCE_INTERVAL_MS, MAINTENANCE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        System.out.println("SegmentChunkStore recovered " + chunks + " chunks of " + index.size() + " files from "
+                + segmentFiles.size() + " segments (checkpoint " + first + ", " + replayed + " records replayed)");
+    }
+
+    /**
+     * Reserves the chunk's record in the active segment and streams the body into it, computing its
+     * CRC32C on the same pass. The chunk is not visible until commitChunk, which also writes the
+     * record's trailer: a record that is discarded instead never gets one and is skipped on replay.
+     */
+    @Override
+    public StagedChunk stageChunk(String fileId, int chunkIndex, InputStream body, long length,
+                                  ChunkCodec codec, long rawLength) throws IOException {
+
+        validate(fileId, chunkIndex);
+        if (body == null || length < 0 || length > Integer.MAX_VALUE - SegmentRecord.MAX_HEADER_BYTES
+                || rawLength < 0 || rawLength > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("body cannot be null and length must fit in a segment record");
+        }
+
+        Append append = reserve(SegmentRecord.PUT, fileId, chunkIndex, (int) length, codec, (int) rawLength, 0, 0);
+
+        ReadableByteChannel channel = (body instanceof ReadableByteChannel readable)
+                ? readable
+                : Channels.newChannel(body);
+        ChecksumChannel source = new ChecksumChannel(channel);
+
+        boolean staged = false;
+        try {
+            FileChannel out = append.segment.channel;
+            long start = append.dataOffset();
+            long position = 0;
+            while (position < length) {
+                // The reserved header already extends the file to start, so transferFrom may write there
+                long n = out.transferFrom(source, start + position, length - position);
+                if (n <= 0) {
+                    throw new EOFException("Chunk body ended after " + position + " of " + length + " bytes");
+                }
+                position += n;
+            }
+
+            append.checksum = source.getChecksum();
+
+            staged = true;
+            return new StagedRecord(fileId, chunkIndex, new ChunkInfo(length, append.checksum, codec, rawLength), append);
+        } finally {
+            if (!staged) {
+                append.segment.pending.decrementAndGet(); // the region stays behind as garbage
+            }
+        }
+    }
+
+    @Override
+    public ChunkInfo commitChunk(StagedChunk staged) throws IOException {
+        await(commit(appendOf(staged)));
+        return staged.getInfo();
+    }
+
+    @Override
+    public CompletableFuture<ChunkInfo> commitChunkAsync(StagedChunk staged) {
+        return commit(appendOf(staged)).thenApply(ignored -> staged.getInfo());
+    }
+
+    @Override
+    public void discardChunk(StagedChunk staged) {
+        appendOf(staged).segment.pending.decrementAndGet();
+    }
+
+    @Override
+    public ChunkRegion openChunk(String fileId, int chunkIndex) throws IOException {
+
+        validate(fileId, chunkIndex);
+
+        // A retired segment means compaction moved the chunk between the lookup and acquire: look again
+        for (int attempt = 0; attempt < 3; attempt++) {
+            Location location = lookup(fileId, chunkIndex);
+            if (location == null) {
+                return null;
+            }
+
+            Segment segment = segments.get(location.segment());
+            if (segment != null && segment.acquire()) {
+                return new ChunkRegion(segment.channel, location.dataOffset(), location.info(), segment::release);
+            }
+        }
+        return null;
+    }
+
+    /** Appends a tombstone and removes the chunk from the index once it is durable. */
+    @Override
+    public boolean deleteChunk(String fileId, int chunkIndex) throws IOException {
+
+        validate(fileId, chunkIndex);
+
+        if (lookup(fileId, chunkIndex) == null) {
+            return false;
+        }
+
+        Append append = reserve(SegmentRecord.DELETE, fileId, chunkIndex, 0, ChunkCodec.NONE, 0, 0, 0);
+        await(commit(append));
+        return append.applied;
+    }
+
+    @Override
+    public Boolean chunkExists(String fileId, int chunkIndex) {
+
+        if (fileId == null || fileId.isBlank() ||  chunkIndex < 0) {
+            return false;
+        }
+
+        return lookup(fileId, chunkIndex) != null;
+    }
+
+    @Override
+    public DurabilityMode getDurability() {
+        return durability;
+    }
+
+    @Override
+    public SyncStats getSyncStats() {
+        return syncStats;
+    }
+
+    @Override
+    public Path getBaseDir() {
+        return baseDir;
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /** @return bytes taken by all segments, live or garbage */
+    public long getSegmentBytes() {
+        long total = 0;
+        for (Segment segment : segments.values()) {
+            total += segment.size;
+        }
+        return total;
+    }
+
+    /** @return bytes of the records the index points to */
+    public long getLiveBytes() {
+        long total = 0;
+        for (Segment segment : segments.values()) {
+            total += segment.liveBytes.get();
+        }
+        return total;
+    }
+
+    /**
+     * Writes the index to a new checkpoint, so recovery replays only the segments started after it.
+     * Runs in the background every checkpointRecords records; safe to call at any time.
+     */
+    public void checkpoint() throws IOException {
+        maintenanceLock.lock();
+        try {
+            checkpointLocked();
+        } finally {
+            maintenanceLock.unlock();
+        }
+    }
+
+    /**
+     * Rewrites the live records of sealed segments that are mostly garbage into the active
+     * segment, then checkpoints and deletes the emptied segments. Runs in the background.
+     *
+     * @return bytes reclaimed
+     */
+    public long compact() throws IOException {
+        maintenanceLock.lock();
+        try {
+            int activeId;
+            appendLock.lock();
+            try {
+                activeId = active.id;
+            } finally {
+                appendLock.unlock();
+            }
+
+            List<Segment> victims = new ArrayList<>();
+            for (Segment segment : segments.values()) {
+                long live = segment.liveBytes.get();
+                if (segment.id < activeId && segment.pending.get() == 0
+                        && (live == 0 || live < segment.size * compactionThreshold)) {
+                    victims.add(segment);
+                }
+            }
+            if (victims.isEmpty()) {
+                return 0;
+            }
+            victims.sort((a, b) -> Integer.compare(a.id, b.id));
+
+            long moved = 0;
+            for (Segment segment : victims) {
+                moved += copyLive(segment);
+            }
+
+            // Emptied segments may only go once a checkpoint no longer needs them for replay
+            boolean needCheckpoint = moved > 0;
+            for (Segment segment : victims) {
+                needCheckpoint |= segment.id >= checkpointSegment;
+            }
+            if (needCheckpoint && !checkpointLocked()) {
+                return 0;
+            }
+
+            long reclaimed = 0;
+            int deleted = 0;
+            for (Segment segment : victims) {
+                if (segment.id < checkpointSegment && segment.liveBytes.get() == 0) {
+                    segments.remove(segment.id);
+                    segment.retire();
+                    Files.deleteIfExists(segment.path);
+                    reclaimed += segment.size;
+                    deleted++;
+                }
+            }
+            if (deleted > 0) {
+                System.out.println("Compaction: moved " + moved + " live bytes, deleted " + deleted
+                        + " segments, reclaimed " + reclaimed + " bytes");
+            }
+            return reclaimed;
+        } finally {
+            maintenanceLock.unlock();
+        }
+    }
+
+    /** Stops background work, syncs queued commits and checkpoints the index. */
+    @Override
+    public void close() {
+        if (maintenance != null) {
+            maintenance.shutdown();
+            try {
+                maintenance.awaitTermination(CHECKPOINT_DRAIN_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (groupCommitter != null) {
+            groupCommitter.close();
+        }
+
+        if (maintenance != null && recordsSinceCheckpoint.get() > 0) {
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                System.out.println("Final index checkpoint failed: " + e.getMessage());
+            }
+        }
+
+        for (Segment segment : segments.values()) {
+            segment.retire();
+        }
+    }
+
+    private void maintain() {
+        try {
+            if (recordsSinceCheckpoint.get() >= checkpointRecords) {
+                checkpoint();
+            }
+            if (++maintenanceTicks % COMPACTION_EVERY_TICKS == 0) {
+                compact();
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Segment maintenance failed: " + e.getMessage());
+        }
+    }
+
+    // ---- Appends ----
+
+    /**
+     * Reserves a record's space at the end of the active segment and writes its header, rolling to
+     * a new segment when the record does not fit. The caller fills in the data, then commits the
+     * append (which writes the trailer) or drops it (pending--).
+     */
+    private Append reserve(byte type, String fileId, int chunkIndex, int length, ChunkCodec codec, int rawLength,
+                           int sourceSegment, long sourceOffset) throws IOException {
+        byte[] id = fileId.getBytes(StandardCharsets.UTF_8);
+        if (id.length > SegmentRecord.MAX_FILE_ID_BYTES) {
+            throw new IllegalArgumentException("fileId is too long");
+        }
+        ByteBuffer header = SegmentRecord.header(type, id, chunkIndex, length, codec, rawLength,
+                sourceSegment, sourceOffset);
+        int headerLength = header.remaining();
+        long recordBytes = SegmentRecord.totalLength(type, headerLength, length);
+
+        appendLock.lock();
+        try {
+            if (active.size > 0 && active.size + recordBytes > segmentBytes) {
+                roll();
+            }
+            Segment segment = active;
+            long offset = segment.size;
+
+            // Written under the lock, so headers reach the file in reservation order (see class comment)
+            writeFully(segment.channel, header, offset);
+            segment.size = offset + recordBytes;
+            segment.pending.incrementAndGet();
+            recordsSinceCheckpoint.incrementAndGet();
+
+            return new Append(type, fileId, chunkIndex, segment, offset, headerLength, length, codec, rawLength,
+                    sourceSegment, sourceOffset);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /** Seals the active segment and starts the next one. Caller holds appendLock. */
+    private void roll() throws IOException {
+        Segment next = Segment.create(segmentsDir, nextSegmentId++);
+        segments.put(next.id, next);
+        active = next;
+    }
+
+    private CompletableFuture<Void> commit(Append append) {
+        if (append.type != SegmentRecord.DELETE) {
+            // The trailer marks the record committed; written before the sync below, which covers it
+            try {
+                writeFully(append.segment.channel, SegmentRecord.trailer(append.checksum),
+                        append.dataOffset() + append.length);
+            } catch (IOException e) {
+                append.segment.pending.decrementAndGet();
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        if (durability == DurabilityMode.GROUP_COMMIT) {
+            return groupCommitter.submit(append);
+        }
+
+        try {
+            if (durability == DurabilityMode.PER_CHUNK) {
+                long start = System.nanoTime();
+                syncAndPublish(List.of(append));
+                syncStats.record(1, System.nanoTime() - start);
+            } else {
+                publish(append);
+            }
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Makes a batch of appends durable with one fsync per segment they touch (normally just the
+     * active one) and publishes them to the index.
+     */
+    private void syncAndPublish(List<Append> batch) throws IOException {
+        try {
+            List<Segment> synced = new ArrayList<>(2);
+            boolean newSegment = false;
+            for (Append append : batch) {
+                if (!synced.contains(append.segment)) {
+                    append.segment.channel.force(false);
+                    synced.add(append.segment);
+                    newSegment |= !append.segment.directorySynced;
+                }
+            }
+            if (newSegment) {
+                syncDirectory(segmentsDir);
+                for (Segment segment : synced) {
+                    segment.directorySynced = true;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Append append : batch) {
+                append.segment.pending.decrementAndGet();
+            }
+            throw e;
+        }
+
+        for (Append append : batch) {
+            publish(append);
+        }
+    }
+
+    private void publish(Append append) {
+        try {
+            apply(append.type, append.fileId, append.chunkIndex,
+                    new Location(append.segment.id, append.offset, append.headerLength, append.length, append.checksum,
+                            append.codec, append.rawLength),
+                    append.sourceSegment, append.sourceOffset, append);
+        } finally {
+            append.segment.pending.decrementAndGet();
+        }
+    }
+
+    /**
+     * Applies one record to the index and the segments' live byte counts, at commit or on replay.
+     *
+     * @param result receives whether the record changed the index, may be null
+     */
+    private void apply(byte type, String fileId, int chunkIndex, Location location,
+                       int sourceSegment, long sourceOffset, Append result) {
+        Location[] replaced = new Location[1];
+        boolean[] applied = new boolean[1];
+
+        index.compute(fileId, (id, chunks) -> {
+            switch (type) {
+                case SegmentRecord.PUT -> {
+                    if (chunks == null) {
+                        chunks = new ConcurrentHashMap<>();
+                    }
+                    replaced[0] = chunks.put(chunkIndex, location);
+                    applied[0] = true;
+                }
+                case SegmentRecord.MOVE -> {
+                    // Only if nothing overwrote or deleted the chunk since compaction read it
+                    Location current = (chunks == null) ? null : chunks.get(chunkIndex);
+                    if (current != null && current.segment() == sourceSegment && current.offset() == sourceOffset) {
+                        replaced[0] = chunks.put(chunkIndex, location);
+                        applied[0] = true;
+                    }
+                }
+                case SegmentRecord.DELETE -> {
+                    if (chunks != null) {
+                        replaced[0] = chunks.remove(chunkIndex);
+                        applied[0] = replaced[0] != null;
+                    }
+                }
+                default -> throw new IllegalArgumentException("Unknown record type " + type);
+            }
+            return (chunks == null || chunks.isEmpty()) ? null : chunks;
+        });
+
+        if (applied[0] && type != SegmentRecord.DELETE) {
+            Segment segment = segments.get(location.segment());
+            if (segment != null) {
+                segment.liveBytes.addAndGet(location.recordBytes());
+            }
+        }
+        if (replaced[0] != null) {
+            Segment segment = segments.get(replaced[0].segment());
+            if (segment != null) {
+                segment.liveBytes.addAndGet(-replaced[0].recordBytes());
+            }
+        }
+        if (result != null) {
+            result.applied = applied[0];
+        }
+    }
+
+    private Location lookup(String fileId, int chunkIndex) {
+        ConcurrentHashMap<Integer, Location> chunks = index.get(fileId);
+        return (chunks == null) ? null : chunks.get(chunkIndex);
+    }
+
+    // ---- Compaction ----
+
+    /**
+     * Copies the records of a segment that the index still points to into the active segment as
+     * MOVE records and waits for them to commit.
+     *
+     * @return data bytes moved
+     */
+    private long copyLive(Segment segment) throws IOException {
+        ByteBuffer scratch = ByteBuffer.allocate(SegmentRecord.MAX_HEADER_BYTES);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(COPY_BUFFER_BYTES);
+        List<CompletableFuture<Void>> commits = new ArrayList<>();
+        long moved = 0;
+
+        long offset = 0;
+        long end = segment.size;
+        while (offset < end) {
+            SegmentRecord record = SegmentRecord.read(segment.channel, offset, end, scratch);
+            if (record == null) {
+                break;
+            }
+            offset += record.totalLength();
+
+            Location current = (record.type == SegmentRecord.DELETE) ? null : lookup(record.fileId, record.chunkIndex);
+            if (current == null || current.segment() != segment.id || current.offset() != record.offset) {
+                continue; // garbage: overwritten, deleted or never committed
+            }
+
+            Append copy = reserve(SegmentRecord.MOVE, record.fileId, record.chunkIndex, record.length,
+                    current.codec(), current.rawLength(), segment.id, record.offset);
+            boolean copied = false;
+            try {
+                long checksum = copyData(segment.channel, current.dataOffset(), copy.segment.channel,
+                        copy.dataOffset(), current.length(), buffer);
+                if (checksum != current.checksum()) {
+                    // Leave the chunk where it is rather than spread a corrupt copy; the segment stays
+                    System.out.println("Compaction: chunk " + record.fileId + "/" + record.chunkIndex
+                            + " in segment " + segment.id + " fails its checksum, not moved");
+                    continue;
+                }
+                copy.checksum = checksum;
+                copied = true;
+            } finally {
+                if (!copied) {
+                    copy.segment.pending.decrementAndGet();
+                }
+            }
+
+            commits.add(commit(copy));
+            moved += current.length();
+        }
+
+        for (CompletableFuture<Void> commit : commits) {
+            await(commit);
+        }
+        return moved;
+    }
+
+    /** Copies length bytes between positions of two channels. @return CRC32C of the bytes */
+    private static long copyData(FileChannel source, long from, FileChannel target, long to, int length,
+                                 ByteBuffer buffer) throws IOException {
+        CRC32C crc = new CRC32C();
+        long done = 0;
+        while (done < length) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), length - done));
+            while (buffer.hasRemaining()) {
+                if (source.read(buffer, from + done + buffer.position()) < 0) {
+                    throw new EOFException("Segment ended inside a record");
+                }
+            }
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            int n = buffer.remaining();
+            writeFully(target, buffer, to + done);
+            done += n;
+        }
+        return crc.getValue();
+    }
+
+    // ---- Checkpoints and recovery ----
+
+    // Checkpoint: [4 magic][4 version][4 first segment to replay]
+    //             { [1 more=1][fileId UTF][4 count]
+    //               { [4 index][4 segment][8 offset][4 header][4 length][4 crc][1 codec id][4 raw length] } }
+    //             [1 more=0][8 CRC32C of everything before it]
+
+    /**
+     * @return false if appends to the covered segments did not finish in time and nothing was written
+     */
+    private boolean checkpointLocked() throws IOException {
+        int first;
+        appendLock.lock();
+        try {
+            if (active.size > 0) {
+                roll();
+            }
+            first = active.id;
+        } finally {
+            appendLock.unlock();
+        }
+
+        // Every append to an earlier segment must be in the index (or dropped) before it is captured
+        long deadline = System.currentTimeMillis() + CHECKPOINT_DRAIN_MS;
+        for (Segment segment : segments.values()) {
+            while (segment.id < first && segment.pending.get() > 0) {
+                if (System.currentTimeMillis() > deadline) {
+                    System.out.println("Index checkpoint skipped: appends to segment " + segment.id + " still in flight");
+                    return false;
+                }
+                LockSupport.parkNanos(1_000_000);
+            }
+        }
+        recordsSinceCheckpoint.set(0);
+
+        Path target = checkpointPath(first);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        long files = 0;
+        long chunks = 0;
+
+        try (FileChannel channel = FileChannel.open(temp,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            CRC32C crc = new CRC32C();
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16), crc));
+
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeInt(CHECKPOINT_VERSION);
+            out.writeInt(first);
+
+            for (Map.Entry<String, ConcurrentHashMap<Integer, Location>> file : index.entrySet()) {
+                List<Map.Entry<Integer, Location>> entries = new ArrayList<>(file.getValue().entrySet());
+                if (entries.isEmpty()) {
+                    continue;
+                }
+                out.writeBoolean(true);
+                out.writeUTF(file.getKey());
+                out.writeInt(entries.size());
+                for (Map.Entry<Integer, Location> entry : entries) {
+                    Location location = entry.getValue();
+                    out.writeInt(entry.getKey());
+                    out.writeInt(location.segment());
+                    out.writeLong(location.offset());
+                    out.writeInt(location.headerLength());
+                    out.writeInt(location.length());
+                    out.writeInt((int) location.checksum());
+                    out.writeByte(location.codec().getId());
+                    out.writeInt(location.rawLength());
+                }
+                files++;
+                chunks += entries.size();
+            }
+            out.writeBoolean(false);
+            out.writeLong(crc.getValue());
+            out.flush();
+            channel.force(true);
+        }
+
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(segmentsDir);
+        checkpointSegment = first;
+
+        try (DirectoryStream<Path> old = Files.newDirectoryStream(segmentsDir, "index-*.ckpt")) {
+            for (Path file : old) {
+                if (!file.equals(target)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+
+        System.out.println("Index checkpoint: " + chunks + " chunks of " + files + " files, replay from segment " + first);
+        return true;
+    }
+
+    private void loadCheckpoint(Path file, int first) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(file), 1 << 16), crc))) {
+
+            int version = (in.readInt() == CHECKPOINT_MAGIC) ? in.readInt() : -1;
+            if ((version != 1 && version != CHECKPOINT_VERSION) || in.readInt() != first) {
+                throw new IOException("Not an index checkpoint: " + file);
+            }
+
+            while (in.readBoolean()) {
+                String fileId = in.readUTF();
+                int count = in.readInt();
+                ConcurrentHashMap<Integer, Location> chunks = new ConcurrentHashMap<>(Math.max(16, count * 4 / 3 + 1));
+                for (int i = 0; i < count; i++) {
+                    int chunkIndex = in.readInt();
+                    int segment = in.readInt();
+                    long offset = in.readLong();
+                    int headerLength = in.readInt();
+                    int length = in.readInt();
+                    long checksum = in.readInt() & 0xFFFFFFFFL;
+                    ChunkCodec codec = ChunkCodec.NONE;
+                    int rawLength = length;
+                    if (version >= 2) {
+                        codec = ChunkCodec.fromId(in.readUnsignedByte());
+                        rawLength = in.readInt();
+                    }
+                    chunks.put(chunkIndex, new Location(segment, offset, headerLength, length, checksum, codec, rawLength));
+                }
+                index.put(fileId, chunks);
+            }
+
+            long expected = crc.getValue();
+            if (in.readLong() != expected) {
+                throw new IOException("Index checkpoint " + file + " is corrupt");
+            }
+        } catch (EOFException e) {
+            throw new IOException("Index checkpoint " + file + " is truncated", e);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Index checkpoint " + file + " is corrupt: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Re-applies the records of a segment written after the checkpoint. Stops at the first damaged
+     * header: nothing after it was acknowledged.
+     *
+     * @return records read
+     */
+    private long replay(Segment segment) throws IOException {
+        ByteBuffer scratch = ByteBuffer.allocate(SegmentRecord.MAX_HEADER_BYTES);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(COPY_BUFFER_BYTES);
+
+        long count = 0;
+        long offset = 0;
+        long end = segment.size;
+        while (offset < end) {
+            SegmentRecord record = SegmentRecord.read(segment.channel, offset, end, scratch);
+            if (record == null) {
+                System.out.println("Segment " + segment.id + ": no intact record at offset " + offset
+                        + ", ignoring the last " + (end - offset) + " bytes");
+                break;
+            }
+
+            if (record.type == SegmentRecord.DELETE) {
+                apply(record.type, record.fileId, record.chunkIndex, null, 0, 0, null);
+            } else {
+                long checksum = record.verify(segment.channel, end, buffer);
+                if (checksum >= 0) {
+                    apply(record.type, record.fileId, record.chunkIndex,
+                            new Location(segment.id, record.offset, record.headerLength, record.length, checksum,
+                                    record.codec, record.rawLength),
+                            record.sourceSegment, record.sourceOffset, null);
+                }
+            }
+            offset += record.totalLength();
+            count++;
+        }
+        return count;
+    }
+
+    private Path checkpointPath(int first) {
+        return segmentsDir.resolve(String.format("index-%010d.ckpt", first));
+    }
+
+    // ---- Helpers ----
+
+    private static Append appendOf(StagedChunk staged) {
+        if (!(staged instanceof StagedRecord record)) {
+            throw new IllegalArgumentException("Chunk was not staged by a SegmentChunkStore");
+        }
+        return record.append;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+    }
+
+    private static void syncDirectory(Path dir) throws IOException {
+        try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        }
+    }
+
+    private static void await(CompletableFuture<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for segment commit");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static void validate(String fileId, int chunkIndex) {
+        if (fileId == null || fileId.isBlank()) {
+            throw new IllegalArgumentException("fileId cannot be null or blank");
+        }
+        if (chunkIndex < 0) {
+            throw new IllegalArgumentException("chunkIndex cannot be negative");
+        }
+    }
+}
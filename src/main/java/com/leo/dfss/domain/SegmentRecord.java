@@ -0,0 +1,205 @@
+package com.leo.dfss.domain;
+
+import com.leo.dfss.compression.ChunkCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32C;
+
+/**
+ * One record of a SegmentChunkStore segment file.
+ *
+ *   header  = [4 magic][1 type][2 fileId length][fileId UTF-8][4 chunkIndex][4 data length]
+ *             [1 codec id][4 raw length][4 source segment][8 source offset]
+ *             [4 CRC32C of the header bytes before it]
+ *   data    = data length bytes                      (PUT and MOVE)
+ *   trailer = [4 CRC32C of the data][4 commit mark]   (PUT and MOVE)
+ *
+ * The header is written when the record's space is reserved and the data once the chunk body has
+ * arrived. The trailer is only written when the record is committed, before the sync that makes it
+ * durable, so a record that was discarded (e.g. its body failed the client's checksum) or that a
+ * crash left uncommitted has no commit mark. A record whose trailer is missing or does not match
+ * its data is skipped; the header's length still leads to the next record.
+ *
+ * The data is the chunk as uploaded: compressed if its codec is not NONE. Segments written before
+ * chunks could be compressed have headers without the codec and raw length (MAGIC_V1).
+ */
+final class SegmentRecord {
+
+    static final byte PUT = 1;     // a chunk
+    static final byte DELETE = 2;  // a tombstone, no data
+    static final byte MOVE = 3;    // a chunk copied by compaction from (source segment, source offset)
+
+    static final int MAX_FILE_ID_BYTES = 1024;
+    static final int TRAILER_BYTES = 8;
+
+    private static final int MAGIC_V1 = 0x44465347;     // "DFSG"
+    private static final int MAGIC = 0x44465348;        // "DFSH"
+    private static final int COMMIT_MARK = 0x434F4D54;  // "COMT"
+    private static final int FIXED_HEADER_BYTES = 4 + 1 + 2 + 4 + 4 + 1 + 4 + 4 + 8 + 4;
+    private static final int FIXED_HEADER_BYTES_V1 = FIXED_HEADER_BYTES - 5;
+
+    static final int MAX_HEADER_BYTES = FIXED_HEADER_BYTES + MAX_FILE_ID_BYTES;
+
+    final long offset;
+    final int headerLength;
+    final byte type;
+    final String fileId;
+    final int chunkIndex;
+    final int length;
+    final ChunkCodec codec;
+    final int rawLength;
+    final int sourceSegment;
+    final long sourceOffset;
+
+    private SegmentRecord(long offset, int headerLength, byte type, String fileId, int chunkIndex, int length,
+                          ChunkCodec codec, int rawLength, int sourceSegment, long sourceOffset) {
+        this.offset = offset;
+        this.headerLength = headerLength;
+        this.type = type;
+        this.fileId = fileId;
+        this.chunkIndex = chunkIndex;
+        this.length = length;
+        this.codec = codec;
+        this.rawLength = rawLength;
+        this.sourceSegment = sourceSegment;
+        this.sourceOffset = sourceOffset;
+    }
+
+    long dataOffset() {
+        return offset + headerLength;
+    }
+
+    /** @return bytes the whole record occupies in its segment */
+    long totalLength() {
+        return totalLength(type, headerLength, length);
+    }
+
+    static long totalLength(byte type, int headerLength, int length) {
+        return (type == DELETE) ? headerLength : (long) headerLength + length + TRAILER_BYTES;
+    }
+
+    static ByteBuffer header(byte type, byte[] fileId, int chunkIndex, int length, ChunkCodec codec, int rawLength,
+                             int sourceSegment, long sourceOffset) {
+        ByteBuffer header = ByteBuffer.allocate(FIXED_HEADER_BYTES + fileId.length)
+                .putInt(MAGIC)
+                .put(type)
+                .putShort((short) fileId.length)
+                .put(fileId)
+                .putInt(chunkIndex)
+                .putInt(length)
+                .put((byte) codec.getId())
+                .putInt(rawLength)
+                .putInt(sourceSegment)
+                .putLong(sourceOffset);
+
+        CRC32C crc = new CRC32C();
+        crc.update(header.array(), 0, header.position());
+        return header.putInt((int) crc.getValue()).flip();
+    }
+
+    static ByteBuffer trailer(long checksum) {
+        return ByteBuffer.allocate(TRAILER_BYTES)
+                .putInt((int) checksum)
+                .putInt(COMMIT_MARK)
+                .flip();
+    }
+
+    /**
+     * Parses the header at offset.
+     *
+     * @param end bytes of the segment that may hold records
+     * @param scratch buffer of at least MAX_HEADER_BYTES
+     * @return the record, or null if there is no intact header at offset (end of the written part,
+     *         or a header torn by a crash)
+     */
+    static SegmentRecord read(FileChannel channel, long offset, long end, ByteBuffer scratch) throws IOException {
+        scratch.clear().limit((int) Math.min(MAX_HEADER_BYTES, end - offset));
+        while (scratch.hasRemaining()) {
+            if (channel.read(scratch, offset + scratch.position()) < 0) {
+                break;
+            }
+        }
+        scratch.flip();
+
+        if (scratch.remaining() < FIXED_HEADER_BYTES_V1) {
+            return null;
+        }
+        int magic = scratch.getInt();
+        if (magic != MAGIC && magic != MAGIC_V1) {
+            return null;
+        }
+        int fixedBytes = (magic == MAGIC) ? FIXED_HEADER_BYTES : FIXED_HEADER_BYTES_V1;
+        byte type = scratch.get();
+        int idLength = scratch.getShort() & 0xFFFF;
+        if (type < PUT || type > MOVE || idLength > MAX_FILE_ID_BYTES
+                || scratch.remaining() < fixedBytes - 7 + idLength) {
+            return null;
+        }
+
+        byte[] id = new byte[idLength];
+        scratch.get(id);
+        int chunkIndex = scratch.getInt();
+        int length = scratch.getInt();
+        int codecId = 0;
+        int rawLength = length;
+        if (magic == MAGIC) {
+            codecId = scratch.get() & 0xFF;
+            rawLength = scratch.getInt();
+        }
+        int sourceSegment = scratch.getInt();
+        long sourceOffset = scratch.getLong();
+
+        CRC32C crc = new CRC32C();
+        crc.update(scratch.array(), 0, scratch.position());
+        if (scratch.getInt() != (int) crc.getValue() || length < 0 || rawLength < 0
+                || codecId >= ChunkCodec.values().length) {
+            return null;
+        }
+
+        return new SegmentRecord(offset, scratch.position(), type, new String(id, StandardCharsets.UTF_8),
+                chunkIndex, length, ChunkCodec.fromId(codecId), rawLength, sourceSegment, sourceOffset);
+    }
+
+    /**
+     * Checks that a PUT or MOVE record was committed: its trailer is complete and matches its data.
+     *
+     * @param end bytes of the segment that may hold records
+     * @param buffer read buffer
+     * @return the data's CRC32C, or -1 if the record is incomplete or corrupt
+     */
+    long verify(FileChannel channel, long end, ByteBuffer buffer) throws IOException {
+        long trailerOffset = dataOffset() + length;
+        if (trailerOffset + TRAILER_BYTES > end) {
+            return -1;
+        }
+
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+        while (trailer.hasRemaining()) {
+            if (channel.read(trailer, trailerOffset + trailer.position()) < 0) {
+                return -1;
+            }
+        }
+        trailer.flip();
+        long stored = trailer.getInt() & 0xFFFFFFFFL;
+        if (trailer.getInt() != COMMIT_MARK) {
+            return -1;
+        }
+
+        CRC32C crc = new CRC32C();
+        long position = dataOffset();
+        while (position < trailerOffset) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), trailerOffset - position));
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                return -1;
+            }
+            buffer.flip();
+            crc.update(buffer);
+            position += n;
+        }
+        return (crc.getValue() == stored) ? stored : -1;
+    }
+}
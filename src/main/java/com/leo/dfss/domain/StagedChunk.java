@@ -0,0 +1,32 @@
+package com.leo.dfss.domain;
+
+/**
+ * A chunk whose bytes have been received but that is not yet visible. Produced by
+ * ChunkStorage.stageChunk and finished with commitChunk or discardChunk of the same store, so the
+ * socket read and the finalisation of a chunk can happen on different threads. Each store extends
+ * it with where it put the bytes (a temporary file, a reserved segment region).
+ */
+public class StagedChunk {
+
+    private final String fileId;
+    private final int chunkIndex;
+    private final ChunkInfo info;
+
+    StagedChunk(String fileId, int chunkIndex, ChunkInfo info) {
+        this.fileId = fileId;
+        this.chunkIndex = chunkIndex;
+        this.info = info;
+    }
+
+    public String getFileId() {
+        return fileId;
+    }
+
+    public int getChunkIndex() {
+        return chunkIndex;
+    }
+
+    public ChunkInfo getInfo() {
+        return info;
+    }
+}
@@ -0,0 +1,103 @@
+package com.leo.dfss.domain;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running totals of a ChunkStore's sync cycles: how many chunks each fsync batch covered and how
+ * long the batch took to become durable. Safe to read from any thread while syncs are recorded.
+ *
+ * Latencies are also counted in power-of-two microsecond buckets, so percentiles are reported as
+ * the upper bound of their bucket (at most 2x the true value).
+ */
+public class SyncStats {
+
+    private static final int LATENCY_BUCKETS = 40;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder chunks = new LongAdder();
+    private final AtomicLong maxBatchSize = new AtomicLong();
+    private final LongAdder syncNanos = new LongAdder();
+    private final AtomicLong maxSyncNanos = new AtomicLong();
+
+    // Bucket i counts syncs that took less than 2^i microseconds (and at least 2^(i-1))
+    private final AtomicLongArray latencyBuckets = new AtomicLongArray(LATENCY_BUCKETS);
+
+    void record(int batchSize, long nanos) {
+        batches.increment();
+        chunks.add(batchSize);
+        maxBatchSize.accumulateAndGet(batchSize, Math::max);
+        syncNanos.add(nanos);
+        maxSyncNanos.accumulateAndGet(nanos, Math::max);
+
+        long micros = nanos / 1_000;
+        int bucket = Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        latencyBuckets.incrementAndGet(bucket);
+    }
+
+    /** @return number of sync cycles (fsync batches) */
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    /** @return number of chunks made durable */
+    public long getChunkCount() {
+        return chunks.sum();
+    }
+
+    public double getAverageBatchSize() {
+        long count = batches.sum();
+        return (count == 0) ? 0 : (double) chunks.sum() / count;
+    }
+
+    public long getMaxBatchSize() {
+        return maxBatchSize.get();
+    }
+
+    public long getAverageSyncMicros() {
+        long count = batches.sum();
+        return (count == 0) ? 0 : syncNanos.sum() / count / 1_000;
+    }
+
+    public long getMaxSyncMicros() {
+        return maxSyncNanos.get() / 1_000;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return upper bound, in microseconds, of the sync latency below which that share of batches fell
+     */
+    public long getSyncMicrosPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            total += latencyBuckets.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long target = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            seen += latencyBuckets.get(i);
+            if (seen >= Math.max(1, target)) {
+                return 1L << i;
+            }
+        }
+        return 1L << (LATENCY_BUCKETS - 1);
+    }
+
+    @Override
+    public String toString() {
+        return "SyncStats{" +
+                "batches=" + getBatchCount() +
+                ", chunks=" + getChunkCount() +
+                ", avgBatch=" + String.format("%.1f", getAverageBatchSize()) +
+                ", maxBatch=" + getMaxBatchSize() +
+                ", avgSyncUs=" + getAverageSyncMicros() +
+                ", p99SyncUs<=" + getSyncMicrosPercentile(99) +
+                ", maxSyncUs=" + getMaxSyncMicros() +
+                '}';
+    }
+}
@@ -0,0 +1,115 @@
+package com.leo.dfss.erasure;
+
+/**
+ * Arithmetic in GF(2^8) with the primitive polynomial x^8 + x^4 + x^3 + x^2 + 1 (0x11D).
+ *
+ * Addition is XOR. Multiplication uses a full 256 x 256 product table (64 KB), so the inner
+ * coding loops are one table lookup and one XOR per byte with no branches or allocation:
+ * product(a, b) = MUL_TABLE[(a << 8) | b].
+ */
+public final class GaloisField {
+
+    private static final int POLYNOMIAL = 0x11D;
+
+    private static final byte[] EXP = new byte[512]; // doubled so exp[log a + log b] needs no mod 255
+    private static final int[] LOG = new int[256];
+
+    static final byte[] MUL_TABLE = new byte[256 * 256];
+
+    static {
+        int x = 1;
+        for (int i = 0; i < 255; i++) {
+            EXP[i] = (byte) x;
+            LOG[x] = i;
+            x <<= 1;
+            if (x >= 256) {
+                x ^= POLYNOMIAL;
+            }
+        }
+        for (int i = 255; i < EXP.length; i++) {
+            EXP[i] = EXP[i - 255];
+        }
+
+        for (int a = 0; a < 256; a++) {
+            for (int b = 0; b < 256; b++) {
+                MUL_TABLE[(a << 8) | b] = (a == 0 || b == 0) ? 0 : EXP[LOG[a] + LOG[b]];
+            }
+        }
+    }
+
+    private GaloisField() {}
+
+    public static byte add(byte a, byte b) {
+        return (byte) (a ^ b);
+    }
+
+    public static byte multiply(byte a, byte b) {
+        return MUL_TABLE[((a & 0xFF) << 8) | (b & 0xFF)];
+    }
+
+    public static byte divide(byte a, byte b) {
+        if (b == 0) {
+            throw new ArithmeticException("Division by zero in GF(256)");
+        }
+        if (a == 0) {
+            return 0;
+        }
+        return EXP[LOG[a & 0xFF] - LOG[b & 0xFF] + 255];
+    }
+
+    public static byte inverse(byte a) {
+        return divide((byte) 1, a);
+    }
+
+    /**
+     * Inverts a square matrix by Gauss-Jordan elimination.
+     *
+     * @param matrix n x n matrix, left unchanged
+     * @return the inverse
+     * @throws IllegalArgumentException if the matrix is singular
+     */
+    static byte[][] invert(byte[][] matrix) {
+        int n = matrix.length;
+        byte[][] work = new byte[n][2 * n];
+        for (int r = 0; r < n; r++) {
+            System.arraycopy(matrix[r], 0, work[r], 0, n);
+            work[r][n + r] = 1;
+        }
+
+        for (int col = 0; col < n; col++) {
+            // 1) Find a row with a non-zero pivot and move it into place
+            int pivot = col;
+            while (pivot < n && work[pivot][col] == 0) {
+                pivot++;
+            }
+            if (pivot == n) {
+                throw new IllegalArgumentException("Matrix is singular");
+            }
+            byte[] swap = work[col];
+            work[col] = work[pivot];
+            work[pivot] = swap;
+
+            // 2) Scale the pivot row so the pivot is 1
+            byte scale = inverse(work[col][col]);
+            for (int c = 0; c < 2 * n; c++) {
+                work[col][c] = multiply(work[col][c], scale);
+            }
+
+            // 3) Eliminate the column from every other row
+            for (int r = 0; r < n; r++) {
+                byte factor = work[r][col];
+                if (r != col && factor != 0) {
+                    for (int c = 0; c < 2 * n; c++) {
+                        work[r][c] ^= multiply(factor, work[col][c]);
+                    }
+                }
+            }
+        }
+
+        byte[][] inverse = new byte[n][n];
+        for (int r = 0; r < n; r++) {
+            System.arraycopy(work[r], n, inverse[r], 0, n);
+        }
+        return inverse;
+    }
+}
@@ -0,0 +1,219 @@
+package com.leo.dfss.erasure;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Systematic Reed-Solomon code RS(k, m) over GF(2^8): k data shards plus m parity shards, any k
+ * of which are enough to rebuild the rest.
+ *
+ * The encoding matrix is the identity stacked on a k-column Cauchy matrix, so data shards are
+ * stored as-is and every k x k sub-matrix is invertible. Encoding and reconstruction work on
+ * caller-supplied shard buffers and do not allocate, except for a decode matrix the first time a
+ * given set of shards is missing (cached per erasure pattern afterwards).
+ *
+ * Instances are immutable and thread-safe.
+ */
+public final class ReedSolomon {
+
+    public static final int MAX_TOTAL_SHARDS = 64; // erasure patterns are cached in a long bitmask
+
+    private final int dataShards;
+    private final int parityShards;
+
+    // Row i of the parity part of the encoding matrix, as offsets into GaloisField.MUL_TABLE
+    private final int[][] parityRows;
+
+    // Decode matrices by bitmask of the shards used, rows = data shards, offsets as above
+    private final Map<Long, int[][]> decodeCache = new ConcurrentHashMap<>();
+
+    public ReedSolomon(int dataShards, int parityShards) {
+        if (dataShards <= 0 || parityShards <= 0) {
+            throw new IllegalArgumentException("dataShards and parityShards must be greater than 0");
+        }
+        if (dataShards + parityShards > MAX_TOTAL_SHARDS) {
+            throw new IllegalArgumentException("At most " + MAX_TOTAL_SHARDS + " shards per stripe are supported");
+        }
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+
+        // Cauchy matrix: 1 / (x_i + y_j) with x_i = k + i and y_j = j, all distinct
+        this.parityRows = new int[parityShards][dataShards];
+        for (int i = 0; i < parityShards; i++) {
+            for (int j = 0; j < dataShards; j++) {
+                byte coefficient = GaloisField.inverse((byte) ((dataShards + i) ^ j));
+                parityRows[i][j] = (coefficient & 0xFF) << 8;
+            }
+        }
+    }
+
+    public int getDataShards() {
+        return dataShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    public int getTotalShards() {
+        return dataShards + parityShards;
+    }
+
+    /**
+     * Computes the parity shards of a stripe.
+     *
+     * @param shards dataShards + parityShards buffers of at least offset + length bytes; the data
+     *               shards are read and the parity shards overwritten
+     * @param offset first byte of each shard to encode
+     * @param length bytes per shard to encode
+     */
+    public void encode(byte[][] shards, int offset, int length) {
+        checkShards(shards, offset, length);
+
+        multiply(parityRows, shards, shards, dataShards, parityShards, offset, length);
+    }
+
+    /**
+     * Rebuilds the missing shards of a stripe in place.
+     *
+     * @param shards dataShards + parityShards buffers of at least offset + length bytes, including
+     *               the missing ones (their contents are overwritten)
+     * @param present which shards hold valid data
+     * @param offset first byte of each shard
+     * @param length bytes per shard
+     * @throws IllegalArgumentException if fewer than dataShards shards are present
+     */
+    public void reconstruct(byte[][] shards, boolean[] present, int offset, int length) {
+        checkShards(shards, offset, length);
+        if (present.length != getTotalShards()) {
+            throw new IllegalArgumentException("Expected " + getTotalShards() + " present flags");
+        }
+
+        // 1) Pick the first k present shards as the decode inputs
+        byte[][] inputs = new byte[dataShards][];
+        long usedMask = 0;
+        int found = 0;
+        for (int i = 0; i < present.length && found < dataShards; i++) {
+            if (present[i]) {
+                inputs[found++] = shards[i];
+                usedMask |= 1L << i;
+            }
+        }
+        if (found < dataShards) {
+            throw new IllegalArgumentException("Need " + dataShards + " shards to reconstruct, only "
+                    + found + " present");
+        }
+
+        // 2) Rebuild missing data shards from the inverted sub-matrix of the rows we have
+        int missingData = 0;
+        for (int i = 0; i < dataShards; i++) {
+            if (!present[i]) {
+                missingData++;
+            }
+        }
+        if (missingData > 0) {
+            int[][] decode = decodeCache.computeIfAbsent(usedMask, this::buildDecodeMatrix);
+
+            int[][] rows = new int[missingData][];
+            byte[][] outputs = new byte[missingData][];
+            int n = 0;
+            for (int i = 0; i < dataShards; i++) {
+                if (!present[i]) {
+                    rows[n] = decode[i];
+                    outputs[n] = shards[i];
+                    n++;
+                }
+            }
+            multiply(rows, inputs, outputs, 0, missingData, offset, length);
+        }
+
+        // 3) Recompute missing parity shards from the (now complete) data shards
+        int missingParity = 0;
+        for (int i = 0; i < parityShards; i++) {
+            if (!present[dataShards + i]) {
+                missingParity++;
+            }
+        }
+        if (missingParity > 0) {
+            int[][] rows = new int[missingParity][];
+            byte[][] outputs = new byte[missingParity][];
+            int n = 0;
+            for (int i = 0; i < parityShards; i++) {
+                if (!present[dataShards + i]) {
+                    rows[n] = parityRows[i];
+                    outputs[n] = shards[dataShards + i];
+                    n++;
+                }
+            }
+            multiply(rows, shards, outputs, 0, missingParity, offset, length);
+        }
+    }
+
+    private int[][] buildDecodeMatrix(long usedMask) {
+        byte[][] sub = new byte[dataShards][];
+        int r = 0;
+        for (int i = 0; i < getTotalShards(); i++) {
+            if ((usedMask & (1L << i)) == 0) {
+                continue;
+            }
+            byte[] row = new byte[dataShards];
+            if (i < dataShards) {
+                row[i] = 1;
+            } else {
+                for (int j = 0; j < dataShards; j++) {
+                    row[j] = (byte) (parityRows[i - dataShards][j] >>> 8);
+                }
+            }
+            sub[r++] = row;
+        }
+
+        byte[][] inverse = GaloisField.invert(sub);
+        int[][] decode = new int[dataShards][dataShards];
+        for (int i = 0; i < dataShards; i++) {
+            for (int j = 0; j < dataShards; j++) {
+                decode[i][j] = (inverse[i][j] & 0xFF) << 8;
+            }
+        }
+        return decode;
+    }
+
+    /**
+     * outputs[firstOutput + r] = sum over j of rows[r][j] * inputs[j], for the first dataShards
+     * inputs. The first input overwrites each output, the rest are XORed in.
+     */
+    private void multiply(int[][] rows, byte[][] inputs, byte[][] outputs, int firstOutput, int outputCount,
+                          int offset, int length) {
+        byte[] table = GaloisField.MUL_TABLE;
+        int end = offset + length;
+
+        for (int r = 0; r < outputCount; r++) {
+            int[] row = rows[r];
+            byte[] out = outputs[firstOutput + r];
+
+            byte[] in = inputs[0];
+            int base = row[0];
+            for (int p = offset; p < end; p++) {
+                out[p] = table[base | (in[p] & 0xFF)];
+            }
+
+            for (int j = 1; j < dataShards; j++) {
+                in = inputs[j];
+                base = row[j];
+                for (int p = offset; p < end; p++) {
+                    out[p] ^= table[base | (in[p] & 0xFF)];
+                }
+            }
+        }
+    }
+
+    private void checkShards(byte[][] shards, int offset, int length) {
+        if (shards.length != getTotalShards()) {
+            throw new IllegalArgumentException("Expected " + getTotalShards() + " shards, got " + shards.length);
+        }
+        for (byte[] shard : shards) {
+            if (shard == null || shard.length < offset + length) {
+                throw new IllegalArgumentException("Every shard needs at least " + (offset + length) + " bytes");
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.leo.dfss.erasure;
+
+/**
+ * How an erasure-coded file maps onto stored shards.
+ *
+ * The file is cut into chunks of chunkSizeBytes as usual, and every dataShards consecutive chunks
+ * form a stripe. Each stripe is stored as dataShards data shards (the chunks themselves) followed
+ * by parityShards parity shards of chunkSizeBytes each, under chunk indexes
+ * stripe * (dataShards + parityShards) + shard. A short last chunk is encoded as if zero-padded
+ * to chunkSizeBytes, and data shards past the end of the file are empty and never stored.
+ */
+public final class StripeLayout {
+
+    private final long fileSizeBytes;
+    private final int chunkSizeBytes;
+    private final int dataShards;
+    private final int parityShards;
+
+    public StripeLayout(long fileSizeBytes, int chunkSizeBytes, int dataShards, int parityShards) {
+        if (chunkSizeBytes <= 0) {
+            throw new IllegalArgumentException("chunkSizeBytes must be greater than 0");
+        }
+        if (dataShards <= 0 || parityShards <= 0) {
+            throw new IllegalArgumentException("dataShards and parityShards must be greater than 0");
+        }
+        this.fileSizeBytes = fileSizeBytes;
+        this.chunkSizeBytes = chunkSizeBytes;
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+    }
+
+    public long getFileSizeBytes() {
+        return fileSizeBytes;
+    }
+
+    public int getChunkSizeBytes() {
+        return chunkSizeBytes;
+    }
+
+    public int getDataShards() {
+        return dataShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    public int getShardsPerStripe() {
+        return dataShards + parityShards;
+    }
+
+    /** @return number of data chunks in the file */
+    public int getDataChunkCount() {
+        return (int) ((fileSizeBytes + chunkSizeBytes - 1) / chunkSizeBytes);
+    }
+
+    public int getStripeCount() {
+        return (getDataChunkCount() + dataShards - 1) / dataShards;
+    }
+
+    /** @return number of stored shard indexes, including the empty data shards of the last stripe */
+    public int getShardCount() {
+        return getStripeCount() * getShardsPerStripe();
+    }
+
+    public int shardIndex(int stripe, int shard) {
+        return stripe * getShardsPerStripe() + shard;
+    }
+
+    public int stripeOf(int shardIndex) {
+        return shardIndex / getShardsPerStripe();
+    }
+
+    public boolean isParity(int shardIndex) {
+        return shardIndex % getShardsPerStripe() >= dataShards;
+    }
+
+    /**
+     * @param stripe stripe number
+     * @param shard data shard within the stripe
+     * @return offset of that data shard in the file (may be at or past the end of the file)
+     */
+    public long dataOffset(int stripe, int shard) {
+        return ((long) stripe * dataShards + shard) * chunkSizeBytes;
+    }
+
+    /**
+     * @param shardIndex stored shard index
+     * @return stored length of the shard: chunkSizeBytes for parity, the chunk length for data
+     *         (0 for data shards past the end of the file)
+     */
+    public int shardLength(int shardIndex) {
+        if (isParity(shardIndex)) {
+            return chunkSizeBytes;
+        }
+        long offset = dataOffset(stripeOf(shardIndex), shardIndex % getShardsPerStripe());
+        return (int) Math.max(0, Math.min(chunkSizeBytes, fileSizeBytes - offset));
+    }
+}
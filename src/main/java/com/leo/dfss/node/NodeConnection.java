@@ -1,32 +1,74 @@
 package com.leo.dfss.node;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
-import com.leo.dfss.domain.ChunkStore;
+import com.leo.dfss.client.NodeClient;
+import com.leo.dfss.compression.ChunkCodec;
+import com.leo.dfss.domain.ChunkInfo;
+import com.leo.dfss.domain.ChunkRegion;
+import com.leo.dfss.domain.ChunkStorage;
+import com.leo.dfss.domain.Checksums;
+import com.leo.dfss.domain.StagedChunk;
+import com.leo.dfss.protocol.ChunkDownloadRequest;
+import com.leo.dfss.protocol.ChunkDownloadResponse;
 import com.leo.dfss.protocol.ChunkUploadAck;
 import com.leo.dfss.protocol.ChunkUploadRequest;
 import com.leo.dfss.protocol.Message;
+import com.leo.dfss.protocol.NodeAddress;
+import com.leo.dfss.transport.CodecNegotiation;
+import com.leo.dfss.transport.MessageBodyStream;
 import com.leo.dfss.transport.ReceivedMessage;
 import com.leo.dfss.transport.TcpMessageReader;
 import com.leo.dfss.transport.TcpMessageWriter;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
-public class NodeConnection extends Thread {
+/**
+ * Handles a single client connection to a storage node on its own (platform or virtual) thread.
+ *
+ * Uploads are pipelined: the read loop streams each chunk body into a staged file, then hands the
+ * chunk to the server's shared write-behind executor, which commits it (rename, sidecar, fsync) and
+ * sends the ack. A client can therefore keep many CHUNK_UPLOADs in flight on one connection; acks
+ * may arrive out of order and carry the request's requestId.
+ *
+ * The staging write itself stays on the read loop: the next frame follows the body on the socket,
+ * and queueing the write instead would mean holding every pending body in memory. It only reaches
+ * the page cache; what waits for the disk is the commit, which is off the loop. There is no queue
+ * per connection either: MAX_PENDING_UPLOADS bounds each connection's share of the executor.
+ *
+ * If the request names a pipeline (replication chain), the body is forwarded to the next node
+ * while it is written locally, so the client sends each chunk once. The ack waits for the rest of
+ * the chain and reports how many replicas are durable.
+ */
+public class NodeConnection implements Runnable {
 
-    private static final Gson gson = new Gson();
+    // Staged chunks of this connection not yet committed and acked, before the read loop stops reading
+    private static final int MAX_PENDING_UPLOADS = 64;
+
+    // How long to wait for the rest of a replication chain to ack a forwarded chunk
+    private static final long FORWARD_ACK_TIMEOUT_MS = 30_000;
 
     private final Socket socket;
     private final int connectionId;
-    private final ChunkStore chunkStore;
+    private final ChunkStorage chunkStore;
+    private final NodeServer server;
+
+    private final Semaphore pendingUploads = new Semaphore(MAX_PENDING_UPLOADS);
 
     private volatile boolean running = true;
 
-    public NodeConnection(Socket socket, int connectionId, ChunkStore chunkStore) {
+    public NodeConnection(Socket socket, int connectionId, ChunkStorage chunkStore, NodeServer server) {
         this.socket = socket;
         this.connectionId = connectionId;
         this.chunkStore = chunkStore;
+        this.server = server;
     }
 
     @Override
@@ -35,8 +77,9 @@ public class NodeConnection extends Thread {
         System.out.println("NodeConnection thread " + connectionId + " started for " + socket.getRemoteSocketAddress());
 
         try {
-            TcpMessageReader reader = new TcpMessageReader(socket.getInputStream());
-            TcpMessageWriter writer = new TcpMessageWriter(socket.getOutputStream());
+            // Stream bodies so chunk bytes go from the socket to disk without a per-chunk byte[]
+            TcpMessageReader reader = new TcpMessageReader(socket.getInputStream(), true);
+            TcpMessageWriter writer = new TcpMessageWriter(socket.getOutputStream(), socket.getChannel());
 
             // Great client
             writer.send(new Message("WELCOME", "Node connection " + connectionId + "configured."), null);
@@ -49,10 +92,9 @@ public class NodeConnection extends Thread {
                 }
 
                 Message header = received.getHeader();
-                byte[] body = received.getBody();
 
                 if (header == null || header.getType() == null) {
-                    writer.send(new Message("ERROR", "Missing message type"), null);
+                    writer.send(new Message("ERROR", "Missing message type").inReplyTo(header), null);
                     continue;
                 }
 
@@ -60,92 +102,389 @@ public class NodeConnection extends Thread {
 
                 switch (type) {
                     case "PING":
-                        writer.send(new Message("PONG", "Pong (node connection: " + connectionId + ")"), null);
+                        writer.send(new Message("PONG", "Pong (node connection: " + connectionId + ")").inReplyTo(header), null);
+                        break;
+
+                    case "CODEC_SELECT":
+                        awaitPendingUploads(); // no acks in flight while the codec changes
+                        CodecNegotiation.accept(header, reader, writer);
                         break;
 
                     case "CHUNK_UPLOAD":
-                        handleChunkUpload(header, body, writer);
+                        handleChunkUpload(header, received, writer);
+                        break;
+
+                    case "CHUNK_DOWNLOAD":
+                        handleChunkDownload(header, writer);
                         break;
 
                     case "QUIT":
-                        writer.send(new Message("GOODBYE", "Closing node connection"), null);
+                        awaitPendingUploads(); // acks go out before GOODBYE
+                        writer.send(new Message("GOODBYE", "Closing node connection").inReplyTo(header), null);
+                        running = false; // break loop
                         break;
 
                     default:
-                        writer.send(new Message("ERROR", "Unknown message type: " + type), null);
+                        writer.send(new Message("ERROR", "Unknown message type: " + type).inReplyTo(header), null);
                         break;
                 }
             }
         } catch (IOException e) {
             System.out.println("Node connection error: " + e.getMessage());
         } finally {
+            awaitPendingUploads();
             try {
                 socket.close();
             } catch (IOException ignore) {
                 System.out.println("NodeConnection " + connectionId + " closed.");
             }
+            server.removeConnection(this);
         }
     }
 
-    private void handleChunkUpload(Message header, byte[] body, TcpMessageWriter writer) throws IOException {
-        String data = header.getData();
-        if (data == null) {
-            writer.send(new Message("ERROR", "Missing message data"), null);
-            return;
-        }
-
+    private void handleChunkUpload(Message header, ReceivedMessage received, TcpMessageWriter writer) throws IOException {
         ChunkUploadRequest request;
 
         try {
-            request = gson.fromJson(data, ChunkUploadRequest.class);
+            request = header.getPayload(ChunkUploadRequest.class);
         } catch (JsonSyntaxException e) {
-            writer.send(new Message("ERROR", "Invalid data format for CHUNK_UPLOAD"), null);
+            writer.send(new Message("ERROR", "Invalid data format for CHUNK_UPLOAD").inReplyTo(header), null);
+            return;
+        }
+
+        if (request == null) {
+            writer.send(new Message("ERROR", "Missing message data").inReplyTo(header), null);
             return;
         }
 
         if (request.getFileId() == null || request.getFileId().isBlank()) {
-            writer.send(new Message("ERROR", "CHUNK_UPLOAD missing fieldId"), null);
+            writer.send(new Message("ERROR", "CHUNK_UPLOAD missing fieldId").inReplyTo(header), null);
             return;
         }
 
         if (request.getChunkIndex() < 0) {
-            writer.send(new Message("ERROR", "Invalid chunkIndex"), null);
+            writer.send(new Message("ERROR", "Invalid chunkIndex").inReplyTo(header), null);
             return;
         }
 
         if (request.getBodyLength() <= 0) {
-            writer.send(new Message("ERROR", "Invalid bodyLength"), null);
+            writer.send(new Message("ERROR", "Invalid bodyLength").inReplyTo(header), null);
             return;
         }
 
-        if (body == null || body.length != request.getBodyLength()) {
-            writer.send(new Message("ERROR", "Body length does not match length specified in header"), null);
+        if (received.getBodyLength() != request.getBodyLength()) {
+            writer.send(new Message("ERROR", "Body length does not match length specified in header").inReplyTo(header), null);
             return;
         }
 
-        // Write chunk bytes to disk
+        ChunkCodec codec;
         try {
-            chunkStore.writeChunk(request.getFileId(), request.getChunkIndex(), body);
+            codec = ChunkCodec.fromName(request.getCodec());
+        } catch (IllegalArgumentException e) {
+            writer.send(new Message("ERROR", e.getMessage()).inReplyTo(header), null);
+            return;
+        }
+
+        if (codec != ChunkCodec.NONE && request.getRawLength() <= 0) {
+            writer.send(new Message("ERROR", "Invalid rawLength").inReplyTo(header), null);
+            return;
+        }
+
+        // The reader streams bodies (see run()), so the body is still on the socket
+        MessageBodyStream body = (MessageBodyStream) received.getBodyStream();
+
+        // Start forwarding to the next node of the replication chain, if any
+        Forward forward = startForward(request, received.getBodyLength());
+        if (forward != null) {
+            body.forwardTo(forward.upload().body());
+            server.recordNetOut(received.getBodyLength());
+        }
+        server.recordNetIn(received.getBodyLength());
+
+        // Stream chunk bytes from the socket into a staged file; commit and ack happen write-behind
+        pendingUploads.acquireUninterruptibly();
+        StagedChunk staged;
+        try {
+            staged = chunkStore.stageChunk(request.getFileId(), request.getChunkIndex(),
+                    body, received.getBodyLength(), codec,
+                    (codec == ChunkCodec.NONE) ? received.getBodyLength() : request.getRawLength());
+        } catch (EOFException e) {
+            pendingUploads.release();
+            closeForward(forward);
+            throw e; // connection closed mid-body, nothing left to acknowledge
         } catch (Exception e) {
+            pendingUploads.release();
+            closeForward(forward);
             // Acknowledge chunk upload error
-            ChunkUploadAck ack = new ChunkUploadAck();
-            ack.setFileId(request.getFileId());
-            ack.setChunkIndex(request.getChunkIndex());
-            ack.setStatus("ERROR");
-            ack.setMessage("Failed to write chunk");
+            writer.send(Message.of("CHUNK_UPLOAD_ACK",
+                    uploadAck(request.getFileId(), request.getChunkIndex(), "ERROR", "Failed to write chunk"))
+                    .inReplyTo(header), null);
+            return;
+        }
 
-            writer.send(new Message("CHUNK_UPLOAD_ACK", gson.toJson(ack)), null);
+        // The staging pass computed the CRC32C of what arrived; compare it with the client's
+        if (request.getChecksum() != ChunkInfo.UNKNOWN_CHECKSUM
+                && request.getChecksum() != staged.getInfo().getChecksum()) {
+            closeForward(forward); // the next node sees the same bytes and rejects them too
+            chunkStore.discardChunk(staged);
+            pendingUploads.release();
+            writer.send(Message.of("CHUNK_UPLOAD_ACK",
+                    uploadAck(request.getFileId(), request.getChunkIndex(), "ERROR", "Checksum mismatch"))
+                    .inReplyTo(header), null);
             return;
         }
 
-        // Acknowledge chunk upload success
+        CompletableFuture<ChunkUploadAck> downstream = (forward != null && closeForward(forward)
+                && body.getForwardFailure() == null)
+                ? forward.upload().ack().orTimeout(FORWARD_ACK_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                : CompletableFuture.completedFuture(null);
+
+        try {
+            server.getWriteBehindExecutor().execute(() ->
+                    finishChunkUpload(header, staged, request.getWriteQuorum(), downstream, writer));
+        } catch (RejectedExecutionException e) {
+            pendingUploads.release();
+            chunkStore.discardChunk(staged);
+            throw new IOException("Node is shutting down");
+        }
+    }
+
+    /** A chunk being forwarded to the next node, on a connection leased from the server's PeerPool. */
+    private record Forward(NodeAddress node, NodeClient peer, NodeClient.StreamingUpload upload) {
+    }
+
+    /**
+     * Opens the upload to the next node of the chain, passing on the rest of the chain.
+     *
+     * @return the forward in progress, or null if there is no next node or it cannot be reached
+     */
+    private Forward startForward(ChunkUploadRequest request, int length) {
+        List<NodeAddress> pipeline = request.getPipeline();
+        if (pipeline == null || pipeline.isEmpty()) {
+            return null;
+        }
+
+        ChunkUploadRequest next = new ChunkUploadRequest();
+        next.setFileId(request.getFileId());
+        next.setChunkIndex(request.getChunkIndex());
+        next.setChecksum(request.getChecksum());
+        next.setCodec(request.getCodec());
+        next.setRawLength(request.getRawLength());
+        next.setPipeline(pipeline.subList(1, pipeline.size()));
+        next.setWriteQuorum(1); // the quorum is judged here, downstream only reports its count
+
+        NodeAddress node = pipeline.get(0);
+        NodeClient peer = null;
+        try {
+            peer = server.getPeers().lease(node);
+            return new Forward(node, peer, peer.startUpload(next, length));
+        } catch (IOException e) {
+            if (peer != null) {
+                server.getPeers().release(node, peer);
+            }
+            System.out.println("NodeConnection " + connectionId + " could not forward chunk to "
+                    + pipeline.get(0).getHost() + ":" + pipeline.get(0).getPort() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Ends the forwarded body and returns the connection to the pool; its ack still arrives.
+     *
+     * @return true if the whole body was forwarded
+     */
+    private boolean closeForward(Forward forward) {
+        if (forward == null) {
+            return false;
+        }
+        try {
+            forward.upload().body().close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            server.getPeers().release(forward.node(), forward.peer());
+        }
+    }
+
+    /**
+     * Write-behind half of an upload: makes the staged chunk visible, waits for it to be durable
+     * (a group commit batch in GROUP_COMMIT mode) and for the rest of the replication chain, without
+     * blocking this thread, and acknowledges it. The ack is OK once at least writeQuorum replicas,
+     * this one included, are durable.
+     */
+    private void finishChunkUpload(Message header, StagedChunk staged, int writeQuorum,
+                                   CompletableFuture<ChunkUploadAck> downstream, TcpMessageWriter writer) {
+
+        CompletableFuture<Integer> local = chunkStore.commitChunkAsync(staged)
+                .handle((info, error) -> (error == null) ? 1 : 0);
+        CompletableFuture<Integer> others = downstream
+                .handle((downstreamAck, error) -> (downstreamAck == null) ? 0 : downstreamAck.getReplicasDurable());
+
+        // Acks go out on the write-behind executor, so a slow client never stalls the group commit thread
+        local.thenCombineAsync(others, Integer::sum, server.getWriteBehindExecutor())
+                .whenComplete((replicas, error) -> {
+                    try {
+                        if (replicas == null) {
+                            return; // the node is shutting down
+                        }
+                        int quorum = Math.max(1, writeQuorum);
+
+                        ChunkUploadAck ack;
+                        if (replicas >= quorum) {
+                            ack = uploadAck(staged.getFileId(), staged.getChunkIndex(), "OK", "Chunk uploaded successfully");
+                        } else if (quorum == 1) {
+                            ack = uploadAck(staged.getFileId(), staged.getChunkIndex(), "ERROR", "Failed to write chunk");
+                        } else {
+                            ack = uploadAck(staged.getFileId(), staged.getChunkIndex(), "ERROR",
+                                    "Write quorum not met (" + replicas + " of " + quorum + " replicas durable)");
+                        }
+                        ack.setReplicasDurable(replicas);
+
+                        writer.send(Message.of("CHUNK_UPLOAD_ACK", ack).inReplyTo(header), null);
+                    } catch (IOException e) {
+                        System.out.println("NodeConnection " + connectionId + " could not send ack: " + e.getMessage());
+                    } finally {
+                        pendingUploads.release();
+                    }
+                });
+    }
+
+    private static ChunkUploadAck uploadAck(String fileId, int chunkIndex, String status, String message) {
         ChunkUploadAck ack = new ChunkUploadAck();
-        ack.setFileId(request.getFileId());
-        ack.setChunkIndex(request.getChunkIndex());
-        ack.setStatus("OK");
-        ack.setMessage("Chunk uploaded successfully");
+        ack.setFileId(fileId);
+        ack.setChunkIndex(chunkIndex);
+        ack.setStatus(status);
+        ack.setMessage(message);
+        return ack;
+    }
+
+    /** Blocks until every staged upload on this connection has been committed and acked. */
+    private void awaitPendingUploads() {
+        pendingUploads.acquireUninterruptibly(MAX_PENDING_UPLOADS);
+        pendingUploads.release(MAX_PENDING_UPLOADS);
+    }
+
+    private void handleChunkDownload(Message header, TcpMessageWriter writer) throws IOException {
+        ChunkDownloadRequest request;
+
+        try {
+            request = header.getPayload(ChunkDownloadRequest.class);
+        } catch (JsonSyntaxException e) {
+            writer.send(new Message("ERROR", "Invalid data format for CHUNK_DOWNLOAD").inReplyTo(header), null);
+            return;
+        }
+
+        if (request == null) {
+            writer.send(new Message("ERROR", "Missing message data").inReplyTo(header), null);
+            return;
+        }
 
-        writer.send(new Message("CHUNK_UPLOAD_ACK", gson.toJson(ack)), null);
+        if (request.getFileId() == null || request.getFileId().isBlank()) {
+            writer.send(new Message("ERROR", "CHUNK_DOWNLOAD missing fileId").inReplyTo(header), null);
+            return;
+        }
+
+        if (request.getChunkIndex() < 0) {
+            writer.send(new Message("ERROR", "Invalid chunkIndex").inReplyTo(header), null);
+            return;
+        }
+
+        ChunkDownloadResponse response = new ChunkDownloadResponse();
+        response.setFileId(request.getFileId());
+        response.setChunkIndex(request.getChunkIndex());
+        response.setOffset(request.getOffset());
+
+        ChunkRegion opened;
+        try {
+            opened = chunkStore.openChunk(request.getFileId(), request.getChunkIndex());
+        } catch (IOException e) {
+            // e.g. the chunk failed its checksum while being loaded into memory
+            response.setStatus("ERROR");
+            response.setMessage("Chunk unreadable: " + e.getMessage());
+            writer.send(Message.of("CHUNK_DOWNLOAD_RESPONSE", response).inReplyTo(header), null);
+            return;
+        }
+
+        try (ChunkRegion region = opened) {
+            if (region == null) {
+                response.setStatus("ERROR");
+                response.setMessage("Chunk not found");
+                writer.send(Message.of("CHUNK_DOWNLOAD_RESPONSE", response).inReplyTo(header), null);
+                return;
+            }
+
+            ChunkInfo info = region.getInfo();
+            long chunkLength = info.isCompressed() ? info.getRawLength() : region.getLength();
+            long offset = request.getOffset();
+            long length = (request.getLength() < 0) ? chunkLength - offset : request.getLength();
+
+            response.setChunkLength(chunkLength);
+            response.setChecksum(info.getChecksum());
+
+            // Compared as length > chunkLength - offset: offset + length can overflow
+            if (offset < 0 || offset > chunkLength || length < 0 || length > chunkLength - offset) {
+                response.setStatus("ERROR");
+                response.setMessage("Range outside chunk (length " + chunkLength + ")");
+                writer.send(Message.of("CHUNK_DOWNLOAD_RESPONSE", response).inReplyTo(header), null);
+                return;
+            }
+
+            response.setStatus("OK");
+
+            if (info.isCompressed() && !(request.isAcceptCompressed() && offset == 0 && length == chunkLength)) {
+                // The client wants plain bytes, or only part of the chunk: decompress it here
+                byte[] raw;
+                try {
+                    byte[] stored = ChunkStorage.readStored(region, request.getFileId(), request.getChunkIndex());
+                    raw = info.getCodec().decompress(stored, 0, stored.length, (int) chunkLength);
+                } catch (IOException e) {
+                    response.setStatus("ERROR");
+                    response.setMessage("Chunk unreadable: " + e.getMessage());
+                    writer.send(Message.of("CHUNK_DOWNLOAD_RESPONSE", response).inReplyTo(header), null);
+                    return;
+                }
+                response.setChecksum(Checksums.crc32c(raw, 0, raw.length));
+                response.setBodyLength((int) length);
+                writer.sendBuffer(Message.of("CHUNK_DOWNLOAD_RESPONSE", response).inReplyTo(header),
+                        ByteBuffer.wrap(raw, (int) offset, (int) length));
+                server.recordNetOut(length);
+                return;
+            }
+
+            long sendLength = length;
+            if (info.isCompressed()) {
+                // The whole chunk, as stored: the client decompresses it
+                response.setCodec(info.getCodec().name());
+                sendLength = region.getLength();
+            }
+            response.setBodyLength((int) sendLength);
+
+            Message message = Message.of("CHUNK_DOWNLOAD_RESPONSE", response).inReplyTo(header);
+            if (region.isInMemory()) {
+                // Header first, then the chunk bytes straight from memory (checked when loaded)
+                writer.sendBuffer(message, region.getBuffer().slice((int) offset, (int) sendLength));
+            } else if (sendLength < region.getLength()) {
+                // The client cannot check part of a chunk against its CRC, so read the whole chunk
+                // once, check it here and send the range from the bytes that were checked
+                byte[] stored;
+                try {
+                    stored = ChunkStorage.readStored(region, request.getFileId(), request.getChunkIndex());
+                } catch (IOException e) {
+                    response.setStatus("ERROR");
+                    response.setMessage("Chunk unreadable: " + e.getMessage());
+                    response.setBodyLength(0);
+                    writer.send(Message.of("CHUNK_DOWNLOAD_RESPONSE", response).inReplyTo(header), null);
+                    return;
+                }
+                writer.sendBuffer(message, ByteBuffer.wrap(stored, (int) offset, (int) sendLength));
+            } else {
+                // The whole chunk: header first, then the bytes go file -> socket via transferTo, and
+                // the client checks them against the CRC
+                writer.send(message, region.getChannel(), region.getPosition() + offset, (int) sendLength);
+            }
+            server.recordNetOut(sendLength);
+        }
     }
 
     public void shutdown() {
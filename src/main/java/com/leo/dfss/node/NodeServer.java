@@ -1,71 +1,259 @@
 package com.leo.dfss.node;
 
-import com.google.gson.Gson;
+import com.leo.dfss.client.NodeClient;
+import com.leo.dfss.compression.ChunkCodec;
+import com.leo.dfss.domain.CachedChunkStorage;
+import com.leo.dfss.domain.ChunkCache;
+import com.leo.dfss.domain.ChunkInfo;
+import com.leo.dfss.domain.ChunkRegion;
+import com.leo.dfss.domain.ChunkStorage;
 import com.leo.dfss.domain.ChunkStore;
+import com.leo.dfss.domain.DurabilityMode;
+import com.leo.dfss.domain.ForwardingChunkStorage;
+import com.leo.dfss.domain.MappedChunkStorage;
+import com.leo.dfss.domain.MappedRegionCache;
+import com.leo.dfss.domain.SegmentChunkStore;
+import com.leo.dfss.domain.SyncStats;
+import com.leo.dfss.protocol.ChunkCopyTask;
+import com.leo.dfss.protocol.ChunkReport;
+import com.leo.dfss.protocol.ChunkUploadAck;
+import com.leo.dfss.protocol.ChunkUploadRequest;
 import com.leo.dfss.protocol.Message;
+import com.leo.dfss.protocol.NodeAddress;
 import com.leo.dfss.protocol.NodeHeartbeat;
+import com.leo.dfss.protocol.NodeHeartbeatAck;
 import com.leo.dfss.protocol.NodeRegisterRequest;
+import com.leo.dfss.transport.BinaryMessageCodec;
+import com.leo.dfss.transport.CodecNegotiation;
+import com.leo.dfss.transport.ConnectionMode;
 import com.leo.dfss.transport.ReceivedMessage;
 import com.leo.dfss.transport.TcpMessageReader;
 import com.leo.dfss.transport.TcpMessageWriter;
 
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.CopyOnWriteArrayList;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Storage node: accepts client connections for chunk traffic and keeps a registration/heartbeat
+ * connection to the Coordinator. Every heartbeat carries the node's free space, connections and
+ * disk/network throughput, and the chunks it stored or removed since the last acknowledged one
+ * (see NodeHeartbeat); acks are read on a separate thread.
+ *
+ * Configuration (system properties):
+ *   dfss.node.port    = client port (default 9100)
+ *   dfss.node.dataDir = chunk storage directory, also holding the node id (default node-data)
+ *   dfss.node.mode    = thread | virtual (default thread)
+ *   dfss.node.heartbeatMs = interval between heartbeats to the coordinator (default 1000); the
+ *                       coordinator's failure detector learns it, see dfss.coordinator.heartbeatMs
+ *   dfss.node.writers = write-behind threads finalising uploaded chunks in thread mode
+ *                       (default 2x cores; virtual mode uses a virtual thread per chunk)
+ *   dfss.node.durability      = none | chunk | group: when an uploaded chunk is fsynced before its
+ *                               ack (default group, see DurabilityMode)
+ *   dfss.node.syncBatch       = most chunks per group commit fsync batch (default 64)
+ *   dfss.node.syncDelayMicros = longest a batch waits for more chunks after its first (default 500)
+ *   dfss.node.storage         = files | segments: one file per chunk (ChunkStore, default) or
+ *                               chunks appended to segment files (SegmentChunkStore)
+ *   dfss.node.segmentBytes    = segment size in segments mode (default 256 MiB)
+ *   dfss.node.checkpointRecords   = records between index checkpoints in segments mode (default 100000)
+ *   dfss.node.compactionThreshold = live share below which a segment is compacted (default 0.5)
+ *   dfss.node.mmapCacheBytes  = when above 0, chunk downloads are served from memory-mapped chunks,
+ *                               keeping up to this many bytes mapped (MappedChunkStorage; default 0,
+ *                               chunks are sent with transferTo)
+ *   dfss.node.mmapCacheChunks = most chunks kept mapped (default 16384)
+ *   dfss.node.chunkCacheBytes = when above 0, hot chunks are kept in an off-heap W-TinyLFU cache of
+ *                               this many bytes (CachedChunkStorage; default 0). Needs
+ *                               -XX:MaxDirectMemorySize above it when larger than the heap.
+ */
 public class NodeServer {
 
-    private static final Gson gson = new Gson();
+    // Pending connections the OS queues before accept(), sized for bursts of many clients
+    private static final int ACCEPT_BACKLOG = 1024;
 
     private final String coordinatorHost = "localhost";
     private final int coordinatorPort = 9000;
+    private static final long COORDINATOR_RETRY_MS = 2_000;
+    private static final long CAPACITY_BYTES = 50_000_000_000L;
+    private static final long HEARTBEAT_INTERVAL_MS = Long.getLong("dfss.node.heartbeatMs", 1_000);
+    // Threads sending repair copies; the coordinator bounds the copies a node has at once
+    private static final int REPAIR_THREADS = 4;
 
-    private final String nodeId = "node-" + UUID.randomUUID();
+    // Kept in the data dir, so a restarted node is the same node to the coordinator (set by start)
+    private static final String NODE_ID_FILE = "node-id";
+    private String nodeId;
 
     private final int port;
-    private final ChunkStore chunkStore;
+    private final ChunkStorage chunkStore;
+    private final ReportingChunkStorage reporting; // the engine, inside any read cache
+    private final ConnectionMode mode;
+
+    // Live connections, removed when their thread ends
+    private final Set<NodeConnection> connections = ConcurrentHashMap.newKeySet();
+    private ExecutorService connectionExecutor;
+
+    // Finalises staged chunks and sends their acks, off the connection's read loop
+    private final ExecutorService writeBehindExecutor;
 
-    private final CopyOnWriteArrayList<NodeConnection> connections = new CopyOnWriteArrayList<>();
+    // Sends the repair copies the coordinator hands out with heartbeat acks
+    private final ExecutorService repairExecutor = Executors.newFixedThreadPool(REPAIR_THREADS,
+            Thread.ofPlatform().name("chunk-repair-", 1).daemon().factory());
+
+    // Connections to other nodes, leased for each chunk forwarded down a replication chain
+    private final PeerPool peers = new PeerPool();
+    // Separate connections for repair copies, so a copy never holds one a client chain could use
+    private final PeerPool repairPeers = new PeerPool();
 
     private Socket coordinatorSocket;
     private TcpMessageReader coordinatorReader;
     private TcpMessageWriter coordinatorWriter;
     private Thread coordinatorThread;
+    private volatile ServerSocketChannel serverChannel;
 
     private volatile boolean running = true;
 
+    // Heartbeat sequence, increasing across restarts too (see NodeHeartbeat)
+    private long nextSequence = System.currentTimeMillis() * 1_000;
+    private final PendingReports pendingReports = new PendingReports();
+
+    // Chunk bytes over the network, and the counters at the last heartbeat (for its rates)
+    private final LongAdder netBytesIn = new LongAdder();
+    private final LongAdder netBytesOut = new LongAdder();
+    private long lastRatesNanos = System.nanoTime();
+    private long lastDiskRead;
+    private long lastDiskWritten;
+    private long lastNetIn;
+    private long lastNetOut;
+
     public NodeServer(int port, Path baseDir) {
+        this(port, baseDir, ConnectionMode.THREAD_PER_CONNECTION);
+    }
+
+    public NodeServer(int port, Path baseDir, ConnectionMode mode) {
+        if (mode == ConnectionMode.NIO) {
+            throw new IllegalArgumentException("NIO mode is only supported by the CoordinatorServer");
+        }
         this.port = port;
-        this.chunkStore = new ChunkStore(baseDir);
+        this.reporting = new ReportingChunkStorage(newChunkEngine(baseDir));
+        this.chunkStore = withReadCaches(reporting);
+        this.mode = mode;
+        this.writeBehindExecutor = (mode == ConnectionMode.VIRTUAL_THREADS)
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chunk-writer-", 1).factory())
+                : Executors.newFixedThreadPool(
+                        Integer.getInteger("dfss.node.writers", 2 * Runtime.getRuntime().availableProcessors()),
+                        Thread.ofPlatform().name("chunk-writer-", 1).daemon().factory());
+    }
+
+    private static ChunkStorage newChunkEngine(Path baseDir) {
+        DurabilityMode durability = DurabilityMode.fromName(System.getProperty("dfss.node.durability"));
+        int syncBatch = Integer.getInteger("dfss.node.syncBatch", 64);
+        long syncDelayMicros = Long.getLong("dfss.node.syncDelayMicros", 500);
+
+        String storage = System.getProperty("dfss.node.storage", "files");
+        ChunkStorage engine;
+        if (storage.equalsIgnoreCase("segments")) {
+            engine = new SegmentChunkStore(baseDir, durability, syncBatch, syncDelayMicros,
+                    Long.getLong("dfss.node.segmentBytes", SegmentChunkStore.DEFAULT_SEGMENT_BYTES),
+                    Long.getLong("dfss.node.checkpointRecords", SegmentChunkStore.DEFAULT_CHECKPOINT_RECORDS),
+                    Double.parseDouble(System.getProperty("dfss.node.compactionThreshold",
+                            String.valueOf(SegmentChunkStore.DEFAULT_COMPACTION_THRESHOLD))));
+        } else if (storage.equalsIgnoreCase("files")) {
+            engine = new ChunkStore(baseDir, durability, syncBatch, syncDelayMicros);
+        } else {
+            throw new IllegalArgumentException("Unknown chunk storage: " + storage);
+        }
+        return engine;
+    }
+
+    private static ChunkStorage withReadCaches(ChunkStorage engine) {
+        long mmapCacheBytes = Long.getLong("dfss.node.mmapCacheBytes", 0);
+        if (mmapCacheBytes > 0) {
+            engine = new MappedChunkStorage(engine, mmapCacheBytes,
+                    Long.getLong("dfss.node.mmapCacheChunks", MappedRegionCache.DEFAULT_MAX_CHUNKS));
+        }
+
+        long chunkCacheBytes = Long.getLong("dfss.node.chunkCacheBytes", 0);
+        if (chunkCacheBytes > 0) {
+            engine = new CachedChunkStorage(engine, chunkCacheBytes);
+        }
+        return engine;
     }
 
     public static void main(String[] args) {
-        // Example: NodeServer on 9100 storing chunks under ./node-data
-        new NodeServer(9100, Path.of("node-data")).start();
+        // Default: NodeServer on 9100 storing chunks under ./node-data
+        int port = Integer.getInteger("dfss.node.port", 9100);
+        Path dataDir = Path.of(System.getProperty("dfss.node.dataDir", "node-data"));
+        ConnectionMode mode = ConnectionMode.fromName(System.getProperty("dfss.node.mode"));
+        new NodeServer(port, dataDir, mode).start();
+    }
+
+    /**
+     * @return the node id stored in the data dir, or a new one (stored there) on the first start.
+     *         The chunks on disk belong to this id; a new id on every start would make the
+     *         coordinator treat each restart as a new node.
+     */
+    private static String loadNodeId(Path baseDir) throws IOException {
+        Path file = baseDir.resolve(NODE_ID_FILE);
+        if (Files.exists(file)) {
+            String stored = Files.readString(file).trim();
+            if (!stored.isEmpty()) {
+                return stored;
+            }
+        }
+
+        String created = "node-" + UUID.randomUUID();
+        Files.createDirectories(baseDir);
+        Path tmp = baseDir.resolve(NODE_ID_FILE + ".tmp");
+        Files.writeString(tmp, created);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return created;
     }
 
     public void start() {
-        System.out.println("NodeServer starting on port " + port + "...");
-        System.out.println("ChunkStore base dir: " + chunkStore.getBaseDir().toAbsolutePath());
+        System.out.println("NodeServer starting on port " + port + " (" + mode + ")...");
+        System.out.println("Chunk storage: " + reporting.getDelegate().getClass().getSimpleName() + " in "
+                + chunkStore.getBaseDir().toAbsolutePath() + " (durability " + chunkStore.getDurability() + ")");
+
+        try {
+            chunkStore.open();
+            nodeId = loadNodeId(chunkStore.getBaseDir());
+        } catch (IOException e) {
+            System.out.println("Could not open chunk storage: " + e.getMessage());
+            chunkStore.close();
+            return;
+        }
         System.out.println("Node id: " + nodeId);
 
         startCoordinatorClient();
 
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
+        connectionExecutor = mode.newConnectionExecutor("node-connection-");
+
+        // Accept through a channel so every socket has a SocketChannel for zero-copy transferTo
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+            this.serverChannel = serverChannel;
             System.out.println("NodeServer listening on port: " + port);
 
             int nextConnectionId = 1;
 
             while (running) {
-                Socket socket = serverSocket.accept();
+                Socket socket = serverChannel.accept().socket(); // blocking channel, stream I/O still works
                 System.out.println("Accepted connection from " + socket.getRemoteSocketAddress());
 
-                NodeConnection connection = new NodeConnection(socket, nextConnectionId++, chunkStore);
+                NodeConnection connection = new NodeConnection(socket, nextConnectionId++, chunkStore, this);
                 connections.add(connection);
-                connection.start();
+                connectionExecutor.execute(connection);
             }
         }   catch (IOException e) {
             if (running) {
@@ -76,6 +264,10 @@ public class NodeServer {
         } finally {
             stopCoordinatorClient();
             shutdownAllConnections();
+            connectionExecutor.shutdownNow();
+            writeBehindExecutor.shutdownNow();
+            repairExecutor.shutdownNow();
+            chunkStore.close();
         }
     }
 
@@ -94,14 +286,17 @@ public class NodeServer {
                                 " " + welcome.getHeader().getData());
                     }
 
+                    // Heartbeats are sent as fixed-width binary frames when the coordinator supports them
+                    CodecNegotiation.request(coordinatorReader, coordinatorWriter, BinaryMessageCodec.NAME);
+
                     // Send NODE_REGISTER (with this NdeServer's data port)
                     NodeRegisterRequest request = new NodeRegisterRequest();
                     request.setNodeId(nodeId);
                     request.setHost("localhost");
                     request.setPort(port);
-                    request.setCapacityBytes(50_000_000_000L);
+                    request.setCapacityBytes(CAPACITY_BYTES);
 
-                    coordinatorWriter.send(new Message("NODE_REGISTER", gson.toJson(request)), null);
+                    coordinatorWriter.send(Message.of("NODE_REGISTER", request), null);
 
                     ReceivedMessage requestAck = coordinatorReader.read();
                     if (requestAck != null) {
@@ -109,41 +304,241 @@ public class NodeServer {
                                 " " + requestAck.getHeader().getData());
                     }
 
+                    // Acks are read on their own thread, so a slow coordinator never delays a heartbeat
+                    Socket socket = coordinatorSocket;
+                    TcpMessageReader reader = coordinatorReader;
+                    Thread acks = new Thread(() -> readHeartbeatAcks(socket, reader), "coordinator-acks");
+                    acks.setDaemon(true);
+                    acks.start();
+
+                    // Chunk reports the previous connection did not get acknowledged go first
+                    for (PendingReports.Report report : pendingReports.unacknowledged()) {
+                        sendHeartbeat(report);
+                    }
+
                     // Heartbeat loop
                     while (running) {
-                        NodeHeartbeat hb = new NodeHeartbeat();
-                        hb.setNodeId(nodeId);
-                        hb.setTimestampEpochMs(System.currentTimeMillis());
-                        hb.setFreeBytes(0L);
-
-                        coordinatorWriter.send(new Message("NODE_HEARTBEAT", gson.toJson(hb)), null);
-
-                        // Read heartbeat acknowledgement
-                        ReceivedMessage hbAck = coordinatorReader.read();
-                        if (hbAck != null) {
-                            System.out.println("Coordinator: " + hbAck.getHeader().getType() +
-                                    " " + hbAck.getHeader().getData());
+                        ChunkReport.Builder changes = reporting.drainReport();
+                        PendingReports.Report report = new PendingReports.Report(nextSequence++,
+                                changes.isEmpty() ? null : changes.encode(), changes.getAdded(), changes.getRemoved());
+                        if (report.body() != null) {
+                            pendingReports.add(report);
                         }
+                        sendHeartbeat(report);
+                        logStorageStats();
 
-                        Thread.sleep(5000);
+                        Thread.sleep(HEARTBEAT_INTERVAL_MS);
                     }
 
                 } catch (Exception e) {
-                    System.out.println("NodeServer stopped");
+                    System.out.println("Coordinator connection lost: " + e.getMessage());
                 } finally {
                     try {
-                        coordinatorSocket.close();
+                        if (coordinatorSocket != null) {
+                            coordinatorSocket.close();
+                        }
                     } catch (IOException e) {
                         e.printStackTrace();
                     }
                 }
+
+                // Back off before reconnecting so an unreachable coordinator is not busy-polled
+                try {
+                    Thread.sleep(COORDINATOR_RETRY_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
             }
-        }, "ThreadName");
+        }, "coordinator-client");
 
         coordinatorThread.setDaemon(true);
         coordinatorThread.start();
     }
 
+    /**
+     * Sends a heartbeat with the node's current load and the given chunk report, without waiting
+     * for its ack.
+     */
+    private void sendHeartbeat(PendingReports.Report report) throws IOException {
+        NodeHeartbeat hb = new NodeHeartbeat();
+        hb.setNodeId(nodeId);
+        hb.setSequence(report.sequence());
+        hb.setTimestampEpochMs(System.currentTimeMillis());
+        setVolumeStats(hb);
+        hb.setActiveConnections(connections.size());
+        hb.setChunksAdded(report.added());
+        hb.setChunksRemoved(report.removed());
+
+        // Rates since the previous heartbeat
+        long now = System.nanoTime();
+        long diskRead = reporting.getBytesRead();
+        long diskWritten = reporting.getBytesWritten();
+        long netIn = netBytesIn.sum();
+        long netOut = netBytesOut.sum();
+        double seconds = Math.max(1e-3, (now - lastRatesNanos) / 1e9);
+        hb.setDiskReadBytesPerSec((long) ((diskRead - lastDiskRead) / seconds));
+        hb.setDiskWriteBytesPerSec((long) ((diskWritten - lastDiskWritten) / seconds));
+        hb.setNetInBytesPerSec((long) ((netIn - lastNetIn) / seconds));
+        hb.setNetOutBytesPerSec((long) ((netOut - lastNetOut) / seconds));
+        lastRatesNanos = now;
+        lastDiskRead = diskRead;
+        lastDiskWritten = diskWritten;
+        lastNetIn = netIn;
+        lastNetOut = netOut;
+
+        if (chunkStore instanceof CachedChunkStorage cached) {
+            ChunkCache cache = cached.getCache();
+            hb.setCacheHits(cache.getHits());
+            hb.setCacheMisses(cache.getMisses());
+            hb.setCacheEvictions(cache.getEvictions());
+            hb.setCacheBytes(cache.getBytes());
+        }
+
+        coordinatorWriter.send(Message.of("NODE_HEARTBEAT", hb), report.body());
+    }
+
+    /**
+     * Reads heartbeat acks until the connection closes. Closes the socket on any error, so the
+     * heartbeat loop reconnects and registers again.
+     */
+    private void readHeartbeatAcks(Socket socket, TcpMessageReader reader) {
+        try {
+            ReceivedMessage received;
+            while ((received = reader.read()) != null) {
+                Message header = received.getHeader();
+                if ("NODE_HEARTBEAT_ACK".equals(header.getType())) {
+                    NodeHeartbeatAck ack = header.getPayload(NodeHeartbeatAck.class);
+                    if (!"OK".equals(ack.getStatus())) {
+                        System.out.println("Coordinator rejected the chunk report of heartbeat " + ack.getSequence());
+                    }
+                    pendingReports.acknowledge(ack.getSequence());
+                    for (ChunkCopyTask copy : ack.getCopies()) {
+                        try {
+                            repairExecutor.execute(() -> copyChunk(copy));
+                        } catch (RejectedExecutionException e) {
+                            break; // shutting down
+                        }
+                    }
+                } else {
+                    System.out.println("Coordinator: " + header.getType() + " " + header.getData());
+                    break;
+                }
+            }
+        } catch (Exception e) {
+            if (!socket.isClosed()) {
+                System.out.println("Coordinator ack stream failed: " + e.getMessage());
+            }
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    /**
+     * Sends a chunk, as stored, to the node the coordinator chose for a new replica of it. The
+     * bytes go file -> socket with transferTo, like a chunk forwarded down a replication chain, or
+     * straight from the buffer of a chunk held in memory; the coordinator learns of the copy from
+     * the target's chunk report.
+     */
+    private void copyChunk(ChunkCopyTask copy) {
+        String chunk = "chunk " + copy.getChunkIndex() + " of " + copy.getFileId();
+        NodeAddress target = copy.getTarget();
+        try (ChunkRegion region = reporting.openChunk(copy.getFileId(), copy.getChunkIndex())) {
+            if (region == null) {
+                System.out.println("Repair copy of " + chunk + " failed: not stored here");
+                return;
+            }
+
+            ChunkInfo info = region.getInfo();
+            int length = (int) region.getLength();
+            ChunkUploadRequest request = new ChunkUploadRequest();
+            request.setFileId(copy.getFileId());
+            request.setChunkIndex(copy.getChunkIndex());
+            request.setChecksum(info.getChecksum());
+            if (info.getCodec() != ChunkCodec.NONE) {
+                request.setCodec(info.getCodec().name());
+                request.setRawLength((int) info.getRawLength());
+            }
+            request.setWriteQuorum(1);
+
+            ChunkUploadAck ack;
+            NodeClient peer = repairPeers.lease(target);
+            try {
+                ack = region.isInMemory()
+                        ? peer.copyChunk(request, region.getBuffer())
+                        : peer.copyChunk(request, region.getChannel(), region.getPosition(), length);
+            } finally {
+                repairPeers.release(target, peer);
+            }
+            recordNetOut(length);
+
+            if (!"OK".equals(ack.getStatus())) {
+                System.out.println("Repair copy of " + chunk + " to " + target.getNodeId() + " failed: " + ack.getMessage());
+            }
+        } catch (IOException e) {
+            System.out.println("Repair copy of " + chunk + " to " + target.getNodeId() + " failed: " + e.getMessage());
+        }
+    }
+
+    /** Sets usable space for chunks (the disk's free space, capped at the advertised capacity) and used space. */
+    private void setVolumeStats(NodeHeartbeat hb) {
+        try {
+            Files.createDirectories(chunkStore.getBaseDir());
+            FileStore volume = Files.getFileStore(chunkStore.getBaseDir());
+            hb.setFreeBytes(Math.min(CAPACITY_BYTES, volume.getUsableSpace()));
+            hb.setUsedBytes(volume.getTotalSpace() - volume.getUnallocatedSpace());
+        } catch (IOException e) {
+            // not reported: 0
+        }
+    }
+
+    /** Counts chunk bytes received from clients and upstream nodes. */
+    void recordNetIn(long bytes) {
+        netBytesIn.add(bytes);
+    }
+
+    /** Counts chunk bytes sent to clients and downstream nodes. */
+    void recordNetOut(long bytes) {
+        netBytesOut.add(bytes);
+    }
+
+    // Chunk count at the last sync stats line, so idle heartbeats do not repeat it
+    private long loggedSyncedChunks;
+
+    // Cache lookups at the last cache counters line
+    private long loggedCacheReads;
+
+    /**
+     * Prints the group commit batch sizes and fsync latencies when chunks were synced since last
+     * time, and the read cache counters when chunks were read since last time.
+     */
+    private void logStorageStats() {
+        SyncStats stats = chunkStore.getSyncStats();
+        long chunks = stats.getChunkCount();
+        if (chunks != loggedSyncedChunks) {
+            loggedSyncedChunks = chunks;
+            System.out.println("Chunk sync: " + stats);
+        }
+
+        long reads = 0;
+        StringBuilder caches = new StringBuilder("Chunk reads:");
+        for (ChunkStorage storage = chunkStore; storage instanceof ForwardingChunkStorage forwarding;
+             storage = forwarding.getDelegate()) {
+            if (forwarding instanceof CachedChunkStorage cached) {
+                reads += cached.getCache().getHits() + cached.getCache().getMisses();
+                caches.append(' ').append(cached.getCache());
+            } else if (forwarding instanceof MappedChunkStorage mapped) {
+                reads += mapped.getCache().getHits() + mapped.getCache().getMisses();
+                caches.append(' ').append(mapped.getCache());
+            }
+        }
+        if (reads != loggedCacheReads) {
+            loggedCacheReads = reads;
+            System.out.println(caches);
+        }
+    }
+
     private void stopCoordinatorClient() {
         try {
             if (coordinatorSocket != null) {
@@ -156,16 +551,44 @@ public class NodeServer {
         }
     }
 
+    /** Called by a NodeConnection when its socket closes. */
+    void removeConnection(NodeConnection connection) {
+        connections.remove(connection);
+    }
+
+    /** Executor NodeConnections hand staged chunk uploads to (see NodeConnection). */
+    ExecutorService getWriteBehindExecutor() {
+        return writeBehindExecutor;
+    }
+
+    /** Connections to other nodes, leased by NodeConnections forwarding chunks (see PeerPool). */
+    PeerPool getPeers() {
+        return peers;
+    }
+
+    /** @return number of currently open client connections */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
     private void shutdownAllConnections() {
         System.out.println("Shutting down all node connections...");
         for (NodeConnection c : connections) {
             c.shutdown();
         }
         connections.clear();
+
+        peers.close();
+        repairPeers.close();
     }
 
     public void shutdown() {
         running = false;
+        try {
+            if (serverChannel != null) {
+                serverChannel.close(); // unblocks accept()
+            }
+        } catch (IOException ignored) {}
         stopCoordinatorClient();
         shutdownAllConnections();
     }
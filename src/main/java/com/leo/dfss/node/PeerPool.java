@@ -0,0 +1,91 @@
+package com.leo.dfss.node;
+
+import com.leo.dfss.client.NodeClient;
+import com.leo.dfss.protocol.NodeAddress;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Connections from this node to other nodes, leased out one sender at a time.
+ *
+ * A streamed chunk body holds its connection's writer until the last byte is sent, and the pace of
+ * a forwarded body is set by the upstream client. On one shared connection per node, every chain
+ * forwarding to that node would queue behind the slowest uploader. A lease gives the sender its own
+ * connection for the length of a body; the connection goes back to the pool once the body is sent,
+ * and later senders reuse it while its ack is still on the way (NodeClient is pipelined).
+ *
+ * The pool grows to the peak number of concurrent senders to a node and keeps at most
+ * MAX_IDLE_PER_NODE idle connections to each; extra ones are closed.
+ */
+final class PeerPool implements AutoCloseable {
+
+    private static final int MAX_IDLE_PER_NODE = 8;
+
+    // Idle connections by host:port, most recently used first
+    private final Map<String, Deque<NodeClient>> idle = new ConcurrentHashMap<>();
+    private volatile boolean closed = false;
+
+    /**
+     * @return an open connection to the node, for the caller's use only until release()
+     */
+    NodeClient lease(NodeAddress node) throws IOException {
+        Deque<NodeClient> clients = idle.get(key(node));
+        if (clients != null) {
+            NodeClient client;
+            while ((client = clients.pollFirst()) != null) {
+                if (client.isOpen()) {
+                    return client;
+                }
+            }
+        }
+        return new NodeClient(new InetSocketAddress(node.getHost(), node.getPort()));
+    }
+
+    /**
+     * Returns a leased connection. A connection that has failed is dropped.
+     */
+    void release(NodeAddress node, NodeClient client) {
+        if (!client.isOpen()) {
+            return;
+        }
+        if (closed) {
+            closeLater(client);
+            return;
+        }
+
+        Deque<NodeClient> clients = idle.computeIfAbsent(key(node), k -> new ConcurrentLinkedDeque<>());
+        clients.offerFirst(client);
+        if (clients.size() > MAX_IDLE_PER_NODE) {
+            NodeClient coldest = clients.pollLast();
+            if (coldest != null) {
+                closeLater(coldest);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Deque<NodeClient> clients : idle.values()) {
+            NodeClient client;
+            while ((client = clients.pollFirst()) != null) {
+                client.close();
+            }
+        }
+        idle.clear();
+    }
+
+    /** NodeClient.close() waits for the acks still outstanding, so it runs off the caller's thread. */
+    private static void closeLater(NodeClient client) {
+        Thread.ofVirtual().name("peer-close").start(client::close);
+    }
+
+    private static String key(NodeAddress node) {
+        return node.getHost() + ":" + node.getPort();
+    }
+}
@@ -0,0 +1,64 @@
+package com.leo.dfss.node;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Chunk reports sent with heartbeats and not acknowledged yet, oldest first. They are sent again,
+ * under their original sequence, when the node reconnects to the coordinator.
+ *
+ * At most MAX_REPORTS are kept: while the coordinator is unreachable for long, the oldest reports
+ * are dropped.
+ */
+class PendingReports {
+
+    static final int MAX_REPORTS = 1024;
+
+    /** A heartbeat's chunk report: its ChunkReport body and entry counts. */
+    record Report(long sequence, byte[] body, int added, int removed) {}
+
+    private final ArrayDeque<Report> reports = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private long dropped; // guarded by lock
+
+    void add(Report report) {
+        lock.lock();
+        try {
+            if (reports.size() == MAX_REPORTS) {
+                reports.removeFirst();
+                if (dropped++ == 0) {
+                    System.out.println("Coordinator has not acknowledged " + MAX_REPORTS
+                            + " chunk reports, dropping the oldest");
+                }
+            }
+            reports.addLast(report);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Drops the reports of the heartbeats up to and including the given sequence. */
+    void acknowledge(long sequence) {
+        lock.lock();
+        try {
+            while (!reports.isEmpty() && reports.peekFirst().sequence() <= sequence) {
+                reports.removeFirst();
+            }
+            dropped = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return the reports not acknowledged yet, oldest first */
+    List<Report> unacknowledged() {
+        lock.lock();
+        try {
+            return new ArrayList<>(reports);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
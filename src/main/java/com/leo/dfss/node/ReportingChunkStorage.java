@@ -0,0 +1,115 @@
+package com.leo.dfss.node;
+
+import com.leo.dfss.compression.ChunkCodec;
+import com.leo.dfss.domain.ChunkInfo;
+import com.leo.dfss.domain.ChunkRegion;
+import com.leo.dfss.domain.ChunkStorage;
+import com.leo.dfss.domain.ForwardingChunkStorage;
+import com.leo.dfss.domain.StagedChunk;
+import com.leo.dfss.protocol.ChunkReport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Wraps the chunk storage engine directly (inside any read cache) to observe what reaches the
+ * disk for the node's heartbeats: bytes staged and opened, and the chunks committed and deleted
+ * since the last drainReport().
+ */
+class ReportingChunkStorage extends ForwardingChunkStorage {
+
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+
+    private final ReentrantLock reportLock = new ReentrantLock();
+    private ChunkReport.Builder report = new ChunkReport.Builder(); // guarded by reportLock
+
+    ReportingChunkStorage(ChunkStorage delegate) {
+        super(delegate);
+    }
+
+    @Override
+    protected void invalidate(String fileId, int chunkIndex) {
+        // nothing held in memory
+    }
+
+    @Override
+    public StagedChunk stageChunk(String fileId, int chunkIndex, InputStream body, long length,
+                                  ChunkCodec codec, long rawLength) throws IOException {
+        StagedChunk staged = super.stageChunk(fileId, chunkIndex, body, length, codec, rawLength);
+        bytesWritten.add(staged.getInfo().getLength());
+        return staged;
+    }
+
+    @Override
+    public ChunkInfo commitChunk(StagedChunk staged) throws IOException {
+        ChunkInfo info = super.commitChunk(staged);
+        changed(staged.getFileId(), staged.getChunkIndex(), true);
+        return info;
+    }
+
+    @Override
+    public CompletableFuture<ChunkInfo> commitChunkAsync(StagedChunk staged) {
+        return super.commitChunkAsync(staged).whenComplete((info, error) -> {
+            if (error == null) {
+                changed(staged.getFileId(), staged.getChunkIndex(), true);
+            }
+        });
+    }
+
+    @Override
+    public ChunkRegion openChunk(String fileId, int chunkIndex) throws IOException {
+        ChunkRegion region = super.openChunk(fileId, chunkIndex);
+        if (region != null) {
+            bytesRead.add(region.getLength());
+        }
+        return region;
+    }
+
+    @Override
+    public boolean deleteChunk(String fileId, int chunkIndex) throws IOException {
+        boolean existed = super.deleteChunk(fileId, chunkIndex);
+        if (existed) {
+            changed(fileId, chunkIndex, false);
+        }
+        return existed;
+    }
+
+    /** @return bytes of chunks staged since the node started */
+    long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /** @return bytes of chunks opened for reading since the node started */
+    long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    /** @return the chunk changes since the last call, which start a new report */
+    ChunkReport.Builder drainReport() {
+        reportLock.lock();
+        try {
+            ChunkReport.Builder drained = report;
+            report = new ChunkReport.Builder();
+            return drained;
+        } finally {
+            reportLock.unlock();
+        }
+    }
+
+    private void changed(String fileId, int chunkIndex, boolean added) {
+        reportLock.lock();
+        try {
+            if (added) {
+                report.added(fileId, chunkIndex);
+            } else {
+                report.removed(fileId, chunkIndex);
+            }
+        } finally {
+            reportLock.unlock();
+        }
+    }
+}
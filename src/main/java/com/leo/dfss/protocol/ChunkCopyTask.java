@@ -0,0 +1,55 @@
+package com.leo.dfss.protocol;
+
+/**
+ * A repair copy the coordinator hands to a node with a NODE_HEARTBEAT_ACK: send the chunk, as
+ * stored, to the target node. The coordinator learns the copy succeeded from the target's next
+ * chunk report.
+ */
+public class ChunkCopyTask {
+
+    private long taskId;
+    private String fileId;
+    private int chunkIndex;
+    private NodeAddress target;
+
+    public ChunkCopyTask() {}
+
+    public ChunkCopyTask(long taskId, String fileId, int chunkIndex, NodeAddress target) {
+        this.taskId = taskId;
+        this.fileId = fileId;
+        this.chunkIndex = chunkIndex;
+        this.target = target;
+    }
+
+    public long getTaskId() {
+        return taskId;
+    }
+
+    public void setTaskId(long taskId) {
+        this.taskId = taskId;
+    }
+
+    public String getFileId() {
+        return fileId;
+    }
+
+    public void setFileId(String fileId) {
+        this.fileId = fileId;
+    }
+
+    public int getChunkIndex() {
+        return chunkIndex;
+    }
+
+    public void setChunkIndex(int chunkIndex) {
+        this.chunkIndex = chunkIndex;
+    }
+
+    public NodeAddress getTarget() {
+        return target;
+    }
+
+    public void setTarget(NodeAddress target) {
+        this.target = target;
+    }
+}
@@ -0,0 +1,78 @@
+package com.leo.dfss.protocol;
+
+/**
+ * Typed protocol message for reading a chunk, or a byte range of it, from a node.
+ */
+public class ChunkDownloadRequest {
+
+    private String type = "CHUNK_DOWNLOAD";
+
+    private String fileId;
+    private int chunkIndex;
+
+    private long offset = 0;   // first byte within the chunk
+    private long length = -1;  // bytes to read, -1 = to the end of the chunk
+
+    // The sender decodes compressed chunks itself: a whole compressed chunk is sent as stored
+    private boolean acceptCompressed;
+
+    private int bodyLength = 0;
+
+    public ChunkDownloadRequest() {}
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getFileId() {
+        return fileId;
+    }
+
+    public void setFileId(String fileId) {
+        this.fileId = fileId;
+    }
+
+    public int getChunkIndex() {
+        return chunkIndex;
+    }
+
+    public void setChunkIndex(int chunkIndex) {
+        this.chunkIndex = chunkIndex;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public void setOffset(long offset) {
+        this.offset = offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public void setLength(long length) {
+        this.length = length;
+    }
+
+    public boolean isAcceptCompressed() {
+        return acceptCompressed;
+    }
+
+    public void setAcceptCompressed(boolean acceptCompressed) {
+        this.acceptCompressed = acceptCompressed;
+    }
+
+    public int getBodyLength() {
+        return bodyLength;
+    }
+
+    public void setBodyLength(int bodyLength) {
+        this.bodyLength = bodyLength;
+    }
+}
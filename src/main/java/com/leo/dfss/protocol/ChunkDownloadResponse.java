@@ -0,0 +1,107 @@
+package com.leo.dfss.protocol;
+
+/**
+ * Response to CHUNK_DOWNLOAD. On "OK" the body holds bytes [offset, offset + bodyLength) of the chunk,
+ * or, if codec is set, the whole chunk compressed with that codec (only sent to requests that
+ * accept compressed chunks).
+ */
+public class ChunkDownloadResponse {
+
+    private String type = "CHUNK_DOWNLOAD_RESPONSE";
+
+    private String fileId;
+    private int chunkIndex;
+
+    private String status;   // "OK" or "ERROR"
+    private String message;  // optional detail
+
+    private long offset;       // first byte of the body within the chunk
+    private long chunkLength;  // full length of the chunk, uncompressed
+    private long checksum = -1; // CRC32C of the full chunk as sent (compressed if codec is set), -1 if unknown;
+                                // a partial range is checked against it by the node before sending
+    private String codec;      // ChunkCodec name if the body is compressed, null otherwise
+
+    private int bodyLength = 0;
+
+    public ChunkDownloadResponse() {}
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getFileId() {
+        return fileId;
+    }
+
+    public void setFileId(String fileId) {
+        this.fileId = fileId;
+    }
+
+    public int getChunkIndex() {
+        return chunkIndex;
+    }
+
+    public void setChunkIndex(int chunkIndex) {
+        this.chunkIndex = chunkIndex;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public void setOffset(long offset) {
+        this.offset = offset;
+    }
+
+    public long getChunkLength() {
+        return chunkLength;
+    }
+
+    public void setChunkLength(long chunkLength) {
+        this.chunkLength = chunkLength;
+    }
+
+    public long getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(long checksum) {
+        this.checksum = checksum;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public void setCodec(String codec) {
+        this.codec = codec;
+    }
+
+    public int getBodyLength() {
+        return bodyLength;
+    }
+
+    public void setBodyLength(int bodyLength) {
+        this.bodyLength = bodyLength;
+    }
+}
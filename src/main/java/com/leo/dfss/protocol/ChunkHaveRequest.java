@@ -0,0 +1,48 @@
+package com.leo.dfss.protocol;
+
+import java.util.List;
+
+/**
+ * Asks the coordinator which chunk contents are already stored, before a deduplicated upload, so
+ * the client only sends the chunks that are missing.
+ */
+public class ChunkHaveRequest {
+    private String type = "CHUNK_HAVE";
+    private List<String> hashes;        // SHA-256 of each chunk, as hex
+    private int replicationFactor = 1;  // a stored copy on fewer nodes does not count
+    private int bodyLength = 0;
+
+    public ChunkHaveRequest() {}
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public List<String> getHashes() {
+        return hashes;
+    }
+
+    public void setHashes(List<String> hashes) {
+        this.hashes = hashes;
+    }
+
+    public int getReplicationFactor() {
+        return replicationFactor;
+    }
+
+    public void setReplicationFactor(int replicationFactor) {
+        this.replicationFactor = replicationFactor;
+    }
+
+    public int getBodyLength() {
+        return bodyLength;
+    }
+
+    public void setBodyLength(int bodyLength) {
+        this.bodyLength = bodyLength;
+    }
+}
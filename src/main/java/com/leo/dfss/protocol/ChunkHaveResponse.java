@@ -0,0 +1,36 @@
+package com.leo.dfss.protocol;
+
+/**
+ * Answer to CHUNK_HAVE: present[i] is true if the content of hashes[i] is already stored.
+ */
+public class ChunkHaveResponse {
+    private String type = "CHUNK_HAVE_RESPONSE";
+    private boolean[] present;
+    private int bodyLength = 0;
+
+    public ChunkHaveResponse() {}
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public boolean[] getPresent() {
+        return present;
+    }
+
+    public void setPresent(boolean[] present) {
+        this.present = present;
+    }
+
+    public int getBodyLength() {
+        return bodyLength;
+    }
+
+    public void setBodyLength(int bodyLength) {
+        this.bodyLength = bodyLength;
+    }
+}
@@ -0,0 +1,48 @@
+package com.leo.dfss.protocol;
+
+import java.util.List;
+
+/**
+ * Nodes a chunk (or erasure-coded shard) is to be uploaded to, as part of FilesInitResponse,
+ * or is stored on, as part of FilesLocateResponse.
+ *
+ * Chunks of deduplicated files carry a contentKey: they are stored on the nodes under
+ * fileId = contentKey and chunk index 0, where other files with the same content find them.
+ */
+public class ChunkPlacement {
+
+    private int chunkIndex;
+    private List<NodeAddress> nodes;
+    private String contentKey;  // null: stored under the file's own id and chunkIndex
+
+    public ChunkPlacement() {}
+
+    public ChunkPlacement(int chunkIndex, List<NodeAddress> nodes) {
+        this.chunkIndex = chunkIndex;
+        this.nodes = nodes;
+    }
+
+    public int getChunkIndex() {
+        return chunkIndex;
+    }
+
+    public void setChunkIndex(int chunkIndex) {
+        this.chunkIndex = chunkIndex;
+    }
+
+    public List<NodeAddress> getNodes() {
+        return nodes;
+    }
+
+    public void setNodes(List<NodeAddress> nodes) {
+        this.nodes = nodes;
+    }
+
+    public String getContentKey() {
+        return contentKey;
+    }
+
+    public void setContentKey(String contentKey) {
+        this.contentKey = contentKey;
+    }
+}
@@ -0,0 +1,263 @@
+package com.leo.dfss.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Chunks a node stored or removed since its last acknowledged heartbeat, sent as the body of
+ * NODE_HEARTBEAT:
+ *
+ * [varint files]
+ * per file: [1 byte kind][fileId][varint added][added indexes][varint removed][removed indexes]
+ *
+ * Kinds: 0 = UUID fileId (16 bytes), 1 = content key (sha256- and 32 hash bytes), 2 = any other
+ * fileId ([varint length][UTF-8]). Indexes are ascending and written as gaps: the first index,
+ * then each index minus the previous one minus 1, so a run of consecutive chunks costs one byte
+ * a chunk.
+ *
+ * Varints are unsigned LEB128: 7 bits a byte, low bits first, high bit set on all but the last.
+ */
+public final class ChunkReport {
+
+    private static final int KIND_UUID = 0;
+    private static final int KIND_CONTENT_KEY = 1;
+    private static final int KIND_STRING = 2;
+
+    private static final String CONTENT_KEY_PREFIX = "sha256-";
+    private static final int CONTENT_KEY_BYTES = 32;
+    private static final HexFormat HEX = HexFormat.of();
+
+    private ChunkReport() {}
+
+    /** Receives a decoded report, file by file. */
+    public interface Visitor {
+
+        /** Called before the chunks of each file. */
+        void file(String fileId);
+
+        /** Called for each chunk of the last file, added ones first. */
+        void chunk(int chunkIndex, boolean added);
+    }
+
+    /**
+     * Decodes a report straight into the visitor: nothing is allocated per chunk.
+     *
+     * @throws IOException if the report is truncated or corrupt
+     */
+    public static void decode(ByteBuffer in, Visitor visitor) throws IOException {
+        try {
+            int files = readVarint(in);
+            for (int f = 0; f < files; f++) {
+                visitor.file(readFileId(in));
+                for (int pass = 0; pass < 2; pass++) {
+                    int count = readVarint(in);
+                    int chunkIndex = -1;
+                    for (int i = 0; i < count; i++) {
+                        chunkIndex += readVarint(in) + 1;
+                        if (chunkIndex < 0) {
+                            throw new IOException("Chunk index overflow");
+                        }
+                        visitor.chunk(chunkIndex, pass == 0);
+                    }
+                }
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Truncated or corrupt chunk report", e);
+        }
+    }
+
+    /**
+     * Collects chunk changes, keeping the last change of each chunk (a chunk stored then removed
+     * is reported removed). Not thread-safe.
+     */
+    public static final class Builder {
+
+        private static final class Changes {
+            final BitSet added = new BitSet();
+            final BitSet removed = new BitSet();
+        }
+
+        private final Map<String, Changes> files = new LinkedHashMap<>();
+        private int added;
+        private int removed;
+
+        public void added(String fileId, int chunkIndex) {
+            Changes changes = files.computeIfAbsent(fileId, id -> new Changes());
+            if (changes.removed.get(chunkIndex)) {
+                changes.removed.clear(chunkIndex);
+                removed--;
+            }
+            if (!changes.added.get(chunkIndex)) {
+                changes.added.set(chunkIndex);
+                added++;
+            }
+        }
+
+        public void removed(String fileId, int chunkIndex) {
+            Changes changes = files.computeIfAbsent(fileId, id -> new Changes());
+            if (changes.added.get(chunkIndex)) {
+                changes.added.clear(chunkIndex);
+                added--;
+            }
+            if (!changes.removed.get(chunkIndex)) {
+                changes.removed.set(chunkIndex);
+                removed++;
+            }
+        }
+
+        public boolean isEmpty() {
+            return added == 0 && removed == 0;
+        }
+
+        /** @return chunks reported added */
+        public int getAdded() {
+            return added;
+        }
+
+        /** @return chunks reported removed */
+        public int getRemoved() {
+            return removed;
+        }
+
+        public byte[] encode() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(16 + 4 * (added + removed));
+            int nonEmpty = 0;
+            for (Changes changes : files.values()) {
+                if (!changes.added.isEmpty() || !changes.removed.isEmpty()) {
+                    nonEmpty++;
+                }
+            }
+
+            writeVarint(out, nonEmpty);
+            for (Map.Entry<String, Changes> entry : files.entrySet()) {
+                Changes changes = entry.getValue();
+                if (changes.added.isEmpty() && changes.removed.isEmpty()) {
+                    continue;
+                }
+                writeFileId(out, entry.getKey());
+                writeIndexes(out, changes.added);
+                writeIndexes(out, changes.removed);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    // Field helpers
+
+    private static void writeIndexes(ByteArrayOutputStream out, BitSet indexes) {
+        writeVarint(out, indexes.cardinality());
+        int previous = -1;
+        for (int i = indexes.nextSetBit(0); i >= 0; i = indexes.nextSetBit(i + 1)) {
+            writeVarint(out, i - previous - 1);
+            previous = i;
+        }
+    }
+
+    private static void writeFileId(ByteArrayOutputStream out, String fileId) {
+        UUID uuid = parseUuid(fileId);
+        if (uuid != null) {
+            out.write(KIND_UUID);
+            writeLong(out, uuid.getMostSignificantBits());
+            writeLong(out, uuid.getLeastSignificantBits());
+            return;
+        }
+
+        byte[] hash = parseContentKey(fileId);
+        if (hash != null) {
+            out.write(KIND_CONTENT_KEY);
+            out.write(hash, 0, hash.length);
+            return;
+        }
+
+        byte[] bytes = fileId.getBytes(StandardCharsets.UTF_8);
+        out.write(KIND_STRING);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readFileId(ByteBuffer in) throws IOException {
+        int kind = in.get() & 0xFF;
+        switch (kind) {
+            case KIND_UUID:
+                return new UUID(in.getLong(), in.getLong()).toString();
+            case KIND_CONTENT_KEY: {
+                byte[] hash = new byte[CONTENT_KEY_BYTES];
+                in.get(hash);
+                return CONTENT_KEY_PREFIX + HEX.formatHex(hash);
+            }
+            case KIND_STRING: {
+                byte[] bytes = new byte[readVarint(in)];
+                in.get(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+            default:
+                throw new IOException("Unknown fileId kind: " + kind);
+        }
+    }
+
+    /** @return the UUID, or null if the fileId is not one in canonical form */
+    private static UUID parseUuid(String fileId) {
+        if (fileId.length() != 36) {
+            return null;
+        }
+        try {
+            UUID uuid = UUID.fromString(fileId);
+            return uuid.toString().equals(fileId) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /** @return the hash bytes, or null if the fileId is not a content key in canonical form */
+    private static byte[] parseContentKey(String fileId) {
+        if (fileId.length() != CONTENT_KEY_PREFIX.length() + 2 * CONTENT_KEY_BYTES
+                || !fileId.startsWith(CONTENT_KEY_PREFIX)) {
+            return null;
+        }
+        try {
+            byte[] hash = HEX.parseHex(fileId, CONTENT_KEY_PREFIX.length(), fileId.length());
+            return HEX.formatHex(hash).regionMatches(0, fileId, CONTENT_KEY_PREFIX.length(), 2 * CONTENT_KEY_BYTES)
+                    ? hash : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static void writeLong(ByteArrayOutputStream out, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift));
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /** @return the varint, which must fit a non-negative int */
+    private static int readVarint(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.get() & 0xFF;
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IOException("Varint out of range");
+                }
+                return value;
+            }
+        }
+        throw new IOException("Varint longer than 5 bytes");
+    }
+}
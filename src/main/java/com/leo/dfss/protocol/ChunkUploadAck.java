@@ -12,6 +12,7 @@ public class ChunkUploadAck {
 
     private String status;   // "OK" or "ERROR"
     private String message;  // optional detail
+    private int replicasDurable; // copies written, counting this node and the rest of its chain
 
     private int bodyLength = 0;
 
@@ -57,6 +58,14 @@ public class ChunkUploadAck {
         this.message = message;
     }
 
+    public int getReplicasDurable() {
+        return replicasDurable;
+    }
+
+    public void setReplicasDurable(int replicasDurable) {
+        this.replicasDurable = replicasDurable;
+    }
+
     public int getBodyLength() {
         return bodyLength;
     }
@@ -1,5 +1,7 @@
 package com.leo.dfss.protocol;
 
+import java.util.List;
+
 /**
  * Typed protocol message for uploading a chunk to a node.
  */
@@ -10,6 +12,19 @@ public class ChunkUploadRequest {
     private  String fileId;
     private int chunkIndex;
 
+    // Nodes this one forwards the chunk to, in chain order (empty or null: store locally only)
+    private List<NodeAddress> pipeline;
+
+    // Replicas (this node plus the rest of the chain) that must be durable for an OK ack
+    private int writeQuorum = 1;
+
+    // CRC32C of the body computed by the sender, -1 if not sent; the node rejects a body that does not match
+    private long checksum = -1;
+
+    // How the body is encoded (a ChunkCodec name, null = uncompressed) and the chunk's length once decoded
+    private String codec;
+    private int rawLength;
+
     // Must match the number of bytes in the message body
     private int bodyLength;
 
@@ -39,6 +54,46 @@ public class ChunkUploadRequest {
         this.chunkIndex = chunkIndex;
     }
 
+    public List<NodeAddress> getPipeline() {
+        return pipeline;
+    }
+
+    public void setPipeline(List<NodeAddress> pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    public int getWriteQuorum() {
+        return writeQuorum;
+    }
+
+    public void setWriteQuorum(int writeQuorum) {
+        this.writeQuorum = writeQuorum;
+    }
+
+    public long getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(long checksum) {
+        this.checksum = checksum;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public void setCodec(String codec) {
+        this.codec = codec;
+    }
+
+    public int getRawLength() {
+        return rawLength;
+    }
+
+    public void setRawLength(int rawLength) {
+        this.rawLength = rawLength;
+    }
+
     public int getBodyLength() {
         return bodyLength;
     }
@@ -0,0 +1,55 @@
+package com.leo.dfss.protocol;
+
+/**
+ * Response to CODEC_SELECT. Always sent in the old codec; both sides switch after it on "OK".
+ */
+public class CodecSelectAck {
+
+    private String type = "CODEC_SELECT_ACK";
+    private String codec;    // codec in use after this ack
+    private String status;   // "OK" or "ERROR"
+    private String message;  // optional detail
+    private int bodyLength = 0;
+
+    public CodecSelectAck() {}
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public void setCodec(String codec) {
+        this.codec = codec;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public int getBodyLength() {
+        return bodyLength;
+    }
+
+    public void setBodyLength(int bodyLength) {
+        this.bodyLength = bodyLength;
+    }
+}
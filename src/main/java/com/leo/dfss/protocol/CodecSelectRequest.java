@@ -0,0 +1,37 @@
+package com.leo.dfss.protocol;
+
+/**
+ * Sent by a client straight after WELCOME to switch the connection to another wire codec.
+ */
+public class CodecSelectRequest {
+
+    private String type = "CODEC_SELECT";
+    private String codec;   // "JSON" or "BINARY"
+    private int bodyLength = 0;
+
+    public CodecSelectRequest() {}
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public void setCodec(String codec) {
+        this.codec = codec;
+    }
+
+    public int getBodyLength() {
+        return bodyLength;
+    }
+
+    public void setBodyLength(int bodyLength) {
+        this.bodyLength = bodyLength;
+    }
+}
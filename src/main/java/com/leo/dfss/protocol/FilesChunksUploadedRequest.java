@@ -0,0 +1,47 @@
+package com.leo.dfss.protocol;
+
+/**
+ * Tells the coordinator that chunks of a file being uploaded have been acknowledged by their nodes,
+ * so the upload can be resumed from the chunks still missing. Clients send these in batches while
+ * uploading; the coordinator answers with FILES_UPLOAD_STATUS_RESPONSE (without missingChunks).
+ */
+public class FilesChunksUploadedRequest {
+    private String type = "FILES_CHUNKS_UPLOADED";
+    private String fileId;
+    private int[] chunkIndexes;     // stored chunk indexes (shard indexes when erasure coded)
+    private int bodyLength = 0;
+
+    public FilesChunksUploadedRequest() {}
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getFileId() {
+        return fileId;
+    }
+
+    public void setFileId(String fileId) {
+        this.fileId = fileId;
+    }
+
+    public int[] getChunkIndexes() {
+        return chunkIndexes;
+    }
+
+    public void setChunkIndexes(int[] chunkIndexes) {
+        this.chunkIndexes = chunkIndexes;
+    }
+
+    public int getBodyLength() {
+        return bodyLength;
+    }
+
+    public void setBodyLength(int bodyLength) {
+        this.bodyLength = bodyLength;
+    }
+}
@@ -1,11 +1,20 @@
 package com.leo.dfss.protocol;
 
+import java.util.List;
+
 public class FilesInitRequest {
 
     private String type = "FILES_INIT_REQUEST";
     private String filename;
     private long totalSizeBytes;
-    private int chunkSizeBytes;
+    private int chunkSizeBytes;         // size of every chunk but the last, or the largest if chunkLengths is set
+    private int replicationFactor = 1;  // nodes each chunk is stored on
+    private int writeQuorum;            // replicas durable before a chunk is acked (0: majority)
+    private String storageMode = "REPLICATED"; // or "ERASURE_CODED"
+    private int dataShards;             // erasure coding: chunks per stripe
+    private int parityShards;           // erasure coding: parity shards per stripe
+    private List<String> chunkHashes;   // deduplication: SHA-256 of every chunk as hex (null: not deduplicated)
+    private int[] chunkLengths;         // content-defined chunking: length of every chunk (null: fixed-size chunks)
     private int bodyLength = 0;
 
     public FilesInitRequest() {
@@ -43,6 +52,62 @@ public class FilesInitRequest {
         this.chunkSizeBytes = chunkSizeBytes;
     }
 
+    public int getReplicationFactor() {
+        return replicationFactor;
+    }
+
+    public void setReplicationFactor(int replicationFactor) {
+        this.replicationFactor = replicationFactor;
+    }
+
+    public int getWriteQuorum() {
+        return writeQuorum;
+    }
+
+    public void setWriteQuorum(int writeQuorum) {
+        this.writeQuorum = writeQuorum;
+    }
+
+    public String getStorageMode() {
+        return storageMode;
+    }
+
+    public void setStorageMode(String storageMode) {
+        this.storageMode = storageMode;
+    }
+
+    public int getDataShards() {
+        return dataShards;
+    }
+
+    public void setDataShards(int dataShards) {
+        this.dataShards = dataShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    public void setParityShards(int parityShards) {
+        this.parityShards = parityShards;
+    }
+
+    public List<String> getChunkHashes() {
+        return chunkHashes;
+    }
+
+    public void setChunkHashes(List<String> chunkHashes) {
+        this.chunkHashes = chunkHashes;
+    }
+
+    public int[] getChunkLengths() {
+        return chunkLengths;
+    }
+
+    public void setChunkLengths(int[] chunkLengths) {
+        this.chunkLengths = chunkLengths;
+    }
+
     public int getBodyLength() {
         return bodyLength;
     }
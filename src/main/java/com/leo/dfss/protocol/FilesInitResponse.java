@@ -1,13 +1,21 @@
 package com.leo.dfss.protocol;
 
+import java.util.List;
+
 public class FilesInitResponse {
 
     private String type = "FILES_INIT_RESPONSE";
     private String fileId;
     private int totalChunks;
     private int chunkSizeBytes;
-    private String uploadHost;
+    private int replicationFactor;
+    private int writeQuorum;
+    private String storageMode = "REPLICATED";
+    private int dataShards;
+    private int parityShards;
+    private String uploadHost;  // node of chunk 0, for clients that predate placements
     private int uploadPort;
+    private List<ChunkPlacement> placements;
     private int bodyLength = 0;
 
     public FilesInitResponse() {
@@ -61,6 +69,54 @@ public class FilesInitResponse {
         this.uploadPort = uploadPort;
     }
 
+    public List<ChunkPlacement> getPlacements() {
+        return placements;
+    }
+
+    public void setPlacements(List<ChunkPlacement> placements) {
+        this.placements = placements;
+    }
+
+    public int getReplicationFactor() {
+        return replicationFactor;
+    }
+
+    public void setReplicationFactor(int replicationFactor) {
+        this.replicationFactor = replicationFactor;
+    }
+
+    public int getWriteQuorum() {
+        return writeQuorum;
+    }
+
+    public void setWriteQuorum(int writeQuorum) {
+        this.writeQuorum = writeQuorum;
+    }
+
+    public String getStorageMode() {
+        return storageMode;
+    }
+
+    public void setStorageMode(String storageMode) {
+        this.storageMode = storageMode;
+    }
+
+    public int getDataShards() {
+        return dataShards;
+    }
+
+    public void setDataShards(int dataShards) {
+        this.dataShards = dataShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    public void setParityShards(int parityShards) {
+        this.parityShards = parityShards;
+    }
+
     public int getBodyLength() {
         return bodyLength;
     }
@@ -0,0 +1,55 @@
+package com.leo.dfss.protocol;
+
+/**
+ * Asks the coordinator where the chunks (or erasure-coded shards) of a file are stored: all of
+ * them, or only stored chunk indexes fromChunk (inclusive) to toChunk (exclusive).
+ */
+public class FilesLocateRequest {
+    private String type = "FILES_LOCATE";
+    private String fileId;
+    private int fromChunk = 0;
+    private int toChunk = -1; // -1: to the last chunk
+    private int bodyLength = 0;
+
+    public FilesLocateRequest() {}
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getFileId() {
+        return fileId;
+    }
+
+    public void setFileId(String fileId) {
+        this.fileId = fileId;
+    }
+
+    public int getFromChunk() {
+        return fromChunk;
+    }
+
+    public void setFromChunk(int fromChunk) {
+        this.fromChunk = fromChunk;
+    }
+
+    public int getToChunk() {
+        return toChunk;
+    }
+
+    public void setToChunk(int toChunk) {
+        this.toChunk = toChunk;
+    }
+
+    public int getBodyLength() {
+        return bodyLength;
+    }
+
+    public void setBodyLength(int bodyLength) {
+        this.bodyLength = bodyLength;
+    }
+}
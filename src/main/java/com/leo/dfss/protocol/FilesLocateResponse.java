@@ -0,0 +1,132 @@
+package com.leo.dfss.protocol;
+
+import java.util.List;
+
+/**
+ * Response to FILES_LOCATE: the layout of a file and the nodes holding each stored chunk index.
+ * For erasure-coded files the placements are per shard (see StripeLayout). Files chunked by
+ * content carry the length of every chunk; otherwise chunk i starts at i x chunkSizeBytes.
+ */
+public class FilesLocateResponse {
+
+    private String type = "FILES_LOCATE_RESPONSE";
+    private String fileId;
+    private String fileName;
+    private String status;
+    private long totalSizeBytes;
+    private int chunkSizeBytes;
+    private int totalChunks;
+    private int[] chunkLengths;     // null: fixed-size chunks
+    private String storageMode;
+    private int dataShards;
+    private int parityShards;
+    private List<ChunkPlacement> placements;
+    private int bodyLength = 0;
+
+    public FilesLocateResponse() {
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getFileId() {
+        return fileId;
+    }
+
+    public void setFileId(String fileId) {
+        this.fileId = fileId;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public long getTotalSizeBytes() {
+        return totalSizeBytes;
+    }
+
+    public void setTotalSizeBytes(long totalSizeBytes) {
+        this.totalSizeBytes = totalSizeBytes;
+    }
+
+    public int getChunkSizeBytes() {
+        return chunkSizeBytes;
+    }
+
+    public void setChunkSizeBytes(int chunkSizeBytes) {
+        this.chunkSizeBytes = chunkSizeBytes;
+    }
+
+    public int getTotalChunks() {
+        return totalChunks;
+    }
+
+    public void setTotalChunks(int totalChunks) {
+        this.totalChunks = totalChunks;
+    }
+
+    public String getStorageMode() {
+        return storageMode;
+    }
+
+    public void setStorageMode(String storageMode) {
+        this.storageMode = storageMode;
+    }
+
+    public int getDataShards() {
+        return dataShards;
+    }
+
+    public void setDataShards(int dataShards) {
+        this.dataShards = dataShards;
+    }
+
+    public int getParityShards() {
+        return parityShards;
+    }
+
+    public void setParityShards(int parityShards) {
+        this.parityShards = parityShards;
+    }
+
+    public List<ChunkPlacement> getPlacements() {
+        return placements;
+    }
+
+    public void setPlacements(List<ChunkPlacement> placements) {
+        this.placements = placements;
+    }
+
+    public int[] getChunkLengths() {
+        return chunkLengths;
+    }
+
+    public void setChunkLengths(int[] chunkLengths) {
+        this.chunkLengths = chunkLengths;
+    }
+
+    public int getBodyLength() {
+        return bodyLength;
+    }
+
+    public void setBodyLength(int bodyLength) {
+        this.bodyLength = bodyLength;
+    }
+}
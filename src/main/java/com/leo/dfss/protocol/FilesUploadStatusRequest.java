@@ -0,0 +1,36 @@
+package com.leo.dfss.protocol;
+
+/**
+ * Asks the coordinator how far the upload of a file got, to resume it.
+ */
+public class FilesUploadStatusRequest {
+    private String type = "FILES_UPLOAD_STATUS";
+    private String fileId;
+    private int bodyLength = 0;
+
+    public FilesUploadStatusRequest() {}
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getFileId() {
+        return fileId;
+    }
+
+    public void setFileId(String fileId) {
+        this.fileId = fileId;
+    }
+
+    public int getBodyLength() {
+        return bodyLength;
+    }
+
+    public void setBodyLength(int bodyLength) {
+        this.bodyLength = bodyLength;
+    }
+}
@@ -0,0 +1,82 @@
+package com.leo.dfss.protocol;
+
+/**
+ * Upload progress of a file: the answer to FILES_UPLOAD_STATUS and FILES_CHUNKS_UPLOADED. A
+ * resuming client uploads missingChunks to the placements FILES_LOCATE returns, then commits.
+ */
+public class FilesUploadStatusResponse {
+    private String type = "FILES_UPLOAD_STATUS_RESPONSE";
+    private String fileId;
+    private String status;          // file status: UPLOADING or COMPLETE
+    private int storedChunks;       // chunk indexes stored on nodes (shards when erasure coded)
+    private int missingCount;       // of those, not uploaded yet
+    private int[] missingChunks;    // their indexes; only in answers to FILES_UPLOAD_STATUS
+    private int writeQuorum;        // replicas that must be durable for a chunk to count as uploaded
+    private int bodyLength = 0;
+
+    public FilesUploadStatusResponse() {}
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getFileId() {
+        return fileId;
+    }
+
+    public void setFileId(String fileId) {
+        this.fileId = fileId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public int getStoredChunks() {
+        return storedChunks;
+    }
+
+    public void setStoredChunks(int storedChunks) {
+        this.storedChunks = storedChunks;
+    }
+
+    public int getMissingCount() {
+        return missingCount;
+    }
+
+    public void setMissingCount(int missingCount) {
+        this.missingCount = missingCount;
+    }
+
+    public int[] getMissingChunks() {
+        return missingChunks;
+    }
+
+    public void setMissingChunks(int[] missingChunks) {
+        this.missingChunks = missingChunks;
+    }
+
+    public int getWriteQuorum() {
+        return writeQuorum;
+    }
+
+    public void setWriteQuorum(int writeQuorum) {
+        this.writeQuorum = writeQuorum;
+    }
+
+    public int getBodyLength() {
+        return bodyLength;
+    }
+
+    public void setBodyLength(int bodyLength) {
+        this.bodyLength = bodyLength;
+    }
+}
@@ -1,13 +1,29 @@
 package com.leo.dfss.protocol;
 
+import com.google.gson.Gson;
+
 /**
- * Represents a simple message sent over TCP as JSON.
+ * Represents a simple message sent over TCP.
+ *
+ * A message carries its payload either as a JSON string (data) or as a typed protocol object
+ * (payload). The JSON codec only ever sees data; the binary codec encodes known payload types
+ * directly, so handlers should use getPayload() rather than parsing data themselves.
+ *
+ * requestId correlates a response with its request, so a client can have several requests in
+ * flight on one connection and match responses that come back out of order. Servers echo it with
+ * inReplyTo(); 0 means the sender does not correlate.
  */
 public class Message {
+
+    private static final Gson GSON = new Gson();
+
     private String type;
     private String data;
     private int bodyLength;
+    private long requestId;
 
+    // Typed payload, never serialised as part of the JSON header
+    private transient Object payload;
 
     // Gson needs a no-argument constructor
     public Message() {
@@ -19,6 +35,19 @@ public class Message {
         this.bodyLength = 0;
     }
 
+    /**
+     * Creates a message carrying a typed protocol object instead of a pre-serialised JSON string.
+     *
+     * @param type message type
+     * @param payload typed protocol object (e.g. ChunkUploadRequest)
+     * @return the message
+     */
+    public static Message of(String type, Object payload) {
+        Message message = new Message(type, null);
+        message.payload = payload;
+        return message;
+    }
+
     public String getType() {
         return type;
     }
@@ -27,7 +56,11 @@ public class Message {
         this.type = type;
     }
 
+    /** @return the JSON data, serialised from the typed payload on first use if necessary */
     public String getData() {
+        if (data == null && payload != null) {
+            data = GSON.toJson(payload);
+        }
         return data;
     }
 
@@ -35,6 +68,53 @@ public class Message {
         this.data = data;
     }
 
+    /**
+     * Returns the payload as the given protocol type. Parses the JSON data at most once;
+     * payloads decoded by the binary codec are returned as-is.
+     *
+     * @param payloadType expected protocol class
+     * @return the typed payload, or null if the message carries no data
+     * @throws com.google.gson.JsonSyntaxException if the JSON data is malformed
+     */
+    public <T> T getPayload(Class<T> payloadType) {
+        if (payloadType.isInstance(payload)) {
+            return payloadType.cast(payload);
+        }
+        if (data == null) {
+            return null;
+        }
+
+        T parsed = GSON.fromJson(data, payloadType);
+        payload = parsed;
+        return parsed;
+    }
+
+    /** @return the raw typed payload, or null if the message only carries JSON data */
+    public Object getPayload() {
+        return payload;
+    }
+
+    /**
+     * Copies the requestId of the message this one answers.
+     *
+     * @param request the request being answered (may be null)
+     * @return this message
+     */
+    public Message inReplyTo(Message request) {
+        if (request != null) {
+            this.requestId = request.getRequestId();
+        }
+        return this;
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public void setRequestId(long requestId) {
+        this.requestId = requestId;
+    }
+
     public int getBodyLength() {
         return bodyLength;
     }
@@ -43,4 +123,3 @@ public class Message {
         this.bodyLength = bodyLength;
     }
 }
-
@@ -0,0 +1,43 @@
+package com.leo.dfss.protocol;
+
+/**
+ * Where to reach a storage node, as handed out in upload plans.
+ */
+public class NodeAddress {
+
+    private String nodeId;
+    private String host;
+    private int port;
+
+    public NodeAddress() {}
+
+    public NodeAddress(String nodeId, String host, int port) {
+        this.nodeId = nodeId;
+        this.host = host;
+        this.port = port;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+}
@@ -1,11 +1,38 @@
 package com.leo.dfss.protocol;
 
+/**
+ * Sent by a node every few seconds: its load, and in the body the chunks it stored or removed
+ * since its last acknowledged heartbeat (ChunkReport, chunksAdded + chunksRemoved entries).
+ *
+ * sequence increases with every heartbeat, including across node restarts. A heartbeat whose
+ * report is not acknowledged is sent again with the same sequence, and the coordinator applies
+ * each report once.
+ */
 public class NodeHeartbeat {
 
     private String type = "NODE_HEARTBEAT";
     private String nodeId;
+    private long sequence;
     private long timestampEpochMs;
     private long freeBytes; // optional but useful
+    private long usedBytes; // of the volume holding the chunks
+
+    // Load since the previous heartbeat
+    private int activeConnections;
+    private long diskReadBytesPerSec;
+    private long diskWriteBytesPerSec;
+    private long netInBytesPerSec;
+    private long netOutBytesPerSec;
+
+    // Entries of the ChunkReport body
+    private int chunksAdded;
+    private int chunksRemoved;
+
+    // Node chunk cache counters since the node started (all 0 when it has no cache)
+    private long cacheHits;
+    private long cacheMisses;
+    private long cacheEvictions;
+    private long cacheBytes;
     private int bodyLength = 0;
 
     public NodeHeartbeat() {}
@@ -26,6 +53,14 @@ public class NodeHeartbeat {
         this.nodeId = nodeId;
     }
 
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
     public long getTimestampEpochMs() {
         return timestampEpochMs;
     }
@@ -42,6 +77,102 @@ public class NodeHeartbeat {
         this.freeBytes = freeBytes;
     }
 
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public void setUsedBytes(long usedBytes) {
+        this.usedBytes = usedBytes;
+    }
+
+    public int getActiveConnections() {
+        return activeConnections;
+    }
+
+    public void setActiveConnections(int activeConnections) {
+        this.activeConnections = activeConnections;
+    }
+
+    public long getDiskReadBytesPerSec() {
+        return diskReadBytesPerSec;
+    }
+
+    public void setDiskReadBytesPerSec(long diskReadBytesPerSec) {
+        this.diskReadBytesPerSec = diskReadBytesPerSec;
+    }
+
+    public long getDiskWriteBytesPerSec() {
+        return diskWriteBytesPerSec;
+    }
+
+    public void setDiskWriteBytesPerSec(long diskWriteBytesPerSec) {
+        this.diskWriteBytesPerSec = diskWriteBytesPerSec;
+    }
+
+    public long getNetInBytesPerSec() {
+        return netInBytesPerSec;
+    }
+
+    public void setNetInBytesPerSec(long netInBytesPerSec) {
+        this.netInBytesPerSec = netInBytesPerSec;
+    }
+
+    public long getNetOutBytesPerSec() {
+        return netOutBytesPerSec;
+    }
+
+    public void setNetOutBytesPerSec(long netOutBytesPerSec) {
+        this.netOutBytesPerSec = netOutBytesPerSec;
+    }
+
+    public int getChunksAdded() {
+        return chunksAdded;
+    }
+
+    public void setChunksAdded(int chunksAdded) {
+        this.chunksAdded = chunksAdded;
+    }
+
+    public int getChunksRemoved() {
+        return chunksRemoved;
+    }
+
+    public void setChunksRemoved(int chunksRemoved) {
+        this.chunksRemoved = chunksRemoved;
+    }
+
+    public long getCacheHits() {
+        return cacheHits;
+    }
+
+    public void setCacheHits(long cacheHits) {
+        this.cacheHits = cacheHits;
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    public void setCacheMisses(long cacheMisses) {
+        this.cacheMisses = cacheMisses;
+    }
+
+    public long getCacheEvictions() {
+        return cacheEvictions;
+    }
+
+    public void setCacheEvictions(long cacheEvictions) {
+        this.cacheEvictions = cacheEvictions;
+    }
+
+    public long getCacheBytes() {
+        return cacheBytes;
+    }
+
+    public void setCacheBytes(long cacheBytes) {
+        this.cacheBytes = cacheBytes;
+    }
+
     public int getBodyLength() {
         return bodyLength;
     }
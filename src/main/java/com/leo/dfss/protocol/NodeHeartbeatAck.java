@@ -1,10 +1,18 @@
 package com.leo.dfss.protocol;
 
+import java.util.List;
+
+/**
+ * Answers a NODE_HEARTBEAT. sequence is the heartbeat's: its chunk report has been applied.
+ * copies are repair copies the node should start (see ChunkCopyTask), possibly none.
+ */
 public class NodeHeartbeatAck {
 
     private String type = "NODE_HEARTBEAT_ACK";
     private String status; // "OK"
+    private long sequence;
     private long serverTimeEpochMs;
+    private List<ChunkCopyTask> copies;
     private int bodyLength = 0;
 
     public NodeHeartbeatAck() {}
@@ -25,6 +33,14 @@ public class NodeHeartbeatAck {
         this.status = status;
     }
 
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
     public long getServerTimeEpochMs() {
         return serverTimeEpochMs;
     }
@@ -33,6 +49,14 @@ public class NodeHeartbeatAck {
         this.serverTimeEpochMs = serverTimeEpochMs;
     }
 
+    public List<ChunkCopyTask> getCopies() {
+        return (copies == null) ? List.of() : copies;
+    }
+
+    public void setCopies(List<ChunkCopyTask> copies) {
+        this.copies = copies;
+    }
+
     public int getBodyLength() {
         return bodyLength;
     }
@@ -0,0 +1,131 @@
+package com.leo.dfss.tests;
+
+import com.leo.dfss.domain.Checksums;
+import com.leo.dfss.domain.ChunkStore;
+import com.leo.dfss.domain.DurabilityMode;
+import com.leo.dfss.domain.StagedChunk;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Measures what end-to-end CRC32C costs on the chunk path, per chunk size:
+ *
+ *   crc32c       checksum of a chunk already in memory (the intrinsic alone)
+ *   copy         a chunk copied buffer to buffer, as a socket read into a staging buffer does
+ *   copy+crc32c  the same copy with the checksum folded into the pass, as ChecksumChannel does
+ *   stage        ChunkStore.stageChunk (socket-like stream -> temp file, checksummed on the way)
+ *   client read  Checksums.crc32c over a file region: a read with the checksum folded in, as
+ *                NodeClient does before sending a chunk from the buffer it read it into
+ *
+ * Each case is warmed up first, then timed over about the same number of bytes.
+ *
+ * Usage: ChecksumBenchmark [megabytesPerCase]
+ * Defaults: 2048 MB per case.
+ */
+public class ChecksumBenchmark {
+
+    private static final int[] CHUNK_BYTES = {4 * 1024, 64 * 1024, 1024 * 1024, 4 * 1024 * 1024};
+
+    // Read size of the staging path (MessageBodyStream hands over socket reads of about this size)
+    private static final int READ_BYTES = 64 * 1024;
+
+    @FunctionalInterface
+    private interface Case {
+        long run() throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        long totalBytes = ((args.length > 0) ? Long.parseLong(args[0]) : 2048) * 1024 * 1024;
+        Path dir = Files.createTempDirectory("dfss-checksum-bench");
+        ChunkStore store = new ChunkStore(dir.resolve("chunks"), DurabilityMode.NONE, 1, 0);
+        store.open();
+
+        try {
+            for (int chunkBytes : CHUNK_BYTES) {
+                byte[] chunk = new byte[chunkBytes];
+                ThreadLocalRandom.current().nextBytes(chunk);
+                ByteBuffer source = ByteBuffer.allocateDirect(chunkBytes).put(chunk).flip();
+                ByteBuffer target = ByteBuffer.allocateDirect(chunkBytes);
+                long iterations = Math.max(1, totalBytes / chunkBytes);
+
+                Path file = dir.resolve("chunk.bin");
+                Files.write(file, chunk);
+
+                System.out.println(String.format("%,d byte chunks:", chunkBytes));
+                double crcOnly = run("crc32c", chunkBytes, iterations, () -> Checksums.crc32c(source));
+                double copy = run("copy", chunkBytes, iterations, () -> copy(source, target, null));
+                double checked = run("copy+crc32c", chunkBytes, iterations, () -> copy(source, target, new CRC32C()));
+                System.out.println(String.format("  checksum overhead on the copy: %.1f%% (crc32c alone %.1f GB/s)",
+                        100.0 * (copy / checked - 1), crcOnly / 1024));
+
+                long stageIterations = Math.max(1, Math.min(iterations, (256L * 1024 * 1024) / chunkBytes));
+                double stage = run("stage", chunkBytes, stageIterations, () -> {
+                    StagedChunk staged = store.stageChunk("bench", 0, new ByteArrayInputStream(chunk), chunkBytes);
+                    store.discardChunk(staged);
+                    return staged.getInfo().getChecksum();
+                });
+                System.out.println(String.format("  checksum share of staging time: %.1f%%", 100.0 * stage / crcOnly));
+
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    run("client read", chunkBytes, iterations, () -> Checksums.crc32c(channel, 0, chunkBytes));
+                }
+            }
+        } finally {
+            store.close();
+            deleteTree(dir);
+        }
+    }
+
+    /** Copies source to target in READ_BYTES pieces, checksumming each piece after it lands if crc is set. */
+    private static long copy(ByteBuffer source, ByteBuffer target, CRC32C crc) {
+        ByteBuffer from = source.duplicate();
+        target.clear();
+        while (from.hasRemaining()) {
+            int n = Math.min(READ_BYTES, from.remaining());
+            int start = target.position();
+            target.put(target.position(), from, from.position(), n);
+            from.position(from.position() + n);
+            target.position(start + n);
+            if (crc != null) {
+                crc.update(target.duplicate().position(start).limit(start + n));
+            }
+        }
+        return (crc != null) ? crc.getValue() : target.position();
+    }
+
+    /** @return throughput in MB/s */
+    private static double run(String name, int chunkBytes, long iterations, Case task) throws IOException {
+        long sink = 0;
+        for (long i = 0; i < Math.min(iterations, 1000); i++) {
+            sink += task.run(); // warm-up
+        }
+
+        long start = System.nanoTime();
+        for (long i = 0; i < iterations; i++) {
+            sink += task.run();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double megabytesPerSecond = (double) chunkBytes * iterations / (1024 * 1024) / seconds;
+        System.out.println(String.format("  %-12s %10.1f MB/s %12.0f chunks/s%s", name, megabytesPerSecond,
+                iterations / seconds, (sink == 42) ? " " : ""));
+        return megabytesPerSecond;
+    }
+
+    private static void deleteTree(Path root) throws Exception {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
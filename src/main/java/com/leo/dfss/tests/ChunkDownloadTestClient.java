@@ -0,0 +1,87 @@
+package com.leo.dfss.tests;
+
+import com.leo.dfss.protocol.ChunkDownloadRequest;
+import com.leo.dfss.protocol.ChunkDownloadResponse;
+import com.leo.dfss.protocol.Message;
+import com.leo.dfss.transport.CodecNegotiation;
+import com.leo.dfss.transport.ReceivedMessage;
+import com.leo.dfss.transport.TcpMessageReader;
+import com.leo.dfss.transport.TcpMessageWriter;
+
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32C;
+
+public class ChunkDownloadTestClient {
+
+    private static final String NODE_HOST = "localhost";
+    private static final int NODE_PORT = 9100;
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: ChunkDownloadTestClient <fileId> <chunkIndex> [offset length] [JSON|BINARY]");
+            return;
+        }
+
+        String fileId = args[0];
+        int chunkIndex = Integer.parseInt(args[1]);
+        long offset = (args.length > 3) ? Long.parseLong(args[2]) : 0;
+        long length = (args.length > 3) ? Long.parseLong(args[3]) : -1;
+        String codec = (args.length == 3) ? args[2] : (args.length > 4) ? args[4] : "BINARY";
+
+        try (Socket socket = new Socket(NODE_HOST, NODE_PORT)) {
+
+            TcpMessageReader reader = new TcpMessageReader(socket.getInputStream());
+            TcpMessageWriter writer = new TcpMessageWriter(socket.getOutputStream());
+
+            // 1) Read WELCOME message and select the wire codec
+            ReceivedMessage welcome = reader.read();
+            System.out.println("Response: type= " + welcome.getHeader().getType());
+            System.out.println("Codec " + codec + " selected: " + CodecNegotiation.request(reader, writer, codec));
+
+            // 2) Request the chunk (or a range of it)
+            ChunkDownloadRequest request = new ChunkDownloadRequest();
+            request.setFileId(fileId);
+            request.setChunkIndex(chunkIndex);
+            request.setOffset(offset);
+            request.setLength(length);
+
+            writer.send(Message.of("CHUNK_DOWNLOAD", request), null);
+
+            // 3) Read response header + body
+            ReceivedMessage received = reader.read();
+            if (received == null) {
+                System.out.println("Connection closed");
+                return;
+            }
+
+            ChunkDownloadResponse response = received.getHeader().getPayload(ChunkDownloadResponse.class);
+            System.out.println("Response: type= " + received.getHeader().getType() + ", data= " + received.getHeader().getData());
+
+            if (response == null || !"OK".equals(response.getStatus())) {
+                return;
+            }
+
+            byte[] body = received.getBody();
+            if (body == null) {
+                body = new byte[0];
+            }
+
+            // 4) The checksum covers the whole chunk, so only full reads can be verified
+            if (body.length == response.getChunkLength() && response.getChecksum() >= 0) {
+                CRC32C crc = new CRC32C();
+                crc.update(body);
+                System.out.println("Checksum " + (crc.getValue() == response.getChecksum() ? "OK" : "MISMATCH"));
+            }
+
+            System.out.println("Body (" + body.length + " bytes): "
+                    + new String(body, 0, Math.min(body.length, 200), StandardCharsets.UTF_8));
+
+            // 5) Quit cleanly
+            writer.send(new Message("QUIT", "bye"), null);
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.leo.dfss.tests;
+
+import com.leo.dfss.domain.ChunkStore;
+import com.leo.dfss.domain.DurabilityMode;
+import com.leo.dfss.domain.SegmentChunkStore;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Compares the chunk storage engines on many small chunks: write throughput against a raw
+ * sequential write of the same bytes, then (segments only) compaction after deleting half of the
+ * chunks and the time to reopen the store.
+ *
+ * Usage: ChunkStorageBenchmark [chunkBytes chunks threads durability dataDir]
+ * Defaults: 50,000 chunks of 4 KiB written by 64 threads with group commit, in a temp directory.
+ */
+public class ChunkStorageBenchmark {
+
+    private static final int CHUNKS_PER_FILE = 1000;
+
+    // Small enough that the written data spans several sealed segments compaction can work on
+    private static final long SEGMENT_BYTES = 32L * 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        int chunkBytes = (args.length > 0) ? Integer.parseInt(args[0]) : 4096;
+        int chunks = (args.length > 1) ? Integer.parseInt(args[1]) : 50_000;
+        int threads = (args.length > 2) ? Integer.parseInt(args[2]) : 64;
+        DurabilityMode durability = DurabilityMode.fromName((args.length > 3) ? args[3] : null);
+        Path dir = (args.length > 4) ? Path.of(args[4]) : Files.createTempDirectory("dfss-storage-bench");
+
+        byte[] data = new byte[chunkBytes];
+        ThreadLocalRandom.current().nextBytes(data);
+        double megabytes = (double) chunkBytes * chunks / (1024 * 1024);
+
+        // 1) Baseline: the same bytes as one sequential write and a single fsync
+        Path raw = dir.resolve("raw.bin");
+        long start = System.nanoTime();
+        try (FileChannel out = FileChannel.open(raw, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            for (int i = 0; i < chunks; i++) {
+                buffer.rewind();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+            out.force(true);
+        }
+        report("raw sequential", megabytes, chunks, start);
+        Files.delete(raw);
+
+        // 2) Each engine, chunks written concurrently as NodeConnections do
+        ChunkStore files = new ChunkStore(dir.resolve("files"), durability, 64, 500);
+        files.open();
+        start = System.nanoTime();
+        forEachChunk(chunks, threads, n -> files.writeChunk(fileId(n), n % CHUNKS_PER_FILE, data));
+        report("files (" + durability + ")", megabytes, chunks, start);
+        System.out.println("  " + files.getSyncStats());
+        files.close();
+        deleteTree(dir.resolve("files"));
+
+        SegmentChunkStore segments = new SegmentChunkStore(dir.resolve("segments"), durability, 64, 500,
+                SEGMENT_BYTES, Long.MAX_VALUE, SegmentChunkStore.DEFAULT_COMPACTION_THRESHOLD);
+        segments.open();
+        start = System.nanoTime();
+        forEachChunk(chunks, threads, n -> segments.writeChunk(fileId(n), n % CHUNKS_PER_FILE, data));
+        report("segments (" + durability + ")", megabytes, chunks, start);
+        System.out.println("  " + segments.getSyncStats());
+
+        // 3) Delete every other chunk, then compact
+        start = System.nanoTime();
+        forEachChunk(chunks, threads, n -> {
+            if (n % 2 == 0) {
+                segments.deleteChunk(fileId(n), n % CHUNKS_PER_FILE);
+            }
+        });
+        System.out.println(String.format("deleted %d chunks in %.2fs", (chunks + 1) / 2, (System.nanoTime() - start) / 1e9));
+
+        long before = segments.getSegmentBytes();
+        start = System.nanoTime();
+        long reclaimed = segments.compact();
+        System.out.println(String.format("compaction: %d -> %d segment bytes (%d reclaimed, %d live) in %.2fs",
+                before, segments.getSegmentBytes(), reclaimed, segments.getLiveBytes(), (System.nanoTime() - start) / 1e9));
+        segments.close();
+
+        // 4) Reopen: checkpoint load plus replay of the segments after it
+        start = System.nanoTime();
+        SegmentChunkStore reopened = new SegmentChunkStore(dir.resolve("segments"), durability, 64, 500,
+                SEGMENT_BYTES, Long.MAX_VALUE, SegmentChunkStore.DEFAULT_COMPACTION_THRESHOLD);
+        reopened.open();
+        System.out.println(String.format("reopen: %.2fs", (System.nanoTime() - start) / 1e9));
+
+        int checked = 0;
+        for (int i = 1; i < chunks; i += Math.max(1, chunks / 100)) {
+            int index = i | 1; // odd chunks survived the deletes
+            if (index >= chunks) {
+                break;
+            }
+            if (!Arrays.equals(data, reopened.readChunk(fileId(index), index % CHUNKS_PER_FILE))) {
+                throw new IllegalStateException("Chunk " + index + " differs after reopen");
+            }
+            if (reopened.chunkExists(fileId(index - 1), (index - 1) % CHUNKS_PER_FILE)) {
+                throw new IllegalStateException("Deleted chunk " + (index - 1) + " is back after reopen");
+            }
+            checked++;
+        }
+        System.out.println("verified " + checked + " chunks after reopen");
+        reopened.close();
+
+        deleteTree(dir);
+    }
+
+    @FunctionalInterface
+    private interface ChunkTask {
+        void run(int chunk) throws Exception;
+    }
+
+    /** Runs a task for every chunk number from many threads, as NodeConnections would. */
+    private static void forEachChunk(int chunks, int threads, ChunkTask task) throws InterruptedException {
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            workers.execute(() -> {
+                try {
+                    int n;
+                    while ((n = next.getAndIncrement()) < chunks) {
+                        task.run(n);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.HOURS);
+    }
+
+    private static String fileId(int chunk) {
+        return "file-" + (chunk / CHUNKS_PER_FILE);
+    }
+
+    private static void report(String name, double megabytes, int chunks, long startNanos) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        System.out.println(String.format("%-28s %8.1f MB/s %10.0f chunks/s (%.2fs)",
+                name, megabytes / seconds, chunks / seconds, seconds));
+    }
+
+    private static void deleteTree(Path root) throws Exception {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
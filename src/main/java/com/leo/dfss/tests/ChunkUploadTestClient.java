@@ -1,8 +1,9 @@
 package com.leo.dfss.tests;
 
-import com.google.gson.Gson;
+import com.leo.dfss.domain.Checksums;
 import com.leo.dfss.protocol.ChunkUploadRequest;
 import com.leo.dfss.protocol.Message;
+import com.leo.dfss.transport.CodecNegotiation;
 import com.leo.dfss.transport.ReceivedMessage;
 import com.leo.dfss.transport.TcpMessageReader;
 import com.leo.dfss.transport.TcpMessageWriter;
@@ -13,13 +14,15 @@ import java.util.UUID;
 
 public class ChunkUploadTestClient {
 
-    public static final Gson gson = new Gson();
-
     public static final String NODE_HOST = "localhost";
     private static final int NODE_PORT = 9100;
 
     public static void main(String[] args) {
-        String fileId = "test-file-" + UUID.randomUUID();
+        // Optional codec argument: JSON (default) or BINARY
+        String codec = (args.length > 0) ? args[0] : "JSON";
+
+        // Binary frames carry the fileId as a 16-byte UUID
+        String fileId = UUID.randomUUID().toString();
         int chunkIndex = 0;
 
         byte[] chunkBytes = "Hello from DFSS chunk upload!".getBytes(StandardCharsets.UTF_8);
@@ -29,17 +32,19 @@ public class ChunkUploadTestClient {
             TcpMessageReader reader = new TcpMessageReader(socket.getInputStream());
             TcpMessageWriter writer = new TcpMessageWriter(socket.getOutputStream());
 
-            // 1) Read WELCOME message
+            // 1) Read WELCOME message and select the wire codec
             printResponse(reader);
+            System.out.println("Codec " + codec + " selected: " + CodecNegotiation.request(reader, writer, codec));
 
             // 2) Build CHUNK_UPLOAD header
             ChunkUploadRequest request = new ChunkUploadRequest();
             request.setFileId(fileId);
             request.setChunkIndex(chunkIndex);
             request.setBodyLength(chunkBytes.length);
+            request.setChecksum(Checksums.crc32c(chunkBytes, 0, chunkBytes.length));
 
             // 3) Send framed message (header + body)
-            writer.send(new Message("CHUNK_UPLOAD", gson.toJson(request)), chunkBytes);
+            writer.send(Message.of("CHUNK_UPLOAD", request), chunkBytes);
 
             // 4) Read acknowledgement (ACK) of upload
             printResponse(reader);
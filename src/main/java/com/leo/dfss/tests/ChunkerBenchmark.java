@@ -0,0 +1,121 @@
+package com.leo.dfss.tests;
+
+import com.leo.dfss.client.ContentDefinedChunker;
+import com.leo.dfss.domain.ContentHash;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Measures the content-defined chunker on one core, per average chunk size:
+ *
+ *   cut      ContentDefinedChunker.cut over random data already in memory (the gear hash loop)
+ *   file     ContentDefinedChunker.chunk over a file in the page cache (adds the reads)
+ *
+ * and how well the chunking survives an edit: one byte is inserted at the front of the data and
+ * the share of chunks that are still byte-identical (same content hash) is reported, next to the
+ * same number for fixed-size chunks (which is ~0%).
+ *
+ * Each case is warmed up first, then timed over about the same number of bytes.
+ *
+ * Usage: ChunkerBenchmark [megabytesPerCase]
+ * Defaults: 4096 MB per case, 256 MB of data.
+ */
+public class ChunkerBenchmark {
+
+    private static final int[] AVG_SIZES = {8 * 1024, 64 * 1024, 1024 * 1024, 4 * 1024 * 1024};
+
+    private static final int DATA_BYTES = 256 * 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        long totalBytes = ((args.length > 0) ? Long.parseLong(args[0]) : 4096) * 1024 * 1024;
+
+        byte[] data = new byte[DATA_BYTES];
+        ThreadLocalRandom.current().nextBytes(data);
+
+        Path dir = Files.createTempDirectory("dfss-chunker-bench");
+        Path file = dir.resolve("data.bin");
+        Path edited = dir.resolve("edited.bin");
+        Files.write(file, data);
+        try (FileChannel out = FileChannel.open(edited, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            out.write(ByteBuffer.wrap(new byte[] { 42 }));
+            out.write(ByteBuffer.wrap(data));
+        }
+
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+             FileChannel editedIn = FileChannel.open(edited, StandardOpenOption.READ)) {
+
+            for (int avgSize : AVG_SIZES) {
+                ContentDefinedChunker chunker = new ContentDefinedChunker(avgSize / 4, avgSize, avgSize * 4);
+                int passes = (int) Math.max(1, totalBytes / DATA_BYTES);
+                System.out.println(String.format("avg %,d bytes (min %,d, max %,d):",
+                        avgSize, chunker.getMinSize(), chunker.getMaxSize()));
+
+                // Warm-up, then timed passes over the in-memory data
+                cutAll(chunker, data);
+                long chunks = 0;
+                long start = System.nanoTime();
+                for (int pass = 0; pass < passes; pass++) {
+                    chunks += cutAll(chunker, data);
+                }
+                report("cut", (long) passes * DATA_BYTES, chunks, System.nanoTime() - start);
+
+                chunker.chunk(in, DATA_BYTES);
+                start = System.nanoTime();
+                chunks = 0;
+                for (int pass = 0; pass < passes; pass++) {
+                    chunks += chunker.chunk(in, DATA_BYTES).length - 1;
+                }
+                report("file", (long) passes * DATA_BYTES, chunks, System.nanoTime() - start);
+
+                long[] before = chunker.chunk(in, DATA_BYTES);
+                long[] after = chunker.chunk(editedIn, DATA_BYTES + 1);
+                long[] fixedAfter = ContentDefinedChunker.fixedOffsets(DATA_BYTES + 1, avgSize);
+                System.out.println(String.format("  after a 1-byte insert at the front: %.1f%% of chunks unchanged (fixed-size chunks: %.1f%%)",
+                        100 * unchanged(in, before, editedIn, after),
+                        100 * unchanged(in, ContentDefinedChunker.fixedOffsets(DATA_BYTES, avgSize), editedIn, fixedAfter)));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(edited);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private static long cutAll(ContentDefinedChunker chunker, byte[] data) {
+        long chunks = 0;
+        for (int start = 0; start < data.length; chunks++) {
+            start += chunker.cut(data, start, data.length);
+        }
+        return chunks;
+    }
+
+    /** @return share of the edited file's chunks whose content also is a chunk of the original */
+    private static double unchanged(FileChannel original, long[] originalOffsets,
+                                    FileChannel edited, long[] editedOffsets) throws IOException {
+        Set<ContentHash> hashes = new HashSet<>();
+        for (int i = 0; i + 1 < originalOffsets.length; i++) {
+            hashes.add(ContentHash.sha256(original, originalOffsets[i], originalOffsets[i + 1] - originalOffsets[i]));
+        }
+        int same = 0;
+        for (int i = 0; i + 1 < editedOffsets.length; i++) {
+            if (hashes.contains(ContentHash.sha256(edited, editedOffsets[i], editedOffsets[i + 1] - editedOffsets[i]))) {
+                same++;
+            }
+        }
+        return (double) same / (editedOffsets.length - 1);
+    }
+
+    private static void report(String name, long bytes, long chunks, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.println(String.format("  %-5s %8.2f GB/s  %,12d chunks, average %,d bytes",
+                name, bytes / seconds / (1024 * 1024 * 1024), chunks, bytes / Math.max(1, chunks)));
+    }
+}
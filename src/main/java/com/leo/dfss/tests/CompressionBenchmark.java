@@ -0,0 +1,169 @@
+package com.leo.dfss.tests;
+
+import com.leo.dfss.compression.ChunkCodec;
+import com.leo.dfss.compression.ChunkCompressor;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Measures the chunk codecs on one core, per kind of data:
+ *
+ *   random   incompressible (media, archives, encrypted files)
+ *   json     JSON records with repeating keys and varied values
+ *   logs     log lines with timestamps, levels and repeating messages
+ *   sparse   mostly zeros with scattered random runs (disk images, preallocated files)
+ *
+ * For each codec it reports compression and decompression speed (of the uncompressed bytes) and
+ * the compressed size. Then the adaptive ChunkCompressor (10% minimum savings) is run over the
+ * same data, showing what it keeps and what deciding costs: on random data the sample check
+ * should make it far cheaper than a full compression attempt.
+ *
+ * Each case is warmed up first, then timed over about the same number of bytes.
+ *
+ * Usage: CompressionBenchmark [megabytesPerCase] [chunkSize]
+ * Defaults: 1024 MB per case, 4 MiB chunks, 64 MB of data per kind.
+ */
+public class CompressionBenchmark {
+
+    private static final int DATA_BYTES = 64 * 1024 * 1024;
+
+    private static final ChunkCodec[] CODECS = {ChunkCodec.LZ4, ChunkCodec.DEFLATE};
+
+    private static final String[] LEVELS = {"INFO", "INFO", "INFO", "DEBUG", "WARN", "ERROR"};
+    private static final String[] EVENTS = {"Chunk uploaded successfully", "Heartbeat received",
+            "Group commit flushed", "Connection closed", "Replica lagging, scheduling repair"};
+
+    public static void main(String[] args) throws Exception {
+        long totalBytes = ((args.length > 0) ? Long.parseLong(args[0]) : 1024) * 1024 * 1024;
+        int chunkSize = (args.length > 1) ? Integer.parseInt(args[1]) : 4 * 1024 * 1024;
+        int passes = (int) Math.max(1, totalBytes / DATA_BYTES);
+
+        String[] kinds = {"random", "json", "logs", "sparse"};
+        int chunks = (DATA_BYTES + chunkSize - 1) / chunkSize;
+        byte[][] compressed = new byte[chunks][chunkSize + chunkSize / 255 + 64];
+        int[] lengths = new int[chunks];
+        byte[] decompressed = new byte[chunkSize];
+
+        for (String kind : kinds) {
+            byte[] data = generate(kind, DATA_BYTES);
+            System.out.println(kind + " (" + chunkSize + "-byte chunks):");
+
+            for (ChunkCodec codec : CODECS) {
+                // Warm-up, then timed passes; every pass keeps its compressed chunks for decompression
+                compressAll(codec, data, chunkSize, compressed, lengths);
+                long start = System.nanoTime();
+                for (int pass = 0; pass < passes; pass++) {
+                    compressAll(codec, data, chunkSize, compressed, lengths);
+                }
+                long compressNanos = System.nanoTime() - start;
+
+                decompressAll(codec, data, chunkSize, compressed, lengths, decompressed, true);
+                start = System.nanoTime();
+                for (int pass = 0; pass < passes; pass++) {
+                    decompressAll(codec, data, chunkSize, compressed, lengths, decompressed, false);
+                }
+                long decompressNanos = System.nanoTime() - start;
+
+                long storedBytes = 0;
+                for (int length : lengths) {
+                    storedBytes += length;
+                }
+                long bytes = (long) passes * DATA_BYTES;
+                System.out.println(String.format("  %-8s compress %8.1f MB/s  decompress %8.1f MB/s  size %5.1f%%",
+                        codec, mbPerSecond(bytes, compressNanos), mbPerSecond(bytes, decompressNanos),
+                        100.0 * storedBytes / DATA_BYTES));
+            }
+
+            for (ChunkCodec codec : CODECS) {
+                adaptive(codec, data, chunkSize, compressed[0]);
+                ChunkCompressor compressor = null;
+                long start = System.nanoTime();
+                for (int pass = 0; pass < passes; pass++) {
+                    compressor = adaptive(codec, data, chunkSize, compressed[0]);
+                }
+                long nanos = System.nanoTime() - start;
+                System.out.println(String.format("  adaptive %8.1f MB/s  %s",
+                        mbPerSecond((long) passes * DATA_BYTES, nanos), compressor));
+            }
+        }
+    }
+
+    private static void compressAll(ChunkCodec codec, byte[] data, int chunkSize, byte[][] compressed, int[] lengths) {
+        for (int i = 0; i < lengths.length; i++) {
+            int from = i * chunkSize;
+            int length = Math.min(chunkSize, data.length - from);
+            lengths[i] = codec.compress(data, from, length, compressed[i], 0, compressed[i].length);
+        }
+    }
+
+    /** Decompresses every chunk, and checks it against the original data if asked. */
+    private static void decompressAll(ChunkCodec codec, byte[] data, int chunkSize, byte[][] compressed, int[] lengths,
+                                      byte[] decompressed, boolean check) throws Exception {
+        for (int i = 0; i < lengths.length; i++) {
+            int from = i * chunkSize;
+            int length = Math.min(chunkSize, data.length - from);
+            codec.decompress(compressed[i], 0, lengths[i], decompressed, 0, length);
+            if (check && !Arrays.equals(data, from, from + length, decompressed, 0, length)) {
+                throw new IllegalStateException(codec + " did not round-trip chunk " + i);
+            }
+        }
+    }
+
+    private static ChunkCompressor adaptive(ChunkCodec codec, byte[] data, int chunkSize, byte[] compressed) {
+        ChunkCompressor compressor = new ChunkCompressor(codec, 0.10);
+        byte[] chunk = new byte[chunkSize];
+        for (int from = 0; from < data.length; from += chunkSize) {
+            int length = Math.min(chunkSize, data.length - from);
+            System.arraycopy(data, from, chunk, 0, length);
+            compressor.compress(chunk, length, compressed);
+        }
+        return compressor;
+    }
+
+    private static byte[] generate(String kind, int size) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        byte[] data = new byte[size];
+        switch (kind) {
+            case "random" -> random.nextBytes(data);
+            case "sparse" -> {
+                for (int i = 0; i < size; i += 4096) {
+                    if (random.nextInt(8) == 0) {
+                        byte[] run = new byte[Math.min(4096, size - i)];
+                        random.nextBytes(run);
+                        System.arraycopy(run, 0, data, i, run.length);
+                    }
+                }
+            }
+            default -> {
+                StringBuilder text = new StringBuilder(size + 1024);
+                long time = 1_700_000_000_000L;
+                for (int i = 0; text.length() < size; i++) {
+                    time += random.nextInt(50);
+                    if (kind.equals("json")) {
+                        text.append("{\"id\":").append(i)
+                                .append(",\"fileId\":\"").append(Long.toHexString(random.nextLong()))
+                                .append("\",\"chunkIndex\":").append(random.nextInt(4096))
+                                .append(",\"status\":\"").append(random.nextInt(10) == 0 ? "ERROR" : "OK")
+                                .append("\",\"bytes\":").append(random.nextInt(1 << 22))
+                                .append(",\"timestamp\":").append(time).append("}\n");
+                    } else {
+                        text.append(time).append(' ').append(LEVELS[random.nextInt(LEVELS.length)])
+                                .append(" [node-").append(random.nextInt(8)).append("] ")
+                                .append(EVENTS[random.nextInt(EVENTS.length)])
+                                .append(" chunk=").append(random.nextInt(100_000))
+                                .append(" latencyMs=").append(random.nextInt(500)).append('\n');
+                    }
+                }
+                byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+                System.arraycopy(bytes, 0, data, 0, size);
+            }
+        }
+        return data;
+    }
+
+    private static double mbPerSecond(long bytes, long nanos) {
+        return bytes / (nanos / 1e9) / (1024 * 1024);
+    }
+}
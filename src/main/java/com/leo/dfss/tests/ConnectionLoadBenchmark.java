@@ -0,0 +1,149 @@
+package com.leo.dfss.tests;
+
+import com.leo.dfss.node.NodeServer;
+import com.leo.dfss.protocol.ChunkUploadAck;
+import com.leo.dfss.protocol.ChunkUploadRequest;
+import com.leo.dfss.protocol.Message;
+import com.leo.dfss.transport.CodecNegotiation;
+import com.leo.dfss.transport.ConnectionMode;
+import com.leo.dfss.transport.ReceivedMessage;
+import com.leo.dfss.transport.TcpMessageReader;
+import com.leo.dfss.transport.TcpMessageWriter;
+
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load benchmark comparing NodeServer connection modes with many concurrent uploaders.
+ *
+ * Each run starts an in-process NodeServer, opens all client connections first (so the accepted
+ * connection count is measured with every client connected at once), then releases them to upload
+ * their chunks concurrently.
+ *
+ * Usage: ConnectionLoadBenchmark [thread|virtual|both] [clients] [chunksPerClient] [chunkBytes]
+ * Defaults: both 10000 4 4096
+ *
+ * 10k clients need about 20k file descriptors (client and server side share the process), so raise
+ * "ulimit -n" first. Add -Djdk.tracePinnedThreads=full to print a stack trace whenever a virtual
+ * thread pins its carrier; a clean virtual run prints none.
+ */
+public class ConnectionLoadBenchmark {
+
+    private static final int BASE_PORT = 9200;
+
+    public static void main(String[] args) throws Exception {
+        String modes = (args.length > 0) ? args[0] : "both";
+        int clients = (args.length > 1) ? Integer.parseInt(args[1]) : 10_000;
+        int chunksPerClient = (args.length > 2) ? Integer.parseInt(args[2]) : 4;
+        int chunkBytes = (args.length > 3) ? Integer.parseInt(args[3]) : 4096;
+
+        List<ConnectionMode> toRun = new ArrayList<>();
+        if (modes.equals("both") || modes.equals("thread")) toRun.add(ConnectionMode.THREAD_PER_CONNECTION);
+        if (modes.equals("both") || modes.equals("virtual")) toRun.add(ConnectionMode.VIRTUAL_THREADS);
+
+        List<String> results = new ArrayList<>();
+        int port = BASE_PORT;
+        for (ConnectionMode mode : toRun) {
+            results.add(run(mode, port++, clients, chunksPerClient, chunkBytes));
+        }
+
+        System.out.println("\n--- ConnectionLoadBenchmark: " + clients + " clients x "
+                + chunksPerClient + " chunks x " + chunkBytes + " bytes ---");
+        results.forEach(System.out::println);
+    }
+
+    private static String run(ConnectionMode mode, int port, int clients, int chunksPerClient, int chunkBytes) throws Exception {
+        Path dataDir = Files.createTempDirectory("dfss-bench-" + mode.name().toLowerCase());
+        NodeServer server = new NodeServer(port, dataDir, mode);
+
+        Thread serverThread = new Thread(server::start, "bench-node-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Thread.sleep(500);
+
+        byte[] chunk = new byte[chunkBytes];
+        CountDownLatch connected = new CountDownLatch(clients);
+        CountDownLatch go = new CountDownLatch(1);
+        AtomicInteger connectFailures = new AtomicInteger();
+        AtomicInteger uploadFailures = new AtomicInteger();
+        AtomicInteger chunksAcked = new AtomicInteger();
+
+        long connectStart = System.nanoTime();
+
+        // Uploaders always run on virtual threads so the client side is the same for every mode
+        try (ExecutorService uploaders = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < clients; i++) {
+                uploaders.execute(() -> {
+                    Socket socket;
+                    TcpMessageReader reader;
+                    TcpMessageWriter writer;
+                    try {
+                        socket = new Socket("localhost", port);
+                        reader = new TcpMessageReader(socket.getInputStream());
+                        writer = new TcpMessageWriter(socket.getOutputStream());
+                        reader.read(); // WELCOME
+                        CodecNegotiation.request(reader, writer, "BINARY");
+                    } catch (Exception e) {
+                        connectFailures.incrementAndGet();
+                        connected.countDown();
+                        return;
+                    }
+                    connected.countDown();
+
+                    try (socket) {
+                        go.await();
+
+                        String fileId = UUID.randomUUID().toString();
+                        for (int c = 0; c < chunksPerClient; c++) {
+                            ChunkUploadRequest request = new ChunkUploadRequest();
+                            request.setFileId(fileId);
+                            request.setChunkIndex(c);
+                            request.setBodyLength(chunk.length);
+                            writer.send(Message.of("CHUNK_UPLOAD", request), chunk);
+
+                            ReceivedMessage response = reader.read();
+                            ChunkUploadAck ack = (response == null) ? null
+                                    : response.getHeader().getPayload(ChunkUploadAck.class);
+                            if (ack != null && "OK".equals(ack.getStatus())) {
+                                chunksAcked.incrementAndGet();
+                            } else {
+                                uploadFailures.incrementAndGet();
+                            }
+                        }
+                        writer.send(new Message("QUIT", "bye"), null);
+                    } catch (Exception e) {
+                        uploadFailures.incrementAndGet();
+                    }
+                });
+            }
+
+            connected.await(5, TimeUnit.MINUTES);
+            long connectMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectStart);
+            int accepted = server.getConnectionCount();
+
+            long uploadStart = System.nanoTime();
+            go.countDown();
+            uploaders.shutdown();
+            uploaders.awaitTermination(10, TimeUnit.MINUTES);
+            double uploadSeconds = (System.nanoTime() - uploadStart) / 1e9;
+
+            server.shutdown();
+
+            long bytes = (long) chunksAcked.get() * chunkBytes;
+            return String.format("%-22s accepted=%d/%d connectFailures=%d connectMs=%d | chunks=%d failures=%d "
+                            + "time=%.2fs throughput=%.0f chunks/s %.1f MB/s",
+                    mode, accepted, clients, connectFailures.get(), connectMs,
+                    chunksAcked.get(), uploadFailures.get(), uploadSeconds,
+                    chunksAcked.get() / uploadSeconds, bytes / uploadSeconds / (1024 * 1024));
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package com.leo.dfss.tests;
 
-import com.google.gson.Gson;
 import com.leo.dfss.protocol.FilesInitRequest;
 import com.leo.dfss.protocol.FilesInitResponse;
 import com.leo.dfss.protocol.Message;
@@ -12,8 +11,6 @@ import java.net.Socket;
 
 public class CoordinatorInitTestClient {
 
-    private static final Gson gson = new Gson();
-
     private static final String COORDINATOR_HOST = "localhost";
     private static final int COORDINATOR_PORT = 9000;
 
@@ -38,7 +35,7 @@ public class CoordinatorInitTestClient {
             req.setBodyLength(0);
 
             // 3) Send init request to coordinator
-            writer.send(new Message("FILES_INIT_REQUEST", gson.toJson(req)), null);
+            writer.send(Message.of("FILES_INIT_REQUEST", req), null);
 
             // 4) Read response envelope
             ReceivedMessage respMsg = reader.read();
@@ -52,7 +49,7 @@ public class CoordinatorInitTestClient {
             System.out.println("Envelope data: " + respHeader.getData());
 
             if ("FILES_INIT_RESPONSE".equals(respHeader.getType())) {
-                FilesInitResponse resp = gson.fromJson(respHeader.getData(), FilesInitResponse.class);
+                FilesInitResponse resp = respHeader.getPayload(FilesInitResponse.class);
 
                 System.out.println("\n--- Parsed FILES_INIT_RESPONSE ---");
                 System.out.println("fileId       = " + resp.getFileId());
@@ -0,0 +1,76 @@
+package com.leo.dfss.tests;
+
+import com.leo.dfss.erasure.ReedSolomon;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures Reed-Solomon encode and reconstruct throughput (GB/s of data shards processed).
+ *
+ * Usage: ErasureCodingBenchmark [dataShards parityShards shardBytes seconds]
+ * Defaults: RS(6,3) with 1 MiB shards, 3 seconds per measurement after a warm-up.
+ */
+public class ErasureCodingBenchmark {
+
+    public static void main(String[] args) {
+        int dataShards = (args.length > 0) ? Integer.parseInt(args[0]) : 6;
+        int parityShards = (args.length > 1) ? Integer.parseInt(args[1]) : 3;
+        int shardBytes = (args.length > 2) ? Integer.parseInt(args[2]) : 1024 * 1024;
+        double seconds = (args.length > 3) ? Double.parseDouble(args[3]) : 3;
+
+        ReedSolomon codec = new ReedSolomon(dataShards, parityShards);
+        byte[][] shards = new byte[dataShards + parityShards][shardBytes];
+        Random random = new Random(42);
+        for (int i = 0; i < dataShards; i++) {
+            random.nextBytes(shards[i]);
+        }
+        codec.encode(shards, 0, shardBytes);
+
+        // Keep a copy to check reconstruction against
+        byte[][] expected = new byte[shards.length][];
+        for (int i = 0; i < shards.length; i++) {
+            expected[i] = shards[i].clone();
+        }
+
+        // Worst case: as many data shards lost as there are parity shards
+        boolean[] present = new boolean[shards.length];
+        Arrays.fill(present, true);
+        for (int i = 0; i < Math.min(parityShards, dataShards); i++) {
+            present[i] = false;
+        }
+
+        System.out.println("RS(" + dataShards + "," + parityShards + "), " + shardBytes + " byte shards");
+
+        // Warm up both paths so the JIT has compiled them
+        run("warm-up encode", seconds / 2, dataShards, shardBytes, () -> codec.encode(shards, 0, shardBytes));
+        run("warm-up decode", seconds / 2, dataShards, shardBytes, () -> codec.reconstruct(shards, present, 0, shardBytes));
+
+        run("encode", seconds, dataShards, shardBytes, () -> codec.encode(shards, 0, shardBytes));
+        run("decode (" + Math.min(parityShards, dataShards) + " data shards lost)", seconds, dataShards, shardBytes,
+                () -> codec.reconstruct(shards, present, 0, shardBytes));
+
+        for (int i = 0; i < shards.length; i++) {
+            if (!Arrays.equals(shards[i], expected[i])) {
+                System.out.println("MISMATCH in shard " + i);
+                return;
+            }
+        }
+        System.out.println("Reconstructed shards match the originals");
+    }
+
+    private static void run(String name, double seconds, int dataShards, int shardBytes, Runnable operation) {
+        long deadline = System.nanoTime() + (long) (seconds * 1e9);
+        long start = System.nanoTime();
+        long iterations = 0;
+
+        while (System.nanoTime() < deadline) {
+            operation.run();
+            iterations++;
+        }
+
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        double gigabytes = (double) iterations * dataShards * shardBytes / 1e9;
+        System.out.println(String.format("%-36s %8d stripes  %6.2f GB/s", name, iterations, gigabytes / elapsed));
+    }
+}
@@ -0,0 +1,130 @@
+package com.leo.dfss.tests;
+
+import com.leo.dfss.coordinator.health.FailureDetector;
+import com.leo.dfss.domain.NodeInfo;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the coordinator's failure detector over many simulated nodes heartbeating at a fixed
+ * interval, stops a few of them, and measures how long after their last heartbeat they are
+ * suspected and marked DOWN, how many live nodes were suspected by mistake, and the cost of a
+ * heartbeat.
+ *
+ * Usage: FailureDetectorBenchmark [nodes heartbeatMs failedNodes]
+ * Defaults: 10,000 nodes heartbeating every 1000 ms, 20 of which stop after 5 s. The detector uses
+ * the dfss.coordinator.* properties of FailureDetector.fromSystemProperties.
+ */
+public class FailureDetectorBenchmark {
+
+    private static final long BATCH_MS = 10; // heartbeats are sent in batches this far apart
+
+    public static void main(String[] args) throws Exception {
+        int nodeCount = (args.length > 0) ? Integer.parseInt(args[0]) : 10_000;
+        long intervalMs = (args.length > 1) ? Long.parseLong(args[1]) : 1_000;
+        int failedCount = (args.length > 2) ? Integer.parseInt(args[2]) : 20;
+        System.setProperty("dfss.coordinator.heartbeatMs", Long.toString(intervalMs));
+
+        NodeInfo[] nodes = new NodeInfo[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            nodes[i] = new NodeInfo("node-" + i, "10.0." + (i >> 8) + "." + (i & 0xFF), 9100, 50L << 30,
+                    System.currentTimeMillis());
+        }
+
+        // Nanotime of each stopped node's last heartbeat, and when it was suspected and marked DOWN
+        ConcurrentHashMap<NodeInfo, Long> lastBeat = new ConcurrentHashMap<>();
+        ConcurrentHashMap<NodeInfo, Long> suspectedAt = new ConcurrentHashMap<>();
+        ConcurrentHashMap<NodeInfo, Long> downAt = new ConcurrentHashMap<>();
+        AtomicInteger falseSuspicions = new AtomicInteger();
+        AtomicInteger falseDowns = new AtomicInteger();
+
+        FailureDetector detector = FailureDetector.fromSystemProperties(new FailureDetector.Listener() {
+            @Override
+            public void suspected(NodeInfo node, double phi) {
+                if (lastBeat.containsKey(node)) {
+                    suspectedAt.putIfAbsent(node, System.nanoTime());
+                } else {
+                    falseSuspicions.incrementAndGet();
+                }
+            }
+
+            @Override
+            public void failed(NodeInfo node, double phi) {
+                if (lastBeat.containsKey(node)) {
+                    downAt.putIfAbsent(node, System.nanoTime());
+                } else {
+                    falseDowns.incrementAndGet();
+                }
+            }
+        });
+        detector.start();
+
+        // Each node heartbeats once an interval, nodes spread evenly over it; the first
+        // failedCount nodes of a shuffled order stop after 5 s
+        Random random = new Random(42);
+        boolean[] failed = new boolean[nodeCount];
+        for (int f = 0; f < failedCount; f++) {
+            int n;
+            do {
+                n = random.nextInt(nodeCount);
+            } while (failed[n]);
+            failed[n] = true;
+        }
+
+        long start = System.nanoTime();
+        long failAfterNs = TimeUnit.SECONDS.toNanos(5);
+        long endNs = failAfterNs + TimeUnit.MILLISECONDS.toNanos(intervalMs * 10);
+        long beats = 0;
+        long beatNanos = 0;
+        int next = 0;
+        long batch = 0;
+
+        while (System.nanoTime() - start < endNs) {
+            long batchEndNs = TimeUnit.MILLISECONDS.toNanos(++batch * BATCH_MS);
+            long due = (long) ((double) batchEndNs / TimeUnit.MILLISECONDS.toNanos(intervalMs) * nodeCount);
+            boolean stopping = System.nanoTime() - start >= failAfterNs;
+
+            long t0 = System.nanoTime();
+            for (; beats < due; beats++, next = (next + 1) % nodeCount) {
+                if (failed[next] && stopping) {
+                    continue;
+                }
+                detector.heartbeat(nodes[next]);
+                if (failed[next]) {
+                    lastBeat.put(nodes[next], System.nanoTime());
+                }
+            }
+            beatNanos += System.nanoTime() - t0;
+
+            long sleepNs = start + batchEndNs - System.nanoTime();
+            if (sleepNs > 0) {
+                TimeUnit.NANOSECONDS.sleep(sleepNs);
+            }
+        }
+        detector.close();
+
+        System.out.println(String.format("%d nodes, heartbeat every %d ms: %d heartbeats at %.0f ns each",
+                nodeCount, intervalMs, beats, (double) beatNanos / beats));
+        System.out.println(String.format("Stopped %d nodes: suspected %s, DOWN %s after the last heartbeat",
+                failedCount, latencies(lastBeat, suspectedAt), latencies(lastBeat, downAt)));
+        System.out.println(String.format("Live nodes suspected: %d, marked DOWN: %d", falseSuspicions.get(), falseDowns.get()));
+    }
+
+    /** @return min/avg/max ms from each node's last heartbeat to its event, and how many had one */
+    private static String latencies(ConcurrentHashMap<NodeInfo, Long> lastBeat, ConcurrentHashMap<NodeInfo, Long> events) {
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        long sum = 0;
+        for (var event : events.entrySet()) {
+            long ms = TimeUnit.NANOSECONDS.toMillis(event.getValue() - lastBeat.get(event.getKey()));
+            min = Math.min(min, ms);
+            max = Math.max(max, ms);
+            sum += ms;
+        }
+        return events.isEmpty() ? "never"
+                : String.format("%d/%d/%d ms min/avg/max (%d nodes)", min, sum / events.size(), max, events.size());
+    }
+}
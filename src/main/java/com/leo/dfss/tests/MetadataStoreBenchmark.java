@@ -0,0 +1,148 @@
+package com.leo.dfss.tests;
+
+import com.leo.dfss.coordinator.metadata.MetadataStore;
+import com.leo.dfss.domain.ChunkLocations;
+import com.leo.dfss.domain.FileMetadata;
+import com.leo.dfss.domain.NodeIdTable;
+import com.leo.dfss.domain.NodeInfo;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Measures coordinator metadata write throughput (with group commit), restart time, and the memory
+ * and lookup time of the restored chunk locations.
+ *
+ * Usage: MetadataStoreBenchmark [files writerThreads chunksPerFile dataDir]
+ * Defaults: 200,000 files of 16 chunks (3 replicas each) logged by 64 threads in a temp directory.
+ */
+public class MetadataStoreBenchmark {
+
+    private static final int NODES = 100;
+
+    private static final NodeIdTable NODE_IDS = new NodeIdTable();
+
+    public static void main(String[] args) throws Exception {
+        int fileCount = (args.length > 0) ? Integer.parseInt(args[0]) : 200_000;
+        int threads = (args.length > 1) ? Integer.parseInt(args[1]) : 64;
+        int chunksPerFile = (args.length > 2) ? Integer.parseInt(args[2]) : 16;
+        Path dir = (args.length > 3) ? Path.of(args[3]) : Files.createTempDirectory("dfss-metadata-bench");
+
+        // 1) Log node registrations and file records from many threads, as the coordinator does
+        Map<String, FileMetadata> files = new ConcurrentHashMap<>();
+        Map<String, NodeInfo> nodes = new ConcurrentHashMap<>();
+        MetadataStore store = new MetadataStore(dir, Long.MAX_VALUE); // snapshot explicitly below
+        store.recover(files, nodes, NODE_IDS);
+
+        for (int i = 0; i < NODES; i++) {
+            NodeInfo node = new NodeInfo("node-" + i, "10.0.0." + i, 9100, 50L << 30, System.currentTimeMillis());
+            nodes.put(node.getNodeId(), node);
+            store.nodeRegistered(node);
+        }
+
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService writers = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+
+        for (int t = 0; t < threads; t++) {
+            writers.execute(() -> {
+                try {
+                    int n;
+                    while ((n = next.getAndIncrement()) < fileCount) {
+                        FileMetadata file = newFile(n, chunksPerFile);
+                        files.put(file.getFileId(), file);
+                        store.fileInitialised(file);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+        writers.shutdown();
+        writers.awaitTermination(1, TimeUnit.HOURS);
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("Logged %d file records in %.2fs: %.0f records/s, %.1f records per fsync",
+                fileCount, seconds, fileCount / seconds, (double) store.getRecordCount() / store.getSyncCount()));
+
+        // 2) Snapshot, then append a tail the restart has to replay
+        store.snapshot();
+        for (int n = fileCount; n < fileCount + 1000; n++) {
+            FileMetadata file = newFile(n, chunksPerFile);
+            files.put(file.getFileId(), file);
+            store.fileInitialised(file);
+        }
+        store.close();
+
+        // 3) Restart from snapshot + tail, without the records above still on the heap
+        int expectedFiles = files.size();
+        files.clear();
+        System.gc();
+
+        Map<String, FileMetadata> recoveredFiles = new ConcurrentHashMap<>();
+        Map<String, NodeInfo> recoveredNodes = new ConcurrentHashMap<>();
+        MetadataStore restarted = new MetadataStore(dir, Long.MAX_VALUE);
+        start = System.nanoTime();
+        restarted.recover(recoveredFiles, recoveredNodes, new NodeIdTable());
+        System.out.println(String.format("Restart: %d files restored in %.2fs (%s)",
+                recoveredFiles.size(), (System.nanoTime() - start) / 1e9,
+                recoveredFiles.size() == expectedFiles ? "all present" : "MISSING " + (expectedFiles - recoveredFiles.size())));
+        restarted.close();
+
+        // 4) Memory of the restored chunk locations, and lookups of random chunk ranges in them
+        long chunks = 0;
+        long locationBytes = 0;
+        FileMetadata[] restored = recoveredFiles.values().toArray(new FileMetadata[0]);
+        for (FileMetadata file : restored) {
+            chunks += file.getChunkLocations().getChunkCount();
+            locationBytes += file.getChunkLocations().memoryBytes();
+        }
+
+        int lookups = 1_000_000;
+        int rangeChunks = Math.min(8, chunksPerFile);
+        long checksum = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            ChunkLocations locations = restored[(int) ((i * 2654435761L) % restored.length)].getChunkLocations();
+            int from = i % (chunksPerFile - rangeChunks + 1);
+            for (int c = from; c < from + rangeChunks; c++) {
+                checksum += locations.nodeId(c, 0).length();
+            }
+        }
+        System.out.println(String.format("Chunk locations: %d chunks in %.1f MB (%.1f bytes/chunk); "
+                        + "%d-chunk range lookup %.2f us (checksum %d)",
+                chunks, locationBytes / (1024.0 * 1024), (double) locationBytes / chunks,
+                rangeChunks, (System.nanoTime() - start) / 1e3 / lookups, checksum));
+
+        if (args.length <= 3) {
+            try (Stream<Path> entries = Files.walk(dir)) {
+                entries.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static FileMetadata newFile(int n, int chunksPerFile) {
+        FileMetadata file = new FileMetadata(UUID.randomUUID().toString(), "file-" + n + ".bin",
+                (long) chunksPerFile * 4 * 1024 * 1024, 4 * 1024 * 1024);
+        file.setReplicationFactor(3);
+        file.setWriteQuorum(2);
+
+        ChunkLocations.Builder locations = new ChunkLocations.Builder(NODE_IDS, chunksPerFile);
+        for (int c = 0; c < chunksPerFile; c++) {
+            int first = (n + c) % NODES;
+            locations.add("node-" + first, "node-" + (first + 1) % NODES, "node-" + (first + 2) % NODES);
+        }
+        file.setChunkLocations(locations.build());
+        file.setStatus(FileMetadata.Status.UPLOADING);
+        return file;
+    }
+}
@@ -0,0 +1,147 @@
+package com.leo.dfss.tests;
+
+import com.leo.dfss.domain.ChunkRegion;
+import com.leo.dfss.domain.ChunkStore;
+import com.leo.dfss.domain.MappedChunkStorage;
+import com.leo.dfss.domain.MappedRegionCache;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+/**
+ * Compares the ways a node can send a stored chunk to a client, for small, medium and large
+ * chunks. Each read sends the whole chunk over a loopback socket drained by another thread:
+ *
+ *   heap copy   readChunk into a byte[], then write it (what a plain read-and-reply does)
+ *   transferTo  openChunk and FileChannel.transferTo to the socket (the default download path)
+ *   mmap        openChunk through MappedChunkStorage and write the mapped buffer
+ *
+ * All chunks fit in the page cache and in the mmap cache, so this measures the hot-chunk case.
+ *
+ * Usage: MmapReadBenchmark [secondsPerCase dataDir]
+ * Defaults: 3 seconds per case, in a temp directory.
+ */
+public class MmapReadBenchmark {
+
+    private static final int[] CHUNK_BYTES = {4 * 1024, 1024 * 1024, 64 * 1024 * 1024};
+
+    // Bytes stored per chunk size, spread over enough chunks that reads rotate through them
+    private static final long DATA_BYTES = 256L * 1024 * 1024;
+
+    // Hot set of small chunks: well within the mmap cache's mapping limit
+    private static final int MAX_CHUNKS = 4096;
+
+    @FunctionalInterface
+    private interface Read {
+        void send(String fileId, int chunkIndex, SocketChannel socket) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        double seconds = (args.length > 0) ? Double.parseDouble(args[0]) : 3;
+        Path dir = (args.length > 1) ? Path.of(args[1]) : Files.createTempDirectory("dfss-mmap-bench");
+
+        ChunkStore store = new ChunkStore(dir.resolve("chunks"));
+        store.open();
+        MappedChunkStorage mapped = new MappedChunkStorage(store, 2 * DATA_BYTES, MappedRegionCache.DEFAULT_MAX_CHUNKS);
+
+        try (ServerSocketChannel server = ServerSocketChannel.open().bind(new InetSocketAddress("localhost", 0));
+             SocketChannel socket = SocketChannel.open(server.getLocalAddress());
+             SocketChannel peer = server.accept()) {
+            startDrain(peer);
+
+            for (int chunkBytes : CHUNK_BYTES) {
+                int chunks = (int) Math.max(2, Math.min(MAX_CHUNKS, DATA_BYTES / chunkBytes));
+                String fileId = "bench-" + chunkBytes;
+                byte[] data = new byte[chunkBytes];
+                ThreadLocalRandom.current().nextBytes(data);
+                for (int i = 0; i < chunks; i++) {
+                    store.writeChunk(fileId, i, data);
+                }
+
+                System.out.println(String.format("%s chunks (%d of them):", size(chunkBytes), chunks));
+                run("heap copy", chunkBytes, chunks, seconds, fileId, socket, (id, index, out) -> {
+                    ByteBuffer body = ByteBuffer.wrap(store.readChunk(id, index));
+                    while (body.hasRemaining()) {
+                        out.write(body);
+                    }
+                });
+                run("transferTo", chunkBytes, chunks, seconds, fileId, socket, (id, index, out) -> {
+                    try (ChunkRegion region = store.openChunk(id, index)) {
+                        long sent = 0;
+                        while (sent < region.getLength()) {
+                            sent += region.getChannel().transferTo(region.getPosition() + sent,
+                                    region.getLength() - sent, out);
+                        }
+                    }
+                });
+                run("mmap", chunkBytes, chunks, seconds, fileId, socket, (id, index, out) -> {
+                    try (ChunkRegion region = mapped.openChunk(id, index)) {
+                        ByteBuffer body = region.getBuffer();
+                        while (body.hasRemaining()) {
+                            out.write(body);
+                        }
+                    }
+                });
+                System.out.println("  " + mapped.getCache());
+
+                for (int i = 0; i < chunks; i++) {
+                    mapped.deleteChunk(fileId, i);
+                }
+            }
+        } finally {
+            mapped.close();
+            deleteTree(dir);
+        }
+    }
+
+    /** Sends chunks round-robin for a warm-up pass, then for the given time, and prints the rate. */
+    private static void run(String name, int chunkBytes, int chunks, double seconds, String fileId,
+                            SocketChannel socket, Read read) throws Exception {
+        for (int i = 0; i < chunks; i++) {
+            read.send(fileId, i, socket);
+        }
+
+        long reads = 0;
+        long start = System.nanoTime();
+        long deadline = start + (long) (seconds * 1e9);
+        while (System.nanoTime() < deadline) {
+            read.send(fileId, (int) (reads % chunks), socket);
+            reads++;
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("  %-12s %9.1f MB/s %10.0f reads/s", name,
+                (double) reads * chunkBytes / (1024 * 1024) / elapsed, reads / elapsed));
+    }
+
+    /** Reads and discards everything the benchmark sends, as a client would consume it. */
+    private static void startDrain(SocketChannel peer) {
+        Thread.ofPlatform().name("bench-drain").daemon().start(() -> {
+            ByteBuffer sink = ByteBuffer.allocateDirect(1024 * 1024);
+            try {
+                while (peer.read(sink.clear()) >= 0) {
+                    // discard
+                }
+            } catch (Exception ignored) {
+            }
+        });
+    }
+
+    private static String size(int bytes) {
+        return (bytes >= 1024 * 1024) ? (bytes / (1024 * 1024)) + " MiB" : (bytes / 1024) + " KiB";
+    }
+
+    private static void deleteTree(Path root) throws Exception {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package com.leo.dfss.transport;
+
+import com.leo.dfss.compression.ChunkCodec;
+import com.leo.dfss.protocol.ChunkCopyTask;
+import com.leo.dfss.protocol.ChunkDownloadRequest;
+import com.leo.dfss.protocol.ChunkDownloadResponse;
+import com.leo.dfss.protocol.ChunkUploadAck;
+import com.leo.dfss.protocol.ChunkUploadRequest;
+import com.leo.dfss.protocol.Message;
+import com.leo.dfss.protocol.NodeAddress;
+import com.leo.dfss.protocol.NodeHeartbeat;
+import com.leo.dfss.protocol.NodeHeartbeatAck;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Compact binary wire format for the hot chunk path and node heartbeats:
+ *
+ * [1 byte]     = opcode
+ * [4 bytes]    = body length (int)
+ * [8 bytes]    = request id (long, 0 if uncorrelated)
+ * [M bytes]    = fixed-width fields for the opcode (see below)
+ * [N bytes]    = optional body bytes, where N = body length
+ *
+ * CHUNK_UPLOAD      = [16 bytes fileId (UUID)][4 bytes chunkIndex][8 bytes checksum, -1 if none]
+ *                     [1 byte codec id][4 bytes rawLength][1 byte writeQuorum][1 byte pipeline count]
+ *                     then per pipeline node: [2 bytes nodeId length][nodeId][2 bytes host length][host][4 bytes port]
+ * CHUNK_UPLOAD_ACK  = [16 bytes fileId (UUID)][4 bytes chunkIndex][1 byte status][1 byte replicasDurable]
+ *                     [2 bytes message length][message]
+ * CHUNK_DOWNLOAD    = [16 bytes fileId (UUID)][4 bytes chunkIndex][8 bytes offset][8 bytes length]
+ *                     [1 byte acceptCompressed]
+ * CHUNK_DOWNLOAD_RESPONSE = [16 bytes fileId (UUID)][4 bytes chunkIndex][1 byte status][8 bytes offset]
+ *                     [8 bytes chunkLength][8 bytes checksum][1 byte codec id][2 bytes message length][message]
+ * NODE_HEARTBEAT    = [2 bytes nodeId length][nodeId][8 bytes sequence][8 bytes timestamp][8 bytes freeBytes]
+ *                     [8 bytes usedBytes][4 bytes activeConnections][8 bytes each: disk read, disk write,
+ *                     network in, network out bytes/s][4 bytes chunksAdded][4 bytes chunksRemoved]
+ *                     [8 bytes each: cache hits, misses, evictions, bytes]
+ * NODE_HEARTBEAT_ACK = [1 byte status][8 bytes sequence][8 bytes server time][2 bytes copy count]
+ *                      per copy: [8 bytes taskId][fileId][4 bytes chunkIndex][nodeId][host][4 bytes port]
+ *
+ * Codec ids are ChunkCodec ids, 0 (NONE) for an uncompressed body.
+ * ENVELOPE          = [2 bytes type length][type][4 bytes data length, -1 if none][JSON data]
+ *
+ * Typed frames are decoded straight into the protocol classes, so handlers never parse JSON for them.
+ * Any other message, or a typed message whose fields do not fit the fixed layout (e.g. a fileId
+ * that is not a UUID, or an unknown codec name), falls back to an ENVELOPE frame carrying the same type and JSON data.
+ */
+public class BinaryMessageCodec implements MessageCodec {
+
+    public static final String NAME = "BINARY";
+
+    static final int OP_ENVELOPE = 0x01;
+    static final int OP_CHUNK_UPLOAD = 0x10;
+    static final int OP_CHUNK_UPLOAD_ACK = 0x11;
+    static final int OP_CHUNK_DOWNLOAD = 0x12;
+    static final int OP_CHUNK_DOWNLOAD_RESPONSE = 0x13;
+    static final int OP_NODE_HEARTBEAT = 0x20;
+    static final int OP_NODE_HEARTBEAT_ACK = 0x21;
+
+    // Opcode, body length and request id
+    private static final int PREFIX_BYTES = 1 + Integer.BYTES + Long.BYTES;
+
+    private static final int STATUS_OK = 0;
+    private static final int STATUS_ERROR = 1;
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public Message readHeader(DataInputStream in) throws IOException {
+        int opcode = in.readUnsignedByte(); // throws EOFException if stream is closed.
+        int bodyLength = in.readInt();
+        long requestId = in.readLong();
+
+        if (bodyLength < 0) {
+            throw new IOException("Invalid body length");
+        }
+
+        Message header = switch (opcode) {
+            case OP_CHUNK_UPLOAD -> Message.of("CHUNK_UPLOAD", readChunkUpload(in, bodyLength));
+            case OP_CHUNK_UPLOAD_ACK -> Message.of("CHUNK_UPLOAD_ACK", readChunkUploadAck(in));
+            case OP_CHUNK_DOWNLOAD -> Message.of("CHUNK_DOWNLOAD", readChunkDownload(in));
+            case OP_CHUNK_DOWNLOAD_RESPONSE -> Message.of("CHUNK_DOWNLOAD_RESPONSE", readChunkDownloadResponse(in, bodyLength));
+            case OP_NODE_HEARTBEAT -> Message.of("NODE_HEARTBEAT", readNodeHeartbeat(in, bodyLength));
+            case OP_NODE_HEARTBEAT_ACK -> Message.of("NODE_HEARTBEAT_ACK", readNodeHeartbeatAck(in));
+            case OP_ENVELOPE -> readEnvelope(in);
+            default -> throw new IOException("Unknown opcode: " + opcode);
+        };
+        header.setBodyLength(bodyLength);
+        header.setRequestId(requestId);
+
+        return header;
+    }
+
+    @Override
+    public long headerBytes(ByteBuffer buffered) {
+        int start = buffered.position();
+        int available = buffered.remaining();
+        if (available < PREFIX_BYTES || (buffered.get(start) & 0xFF) != OP_ENVELOPE) {
+            // Typed frames have only short (2-byte length) variable fields, decoded as they arrive
+            return PREFIX_BYTES;
+        }
+
+        // ENVELOPE: [type length][type][data length][data]
+        int typeEnd = PREFIX_BYTES + Short.BYTES;
+        if (available < typeEnd) {
+            return typeEnd;
+        }
+        int dataStart = typeEnd + (buffered.getShort(start + PREFIX_BYTES) & 0xFFFF) + Integer.BYTES;
+        if (available < dataStart) {
+            return dataStart;
+        }
+        return dataStart + (long) Math.max(buffered.getInt(start + dataStart - Integer.BYTES), 0);
+    }
+
+    @Override
+    public void writeHeader(DataOutputStream out, Message header) throws IOException {
+        Object payload = header.getPayload();
+
+        if (payload instanceof ChunkUploadRequest request && isUuid(request.getFileId()) && fitsByte(request)
+                && codecId(request.getCodec()) >= 0) {
+            out.writeByte(OP_CHUNK_UPLOAD);
+            out.writeInt(header.getBodyLength());
+            out.writeLong(header.getRequestId());
+            writeUuid(out, request.getFileId());
+            out.writeInt(request.getChunkIndex());
+            out.writeLong(request.getChecksum());
+            out.writeByte(codecId(request.getCodec()));
+            out.writeInt(request.getRawLength());
+            out.writeByte(request.getWriteQuorum());
+
+            List<NodeAddress> pipeline = (request.getPipeline() == null) ? List.of() : request.getPipeline();
+            out.writeByte(pipeline.size());
+            for (NodeAddress node : pipeline) {
+                writeShortString(out, node.getNodeId());
+                writeShortString(out, node.getHost());
+                out.writeInt(node.getPort());
+            }
+        } else if (payload instanceof ChunkUploadAck ack && isUuid(ack.getFileId()) && hasBinaryStatus(ack.getStatus())) {
+            out.writeByte(OP_CHUNK_UPLOAD_ACK);
+            out.writeInt(header.getBodyLength());
+            out.writeLong(header.getRequestId());
+            writeUuid(out, ack.getFileId());
+            out.writeInt(ack.getChunkIndex());
+            out.writeByte("OK".equals(ack.getStatus()) ? STATUS_OK : STATUS_ERROR);
+            out.writeByte(Math.min(ack.getReplicasDurable(), 0xFF));
+            writeShortString(out, ack.getMessage());
+        } else if (payload instanceof ChunkDownloadRequest request && isUuid(request.getFileId())) {
+            out.writeByte(OP_CHUNK_DOWNLOAD);
+            out.writeInt(header.getBodyLength());
+            out.writeLong(header.getRequestId());
+            writeUuid(out, request.getFileId());
+            out.writeInt(request.getChunkIndex());
+            out.writeLong(request.getOffset());
+            out.writeLong(request.getLength());
+            out.writeBoolean(request.isAcceptCompressed());
+        } else if (payload instanceof ChunkDownloadResponse response && isUuid(response.getFileId())
+                && hasBinaryStatus(response.getStatus()) && codecId(response.getCodec()) >= 0) {
+            out.writeByte(OP_CHUNK_DOWNLOAD_RESPONSE);
+            out.writeInt(header.getBodyLength());
+            out.writeLong(header.getRequestId());
+            writeUuid(out, response.getFileId());
+            out.writeInt(response.getChunkIndex());
+            out.writeByte("OK".equals(response.getStatus()) ? STATUS_OK : STATUS_ERROR);
+            out.writeLong(response.getOffset());
+            out.writeLong(response.getChunkLength());
+            out.writeLong(response.getChecksum());
+            out.writeByte(codecId(response.getCodec()));
+            writeShortString(out, response.getMessage());
+        } else if (payload instanceof NodeHeartbeat heartbeat && heartbeat.getNodeId() != null) {
+            out.writeByte(OP_NODE_HEARTBEAT);
+            out.writeInt(header.getBodyLength());
+            out.writeLong(header.getRequestId());
+            writeShortString(out, heartbeat.getNodeId());
+            out.writeLong(heartbeat.getSequence());
+            out.writeLong(heartbeat.getTimestampEpochMs());
+            out.writeLong(heartbeat.getFreeBytes());
+            out.writeLong(heartbeat.getUsedBytes());
+            out.writeInt(heartbeat.getActiveConnections());
+            out.writeLong(heartbeat.getDiskReadBytesPerSec());
+            out.writeLong(heartbeat.getDiskWriteBytesPerSec());
+            out.writeLong(heartbeat.getNetInBytesPerSec());
+            out.writeLong(heartbeat.getNetOutBytesPerSec());
+            out.writeInt(heartbeat.getChunksAdded());
+            out.writeInt(heartbeat.getChunksRemoved());
+            out.writeLong(heartbeat.getCacheHits());
+            out.writeLong(heartbeat.getCacheMisses());
+            out.writeLong(heartbeat.getCacheEvictions());
+            out.writeLong(heartbeat.getCacheBytes());
+        } else if (payload instanceof NodeHeartbeatAck ack && hasBinaryStatus(ack.getStatus())
+                && ack.getCopies().size() <= 0xFFFF) {
+            out.writeByte(OP_NODE_HEARTBEAT_ACK);
+            out.writeInt(header.getBodyLength());
+            out.writeLong(header.getRequestId());
+            out.writeByte("OK".equals(ack.getStatus()) ? STATUS_OK : STATUS_ERROR);
+            out.writeLong(ack.getSequence());
+            out.writeLong(ack.getServerTimeEpochMs());
+            List<ChunkCopyTask> copies = ack.getCopies();
+            out.writeShort(copies.size());
+            for (ChunkCopyTask copy : copies) {
+                out.writeLong(copy.getTaskId());
+                writeShortString(out, copy.getFileId());
+                out.writeInt(copy.getChunkIndex());
+                writeShortString(out, copy.getTarget().getNodeId());
+                writeShortString(out, copy.getTarget().getHost());
+                out.writeInt(copy.getTarget().getPort());
+            }
+        } else {
+            out.writeByte(OP_ENVELOPE);
+            out.writeInt(header.getBodyLength());
+            out.writeLong(header.getRequestId());
+            writeShortString(out, header.getType());
+            writeLongString(out, header.getData());
+        }
+    }
+
+    private ChunkUploadRequest readChunkUpload(DataInputStream in, int bodyLength) throws IOException {
+        ChunkUploadRequest request = new ChunkUploadRequest();
+        request.setFileId(readUuid(in));
+        request.setChunkIndex(in.readInt());
+        request.setChecksum(in.readLong());
+        request.setCodec(codecName(in.readUnsignedByte()));
+        request.setRawLength(in.readInt());
+        request.setWriteQuorum(in.readUnsignedByte());
+
+        int pipelineLength = in.readUnsignedByte();
+        if (pipelineLength > 0) {
+            List<NodeAddress> pipeline = new ArrayList<>(pipelineLength);
+            for (int i = 0; i < pipelineLength; i++) {
+                pipeline.add(new NodeAddress(readShortString(in), readShortString(in), in.readInt()));
+            }
+            request.setPipeline(pipeline);
+        }
+
+        request.setBodyLength(bodyLength);
+        return request;
+    }
+
+    private ChunkUploadAck readChunkUploadAck(DataInputStream in) throws IOException {
+        ChunkUploadAck ack = new ChunkUploadAck();
+        ack.setFileId(readUuid(in));
+        ack.setChunkIndex(in.readInt());
+        ack.setStatus(in.readUnsignedByte() == STATUS_OK ? "OK" : "ERROR");
+        ack.setReplicasDurable(in.readUnsignedByte());
+        ack.setMessage(readShortString(in));
+        return ack;
+    }
+
+    private ChunkDownloadRequest readChunkDownload(DataInputStream in) throws IOException {
+        ChunkDownloadRequest request = new ChunkDownloadRequest();
+        request.setFileId(readUuid(in));
+        request.setChunkIndex(in.readInt());
+        request.setOffset(in.readLong());
+        request.setLength(in.readLong());
+        request.setAcceptCompressed(in.readBoolean());
+        return request;
+    }
+
+    private ChunkDownloadResponse readChunkDownloadResponse(DataInputStream in, int bodyLength) throws IOException {
+        ChunkDownloadResponse response = new ChunkDownloadResponse();
+        response.setFileId(readUuid(in));
+        response.setChunkIndex(in.readInt());
+        response.setStatus(in.readUnsignedByte() == STATUS_OK ? "OK" : "ERROR");
+        response.setOffset(in.readLong());
+        response.setChunkLength(in.readLong());
+        response.setChecksum(in.readLong());
+        response.setCodec(codecName(in.readUnsignedByte()));
+        response.setMessage(readShortString(in));
+        response.setBodyLength(bodyLength);
+        return response;
+    }
+
+    private NodeHeartbeat readNodeHeartbeat(DataInputStream in, int bodyLength) throws IOException {
+        NodeHeartbeat heartbeat = new NodeHeartbeat();
+        heartbeat.setNodeId(readShortString(in));
+        heartbeat.setSequence(in.readLong());
+        heartbeat.setTimestampEpochMs(in.readLong());
+        heartbeat.setFreeBytes(in.readLong());
+        heartbeat.setUsedBytes(in.readLong());
+        heartbeat.setActiveConnections(in.readInt());
+        heartbeat.setDiskReadBytesPerSec(in.readLong());
+        heartbeat.setDiskWriteBytesPerSec(in.readLong());
+        heartbeat.setNetInBytesPerSec(in.readLong());
+        heartbeat.setNetOutBytesPerSec(in.readLong());
+        heartbeat.setChunksAdded(in.readInt());
+        heartbeat.setChunksRemoved(in.readInt());
+        heartbeat.setCacheHits(in.readLong());
+        heartbeat.setCacheMisses(in.readLong());
+        heartbeat.setCacheEvictions(in.readLong());
+        heartbeat.setCacheBytes(in.readLong());
+        heartbeat.setBodyLength(bodyLength);
+        return heartbeat;
+    }
+
+    private NodeHeartbeatAck readNodeHeartbeatAck(DataInputStream in) throws IOException {
+        NodeHeartbeatAck ack = new NodeHeartbeatAck();
+        ack.setStatus(in.readUnsignedByte() == STATUS_OK ? "OK" : "ERROR");
+        ack.setSequence(in.readLong());
+        ack.setServerTimeEpochMs(in.readLong());
+        int copyCount = in.readUnsignedShort();
+        if (copyCount > 0) {
+            List<ChunkCopyTask> copies = new ArrayList<>(copyCount);
+            for (int i = 0; i < copyCount; i++) {
+                long taskId = in.readLong();
+                String fileId = readShortString(in);
+                int chunkIndex = in.readInt();
+                copies.add(new ChunkCopyTask(taskId, fileId, chunkIndex,
+                        new NodeAddress(readShortString(in), readShortString(in), in.readInt())));
+            }
+            ack.setCopies(copies);
+        }
+        return ack;
+    }
+
+    private Message readEnvelope(DataInputStream in) throws IOException {
+        String type = readShortString(in);
+        String data = readLongString(in);
+        return new Message(type, data);
+    }
+
+    // Field helpers
+
+    private static boolean isUuid(String value) {
+        if (value == null || value.length() != 36) {
+            return false;
+        }
+        try {
+            // fromString accepts non-canonical forms, so only accept values that round-trip exactly
+            return UUID.fromString(value).toString().equals(value);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static boolean fitsByte(ChunkUploadRequest request) {
+        int pipelineLength = (request.getPipeline() == null) ? 0 : request.getPipeline().size();
+        return request.getWriteQuorum() >= 0 && request.getWriteQuorum() <= 0xFF && pipelineLength <= 0xFF;
+    }
+
+    /** @return the codec's id, 0 for none, or -1 if the name is not a known codec */
+    private static int codecId(String name) {
+        try {
+            return ChunkCodec.fromName(name).getId();
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    /** @return the codec's name, or null for NONE */
+    private static String codecName(int id) throws IOException {
+        try {
+            ChunkCodec codec = ChunkCodec.fromId(id);
+            return (codec == ChunkCodec.NONE) ? null : codec.name();
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    private static boolean hasBinaryStatus(String status) {
+        return "OK".equals(status) || "ERROR".equals(status);
+    }
+
+    private static void writeUuid(DataOutputStream out, String value) throws IOException {
+        UUID uuid = UUID.fromString(value);
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static String readUuid(DataInputStream in) throws IOException {
+        long most = in.readLong();
+        long least = in.readLong();
+        return new UUID(most, least).toString();
+    }
+
+    private static void writeShortString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value == null) ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("String field too long for binary frame: " + bytes.length);
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readShortString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeLongString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readLongString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,104 @@
+package com.leo.dfss.transport;
+
+import com.google.gson.JsonSyntaxException;
+import com.leo.dfss.protocol.CodecSelectAck;
+import com.leo.dfss.protocol.CodecSelectRequest;
+import com.leo.dfss.protocol.Message;
+
+import java.io.IOException;
+
+/**
+ * CODEC_SELECT handshake. A client sends CODEC_SELECT right after reading WELCOME and waits for
+ * CODEC_SELECT_ACK before sending anything else. The ack is written in the old codec, after which
+ * both directions of the connection use the selected codec.
+ */
+public final class CodecNegotiation {
+
+    private CodecNegotiation() {}
+
+    /**
+     * Looks up a codec by name.
+     *
+     * @param name codec name, e.g. "JSON" or "BINARY"
+     * @return the codec, or null if unsupported
+     */
+    public static MessageCodec codecFor(String name) {
+        if (JsonMessageCodec.NAME.equalsIgnoreCase(name)) {
+            return new JsonMessageCodec();
+        }
+        if (BinaryMessageCodec.NAME.equalsIgnoreCase(name)) {
+            return new BinaryMessageCodec();
+        }
+        return null;
+    }
+
+    /**
+     * Client side: asks the server to switch codec. Servers that do not know CODEC_SELECT reply
+     * with ERROR, in which case the connection stays on its current codec.
+     *
+     * @param codecName requested codec
+     * @return true if the connection now uses the requested codec
+     */
+    public static boolean request(TcpMessageReader reader, TcpMessageWriter writer, String codecName) throws IOException {
+        MessageCodec codec = codecFor(codecName);
+        if (codec == null) {
+            throw new IllegalArgumentException("Unsupported codec: " + codecName);
+        }
+        if (codec.name().equals(writer.getCodec().name())) {
+            return true;
+        }
+
+        CodecSelectRequest request = new CodecSelectRequest();
+        request.setCodec(codec.name());
+        writer.send(Message.of("CODEC_SELECT", request), null);
+
+        ReceivedMessage response = reader.read();
+        if (response == null) {
+            throw new IOException("Connection closed during codec negotiation.");
+        }
+
+        Message header = response.getHeader();
+        if (!"CODEC_SELECT_ACK".equals(header.getType())) {
+            return false;
+        }
+
+        CodecSelectAck ack = header.getPayload(CodecSelectAck.class);
+        if (ack == null || !"OK".equals(ack.getStatus())) {
+            return false;
+        }
+
+        reader.setCodec(codec);
+        writer.setCodec(codec);
+        return true;
+    }
+
+    /**
+     * Server side: handles a CODEC_SELECT message.
+     */
+    public static void accept(Message header, TcpMessageReader reader, TcpMessageWriter writer) throws IOException {
+        CodecSelectRequest request;
+        try {
+            request = header.getPayload(CodecSelectRequest.class);
+        } catch (JsonSyntaxException e) {
+            request = null;
+        }
+
+        MessageCodec codec = (request == null) ? null : codecFor(request.getCodec());
+
+        CodecSelectAck ack = new CodecSelectAck();
+        if (codec == null) {
+            ack.setStatus("ERROR");
+            ack.setCodec(writer.getCodec().name());
+            ack.setMessage("Unsupported codec");
+            writer.send(Message.of("CODEC_SELECT_ACK", ack).inReplyTo(header), null);
+            return;
+        }
+
+        ack.setStatus("OK");
+        ack.setCodec(codec.name());
+        writer.send(Message.of("CODEC_SELECT_ACK", ack).inReplyTo(header), null);
+
+        reader.setCodec(codec);
+        writer.setCodec(codec);
+    }
+}
@@ -0,0 +1,30 @@
+package com.leo.dfss.transport;
+
+import java.io.IOException;
+
+/**
+ * Per-connection message dispatch, independent of how the connection is driven
+ * (a blocking thread per connection, or the NIO reactor in NioServer).
+ *
+ * Calls for one connection never overlap, so implementations need no locking of their own.
+ */
+public interface ConnectionHandler {
+
+    /**
+     * Called once when the connection is accepted, before any message is read (e.g. to send WELCOME).
+     */
+    void onOpen(TcpMessageReader reader, TcpMessageWriter writer) throws IOException;
+
+    /**
+     * Handles one framed message.
+     *
+     * @return false if the connection should be closed after any pending responses are written
+     */
+    boolean onMessage(ReceivedMessage message, TcpMessageReader reader, TcpMessageWriter writer) throws IOException;
+
+    /**
+     * Called once after the connection is closed, for either side.
+     */
+    default void onClose() {
+    }
+}
@@ -0,0 +1,51 @@
+package com.leo.dfss.transport;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * How a server drives its accepted connections.
+ *
+ * In VIRTUAL_THREADS mode the blocking TcpMessageReader/TcpMessageWriter code runs unchanged on
+ * virtual threads. Code on the connection path must not block while holding a monitor
+ * (synchronized), because that pins the carrier thread on Java 21; use java.util.concurrent locks
+ * instead. Run with -Djdk.tracePinnedThreads=full to check.
+ */
+public enum ConnectionMode {
+    THREAD_PER_CONNECTION,  // one platform thread per socket, blocking reads/writes
+    VIRTUAL_THREADS,        // one virtual thread per socket, blocking reads/writes
+    NIO;                    // Selector-based reactor threads plus a bounded worker pool (see NioServer)
+
+    /**
+     * Parses a mode from configuration, e.g. -Ddfss.coordinator.mode=nio.
+     *
+     * @param value mode name, case-insensitive; "thread" and "virtual" are accepted as short forms
+     * @return the mode
+     */
+    public static ConnectionMode fromName(String value) {
+        if (value == null || value.isBlank() || value.equalsIgnoreCase("thread")) {
+            return THREAD_PER_CONNECTION;
+        }
+        if (value.equalsIgnoreCase("virtual")) {
+            return VIRTUAL_THREADS;
+        }
+        return ConnectionMode.valueOf(value.trim().toUpperCase());
+    }
+
+    /**
+     * Creates the per-server executor that runs one blocking connection task per socket.
+     *
+     * @param threadNamePrefix prefix for connection thread names
+     * @return a thread-per-task executor of platform or virtual threads
+     * @throws IllegalStateException for NIO, which does not run connections as tasks
+     */
+    public ExecutorService newConnectionExecutor(String threadNamePrefix) {
+        return switch (this) {
+            case THREAD_PER_CONNECTION ->
+                    Executors.newThreadPerTaskExecutor(Thread.ofPlatform().name(threadNamePrefix, 1).factory());
+            case VIRTUAL_THREADS ->
+                    Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(threadNamePrefix, 1).factory());
+            case NIO -> throw new IllegalStateException("NIO mode does not use a connection executor");
+        };
+    }
+}
@@ -0,0 +1,78 @@
+package com.leo.dfss.transport;
+
+import com.google.gson.Gson;
+import com.leo.dfss.protocol.Message;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Original wire format, kept as the default because it is human-readable when debugging:
+ *
+ * [4 bytes]    = header length (int)
+ * [N bytes]    = JSON header (UTF-8) containing metadata about message, where N = header length
+ * [N bytes]    = optional body bytes, where N = body length embedded in JSON header metadata
+ */
+public class JsonMessageCodec implements MessageCodec {
+
+    public static final String NAME = "JSON";
+
+    private static final Gson GSON = new Gson();
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public Message readHeader(DataInputStream in) throws IOException {
+        // 1) Read the 4-byte header length
+        int headerLength = in.readInt(); // throws EOFException if stream is closed.
+
+        if (headerLength <= 0) {
+            throw new IOException("Invalid header length");
+        }
+
+        // 2) Read exactly headerLength bytes of JSON header
+        byte[] headerBytes = new byte[headerLength];
+        in.readFully(headerBytes); // blocks until full header is read
+
+        String headerString = new String(headerBytes, StandardCharsets.UTF_8);
+
+        // Parse the header JSON into Message class for convenience
+        Message header = GSON.fromJson(headerString, Message.class);
+
+        if (header.getBodyLength() < 0) {
+            throw new IOException("Invalid body length");
+        }
+
+        return header;
+    }
+
+    @Override
+    public long headerBytes(ByteBuffer buffered) {
+        if (buffered.remaining() < Integer.BYTES) {
+            return Integer.BYTES;
+        }
+        return Integer.BYTES + (long) buffered.getInt(buffered.position());
+    }
+
+    @Override
+    public void writeHeader(DataOutputStream out, Message header) throws IOException {
+        // Typed payloads travel as the JSON data string in this codec
+        header.setData(header.getData());
+
+        // Serialise header JSON to bytes
+        String headerString = GSON.toJson(header);
+        byte[] headerBytes = headerString.getBytes(StandardCharsets.UTF_8);
+
+        // 1) Write the 4-byte header length
+        out.writeInt(headerBytes.length);
+
+        // 2) Write the header bytes
+        out.write(headerBytes);
+    }
+}
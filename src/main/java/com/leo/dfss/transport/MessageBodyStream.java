@@ -0,0 +1,144 @@
+package com.leo.dfss.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A message body still on the socket: exactly bodyLength bytes of the underlying stream.
+ *
+ * Also a ReadableByteChannel, so it can be passed to FileChannel.transferFrom. Channel reads go
+ * through the reader's shared scratch array, so streaming a body of any size uses a fixed amount
+ * of heap per connection.
+ *
+ * forwardTo() tees every byte read to a second channel as well, e.g. to pass a chunk on to the next
+ * node of a replication chain while it is being written locally.
+ */
+public class MessageBodyStream extends InputStream implements ReadableByteChannel {
+
+    private final InputStream in;
+    private final byte[] scratch;
+    private long remaining;
+    private boolean open = true;
+
+    private WritableByteChannel forward;
+    private IOException forwardFailure;
+
+    MessageBodyStream(InputStream in, long length, byte[] scratch) {
+        this.in = in;
+        this.remaining = length;
+        this.scratch = scratch;
+    }
+
+    /** @return bytes of the body not yet read */
+    public long remaining() {
+        return remaining;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (remaining <= 0) {
+            return -1;
+        }
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException("Connection closed mid-body");
+        }
+        remaining--;
+        forward(new byte[] {(byte) b}, 0, 1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (remaining <= 0) {
+            return -1;
+        }
+
+        int n = in.read(b, off, (int) Math.min(len, remaining));
+        if (n < 0) {
+            throw new EOFException("Connection closed mid-body");
+        }
+        remaining -= n;
+        forward(b, off, n);
+        return n;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (remaining <= 0) {
+            return -1;
+        }
+
+        int n = read(scratch, 0, Math.min(dst.remaining(), scratch.length));
+        if (n > 0) {
+            dst.put(scratch, 0, n);
+        }
+        return n;
+    }
+
+    /**
+     * Copies every byte read from now on to target. A failed write stops forwarding but not
+     * reading, so the local consumer still gets the whole body; see getForwardFailure().
+     *
+     * @param target channel to copy the body to
+     */
+    public void forwardTo(WritableByteChannel target) {
+        this.forward = target;
+    }
+
+    /** @return why forwarding stopped early, or null if every byte read so far was forwarded */
+    public IOException getForwardFailure() {
+        return forwardFailure;
+    }
+
+    private void forward(byte[] bytes, int off, int len) {
+        if (forward == null || forwardFailure != null) {
+            return;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, off, len);
+            while (buffer.hasRemaining()) {
+                forward.write(buffer);
+            }
+        } catch (IOException e) {
+            forwardFailure = e;
+        }
+    }
+
+    /**
+     * Discards the unread part of the body so the next frame can be read.
+     */
+    void skipRemaining() throws IOException {
+        while (remaining > 0) {
+            int n = read(scratch, 0, (int) Math.min(scratch.length, remaining));
+            if (n < 0) {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(in.available(), remaining);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Does not close the socket; the remaining body is skipped by the next read().
+     */
+    @Override
+    public void close() {
+        open = false;
+    }
+}
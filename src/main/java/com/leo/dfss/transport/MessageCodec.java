@@ -0,0 +1,48 @@
+package com.leo.dfss.transport;
+
+import com.leo.dfss.protocol.Message;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes and decodes message headers on a TCP stream. Every header carries the body length;
+ * the body bytes themselves follow the header unchanged and are handled by TcpMessageReader and
+ * TcpMessageWriter, so a body can be streamed without the codec buffering it.
+ *
+ * Every connection starts on the JSON codec. A client may switch both directions to another
+ * codec with a CODEC_SELECT message straight after WELCOME (see CodecNegotiation).
+ */
+public interface MessageCodec {
+
+    /** @return the name used to select this codec in CODEC_SELECT */
+    String name();
+
+    /**
+     * Blocks until a full header is read. The body (header.getBodyLength() bytes) is left unread.
+     *
+     * @return the decoded header
+     * @throws java.io.EOFException if the stream ends
+     */
+    Message readHeader(DataInputStream in) throws IOException;
+
+    /**
+     * Peeks at a partly received header without consuming it, so a non-blocking reader can reject
+     * an oversized length field before anything is allocated, and decode the header only once its
+     * variable-length fields are fully buffered.
+     *
+     * @param buffered bytes received so far, from its position; position and contents are unchanged
+     * @return bytes the header needs as far as the buffered bytes tell (at least the next length
+     *         field), so a result not above buffered.remaining() means the header can be decoded
+     */
+    long headerBytes(ByteBuffer buffered);
+
+    /**
+     * Writes one header. Does not write the body and does not flush.
+     *
+     * @param header message header; its bodyLength is already set
+     */
+    void writeHeader(DataOutputStream out, Message header) throws IOException;
+}
@@ -0,0 +1,377 @@
+package com.leo.dfss.transport;
+
+import com.leo.dfss.protocol.Message;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * State for one non-blocking connection owned by a NioServer reactor.
+ *
+ * The reactor appends socket bytes to an inbound buffer and decodes frame headers with the codec
+ * of the connection's TcpMessageReader (so both codecs work unchanged). A header is decoded once;
+ * its body is then filled in place as bytes arrive, straight from the socket when nothing else is
+ * buffered, so a large frame costs one body array and one pass. Decoded messages are queued and
+ * drained in order by a single worker task at a time. Responses written through TcpMessageWriter
+ * are queued as buffers and written by the reactor when the socket is writable.
+ */
+class NioConnection {
+
+    private static final int INITIAL_BUFFER_BYTES = 4 * 1024;
+    private static final int MAX_FRAME_BYTES = 16 * 1024 * 1024;
+
+    private final int connectionId;
+    private final SocketChannel channel;
+    private final NioServer server;
+    private final NioServer.Reactor reactor;
+    private final ConnectionHandler handler;
+
+    private final TcpMessageReader reader;
+    private final TcpMessageWriter writer;
+
+    // Guarded by this: bytes read from the socket that are not yet decoded (kept in write mode)
+    private ByteBuffer inbound = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+
+    private final DataInputStream inboundData = new DataInputStream(new InboundStream());
+
+    // Guarded by this: the frame whose header is decoded but whose body is still arriving
+    private Message partialHeader;
+    private byte[] partialBody;
+    private int partialBodyFilled;
+
+    // Guarded by this: set after decoding CODEC_SELECT, until the handler has switched codecs
+    private boolean decodePaused = false;
+
+    private final Queue<ReceivedMessage> inbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+    private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+    private volatile boolean closeAfterWrite = false;
+
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private SelectionKey key;
+
+    NioConnection(int connectionId,
+                  SocketChannel channel,
+                  NioServer server,
+                  NioServer.Reactor reactor,
+                  ConnectionHandler handler) {
+
+        this.connectionId = connectionId;
+        this.channel = channel;
+        this.server = server;
+        this.reactor = reactor;
+        this.handler = handler;
+
+        this.reader = new TcpMessageReader(new InboundStream());
+        this.writer = new TcpMessageWriter(new OutboundStream());
+    }
+
+    int getConnectionId() {
+        return connectionId;
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    // Reactor thread
+
+    void opened(SelectionKey key) throws IOException {
+        this.key = key;
+        System.out.println("NioConnection " + connectionId + " started for " + channel.getRemoteAddress());
+        handler.onOpen(reader, writer);
+    }
+
+    void onReadable() throws IOException {
+        boolean decoded;
+
+        synchronized (this) {
+            int n;
+            if (partialBody != null && inbound.position() == 0) {
+                // Mid-body with nothing buffered: read straight into the body
+                n = channel.read(ByteBuffer.wrap(partialBody, partialBodyFilled, partialBody.length - partialBodyFilled));
+                if (n > 0) {
+                    partialBodyFilled += n;
+                }
+            } else {
+                if (!inbound.hasRemaining()) {
+                    growInbound();
+                }
+                n = channel.read(inbound);
+            }
+            if (n < 0) {
+                System.out.println("[" + connectionId + "] Client disconnected.");
+                close();
+                return;
+            }
+
+            decoded = decodeFrames();
+        }
+
+        if (decoded) {
+            scheduleDrain();
+        }
+    }
+
+    void onWritable() throws IOException {
+        ByteBuffer buffer;
+        while ((buffer = outbound.peek()) != null) {
+            channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                return; // socket buffer full, wait for the next OP_WRITE
+            }
+            outbound.poll();
+        }
+
+        key.interestOps(SelectionKey.OP_READ);
+
+        if (closeAfterWrite) {
+            close();
+        }
+    }
+
+    /**
+     * Decodes every complete frame in the inbound buffer into the inbox, and keeps the header and
+     * body read so far of a partial frame.
+     *
+     * @return true if at least one message was queued
+     */
+    private boolean decodeFrames() throws IOException {
+        boolean decoded = false;
+
+        inbound.flip();
+        try {
+            while (!decodePaused && (partialHeader != null || inbound.hasRemaining())) {
+                if (partialHeader == null && !decodeHeader()) {
+                    break;
+                }
+
+                if (partialBody != null) {
+                    int n = Math.min(inbound.remaining(), partialBody.length - partialBodyFilled);
+                    inbound.get(partialBody, partialBodyFilled, n);
+                    partialBodyFilled += n;
+                    if (partialBodyFilled < partialBody.length) {
+                        break;
+                    }
+                }
+
+                ReceivedMessage message = new ReceivedMessage(partialHeader, partialBody);
+                partialHeader = null;
+                partialBody = null;
+                inbox.add(message);
+                decoded = true;
+
+                // Frames after CODEC_SELECT may already use the new codec, so wait for the handler
+                if ("CODEC_SELECT".equals(message.getHeader().getType())) {
+                    decodePaused = true;
+                }
+            }
+        } finally {
+            inbound.compact();
+        }
+
+        return decoded;
+    }
+
+    /**
+     * Decodes the next header in the inbound buffer and allocates its body.
+     *
+     * @return false if the buffer ends mid-header; it is decoded again once more bytes arrive
+     */
+    private boolean decodeHeader() throws IOException {
+        MessageCodec codec = reader.getCodec();
+
+        // Codecs allocate declared field lengths up front, so bound them first and only decode
+        // once they are buffered, instead of allocating again on every partial read
+        long headerBytes = codec.headerBytes(inbound);
+        if (headerBytes > MAX_FRAME_BYTES) {
+            throw new IOException("Frame exceeds " + MAX_FRAME_BYTES + " bytes");
+        }
+        if (headerBytes > inbound.remaining()) {
+            return false;
+        }
+
+        inbound.mark();
+        Message header;
+        try {
+            header = codec.readHeader(inboundData);
+        } catch (EOFException e) {
+            inbound.reset();
+            return false;
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed header: " + e.getMessage(), e);
+        }
+        if (header == null) {
+            throw new IOException("Malformed header: empty");
+        }
+
+        int bodyLength = header.getBodyLength();
+        if (bodyLength > MAX_FRAME_BYTES) {
+            throw new IOException("Frame exceeds " + MAX_FRAME_BYTES + " bytes");
+        }
+        partialHeader = header;
+        partialBody = (bodyLength > 0) ? new byte[bodyLength] : null;
+        partialBodyFilled = 0;
+        return true;
+    }
+
+    private void growInbound() throws IOException {
+        if (inbound.capacity() >= MAX_FRAME_BYTES) {
+            throw new IOException("Frame exceeds " + MAX_FRAME_BYTES + " bytes");
+        }
+
+        ByteBuffer larger = ByteBuffer.allocate(Math.min(inbound.capacity() * 2, MAX_FRAME_BYTES));
+        inbound.flip();
+        larger.put(inbound);
+        inbound = larger;
+    }
+
+    // Worker threads
+
+    private void scheduleDrain() {
+        if (!drainScheduled.compareAndSet(false, true)) {
+            return; // the running drain task will pick the new messages up
+        }
+
+        try {
+            server.submit(this::drain);
+        } catch (RejectedExecutionException e) {
+            System.out.println("[" + connectionId + "] Worker pool saturated, closing connection.");
+            close();
+        }
+    }
+
+    private void drain() {
+        try {
+            ReceivedMessage message;
+            while (!closed.get() && (message = inbox.poll()) != null) {
+                boolean keepOpen = handler.onMessage(message, reader, writer);
+
+                if (!keepOpen) {
+                    closeAfterWrite = true;
+                    reactor.execute(this::enableWrite);
+                    return;
+                }
+
+                if ("CODEC_SELECT".equals(message.getHeader().getType())) {
+                    synchronized (this) {
+                        decodePaused = false;
+                        decodeFrames();
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("[" + connectionId + "] Connection error: " + e.getMessage());
+            close();
+            return;
+        } finally {
+            drainScheduled.set(false);
+        }
+
+        // Messages may have arrived after the last poll but before the flag was cleared
+        if (!inbox.isEmpty()) {
+            scheduleDrain();
+        }
+    }
+
+    // Any thread
+
+    private void enqueueWrite(ByteBuffer buffer) {
+        outbound.add(buffer);
+        reactor.execute(this::enableWrite);
+    }
+
+    private void enableWrite() {
+        if (key != null && key.isValid()) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+
+        inbox.clear();
+        outbound.clear();
+        server.onClosed(this);
+        handler.onClose();
+
+        System.out.println("Connection " + connectionId + " closed.");
+    }
+
+    /**
+     * Reads from the inbound buffer. Only used to decode headers, under the connection lock.
+     */
+    private final class InboundStream extends InputStream {
+
+        @Override
+        public int read() {
+            return inbound.hasRemaining() ? (inbound.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!inbound.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, inbound.remaining());
+            inbound.get(b, off, n);
+            return n;
+        }
+    }
+
+    /**
+     * Collects one frame from TcpMessageWriter and hands it to the reactor on flush().
+     * Writers on one connection never overlap (handlers run one at a time per connection).
+     */
+    private final class OutboundStream extends OutputStream {
+
+        private final ByteArrayOutputStream frame = new ByteArrayOutputStream();
+
+        @Override
+        public void write(int b) {
+            frame.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            frame.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (frame.size() == 0) {
+                return;
+            }
+            if (closed.get()) {
+                throw new IOException("Connection closed");
+            }
+            enqueueWrite(ByteBuffer.wrap(frame.toByteArray()));
+            frame.reset();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.leo.dfss.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.function.IntFunction;
+
+/**
+ * Non-blocking server: a small number of reactor threads own a Selector each and do all socket
+ * reads, frame decoding and writes. Decoded messages are dispatched to a ConnectionHandler on a
+ * bounded worker pool, one message at a time per connection (see NioConnection).
+ *
+ * The accept loop runs in the thread that calls start(), like the blocking servers.
+ */
+public class NioServer {
+
+    private final int port;
+    private final IntFunction<ConnectionHandler> handlerFactory;
+
+    private final Reactor[] reactors;
+    private final ThreadPoolExecutor workers;
+
+    // Live connections: connectionId -> connection. Entries are removed when a connection closes.
+    private final Map<Integer, NioConnection> connections = new ConcurrentHashMap<>();
+
+    private volatile boolean running = true;
+    private volatile ServerSocketChannel serverChannel;
+
+    /**
+     * @param port port to listen on
+     * @param reactorThreads number of selector threads
+     * @param workerThreads number of threads running message handlers
+     * @param workerQueueCapacity max connections waiting for a worker before new work is rejected
+     * @param handlerFactory creates the handler for a new connection id
+     */
+    public NioServer(int port,
+                     int reactorThreads,
+                     int workerThreads,
+                     int workerQueueCapacity,
+                     IntFunction<ConnectionHandler> handlerFactory) throws IOException {
+
+        this.port = port;
+        this.handlerFactory = handlerFactory;
+
+        this.reactors = new Reactor[Math.max(1, reactorThreads)];
+        for (int i = 0; i < reactors.length; i++) {
+            reactors[i] = new Reactor(i);
+        }
+
+        this.workers = new ThreadPoolExecutor(
+                workerThreads, workerThreads,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(workerQueueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "nio-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Blocks accepting connections until shutdown() is called.
+     */
+    public void start() throws IOException {
+        for (Reactor reactor : reactors) {
+            reactor.thread.start();
+        }
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            serverChannel = server;
+            server.bind(new InetSocketAddress(port));
+            System.out.println("NioServer listening on port: " + port + " (" + reactors.length + " reactors, "
+                    + workers.getMaximumPoolSize() + " workers)");
+
+            int nextConnectionId = 1;
+
+            while (running) {
+                SocketChannel channel = server.accept(); // blocking accept
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+
+                int connectionId = nextConnectionId++;
+                Reactor reactor = reactors[connectionId % reactors.length];
+
+                NioConnection connection =
+                        new NioConnection(connectionId, channel, this, reactor, handlerFactory.apply(connectionId));
+
+                connections.put(connectionId, connection);
+                reactor.register(connection);
+            }
+        } catch (ClosedChannelException e) {
+            if (running) {
+                throw e;
+            }
+        } finally {
+            shutdown();
+        }
+    }
+
+    public void shutdown() {
+        running = false;
+
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException ignored) {
+        }
+
+        for (NioConnection connection : connections.values()) {
+            connection.close();
+        }
+        connections.clear();
+
+        for (Reactor reactor : reactors) {
+            reactor.stop();
+        }
+        workers.shutdownNow();
+    }
+
+    /** @return number of currently open connections */
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    // Called by NioConnection
+
+    void submit(Runnable task) throws RejectedExecutionException {
+        workers.execute(task);
+    }
+
+    void onClosed(NioConnection connection) {
+        connections.remove(connection.getConnectionId());
+    }
+
+    /**
+     * A selector thread. Other threads never touch the selector directly; they queue a task
+     * and wake it up.
+     */
+    final class Reactor implements Runnable {
+
+        private final Selector selector;
+        private final Thread thread;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        private volatile boolean active = true;
+
+        Reactor(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "nio-reactor-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        void register(NioConnection connection) {
+            execute(() -> {
+                try {
+                    SelectionKey key = connection.getChannel().register(selector, SelectionKey.OP_READ, connection);
+                    connection.opened(key);
+                } catch (IOException | RuntimeException e) {
+                    System.out.println("[" + connection.getConnectionId() + "] Failed to register: " + e.getMessage());
+                    connection.close();
+                }
+            });
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void stop() {
+            active = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (active) {
+                    selector.select();
+
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+
+                        NioConnection connection = (NioConnection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                connection.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.onWritable();
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            // Only the offending connection is closed; the reactor keeps serving the rest
+                            System.out.println("[" + connection.getConnectionId() + "] Connection error: " + e.getMessage());
+                            connection.close();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -2,25 +2,71 @@ package com.leo.dfss.transport;
 
 import com.leo.dfss.protocol.Message;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
 /**
  * Represents a single framed message read from a TCP stream:
- * a JSON header (parsed into a Message object) and an optional body.
+ * a header (decoded into a Message object by the codec) and an optional body.
+ *
+ * The body is either already in memory, or, when the reader streams bodies, still on the socket
+ * behind a MessageBodyStream. A streamed body must be consumed before the next read() on the
+ * same reader; whatever is left unread is skipped.
  */
 public class ReceivedMessage {
 
     private final Message header;
-    private final byte[] body; // may be null or empty if no body
+    private byte[] body; // may be null or empty if no body
+    private final MessageBodyStream bodyStream; // null unless the body is streamed
 
     public ReceivedMessage(Message header, byte[] body) {
         this.header = header;
         this.body = body;
+        this.bodyStream = null;
+    }
+
+    public ReceivedMessage(Message header, MessageBodyStream bodyStream) {
+        this.header = header;
+        this.body = null;
+        this.bodyStream = bodyStream;
     }
 
     public Message getHeader() {
         return header;
     }
 
+    /**
+     * Returns the body as an array, reading a streamed body fully into memory on first use.
+     * Prefer getBodyStream() for large bodies.
+     *
+     * @return body bytes, or null if there is no body
+     */
     public byte[] getBody() {
+        if (body == null && bodyStream != null) {
+            try {
+                body = bodyStream.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
         return body;
     }
-}
\ No newline at end of file
+
+    /**
+     * @return the body as a stream (also a ReadableByteChannel when streamed from the socket),
+     *         or an empty stream if there is no body
+     */
+    public InputStream getBodyStream() {
+        if (bodyStream != null && body == null) {
+            return bodyStream;
+        }
+        return new ByteArrayInputStream(body == null ? new byte[0] : body);
+    }
+
+    /** @return the number of body bytes announced in the header */
+    public int getBodyLength() {
+        return header.getBodyLength();
+    }
+}
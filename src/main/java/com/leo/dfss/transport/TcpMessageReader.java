@@ -1,30 +1,43 @@
 package com.leo.dfss.transport;
 
-import com.google.gson.Gson;
 import com.leo.dfss.protocol.Message;
 
 import java.io.*;
-import java.nio.charset.StandardCharsets;
 
 /**
- * Reads framed messages to a TCP stream using following format:
- *
- * [4 bytes]    = header length (int)
- * [N bytes]    = JSON header (UTF-8) containing metadata about message, where N = header length
- * [N bytes]    = optional body bytes, where N = body length embedded in JSON header metadata
+ * Reads framed messages from a TCP stream using the connection's current MessageCodec
+ * (JSON until CODEC_SELECT switches it, see JsonMessageCodec for the default frame format).
  *
  * Returns a ReceivedMessage object containing:
  * - header as a Message object
- * - body as an optional byte[] (can be empty)
+ * - body as an optional byte[] (can be empty), or, with streamBodies enabled,
+ *   a MessageBodyStream over the socket that the caller consumes before the next read()
  */
 public class TcpMessageReader {
 
-    private static final Gson GSON = new Gson();
+    private static final int SCRATCH_BYTES = 64 * 1024;
 
     private final DataInputStream in;
+    private final boolean streamBodies;
+
+    private volatile MessageCodec codec = new JsonMessageCodec();
+
+    // Streaming state, only used by the thread calling read()
+    private byte[] scratch;
+    private MessageBodyStream currentBody;
 
     public TcpMessageReader(InputStream inputStream) {
+        this(inputStream, false);
+    }
+
+    /**
+     * @param inputStream socket input
+     * @param streamBodies if true, bodies are left on the socket and exposed as a stream
+     *                     instead of being read into a byte[]
+     */
+    public TcpMessageReader(InputStream inputStream, boolean streamBodies) {
         this.in = new DataInputStream(inputStream);
+        this.streamBodies = streamBodies;
     }
 
     /**
@@ -34,34 +47,41 @@ public class TcpMessageReader {
      */
     public ReceivedMessage read() throws IOException {
         try {
-            // 1) Read the 4-byte header length
-            int headerLength = in.readInt(); // throws EOFException if stream is closed.
-
-            if (headerLength <= 0) {
-                throw new IOException("Invalid header length");
+            // Skip whatever the caller left of the previous streamed body
+            if (currentBody != null) {
+                currentBody.skipRemaining();
+                currentBody = null;
             }
 
-            // 2) Read exactly headerLength bytes of JSON header
-            byte[] headerBytes = new byte[headerLength];
-            in.readFully(headerBytes); // blocks until full header is read
-
-            String headerString =  new String(headerBytes, StandardCharsets.UTF_8);
-
-            // Parse the header JSON into Message class for convenience
-            Message header = GSON.fromJson(headerString, Message.class);
+            Message header = codec.readHeader(in);
             int bodyLength = header.getBodyLength();
 
-            // 3) If body exists, read that many bytes
-            byte[] body = null;
-            if (bodyLength > 0) {
-                body = new byte[bodyLength];
-                in.readFully(body);
+            if (bodyLength <= 0) {
+                return new ReceivedMessage(header, (byte[]) null);
+            }
+
+            if (streamBodies) {
+                if (scratch == null) {
+                    scratch = new byte[SCRATCH_BYTES];
+                }
+                currentBody = new MessageBodyStream(in, bodyLength, scratch);
+                return new ReceivedMessage(header, currentBody);
             }
 
+            byte[] body = new byte[bodyLength];
+            in.readFully(body);
             return new ReceivedMessage(header, body);
 
         } catch (EOFException e) {
             return null;
         }
     }
+
+    public MessageCodec getCodec() {
+        return codec;
+    }
+
+    public void setCodec(MessageCodec codec) {
+        this.codec = codec;
+    }
 }
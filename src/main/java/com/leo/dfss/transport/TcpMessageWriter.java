@@ -1,51 +1,198 @@
 package com.leo.dfss.transport;
 
-import com.google.gson.Gson;
 import com.leo.dfss.protocol.Message;
 
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Writes framed messages to a TCP stream using following format:
+ * Writes framed messages to a TCP stream using the connection's current MessageCodec
+ * (JSON until CODEC_SELECT switches it, see JsonMessageCodec for the default frame format).
  *
- * [4 bytes]    = header length (int)
- * [N bytes]    = JSON header (UTF-8) containing metadata about message, where N = header length
- * [N bytes]    = optional body bytes, where N = body length embedded in JSON header metadata
+ * Thread-safe: each message (header and body) is written as a unit, so several threads can reply
+ * on one connection, e.g. out-of-order acks for pipelined uploads. Uses a ReentrantLock rather
+ * than synchronized so virtual threads blocked in a socket write do not pin their carrier.
  */
 public class TcpMessageWriter {
 
-    private static final Gson GSON = new Gson();
-
     private final DataOutputStream out;
+    private final WritableByteChannel channel; // target for zero-copy file bodies
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private volatile MessageCodec codec = new JsonMessageCodec();
 
     public TcpMessageWriter(OutputStream outputStream) {
+        this(outputStream, null);
+    }
+
+    /**
+     * @param outputStream socket output
+     * @param socketChannel the socket's channel (socket.getChannel()), or null. When present, file
+     *                      bodies are sent with FileChannel.transferTo straight to the socket
+     *                      (sendfile) instead of being copied through the heap.
+     */
+    public TcpMessageWriter(OutputStream outputStream, WritableByteChannel socketChannel) {
         this.out = new DataOutputStream(outputStream);
+        this.channel = (socketChannel != null) ? socketChannel : Channels.newChannel(outputStream);
     }
 
     public void send(Message header, byte[] body) throws IOException {
         int bodyLength = (body != null) ? body.length : 0;
         header.setBodyLength(bodyLength);
 
-        // Serialise header JSON to bytes
-        String headerString = GSON.toJson(header);
-        byte[] headerBytes = headerString.getBytes(StandardCharsets.UTF_8);
-        int headerLength = headerBytes.length;
+        lock.lock();
+        try {
+            codec.writeHeader(out, header);
+
+            if (bodyLength > 0) {
+                out.write(body);
+            }
+
+            // Ensure all bytes are sent
+            out.flush();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends a message whose body is a region of a file, without reading it into memory.
+     *
+     * @param header message header
+     * @param source file to send from
+     * @param position first byte of the body within the file
+     * @param length number of body bytes
+     */
+    public void send(Message header, FileChannel source, long position, int length) throws IOException {
+        header.setBodyLength(length);
+
+        lock.lock();
+        try {
+            codec.writeHeader(out, header);
+            out.flush();
+
+            long sent = 0;
+            while (sent < length) {
+                long n = source.transferTo(position + sent, length - sent, channel);
+                if (n <= 0) {
+                    throw new IOException("File ended after " + sent + " of " + length + " body bytes");
+                }
+                sent += n;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends a message whose body is already in a buffer, e.g. a memory-mapped chunk. A direct or
+     * mapped buffer is written to the socket as is, without a copy onto the heap.
+     *
+     * @param header message header
+     * @param body body bytes, from its position to its limit; consumed by the write
+     */
+    public void sendBuffer(Message header, ByteBuffer body) throws IOException {
+        int length = body.remaining();
+        header.setBodyLength(length);
+
+        lock.lock();
+        try {
+            codec.writeHeader(out, header);
+            out.flush();
+
+            while (body.hasRemaining()) {
+                channel.write(body);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts a message whose body the caller writes in pieces, e.g. while it is still arriving from
+     * another socket. The writer stays locked to the calling thread until the returned body channel
+     * is closed. close() throws if fewer than length bytes were written; the frame is then
+     * incomplete and the connection has to be dropped.
+     *
+     * @param header message header
+     * @param length number of body bytes that will be written
+     * @return the body channel; the caller must close it
+     */
+    public WritableByteChannel startMessage(Message header, int length) throws IOException {
+        header.setBodyLength(length);
 
-        // 1) Write the 4-byte header length
-        out.writeInt(headerLength);
+        lock.lock();
+        try {
+            codec.writeHeader(out, header);
+            out.flush();
+        } catch (IOException | RuntimeException e) {
+            lock.unlock();
+            throw e;
+        }
+        return new StreamingBody(length);
+    }
+
+    public MessageCodec getCodec() {
+        return codec;
+    }
+
+    public void setCodec(MessageCodec codec) {
+        this.codec = codec;
+    }
 
-        // 2) Write the header bytes
-        out.write(headerBytes);
+    /**
+     * Body of a message started with startMessage(); holds the writer's lock until closed.
+     */
+    private final class StreamingBody implements WritableByteChannel {
 
-        // 3) Write the optional body bytes
-        if (bodyLength > 0) {
-            out.write(body);
+        private long remaining;
+        private boolean open = true;
+
+        StreamingBody(long length) {
+            this.remaining = length;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (!open) {
+                throw new ClosedChannelException();
+            }
+            if (src.remaining() > remaining) {
+                throw new IOException("Body longer than the declared " + remaining + " remaining bytes");
+            }
+
+            int written = 0;
+            while (src.hasRemaining()) {
+                written += channel.write(src);
+            }
+            remaining -= written;
+            return written;
         }
 
-        // Ensure all bytes are sent
-        out.flush();
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!open) {
+                return;
+            }
+            open = false;
+            lock.unlock();
+
+            if (remaining > 0) {
+                throw new IOException("Message body ended " + remaining + " bytes short");
+            }
+        }
     }
 }